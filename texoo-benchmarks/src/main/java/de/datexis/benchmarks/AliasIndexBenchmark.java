@@ -0,0 +1,111 @@
+package de.datexis.benchmarks;
+
+import de.datexis.index.ArticleRef;
+import de.datexis.index.WikiDataArticle;
+import de.datexis.index.impl.LuceneArticleIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name lookup with LuceneArticleIndex.queryNames() using phrase queries on the "name" field, compared to the fuzzy
+ * AliasIndex. Mentions are names of a synthetic knowledge base, either exact, with one or two typos, or only the last
+ * word. Throughput is mentions/sec, the query cache is disabled. Candidate recall (gold article within hits) per kind
+ * of mention is printed after setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AliasIndexBenchmark {
+
+  /** number of articles in the index */
+  @Param({"10000", "100000"})
+  public int size;
+
+  @Param({"10"})
+  public int hits;
+
+  @Param({"phrase", "alias"})
+  public String mode;
+
+  protected static final String[] KINDS = {"exact", "typo", "partial"};
+
+  protected LuceneArticleIndex index;
+  protected String[] queries;
+  protected String[] gold;
+  protected int next = 0;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 20000);
+    Random random = data.getRandom();
+    List<WikiDataArticle> articles = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      String title = capitalize(data.word()) + " " + capitalize(data.word());
+      Set<String> names = new TreeSet<>();
+      names.add(title);
+      if(random.nextBoolean()) names.add(capitalize(data.word()) + " " + capitalize(data.word()));
+      Map<String, String> refIDs = new TreeMap<>();
+      refIDs.put("wikidata", "Q" + i);
+      refIDs.put("wikipedia", title.replace(' ', '_'));
+      articles.add(new WikiDataArticle("Q" + i, title, "entity", refIDs, new TreeMap<>(), data.sentence(8), names, new TreeSet<>()));
+    }
+    index = new LuceneArticleIndex();
+    index.setQueryCache(0, 0, TimeUnit.SECONDS);
+    index.createIndexRAM(articles.iterator());
+    index.setAliasIndex(mode.equals("alias"));
+    queries = new String[3000];
+    gold = new String[queries.length];
+    for(int i = 0; i < queries.length; i++) {
+      WikiDataArticle article = articles.get(random.nextInt(size));
+      String title = article.getTitle();
+      gold[i] = article.getId();
+      switch(i % 3) {
+        case 0: queries[i] = title; break;
+        case 1: queries[i] = typo(typo(title, random), random); break;
+        default: queries[i] = title.substring(title.indexOf(' ') + 1);
+      }
+    }
+    int[] found = new int[KINDS.length];
+    for(int i = 0; i < queries.length; i++) {
+      for(ArticleRef ref : index.queryNames(queries[i], hits)) {
+        if(ref.getId().equals(gold[i])) {
+          found[i % 3]++;
+          break;
+        }
+      }
+    }
+    for(int k = 0; k < KINDS.length; k++) {
+      System.out.println(String.format(Locale.ROOT, "recall@%d %s: %.3f", hits, KINDS[k], 3. * found[k] / queries.length));
+    }
+  }
+
+  private static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+
+  /**
+   * @return the name with one random character replaced, inserted, deleted or swapped, but not the first one
+   */
+  private static String typo(String name, Random random) {
+    int i = 1 + random.nextInt(name.length() - 2);
+    char c = (char) ('a' + random.nextInt(26));
+    switch(random.nextInt(4)) {
+      case 0: return name.substring(0, i) + c + name.substring(i + 1);
+      case 1: return name.substring(0, i) + c + name.substring(i);
+      case 2: return name.substring(0, i) + name.substring(i + 1);
+      default: return name.substring(0, i) + name.charAt(i + 1) + name.charAt(i) + name.substring(i + 2);
+    }
+  }
+
+  @Benchmark
+  public List<ArticleRef> queryNames() {
+    next = (next + 1) % queries.length;
+    return index.queryNames(queries[next], hits);
+  }
+
+}
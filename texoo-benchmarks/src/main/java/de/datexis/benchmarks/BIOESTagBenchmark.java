@@ -0,0 +1,67 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import de.datexis.model.tag.BIOESTag;
+import de.datexis.preprocess.DocumentFactory;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for BIOESTag.correctCRF() on sentences with random (mostly invalid) tag predictions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BIOESTagBenchmark {
+
+  /** number of Tokens in the sentence */
+  @Param({"16", "64"})
+  public int length;
+
+  protected Sentence sentence;
+  protected INDArray[] predictions;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    Random random = new Random(42);
+    Document doc = DocumentFactory.fromText(data.sentence(length), DocumentFactory.Newlines.KEEP, WordHelpers.Language.EN);
+    sentence = doc.getSentence(0);
+    predictions = new INDArray[sentence.countTokens()];
+    for(int i = 0; i < predictions.length; i++) {
+      double[] p = new double[5];
+      double sum = 0;
+      for(int l = 0; l < 5; l++) sum += (p[l] = random.nextDouble());
+      for(int l = 0; l < 5; l++) p[l] /= sum;
+      predictions[i] = Nd4j.create(p);
+    }
+  }
+
+  /** restore the uncorrected predictions, because correctCRF() overwrites the tags */
+  @Setup(Level.Invocation)
+  public void resetTags() {
+    List<Token> tokens = sentence.getTokens();
+    for(int i = 0; i < tokens.size(); i++) {
+      tokens.get(i).putTag(Annotation.Source.PRED, new BIOESTag(predictions[i], true));
+    }
+  }
+
+  @Benchmark
+  public Sentence correctCRF() {
+    BIOESTag.correctCRF(sentence, Annotation.Source.PRED);
+    return sentence;
+  }
+
+}
@@ -0,0 +1,94 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.encoder.impl.BloomEncoder;
+import de.datexis.model.Document;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of BloomEncoder with per-word bit arrays compared to batch hashing into primitive bitsets.
+ * Collision rate and expected false positive probability of the trained filter are printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BloomBenchmark {
+
+  /** number of bits in the filter */
+  @Param({"4096"})
+  public int bitSize;
+
+  /** number of phrases per batch */
+  @Param({"256"})
+  public int batchSize;
+
+  protected BloomEncoder encoder;
+  protected List<String> phrases;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    encoder = new BloomEncoder(bitSize, 5);
+    encoder.trainModel(train, 1, WordHelpers.Language.EN);
+    phrases = new ArrayList<>(batchSize);
+    for(int i = 0; i < batchSize; i++) phrases.add(data.sentence(3 + i % 4));
+    System.out.println("vocab size: " + encoder.getWords().size() + ", collision rate: " + encoder.getCollisionRate());
+  }
+
+  /**
+   * Former encoding with a dense double[] per word and an INDArray sum per word.
+   */
+  @Benchmark
+  public INDArray encodeBitArrays() {
+    INDArray result = Nd4j.zeros(DataType.FLOAT, batchSize, encoder.getEmbeddingVectorSize());
+    for(int r = 0; r < batchSize; r++) {
+      INDArray vector = Nd4j.zeros(DataType.FLOAT, encoder.getEmbeddingVectorSize(), 1);
+      for(String s : WordHelpers.splitSpaces(phrases.get(r))) {
+        double[] bits = encoder.getBloomFilter().getBitArray(encoder.getPreprocessor().preProcess(s));
+        vector.addi(Nd4j.create(bits, new long[]{encoder.getEmbeddingVectorSize(), 1}).castTo(DataType.FLOAT));
+      }
+      result.getRow(r).assign(vector);
+    }
+    return result;
+  }
+
+  /**
+   * One column vector per phrase from primitive bitsets.
+   */
+  @Benchmark
+  public INDArray encodeEach() {
+    INDArray result = Nd4j.zeros(DataType.FLOAT, batchSize, encoder.getEmbeddingVectorSize());
+    for(int r = 0; r < batchSize; r++) result.getRow(r).assign(encoder.encode(phrases.get(r)));
+    return result;
+  }
+
+  /**
+   * All phrases hashed into bitsets and copied into the batch matrix at once.
+   */
+  @Benchmark
+  public INDArray encodeBatch() {
+    return encoder.encodeBatch(phrases);
+  }
+
+  /**
+   * Sparse indexes of all set bits without a dense matrix.
+   */
+  @Benchmark
+  public int encodeIndexes() {
+    int sum = 0;
+    for(String p : phrases) sum += encoder.encodeIndexes(p).length;
+    return sum;
+  }
+
+}
@@ -0,0 +1,145 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.index.ArticleRef;
+import de.datexis.index.utils.CandidateScorer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reranking of the candidates of one surface form in all of its contexts. Compares the former cosine similarity with
+ * hstack per candidate, scoring all candidates with one matrix multiplication (scoreCandidates) and the CandidateScorer
+ * that keeps the top candidates with normalized vectors from its cache. Candidates repeat between mentions, so the
+ * cache is warm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CandidateScorerBenchmark {
+
+  /** number of candidates from Lucene */
+  @Param({"512"})
+  public int candidates;
+
+  /** number of contexts of the surface form */
+  @Param({"1", "16"})
+  public int contexts;
+
+  /** size of the entity vectors */
+  @Param({"100"})
+  public int dimension;
+
+  /** number of best candidates to keep */
+  @Param({"1"})
+  public int hits;
+
+  protected List<ArticleRef> refs;
+  protected List<INDArray> embeddings;
+  protected CandidateScorer scorer;
+
+  @Setup
+  public void setup() {
+    Nd4j.getRandom().setSeed(42);
+    refs = new ArrayList<>(candidates);
+    for(int c = 0; c < candidates; c++) {
+      ArticleRef ref = new ArticleRef();
+      ref.setId("Q" + c);
+      ref.setVector(Nd4j.randn(DataType.FLOAT, 1, dimension));
+      refs.add(ref);
+    }
+    embeddings = new ArrayList<>(contexts);
+    for(int e = 0; e < contexts; e++) embeddings.add(Nd4j.randn(DataType.FLOAT, 1, 2 * dimension));
+    scorer = new CandidateScorer();
+  }
+
+  @Benchmark
+  public double hstack() {
+    double sum = 0;
+    for(INDArray embedding : embeddings) {
+      for(ArticleRef ref : refs) {
+        INDArray candidate = Nd4j.hstack(ref.getVector(), ref.getVector());
+        sum += WordHelpers.cosineSim(candidate, embedding);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double[][] matrix() {
+    return scoreCandidates(refs, embeddings);
+  }
+
+  @Benchmark
+  public List<CandidateScorer.Ranking> topK() {
+    return scorer.topK(refs, embeddings, hits);
+  }
+
+  /**
+   * Score all candidates against all mention embeddings with cosine similarity in one matrix multiplication. Entity
+   * vectors are repeated to the size of the mention embeddings, because we skipped context in EntityEncoder.
+   * Candidates without vectors and empty vectors score 0.
+   * @return scores [ embeddings X candidates ]
+   */
+  public static double[][] scoreCandidates(List<ArticleRef> candidates, List<INDArray> embeddings) {
+    double[][] scores = new double[embeddings.size()][candidates.size()];
+    if(candidates.isEmpty() || embeddings.isEmpty()) return scores;
+    int dim = (int) embeddings.get(0).length();
+    // mention embeddings [ dim X embeddings ] in column order
+    float[] mentions = new float[dim * embeddings.size()];
+    double[] mentionNorms = new double[embeddings.size()];
+    for(int e = 0; e < embeddings.size(); e++) {
+      float[] vec = toFloatVector(embeddings.get(e));
+      if(vec.length != dim) throw new IllegalArgumentException("mention embeddings have different sizes");
+      if(max(vec) != 0) mentionNorms[e] = norm(vec);
+      System.arraycopy(vec, 0, mentions, e * dim, dim);
+    }
+    // repeated entity vectors [ candidates X dim ] in column order
+    float[] entities = new float[candidates.size() * dim];
+    double[] entityNorms = new double[candidates.size()];
+    for(int c = 0; c < candidates.size(); c++) {
+      INDArray vector = candidates.get(c).getVector();
+      if(vector == null) continue;
+      float[] vec = toFloatVector(vector);
+      if(vec.length == 0 || dim % vec.length != 0) throw new IllegalArgumentException("entity vector does not match mention embedding size");
+      if(max(vec) == 0) continue;
+      entityNorms[c] = norm(vec) * Math.sqrt(dim / vec.length);
+      for(int i = 0; i < dim; i++) entities[i * candidates.size() + c] = vec[i % vec.length];
+    }
+    double[][] dot = Nd4j.create(entities, new long[]{candidates.size(), dim}, 'f')
+      .mmul(Nd4j.create(mentions, new long[]{dim, embeddings.size()}, 'f'))
+      .toDoubleMatrix();
+    for(int c = 0; c < candidates.size(); c++) {
+      for(int e = 0; e < embeddings.size(); e++) {
+        double score = entityNorms[c] > 0 && mentionNorms[e] > 0 ? dot[c][e] / (entityNorms[c] * mentionNorms[e]) : 0.;
+        scores[e][c] = Double.isFinite(score) ? score : 0.;
+      }
+    }
+    return scores;
+  }
+
+  private static float[] toFloatVector(INDArray vec) {
+    return vec.castTo(DataType.FLOAT).reshape(vec.length()).toFloatVector();
+  }
+
+  private static double max(float[] vec) {
+    double max = Double.NEGATIVE_INFINITY;
+    for(float f : vec) if(f > max) max = f;
+    return max;
+  }
+
+  private static double norm(float[] vec) {
+    double sum = 0;
+    for(float f : vec) sum += f * f;
+    return Math.sqrt(sum);
+  }
+
+}
@@ -0,0 +1,74 @@
+package de.datexis.benchmarks;
+
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.eval.ClassificationEvaluation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of a synthetic batch of single-label class predictions with ClassificationEvaluation, comparing the
+ * former evalExample() per row, which sorts every prediction, to the batch evaluation that counts ranks on primitive
+ * arrays, sequentially and in parallel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassificationEvaluationBenchmark {
+
+  /** number of examples in the batch */
+  @Param({"10000"})
+  public int examples;
+
+  /** number of classes */
+  @Param({"30", "1000"})
+  public int classes;
+
+  protected ClassEncoder encoder;
+  protected INDArray labels;
+  protected INDArray predictions;
+
+  @Setup
+  public void setup() {
+    List<String> names = new ArrayList<>(classes);
+    for(int c = 0; c < classes; c++) names.add("class" + c);
+    encoder = new ClassEncoder();
+    encoder.trainModel(names, 1);
+    Random random = new Random(42);
+    double[][] y = new double[examples][classes];
+    for(int i = 0; i < examples; i++) y[i][random.nextInt(classes)] = 1.;
+    labels = Nd4j.create(y);
+    Nd4j.getRandom().setSeed(42);
+    predictions = Nd4j.rand(labels.dataType(), examples, classes);
+  }
+
+  @Benchmark
+  public double example() {
+    ClassificationEvaluation eval = new ClassificationEvaluation("example", encoder);
+    for(int i = 0; i < examples; i++) eval.evalExample(labels.getRow(i, true), predictions.getRow(i, true));
+    return eval.getMAP();
+  }
+
+  @Benchmark
+  public double batch() {
+    ClassificationEvaluation eval = new ClassificationEvaluation("batch", encoder).withParallelEnabled(false);
+    eval.evalBatch(labels, predictions);
+    return eval.getMAP();
+  }
+
+  @Benchmark
+  public double batchParallel() {
+    ClassificationEvaluation eval = new ClassificationEvaluation("parallel", encoder).withParallelEnabled(true);
+    eval.evalBatch(labels, predictions);
+    return eval.getMAP();
+  }
+
+}
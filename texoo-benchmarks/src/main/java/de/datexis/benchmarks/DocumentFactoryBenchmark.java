@@ -0,0 +1,45 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for tokenization and sentence splitting of raw text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentFactoryBenchmark {
+
+  /** number of sentences in the text */
+  @Param({"10", "100"})
+  public int sentences;
+
+  protected DocumentFactory factory;
+  protected String text;
+
+  @Setup
+  public void setup() {
+    factory = DocumentFactory.getInstance();
+    text = new SyntheticData(42, 5000).text(sentences);
+  }
+
+  /** includes language detection */
+  @Benchmark
+  public Document createFromText() {
+    return factory.createFromText(text);
+  }
+
+  @Benchmark
+  public Document createFromTextWithLanguage() {
+    return factory.createFromText(text, DocumentFactory.Newlines.KEEP, WordHelpers.Language.EN);
+  }
+
+}
@@ -0,0 +1,93 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.BinaryDocumentSerializer;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.common.Resource;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.impl.PassageAnnotation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a corpus of synthetic Documents from JSON with ObjectSerializer.readJSONDocumentIterable(), compared to
+ * the binary format of BinaryDocumentSerializer, block by block and with parallel block decoding. Documents carry
+ * the given number of PassageAnnotations per sentence. Throughput is Documents/sec, the file sizes are logged after
+ * setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentSerializationBenchmark {
+
+  protected final static Logger log = LoggerFactory.getLogger(DocumentSerializationBenchmark.class);
+
+  protected final static int DOCUMENTS = 1000;
+
+  /** number of sentences per Document */
+  @Param({"20"})
+  public int sentences;
+
+  /** number of Annotations per Sentence */
+  @Param({"0", "2"})
+  public int annotations;
+
+  protected Resource json;
+  protected Resource binary;
+
+  @Setup
+  public void setup() throws IOException {
+    List<Document> docs = new SyntheticData(42, 20000).documents(DOCUMENTS, sentences);
+    for(Document doc : docs) {
+      int n = 0;
+      for(Sentence s : doc.getSentences()) {
+        for(int i = 0; i < annotations; i++) {
+          PassageAnnotation ann = new PassageAnnotation(Annotation.Source.GOLD);
+          ann.setBegin(s.getBegin());
+          ann.setLength(s.getLength());
+          ann.setId(doc.getId() + "-" + n++);
+          ann.setLabel(i % 2 == 0 ? "sentence" : "passage");
+          ann.setConfidence(1.);
+          doc.addAnnotation(ann);
+        }
+      }
+    }
+    json = Resource.createTempFile("documents.json");
+    ObjectSerializer.writeJSON(docs, json);
+    binary = Resource.createTempFile("documents.bin");
+    BinaryDocumentSerializer.writeDocuments(docs, binary);
+    log.info("JSON: {} bytes, binary: {} bytes", json.toFile().length(), binary.toFile().length());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENTS)
+  public void readJSON(Blackhole bh) throws IOException {
+    Iterator<Document> it = ObjectSerializer.readJSONDocumentIterable(json);
+    while(it.hasNext()) bh.consume(it.next());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENTS)
+  public void readBinary(Blackhole bh) throws IOException {
+    Iterator<Document> it = BinaryDocumentSerializer.readDocumentIterable(binary);
+    while(it.hasNext()) bh.consume(it.next());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENTS)
+  public long readBinaryParallel() throws IOException {
+    return BinaryDocumentSerializer.streamDocumentsParallel(binary).count();
+  }
+
+}
@@ -0,0 +1,87 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.impl.*;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for Encoder.encodeMatrix() on a batch of Documents with Token time steps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncoderBenchmark {
+
+  @Param({"BagOfWords", "Trigram", "LetterNGram", "Bloom", "OneHot", "Surface", "Position", "Structure", "CharClass"})
+  public String encoderType;
+
+  /** number of Documents per batch */
+  @Param({"16"})
+  public int batchSize;
+
+  /** number of time steps (Tokens) per Document */
+  @Param({"128"})
+  public int maxTimeSteps;
+
+  protected Encoder encoder;
+  protected List<Document> batch;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    batch = data.documents(batchSize, 10);
+    encoder = createEncoder(encoderType, train);
+  }
+
+  protected static Encoder createEncoder(String type, List<Document> train) {
+    switch(type) {
+      case "BagOfWords": {
+        BagOfWordsEncoder enc = new BagOfWordsEncoder();
+        enc.trainModel(train, 1, WordHelpers.Language.EN);
+        return enc;
+      }
+      case "Trigram": {
+        TrigramEncoder enc = new TrigramEncoder();
+        enc.trainModel(train);
+        return enc;
+      }
+      case "LetterNGram": {
+        LetterNGramEncoder enc = new LetterNGramEncoder(4);
+        enc.trainModel(train);
+        return enc;
+      }
+      case "Bloom": {
+        BloomEncoder enc = new BloomEncoder(4096, 5);
+        enc.trainModel(train, 1, WordHelpers.Language.EN);
+        return enc;
+      }
+      case "OneHot": {
+        OneHotEncoder enc = new OneHotEncoder();
+        enc.trainModel(train);
+        return enc;
+      }
+      case "Surface": return new SurfaceEncoder();
+      case "Position": return new PositionEncoder();
+      case "Structure": return new StructureEncoder();
+      case "CharClass": return new CharClassEncoder();
+      default: throw new IllegalArgumentException("unknown encoder " + type);
+    }
+  }
+
+  @Benchmark
+  public INDArray encodeMatrix() {
+    return encoder.encodeMatrix(batch, maxTimeSteps, Token.class);
+  }
+
+}
@@ -0,0 +1,120 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.EncoderSet;
+import de.datexis.encoder.EncodingHelpers;
+import de.datexis.encoder.impl.*;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for concatenated NER input vectors, comparing the copy-based concatenation with the fused
+ * EncoderSet path in which every Encoder writes directly into its column slice of the batch matrix.
+ * Run with "-prof gc" to measure the allocation rate, e.g. bin/texoo-benchmark "EncoderSet -prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncoderSetBenchmark {
+
+  /** Encoder stack: "tri" = Surface+CharClass+Trigram, "bag" = Surface+OneHot+BagOfWords */
+  @Param({"tri", "bag"})
+  public String stack;
+
+  /** number of Documents per batch */
+  @Param({"16"})
+  public int batchSize;
+
+  /** number of time steps (Tokens) per Document */
+  @Param({"128"})
+  public int maxTimeSteps;
+
+  protected EncoderSet encoders;
+  protected List<Document> batch;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    batch = data.documents(batchSize, 10);
+    switch(stack) {
+      case "tri": encoders = new EncoderSet(new SurfaceEncoder(), new CharClassEncoder(), EncoderBenchmark.createEncoder("Trigram", train)); break;
+      case "bag": encoders = new EncoderSet(new SurfaceEncoder(), EncoderBenchmark.createEncoder("OneHot", train), EncoderBenchmark.createEncoder("BagOfWords", train)); break;
+      default: throw new IllegalArgumentException("unknown stack " + stack);
+    }
+    // attach vectors as done before training / tagging
+    for(Document doc : batch) {
+      for(Encoder enc : encoders) enc.encodeEach(doc, Token.class);
+    }
+  }
+
+  /**
+   * Encode every Token with every Encoder and copy the concatenation into the time step.
+   */
+  @Benchmark
+  public INDArray encodeCopy() {
+    INDArray matrix = EncodingHelpers.createTimeStepMatrix(batch.size(), encoders.getEmbeddingVectorSize(), maxTimeSteps);
+    for(int b = 0; b < batch.size(); b++) {
+      List<Token> tokens = batch.get(b).getTokens();
+      for(int t = 0; t < tokens.size() && t < maxTimeSteps; t++) {
+        INDArray vec = Nd4j.create(encoders.getEmbeddingVectorSize());
+        int i = 0;
+        for(Encoder enc : encoders) {
+          vec.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(enc.encode(tokens.get(t)));
+          i += enc.getEmbeddingVectorSize();
+        }
+        EncodingHelpers.putTimeStep(matrix, b, t, vec);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Encode every Token with every Encoder directly into its column slice of the time step.
+   */
+  @Benchmark
+  public INDArray encodeFused() {
+    return encoders.encodeMatrix(batch, maxTimeSteps, Token.class);
+  }
+
+  /**
+   * Concatenate attached vectors into a new vector and copy it into the time step (MentionTaggerIterator before).
+   */
+  @Benchmark
+  public INDArray attachedCopy() {
+    INDArray matrix = EncodingHelpers.createTimeStepMatrix(batch.size(), encoders.getEmbeddingVectorSize(), maxTimeSteps);
+    for(int b = 0; b < batch.size(); b++) {
+      List<Token> tokens = batch.get(b).getTokens();
+      for(int t = 0; t < tokens.size() && t < maxTimeSteps; t++) {
+        EncodingHelpers.putTimeStep(matrix, b, t, tokens.get(t).getVector(encoders));
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Copy attached vectors directly into their column slices of the time step (MentionTaggerIterator now).
+   */
+  @Benchmark
+  public INDArray attachedFused() {
+    INDArray matrix = EncodingHelpers.createTimeStepMatrix(batch.size(), encoders.getEmbeddingVectorSize(), maxTimeSteps);
+    for(int b = 0; b < batch.size(); b++) {
+      List<Token> tokens = batch.get(b).getTokens();
+      for(int t = 0; t < tokens.size() && t < maxTimeSteps; t++) {
+        tokens.get(t).getVector(encoders, EncodingHelpers.getTimeStepView(matrix, b, t));
+      }
+    }
+    return matrix;
+  }
+
+}
@@ -0,0 +1,135 @@
+package de.datexis.benchmarks;
+
+import cc.fasttext.Args;
+import cc.fasttext.FastText;
+import cc.fasttext.FastTextBinding;
+import cc.fasttext.Matrix;
+import cc.fasttext.Vector;
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.FastTextEncoder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a batch of tokens with FastText, with the former boxed per-element copy compared to the direct binding
+ * per token and as single matrix. Half of the tokens are out of vocabulary, so that subword vectors are computed.
+ * Tokens/sec is batchSize / score. Binding startup compares the former reflective method lookup to the binding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastTextBenchmark {
+
+  /** number of tokens per operation */
+  @Param({"1024"})
+  public int batchSize;
+
+  /** size of the word vectors */
+  @Param({"100"})
+  public int dimension;
+
+  protected FastText ft;
+  protected FastTextEncoder encoder, uncached;
+  protected List<String> tokens;
+
+  @Setup
+  public void setup() throws Exception {
+    SyntheticData data = new SyntheticData(42, 5000);
+    Resource dir = Resource.createTempDirectory();
+    Resource corpus = dir.resolve("corpus.txt");
+    List<String> lines = new ArrayList<>();
+    for(int i = 0; i < 2000; i++) lines.add(data.sentence(20));
+    Files.write(corpus.getPath(), lines, StandardCharsets.UTF_8);
+    Args args = new Args.Builder()
+        .setModel(Args.ModelName.SG)
+        .setDim(dimension)
+        .setBucket(100000)
+        .setMinCount(1)
+        .setEpoch(1)
+        .setThread(1)
+        .build();
+    Resource model = dir.resolve("model.bin");
+    ft = FastText.train(args, corpus.getPath().toString());
+    ft.saveModel(model.getPath().toString());
+    encoder = FastTextEncoder.load(model);
+    uncached = FastTextEncoder.load(model);
+    uncached.setCacheSize(0);
+    Random random = new Random(42);
+    tokens = new ArrayList<>(batchSize);
+    for(int i = 0; i < batchSize; i++) {
+      String word = data.word();
+      // misspelled words are out of vocabulary
+      tokens.add(random.nextBoolean() ? word : word + "x");
+    }
+  }
+
+  /**
+   * Former encoding with boxed Vector data and a putScalar call per element.
+   */
+  @Benchmark
+  public INDArray encodeBoxed() {
+    INDArray result = null;
+    for(String t : tokens) {
+      Vector vec = ft.getWordVector(t);
+      result = Nd4j.createUninitialized(vec.size(), 1);
+      int i = 0;
+      for(Float f : vec.getData()) result.putScalar(i++, 0, f.doubleValue());
+    }
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeUncached() {
+    INDArray result = null;
+    for(String t : tokens) result = uncached.encode(t);
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeCached() {
+    INDArray result = null;
+    for(String t : tokens) result = encoder.encode(t);
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeBatch() {
+    return encoder.encode(tokens);
+  }
+
+  @Benchmark
+  public INDArray encodeBatchUncached() {
+    return uncached.encode(tokens);
+  }
+
+  /**
+   * Former startup with reflective lookup of private FastText methods.
+   */
+  @Benchmark
+  public Method bindReflection() throws NoSuchMethodException {
+    Method getPrecomputedWordVectors = ft.getClass().getDeclaredMethod("getPrecomputedWordVectors");
+    getPrecomputedWordVectors.setAccessible(true);
+    Method findNN = ft.getClass().getDeclaredMethod("findNN", Matrix.class, Vector.class, int.class, Set.class);
+    findNN.setAccessible(true);
+    return findNN;
+  }
+
+  @Benchmark
+  public FastTextBinding bindDirect() {
+    return new FastTextBinding(ft);
+  }
+
+}
@@ -0,0 +1,278 @@
+package de.datexis.benchmarks;
+
+import de.datexis.cdv.index.AspectIndex;
+import de.datexis.cdv.index.EntityIndex;
+import de.datexis.cdv.index.SentenceVectorIndex;
+import de.datexis.cdv.retrieval.EntityAspectQueryAnnotation;
+import de.datexis.cdv.retrieval.HybridQueryRunner;
+import de.datexis.cdv.retrieval.QueryRunner;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.model.*;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.retrieval.model.ScoredResult;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CDV passage retrieval with candidate documents from a lexical index and dense reranking, compared to dense
+ * retrieval on the whole corpus and to hybrid retrieval with rank fusion. Every query targets a gold passage: its
+ * entity and aspect are words of the passage and its vectors are noisy passage vectors. Recall@64 of the targets is
+ * printed after every iteration. The lexical index is a TF-IDF index in memory instead of the BM25 PassageIndex and
+ * DocumentIndex, because the Lucene 8 version of CDV conflicts with the Lucene version of the other modules on the
+ * benchmark classpath. The results therefore measure fusion and dense retrieval, but not Lucene latency or BM25 recall.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HybridRetrievalBenchmark {
+
+  /** number of documents in the corpus */
+  @Param({"1000"})
+  public int documents;
+
+  /** number of queries */
+  @Param({"500"})
+  public int queries;
+
+  /** size of the entity and aspect vectors */
+  @Param({"128"})
+  public int dimension;
+
+  /** standard deviation of the noise that is added to the query vectors */
+  @Param({"0.5"})
+  public double noise;
+
+  protected Dataset corpus;
+  protected Map<Query, PassageAnnotation> targets;
+  protected BenchmarkQueryRunner rerank;
+  protected BenchmarkHybridRunner hybrid;
+
+  @Setup
+  public void setup() {
+    Nd4j.getRandom().setSeed(42);
+    SyntheticData data = new SyntheticData(42, 5000);
+    Random random = data.getRandom();
+    corpus = new Dataset("synthetic");
+    List<PassageAnnotation> passages = new ArrayList<>();
+    for(Document doc : data.documents(documents, 12)) {
+      List<Sentence> sentences = doc.getSentences();
+      for(int s = 0; s + 3 <= sentences.size(); s += 3) {
+        PassageAnnotation passage = new PassageAnnotation(Annotation.Source.GOLD);
+        passage.setId("p" + s);
+        passage.setBegin(sentences.get(s).getBegin());
+        passage.setEnd(sentences.get(s + 2).getEnd());
+        doc.addAnnotation(passage);
+        passages.add(passage);
+      }
+      doc.putVector(EntityIndex.class, unitColumns(Nd4j.randn(DataType.FLOAT, dimension, sentences.size())));
+      doc.putVector(AspectIndex.class, unitColumns(Nd4j.randn(DataType.FLOAT, dimension, sentences.size())));
+      corpus.addDocument(doc);
+    }
+    LexicalIndex lexical = new LexicalIndex(passages);
+    Map<EntityAspectQueryAnnotation, INDArray[]> vectors = new IdentityHashMap<>();
+    targets = new IdentityHashMap<>();
+    for(int i = 0; i < queries; i++) {
+      PassageAnnotation target = passages.get(random.nextInt(passages.size()));
+      Document doc = target.getDocumentRef();
+      String[] words = LexicalIndex.tokenize(doc.getText(target));
+      Query q = EntityAspectQueryAnnotation.createQuery(words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+      int first = doc.getSentenceIndexAtPosition(target.getBegin());
+      INDArrayIndex[] columns = {NDArrayIndex.all(), NDArrayIndex.interval(first, first + 3)};
+      vectors.put(q.getAnnotation(EntityAspectQueryAnnotation.class), new INDArray[] {
+        doc.getVector(EntityIndex.class).get(columns).mean(true, 1).addi(Nd4j.randn(DataType.FLOAT, dimension, 1).muli(noise)),
+        doc.getVector(AspectIndex.class).get(columns).mean(true, 1).addi(Nd4j.randn(DataType.FLOAT, dimension, 1).muli(noise))
+      });
+      targets.put(q, target);
+      corpus.addQuery(q);
+    }
+    EntityIndex entityIndex = new EntityIndex(new DummyEncoder(dimension));
+    AspectIndex aspectIndex = new AspectIndex(new DummyEncoder(dimension));
+    SentenceVectorIndex index = SentenceVectorIndex.build(corpus.getDocuments(), EntityIndex.class, AspectIndex.class);
+    rerank = new BenchmarkQueryRunner(corpus, entityIndex, aspectIndex, vectors, lexical);
+    rerank.setSentenceIndex(index);
+    rerank.setMaxResults(QueryRunner.NUM_CANDIDATES);
+    hybrid = new BenchmarkHybridRunner(corpus, entityIndex, aspectIndex, vectors, lexical);
+    hybrid.setSentenceIndex(index);
+  }
+
+  private static INDArray unitColumns(INDArray matrix) {
+    return matrix.diviRowVector(matrix.norm2(0));
+  }
+
+  @Setup(Level.Iteration)
+  public void clearResults() {
+    for(Query q : corpus.getQueries()) q.results.removeIf(r -> r.getSource() == Annotation.Source.PRED);
+  }
+
+  @TearDown(Level.Iteration)
+  public void printRecall() {
+    int found = 0;
+    for(Query q : corpus.getQueries()) {
+      PassageAnnotation target = targets.get(q);
+      for(Result r : q.getResults(Annotation.Source.PRED, Result.class)) {
+        if(r.getAnnotationRef() == target) {
+          found++;
+          break;
+        }
+      }
+    }
+    System.out.println(String.format(Locale.ROOT, "recall@%d: %.3f (lexical ranking: in-memory TF-IDF LexicalIndex, not BM25 PassageIndex/DocumentIndex)",
+      QueryRunner.NUM_CANDIDATES, (double) found / corpus.countQueries()));
+  }
+
+  /**
+   * Sequential candidate generation of 64 documents from the lexical index and dense reranking.
+   */
+  @Benchmark
+  public Dataset retrieveRerank() {
+    rerank.retrieveAllQueriesBatched(QueryRunner.Candidates.INDEX);
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveDense() {
+    rerank.retrieveAllQueriesBatched(QueryRunner.Candidates.ALL);
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveHybridRRF() {
+    hybrid.setFusion(HybridQueryRunner.Fusion.RECIPROCAL_RANK);
+    hybrid.retrieveAllQueriesHybrid();
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveHybridScore() {
+    hybrid.setFusion(HybridQueryRunner.Fusion.SCORE);
+    hybrid.retrieveAllQueriesHybrid();
+    return corpus;
+  }
+
+  /**
+   * QueryRunner with random query vectors and candidate documents from the lexical index.
+   */
+  public static class BenchmarkQueryRunner extends QueryRunner {
+
+    protected final Map<EntityAspectQueryAnnotation, INDArray[]> vectors;
+    protected final LexicalIndex lexical;
+
+    public BenchmarkQueryRunner(Dataset corpus, EntityIndex entityIndex, AspectIndex aspectIndex, Map<EntityAspectQueryAnnotation, INDArray[]> vectors, LexicalIndex lexical) {
+      super(corpus, entityIndex, aspectIndex, QueryRunner.Strategy.PASSAGE_RANK);
+      this.vectors = vectors;
+      this.lexical = lexical;
+    }
+
+    @Override
+    protected INDArray[] lookupQuery(EntityAspectQueryAnnotation ann) {
+      return vectors.get(ann);
+    }
+
+    @Override
+    protected List<Document> getIndexCandidates(Query query) {
+      return lexical.searchDocuments(query.getText(), NUM_CANDIDATES);
+    }
+
+  }
+
+  /**
+   * HybridQueryRunner with random query vectors and passages from the lexical index.
+   */
+  public static class BenchmarkHybridRunner extends HybridQueryRunner {
+
+    protected final Map<EntityAspectQueryAnnotation, INDArray[]> vectors;
+    protected final LexicalIndex lexical;
+
+    public BenchmarkHybridRunner(Dataset corpus, EntityIndex entityIndex, AspectIndex aspectIndex, Map<EntityAspectQueryAnnotation, INDArray[]> vectors, LexicalIndex lexical) {
+      super(corpus, entityIndex, aspectIndex, null);
+      this.vectors = vectors;
+      this.lexical = lexical;
+    }
+
+    @Override
+    protected INDArray[] lookupQuery(EntityAspectQueryAnnotation ann) {
+      return vectors.get(ann);
+    }
+
+    @Override
+    protected List<ScoredResult> retrieveLexical(Query query, int hits) {
+      return lexical.searchPassages(query.getText(), hits);
+    }
+
+  }
+
+  /**
+   * TF-IDF index of passages in memory, with Documents scored by their best passage.
+   */
+  public static class LexicalIndex {
+
+    private final List<PassageAnnotation> passages;
+    private final Map<String, List<Integer>> postings = new HashMap<>();
+
+    public LexicalIndex(List<PassageAnnotation> passages) {
+      this.passages = passages;
+      for(int p = 0; p < passages.size(); p++) {
+        PassageAnnotation passage = passages.get(p);
+        for(String word : tokenize(passage.getDocumentRef().getText(passage))) {
+          postings.computeIfAbsent(word, w -> new ArrayList<>()).add(p);
+        }
+      }
+    }
+
+    public static String[] tokenize(String text) {
+      return text.toLowerCase(Locale.ROOT).split("\\W+");
+    }
+
+    /** @return TF-IDF scores of all passages that contain any query word */
+    private Map<Integer, Double> score(String query) {
+      Map<Integer, Double> scores = new HashMap<>();
+      for(String word : tokenize(query)) {
+        List<Integer> list = postings.get(word);
+        if(list == null) continue;
+        double idf = Math.log((double) passages.size() / new HashSet<>(list).size());
+        for(int p : list) scores.merge(p, idf, Double::sum);
+      }
+      return scores;
+    }
+
+    public List<ScoredResult> searchPassages(String query, int hits) {
+      List<ScoredResult> results = new ArrayList<>();
+      score(query).entrySet().stream()
+        .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+        .limit(hits)
+        .forEach(e -> {
+          PassageAnnotation passage = passages.get(e.getKey());
+          ScoredResult result = new ScoredResult(Annotation.Source.PRED, passage.getDocumentRef(), passage.getBegin(), passage.getEnd());
+          result.setScore(e.getValue());
+          result.setAnnotationRef(passage);
+          results.add(result);
+        });
+      return results;
+    }
+
+    public List<Document> searchDocuments(String query, int hits) {
+      Map<Document, Double> scores = new IdentityHashMap<>();
+      for(Map.Entry<Integer, Double> e : score(query).entrySet()) {
+        scores.merge(passages.get(e.getKey()).getDocumentRef(), e.getValue(), Math::max);
+      }
+      List<Document> results = new ArrayList<>();
+      scores.entrySet().stream()
+        .sorted(Map.Entry.<Document, Double>comparingByValue().reversed())
+        .limit(hits)
+        .forEach(e -> results.add(e.getKey()));
+      return results;
+    }
+
+  }
+
+}
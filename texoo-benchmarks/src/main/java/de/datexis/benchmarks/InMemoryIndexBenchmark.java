@@ -0,0 +1,61 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.retrieval.index.IVectorIndex.IndexEntry;
+import de.datexis.retrieval.index.InMemoryIndex;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for k-nearest-neighbour lookup in InMemoryIndex.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InMemoryIndexBenchmark {
+
+  /** number of keys in the index */
+  @Param({"10000", "100000"})
+  public int size;
+
+  @Param({"256"})
+  public int vectorSize;
+
+  @Param({"1", "10"})
+  public int k;
+
+  protected InMemoryIndex index;
+  protected INDArray[] queries;
+  protected int next = 0;
+
+  @Setup
+  public void setup() {
+    Nd4j.getRandom().setSeed(42);
+    index = new InMemoryIndex(new DummyEncoder(vectorSize));
+    List<String> keys = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) keys.add("key" + i);
+    index.buildKeyIndex(keys, false);
+    Map<String, INDArray> vectors = new HashMap<>(size);
+    for(String key : keys) vectors.put(key, Nd4j.randn(1, vectorSize));
+    index.buildVectorIndex(vectors, false);
+    queries = new INDArray[64];
+    for(int i = 0; i < queries.length; i++) queries[i] = Nd4j.randn(vectorSize, 1);
+  }
+
+  @Benchmark
+  public List<IndexEntry> find() {
+    next = (next + 1) % queries.length;
+    return index.find(queries[next], k);
+  }
+
+}
@@ -0,0 +1,104 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.TrigramEncoder;
+import de.datexis.nel.index.KnowledgeBase;
+import de.datexis.nel.index.KnowledgeBaseBuilder;
+import de.datexis.nel.model.NamedEntity;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build of a KnowledgeBase with a trigram mention index from synthetic entities, in memory compared to the streaming
+ * KnowledgeBaseBuilder with shards on disk. The builder reads entities from a generator, so they are never held in
+ * memory at once. The peak heap of the build is printed after every iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class KnowledgeBaseBuildBenchmark {
+
+  /** number of entities in the knowledge base */
+  @Param({"20000", "100000"})
+  public int entities;
+
+  protected TrigramEncoder encoder;
+  protected Resource dir;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 20000);
+    encoder = new TrigramEncoder();
+    encoder.trainModel(data.documents(200, 20));
+    dir = Resource.createTempDirectory();
+  }
+
+  /**
+   * @return a generator for entities with up to three aliases
+   */
+  protected Iterator<NamedEntity> generate() {
+    SyntheticData data = new SyntheticData(42, 20000);
+    Random random = data.getRandom();
+    return new Iterator<NamedEntity>() {
+      int i = 0;
+      @Override
+      public boolean hasNext() {
+        return i < entities;
+      }
+      @Override
+      public NamedEntity next() {
+        NamedEntity entity = new NamedEntity();
+        entity.setId("Q" + i++);
+        entity.setName(data.word() + " " + data.word());
+        List<String> aliases = new ArrayList<>();
+        aliases.add(entity.getName());
+        for(int a = random.nextInt(3); a > 0; a--) aliases.add(data.word());
+        entity.setAliases(aliases);
+        entity.setDescription(data.sentence(12));
+        entity.addLink("wikidata", entity.getId());
+        return entity;
+      }
+    };
+  }
+
+  @Setup(Level.Iteration)
+  public void resetPeak() {
+    System.gc();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+  }
+
+  @TearDown(Level.Iteration)
+  public void printPeak() {
+    long peak = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+    }
+    System.out.println(String.format(Locale.ROOT, "peak heap: %d MB", peak >> 20));
+  }
+
+  @Benchmark
+  public KnowledgeBase buildInMemory() {
+    KnowledgeBase kb = new KnowledgeBase(encoder, encoder);
+    Iterator<NamedEntity> it = generate();
+    while(it.hasNext()) kb.addEntity(it.next());
+    kb.buildIndex();
+    return kb;
+  }
+
+  @Benchmark
+  public Resource buildShards() throws Exception {
+    KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder(encoder);
+    builder.setShardSize(10000);
+    builder.build(generate(), dir);
+    return dir;
+  }
+
+}
@@ -0,0 +1,95 @@
+package de.datexis.benchmarks;
+
+import de.datexis.index.ArticleRef;
+import de.datexis.index.WikiDataArticle;
+import de.datexis.index.impl.LuceneArticleIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for candidate generation with LuceneArticleIndex.queryNames() on a synthetic in-memory knowledge base.
+ * Mentions are drawn from a Zipf distribution over distinct names in varying case and spacing, as surface forms repeat
+ * in linking datasets. A query cache size of 0 disables the cache. The hit rate is printed after every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LuceneArticleIndexBenchmark {
+
+  /** number of articles in the index */
+  @Param({"10000", "100000"})
+  public int size;
+
+  @Param({"10"})
+  public int hits;
+
+  /** maximum number of cached queries */
+  @Param({"0", "10000"})
+  public int cacheSize;
+
+  protected LuceneArticleIndex index;
+  protected String[] queries;
+  protected int next = 0;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 20000);
+    List<WikiDataArticle> articles = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      String title = capitalize(data.word()) + " " + capitalize(data.word());
+      Set<String> names = new TreeSet<>();
+      names.add(title);
+      int aliases = data.getRandom().nextInt(4);
+      for(int a = 0; a < aliases; a++) names.add(capitalize(data.word()) + (a % 2 == 0 ? " " + capitalize(data.word()) : ""));
+      Map<String, String> refIDs = new TreeMap<>();
+      refIDs.put("wikidata", "Q" + i);
+      refIDs.put("wikipedia", title.replace(' ', '_'));
+      articles.add(new WikiDataArticle("Q" + i, title, "entity", refIDs, new TreeMap<>(), data.sentence(8), names, new TreeSet<>()));
+    }
+    index = new LuceneArticleIndex();
+    index.setQueryCache(cacheSize, 1, TimeUnit.HOURS);
+    index.createIndexRAM(articles.iterator());
+    // query existing names (frequent and rare words) as well as unseen ones
+    String[] names = new String[2048];
+    Random random = new Random(42);
+    for(int i = 0; i < names.length; i++) {
+      if(i % 4 == 3) names[i] = data.word() + " " + data.word();
+      else names[i] = articles.get(random.nextInt(size)).getTitle();
+    }
+    // mentions with Zipf distributed names
+    double[] cdf = new double[names.length];
+    double sum = 0;
+    for(int i = 0; i < names.length; i++) cdf[i] = sum += 1. / (i + 1);
+    queries = new String[16384];
+    for(int i = 0; i < queries.length; i++) {
+      int n = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+      String name = names[n < 0 ? -n - 1 : n];
+      switch(random.nextInt(3)) {
+        case 0: queries[i] = name; break;
+        case 1: queries[i] = name.toLowerCase(Locale.ROOT); break;
+        default: queries[i] = " " + name.replace(" ", "  ");
+      }
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void printHitRate() {
+    System.out.println(String.format(Locale.ROOT, "hit rate: %.3f", index.getNameCache().getHitRate()));
+  }
+
+  private static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+
+  @Benchmark
+  public List<ArticleRef> queryNames() {
+    next = (next + 1) % queries.length;
+    return index.queryNames(queries[next], hits);
+  }
+
+}
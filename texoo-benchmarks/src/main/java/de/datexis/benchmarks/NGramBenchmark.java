@@ -0,0 +1,109 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.impl.TrigramEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Letter-trigram encoding of a batch of tokens with String n-grams compared to the rolling-hash extractor,
+ * with and without the token cache, into the vocabulary and into a hashed feature space.
+ * Run with "-prof gc" to compare allocations, e.g. bin/texoo-benchmark "NGram -prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NGramBenchmark {
+
+  /** number of tokens per operation */
+  @Param({"1024"})
+  public int batchSize;
+
+  protected TrigramEncoder cached, uncached, hashed;
+  protected String[] tokens;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    cached = new TrigramEncoder();
+    cached.trainModel(train);
+    uncached = new TrigramEncoder();
+    uncached.trainModel(train);
+    uncached.setCacheSize(0);
+    hashed = new TrigramEncoder();
+    hashed.setHashBuckets((int) cached.getEmbeddingVectorSize());
+    List<String> corpus = data.documents(50, 10).stream()
+        .flatMap(Document::streamTokens)
+        .map(Token::getText)
+        .limit(batchSize)
+        .collect(Collectors.toList());
+    // fresh Strings, so that hash codes are not cached
+    tokens = corpus.stream().map(t -> new String(t.toCharArray())).toArray(String[]::new);
+  }
+
+  /**
+   * Former encoding with a String per n-gram and a putScalar call per id.
+   */
+  @Benchmark
+  public INDArray encodeStrings() {
+    INDArray result = null;
+    for(String t : tokens) {
+      result = Nd4j.zeros(cached.getEmbeddingVectorSize(), 1);
+      for(String ngram : cached.generateNGrams(t)) {
+        int i = cached.getIndex(ngram);
+        if(i >= 0) result.put(i, 0, 1.0);
+      }
+    }
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeCached() {
+    INDArray result = null;
+    for(String t : tokens) result = cached.encode(t);
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeUncached() {
+    INDArray result = null;
+    for(String t : tokens) result = uncached.encode(t);
+    return result;
+  }
+
+  @Benchmark
+  public int idsUncached() {
+    int sum = 0;
+    for(String t : tokens) sum += uncached.getNGramIds(t).length;
+    return sum;
+  }
+
+  @Benchmark
+  public int idsHashed() {
+    int sum = 0;
+    for(String t : tokens) sum += hashed.getNGramIds(t).length;
+    return sum;
+  }
+
+  @Benchmark
+  public int idsStrings() {
+    int sum = 0;
+    for(String t : tokens) {
+      for(String ngram : cached.generateNGrams(t)) {
+        if(cached.getIndex(ngram) >= 0) sum++;
+      }
+    }
+    return sum;
+  }
+
+}
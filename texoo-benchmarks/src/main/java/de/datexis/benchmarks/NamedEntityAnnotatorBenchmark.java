@@ -0,0 +1,219 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.index.ArticleIndex;
+import de.datexis.index.ArticleRef;
+import de.datexis.index.WikiDataArticle;
+import de.datexis.index.impl.LuceneArticleIndex;
+import de.datexis.index.utils.CandidateScorer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.nel.NamedEntityAnnotation;
+import de.datexis.nel.NamedEntityAnnotator;
+import de.datexis.ner.MentionAnnotation;
+import de.datexis.preprocess.DocumentFactory;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Disambiguation of all mentions in a synthetic corpus with one candidate search per mention, compared to batched
+ * disambiguation with one parallel search per distinct surface form. Mentions are names of articles in a synthetic
+ * knowledge base with Zipf distributed frequency, names can be ambiguous. Every operation links all mentions, so
+ * mentions/sec is mentions / score. Linking accuracy is printed after every iteration. The query cache is disabled.
+ * Vector reranking compares cosine similarity per candidate to scoring all candidates of a surface form in all
+ * contexts with the CandidateScorer of VectorArticleIndex.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NamedEntityAnnotatorBenchmark {
+
+  /** number of articles in the index */
+  @Param({"10000"})
+  public int size;
+
+  /** number of documents with 10 mentions each */
+  @Param({"500"})
+  public int documents;
+
+  /** number of candidates that are reranked with vectors */
+  @Param({"512"})
+  public int candidates;
+
+  /** number of contexts of a surface form that are reranked */
+  @Param({"16"})
+  public int contexts;
+
+  /** size of the entity vectors */
+  @Param({"100"})
+  public int dimension;
+
+  protected List<Document> corpus;
+  protected int mentions;
+  /** gold article IDs by Document and mention position */
+  protected Map<Document, Map<Integer, String>> gold;
+  protected BenchmarkAnnotator annotator;
+  protected List<ArticleRef> refs;
+  protected List<INDArray> embeddings;
+  protected CandidateScorer scorer;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 20000);
+    Random random = data.getRandom();
+    List<WikiDataArticle> articles = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      String title = capitalize(data.word()) + " " + capitalize(data.word());
+      Set<String> names = new TreeSet<>();
+      names.add(title);
+      // aliases of a single frequent word are often ambiguous
+      if(random.nextBoolean()) names.add(capitalize(data.word()));
+      Map<String, String> refIDs = new TreeMap<>();
+      refIDs.put("wikidata", "Q" + i);
+      refIDs.put("wikipedia", title.replace(' ', '_'));
+      articles.add(new WikiDataArticle("Q" + i, title, "entity", refIDs, new TreeMap<>(), data.sentence(8), names, new TreeSet<>()));
+    }
+    LuceneArticleIndex index = new LuceneArticleIndex();
+    index.setQueryCache(0, 0, TimeUnit.SECONDS);
+    index.createIndexRAM(articles.iterator());
+    annotator = new BenchmarkAnnotator(index);
+    // mentions of Zipf distributed articles
+    double[] cdf = new double[2000];
+    double sum = 0;
+    for(int i = 0; i < cdf.length; i++) cdf[i] = sum += 1. / (i + 1);
+    corpus = new ArrayList<>(documents);
+    gold = new IdentityHashMap<>();
+    for(int d = 0; d < documents; d++) {
+      StringBuilder text = new StringBuilder();
+      List<int[]> positions = new ArrayList<>();
+      List<WikiDataArticle> targets = new ArrayList<>();
+      for(int s = 0; s < 10; s++) {
+        int n = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+        WikiDataArticle target = articles.get(n < 0 ? -n - 1 : n);
+        List<String> names = new ArrayList<>(target.getNames());
+        String name = names.get(random.nextInt(names.size()));
+        text.append(capitalize(data.word())).append(" ").append(data.word()).append(" ");
+        positions.add(new int[] {text.length(), text.length() + name.length()});
+        targets.add(target);
+        text.append(name).append(" ").append(data.word()).append(" ").append(data.word()).append(". ");
+      }
+      Document doc = DocumentFactory.fromText(text.toString().trim(), DocumentFactory.Newlines.KEEP, WordHelpers.Language.EN);
+      doc.setId("doc" + d);
+      Map<Integer, String> ids = new HashMap<>();
+      for(int m = 0; m < positions.size(); m++) {
+        int[] pos = positions.get(m);
+        doc.addAnnotation(new MentionAnnotation(Annotation.Source.GOLD, doc.getText().substring(pos[0], pos[1]), pos[0], pos[1]));
+        ids.put(pos[0], targets.get(m).getId());
+      }
+      gold.put(doc, ids);
+      corpus.add(doc);
+      mentions += positions.size();
+    }
+    // random candidate vectors and mention embeddings of name and context
+    Nd4j.getRandom().setSeed(42);
+    refs = new ArrayList<>(candidates);
+    for(int c = 0; c < candidates; c++) {
+      ArticleRef ref = new ArticleRef();
+      ref.setId("Q" + c);
+      ref.setVector(Nd4j.randn(DataType.FLOAT, 1, dimension));
+      refs.add(ref);
+    }
+    embeddings = new ArrayList<>(contexts);
+    for(int e = 0; e < contexts; e++) embeddings.add(Nd4j.randn(DataType.FLOAT, 1, 2 * dimension));
+    scorer = new CandidateScorer();
+  }
+
+  private static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+
+  @Setup(Level.Iteration)
+  public void clearResults() {
+    for(Document doc : corpus) doc.clearAnnotations(Annotation.Source.PRED, NamedEntityAnnotation.class);
+  }
+
+  @TearDown(Level.Iteration)
+  public void printAccuracy() {
+    int correct = 0;
+    for(Document doc : corpus) {
+      Map<Integer, String> ids = gold.get(doc);
+      for(NamedEntityAnnotation ann : doc.streamAnnotations(Annotation.Source.PRED, NamedEntityAnnotation.class).collect(Collectors.toList())) {
+        if(ann.getRefId() != null && ann.getRefId().equals(ids.get(ann.getBegin()))) correct++;
+      }
+    }
+    System.out.println(String.format(Locale.ROOT, "accuracy: %.3f (%d mentions)", (double) correct / mentions, mentions));
+  }
+
+  @Benchmark
+  public List<Document> disambiguateEach() {
+    for(Document doc : corpus) annotator.disambiguateEach(doc, Annotation.Source.GOLD);
+    return corpus;
+  }
+
+  @Benchmark
+  public List<Document> disambiguateBatched() {
+    annotator.disambiguateMentions(corpus, Annotation.Source.GOLD);
+    return corpus;
+  }
+
+  /**
+   * Former reranking with cosine similarity of every candidate in every context.
+   */
+  @Benchmark
+  public double rerankEach() {
+    double sum = 0;
+    for(INDArray embedding : embeddings) {
+      for(ArticleRef ref : refs) {
+        INDArray candidate = Nd4j.hstack(ref.getVector(), ref.getVector());
+        sum += WordHelpers.cosineSim(candidate, embedding);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public List<CandidateScorer.Ranking> rerankBatched() {
+    return scorer.topK(refs, embeddings, refs.size());
+  }
+
+  /**
+   * NamedEntityAnnotator on given mentions.
+   */
+  public static class BenchmarkAnnotator extends NamedEntityAnnotator {
+
+    public BenchmarkAnnotator(ArticleIndex index) {
+      super(null, index);
+    }
+
+    /**
+     * Former disambiguation with one search per mention.
+     */
+    public void disambiguateEach(Document doc, Annotation.Source source) {
+      List<MentionAnnotation> anns = doc.streamAnnotations(source, MentionAnnotation.class).collect(Collectors.toList());
+      for(MentionAnnotation mention : anns) {
+        NamedEntityAnnotation entity = new NamedEntityAnnotation(mention, new ArrayList<>());
+        String entityMention = mention.getText();
+        String entityContext = doc.getSentenceAtPosition(mention.getBegin()).get().toTokenizedString();
+        List<ArticleRef> candidates = index.queryNames(entityMention, 1);
+        if(candidates.size() > 0) {
+          entity.setRefName(candidates.get(0).getTitle());
+          entity.setRefId(candidates.get(0).getId());
+          entity.setRefUrl(candidates.get(0).getUrl());
+        }
+        entity.setSource(Annotation.Source.PRED);
+        doc.addAnnotation(entity);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,73 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.ParallelEncoding;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for parallel encoding of a corpus with thread-safe Encoders. Compare the scores for threads=1
+ * (sequential) with higher values to get the speedup per Encoder, e.g. bin/texoo-benchmark "ParallelEncoder -p threads=1,4,8".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelEncoderBenchmark {
+
+  @Param({"Trigram", "LetterNGram", "Surface", "Position", "BagOfWords"})
+  public String encoderType;
+
+  /** number of encoding threads, 1 is sequential */
+  @Param({"1", "4"})
+  public int threads;
+
+  /** number of Documents in the corpus */
+  @Param({"1000"})
+  public int corpusSize;
+
+  protected Encoder encoder;
+  protected List<Document> corpus;
+  protected int parallelism;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    corpus = data.documents(corpusSize, 10);
+    encoder = EncoderBenchmark.createEncoder(encoderType, train);
+    parallelism = ParallelEncoding.getParallelism();
+    ParallelEncoding.setParallelism(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ParallelEncoding.setParallelism(parallelism);
+  }
+
+  /**
+   * Attach a vector to every Token in the corpus.
+   */
+  @Benchmark
+  public List<Document> encodeEach() {
+    encoder.encodeEach(corpus, Token.class);
+    return corpus;
+  }
+
+  /**
+   * Encode the first 64 Tokens of every Document into a single time step matrix.
+   */
+  @Benchmark
+  public INDArray encodeMatrix() {
+    if(encoderType.equals("Position")) return null; // sequential only
+    return encoder.encodeMatrix(corpus, 64, Token.class);
+  }
+
+}
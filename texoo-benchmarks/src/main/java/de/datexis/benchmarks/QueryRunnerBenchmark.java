@@ -0,0 +1,150 @@
+package de.datexis.benchmarks;
+
+import de.datexis.cdv.index.AspectIndex;
+import de.datexis.cdv.index.EntityIndex;
+import de.datexis.cdv.retrieval.EntityAspectQueryAnnotation;
+import de.datexis.cdv.retrieval.QueryRunner;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.model.*;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.retrieval.model.RelevanceResult;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CDV passage retrieval of all queries on a synthetic corpus with entity and aspect sentence vectors, with one
+ * projection per query and document compared to batched projection of all queries. Every operation retrieves all
+ * queries, so queries/sec is queries / score. Candidates are either 64 given passages per query or the whole corpus.
+ * The former projection runs sequentially here, because ND4J ops in its parallel stream crash on some machines.
+ * Single queries are retrieved from the prebuilt sentence vector index, which is built once during setup.
+ * WikiSectionQA and HealthQA are not shipped with TeXoo and require a trained CDV model, so the corpus here is
+ * synthetic. On real datasets, retrieveAllQueries() and retrieveAllQueriesBatched() log their queries/sec.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryRunnerBenchmark {
+
+  /** number of documents in the corpus */
+  @Param({"1000"})
+  public int documents;
+
+  /** number of queries */
+  @Param({"500"})
+  public int queries;
+
+  /** size of the entity and aspect vectors */
+  @Param({"128"})
+  public int dimension;
+
+  protected Dataset corpus;
+  protected BenchmarkQueryRunner runner;
+
+  @Setup
+  public void setup() {
+    Nd4j.getRandom().setSeed(42);
+    SyntheticData data = new SyntheticData(42, 5000);
+    Random random = data.getRandom();
+    corpus = new Dataset("synthetic");
+    List<PassageAnnotation> passages = new ArrayList<>();
+    for(Document doc : data.documents(documents, 12)) {
+      List<Sentence> sentences = doc.getSentences();
+      for(int s = 0; s + 3 <= sentences.size(); s += 3) {
+        PassageAnnotation passage = new PassageAnnotation(Annotation.Source.GOLD);
+        passage.setBegin(sentences.get(s).getBegin());
+        passage.setEnd(sentences.get(s + 2).getEnd());
+        doc.addAnnotation(passage);
+        passages.add(passage);
+      }
+      doc.putVector(EntityIndex.class, unitColumns(Nd4j.randn(DataType.FLOAT, dimension, sentences.size())));
+      doc.putVector(AspectIndex.class, unitColumns(Nd4j.randn(DataType.FLOAT, dimension, sentences.size())));
+      corpus.addDocument(doc);
+    }
+    Map<EntityAspectQueryAnnotation, INDArray[]> vectors = new IdentityHashMap<>();
+    for(int i = 0; i < queries; i++) {
+      Query q = EntityAspectQueryAnnotation.createQuery(data.word(), data.word());
+      for(int c = 0; c < QueryRunner.NUM_CANDIDATES; c++) {
+        PassageAnnotation passage = passages.get(random.nextInt(passages.size()));
+        q.addResult(new RelevanceResult(Annotation.Source.GOLD, passage.getDocumentRef(), passage.getBegin(), passage.getEnd()));
+      }
+      vectors.put(q.getAnnotation(EntityAspectQueryAnnotation.class), new INDArray[] {Nd4j.randn(DataType.FLOAT, dimension, 1), Nd4j.randn(DataType.FLOAT, dimension, 1)});
+      corpus.addQuery(q);
+    }
+    EntityIndex entityIndex = new EntityIndex(new DummyEncoder(dimension));
+    AspectIndex aspectIndex = new AspectIndex(new DummyEncoder(dimension));
+    runner = new BenchmarkQueryRunner(corpus, entityIndex, aspectIndex, vectors);
+    runner.getSentenceIndex();
+  }
+
+  /**
+   * QueryRunner with random query vectors.
+   */
+  public static class BenchmarkQueryRunner extends QueryRunner {
+
+    protected final Map<EntityAspectQueryAnnotation, INDArray[]> vectors;
+
+    public BenchmarkQueryRunner(Dataset corpus, EntityIndex entityIndex, AspectIndex aspectIndex, Map<EntityAspectQueryAnnotation, INDArray[]> vectors) {
+      super(corpus, entityIndex, aspectIndex, QueryRunner.Strategy.PASSAGE_RANK);
+      this.vectors = vectors;
+    }
+
+    @Override
+    protected INDArray[] lookupQuery(EntityAspectQueryAnnotation ann) {
+      return vectors.get(ann);
+    }
+
+    /**
+     * Former retrieval of a query with given candidates, with one projection per candidate document.
+     */
+    public void retrieveEach(Query query) {
+      INDArray[] q = lookupQuery(query.getAnnotation(EntityAspectQueryAnnotation.class));
+      Collection<RelevanceResult> candidates = query.getResults(Annotation.Source.GOLD, RelevanceResult.class);
+      Set<Document> docs = new HashSet<>();
+      for(Result r : candidates) docs.add(r.getDocumentRef());
+      for(Document doc : docs) retrievePassages(doc, query, getHistogram(doc, q[0], q[1]), candidates);
+    }
+
+  }
+
+  private static INDArray unitColumns(INDArray matrix) {
+    return matrix.diviRowVector(matrix.norm2(0));
+  }
+
+  @Setup(Level.Iteration)
+  public void clearResults() {
+    for(Query q : corpus.getQueries()) q.results.removeIf(r -> r.getSource() == Annotation.Source.PRED);
+  }
+
+  @Benchmark
+  public Dataset retrieveEach() {
+    for(Query q : corpus.getQueries()) runner.retrieveEach(q);
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveIndexed() {
+    for(Query q : corpus.getQueries()) runner.retrieveQueryFromCandidates(q);
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveBatched() {
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.GIVEN);
+    return corpus;
+  }
+
+  @Benchmark
+  public Dataset retrieveAllBatched() {
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.ALL);
+    return corpus;
+  }
+
+}
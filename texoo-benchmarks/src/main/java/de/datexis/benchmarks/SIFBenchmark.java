@@ -0,0 +1,102 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.SentenceEmbeddingEncoder;
+import de.datexis.encoder.impl.Word2VecEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Throughput of SIF sentence embeddings with the former per-sentence computation compared to batches.
+ * Every operation encodes the whole corpus, so sentences/sec is sentences / score. Use a larger corpus with
+ * e.g. bin/texoo-benchmark "SIF -p sentences=1000000" and enough heap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SIFBenchmark {
+
+  /** number of sentences in the corpus */
+  @Param({"10000"})
+  public int sentences;
+
+  /** number of sentences per batch */
+  @Param({"1024"})
+  public int batchSize;
+
+  /** size of the word vectors */
+  @Param({"100"})
+  public int dimension;
+
+  protected SentenceEmbeddingEncoder encoder;
+  protected Word2VecEncoder vec;
+  protected INDArray principal;
+  protected List<List<Token>> corpus;
+
+  @Setup
+  public void setup() throws IOException {
+    SyntheticData data = new SyntheticData(42, 5000);
+    Resource model = Resource.createTempDirectory().resolve("word2vec.txt");
+    Random random = new Random(42);
+    try(Writer out = new OutputStreamWriter(model.getOutputStream(), StandardCharsets.UTF_8)) {
+      for(String word : new LinkedHashSet<>(data.getVocabulary())) {
+        out.write(word);
+        for(int i = 0; i < dimension; i++) out.write(" " + (float) random.nextGaussian());
+        out.write("\n");
+      }
+    }
+    encoder = SentenceEmbeddingEncoder.create(model);
+    encoder.trainModel(data.documents(100, 20));
+    vec = Word2VecEncoder.load(model);
+    principal = encoder.getPrincipalComponent();
+    List<Document> docs = data.documents(sentences / 20, 20);
+    corpus = docs.stream()
+        .flatMap(Document::streamSentences)
+        .map(Sentence::getTokens)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Former computation with vector lookup, weighting and component removal per sentence.
+   */
+  @Benchmark
+  public INDArray encodeEach() {
+    INDArray result = null;
+    for(List<Token> tokens : corpus) {
+      INDArray sum = Nd4j.create(encoder.getEmbeddingVectorSize(), 1);
+      for(Token t : tokens) {
+        INDArray v = vec.encode(t.getText());
+        double p = encoder.getProbability(t.getText());
+        sum.addi(v.muli(0.0001 / (0.0001 + p)));
+      }
+      sum.divi(tokens.size());
+      result = sum.subi(principal.mmul(principal.transpose()).mmul(sum));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public INDArray encodeBatch() {
+    INDArray result = null;
+    for(int from = 0; from < corpus.size(); from += batchSize) {
+      result = encoder.encodeBatch(corpus.subList(from, Math.min(from + batchSize, corpus.size())));
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,88 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.encoder.impl.BagOfWordsEncoder;
+import de.datexis.model.Document;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subsampling of n-hot targets with BagOfWordsEncoder. Compares the per-row scalar loops with batch
+ * subsampling that applies a single mask multiply over the n-hot batch matrix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubsamplingBenchmark {
+
+  /** number of phrases per batch */
+  @Param({"256"})
+  public int batchSize;
+
+  protected BagOfWordsEncoder encoder;
+  protected List<String> phrases;
+  protected INDArray nhot;
+  protected Random random;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    encoder = new BagOfWordsEncoder();
+    encoder.trainModel(train, 1, WordHelpers.Language.EN);
+    phrases = new ArrayList<>(batchSize);
+    for(int i = 0; i < batchSize; i++) phrases.add(data.sentence(3 + i % 4));
+    nhot = Nd4j.vstack(phrases.stream().map(p -> encoder.encode(p).transpose()).toArray(INDArray[]::new));
+    random = encoder.createRandom(0);
+  }
+
+  /**
+   * One word per phrase, sampled into a separate vector per phrase.
+   */
+  @Benchmark
+  public INDArray sampleOnePerRow() {
+    INDArray result = Nd4j.zeros(batchSize, encoder.getEmbeddingVectorSize());
+    for(int i = 0; i < batchSize; i++) result.getRow(i).assign(encoder.encodeSubsampled(phrases.get(i)));
+    return result;
+  }
+
+  /**
+   * One word per phrase, sampled into a single batch buffer.
+   */
+  @Benchmark
+  public INDArray sampleOneBatch() {
+    return encoder.encodeSubsampled(phrases, random);
+  }
+
+  /**
+   * Frequent words removed with the former scalar loop over all entries of every row.
+   */
+  @Benchmark
+  public INDArray subsampleScalar() {
+    INDArray result = nhot.dup();
+    for(int r = 0; r < batchSize; r++) {
+      for(int i = 0; i < nhot.columns(); i++) {
+        if(nhot.getDouble(r, i) > 0 && !encoder.keepWord(encoder.getWord(i))) result.putScalar(r, i, 0.);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Frequent words removed with a single mask multiply.
+   */
+  @Benchmark
+  public INDArray subsampleBatch() {
+    return encoder.subsample(nhot, random);
+  }
+
+}
@@ -0,0 +1,95 @@
+package de.datexis.benchmarks;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic synthetic text fixtures for benchmarks, so that no external datasets are required.
+ * Words are built from a fixed syllable inventory and follow a skewed (Zipf-like) frequency distribution.
+ */
+public class SyntheticData {
+
+  private static final String[] SYLLABLES = {
+    "ka", "to", "ri", "men", "sa", "lo", "der", "an", "ti", "pol", "ex", "ver", "mo", "ne", "tu", "ra",
+    "in", "gen", "qua", "bel", "or", "sti", "ul", "dis", "pa", "co", "ne", "ho", "vi", "lum", "es", "tra"
+  };
+
+  private final Random random;
+  private final List<String> vocabulary;
+
+  /**
+   * @param seed random seed, use the same seed to get the same fixtures
+   * @param vocabularySize number of distinct words
+   */
+  public SyntheticData(long seed, int vocabularySize) {
+    this.random = new Random(seed);
+    this.vocabulary = new ArrayList<>(vocabularySize);
+    for(int i = 0; i < vocabularySize; i++) {
+      StringBuilder word = new StringBuilder();
+      int syllables = 1 + random.nextInt(4);
+      for(int s = 0; s < syllables; s++) word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      vocabulary.add(word.toString());
+    }
+  }
+
+  public Random getRandom() {
+    return random;
+  }
+
+  public List<String> getVocabulary() {
+    return vocabulary;
+  }
+
+  /**
+   * @return a random word, frequent words are drawn more often
+   */
+  public String word() {
+    double r = random.nextDouble();
+    return vocabulary.get((int) (r * r * r * vocabulary.size()));
+  }
+
+  /**
+   * @return a capitalized sentence with the given number of words, ending with a period
+   */
+  public String sentence(int words) {
+    StringBuilder sb = new StringBuilder();
+    for(int w = 0; w < words; w++) {
+      String word = word();
+      if(w == 0) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+      else sb.append(random.nextInt(12) == 0 ? ", " : " ");
+      sb.append(word);
+    }
+    return sb.append(".").toString();
+  }
+
+  /**
+   * @return a text with the given number of sentences of 5-25 words, split into paragraphs
+   */
+  public String text(int sentences) {
+    StringBuilder sb = new StringBuilder();
+    for(int s = 0; s < sentences; s++) {
+      sb.append(sentence(5 + random.nextInt(20)));
+      sb.append(random.nextInt(5) == 0 ? "\n" : " ");
+    }
+    return sb.toString().trim();
+  }
+
+  /**
+   * @return a list of tokenized English Documents
+   */
+  public List<Document> documents(int numDocuments, int sentencesPerDocument) {
+    List<Document> docs = new ArrayList<>(numDocuments);
+    for(int i = 0; i < numDocuments; i++) {
+      Document doc = DocumentFactory.fromText(text(sentencesPerDocument), DocumentFactory.Newlines.KEEP, WordHelpers.Language.EN);
+      doc.setId("doc" + i);
+      docs.add(doc);
+    }
+    return docs;
+  }
+
+}
@@ -0,0 +1,117 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.Encoder;
+import de.datexis.encoder.EncodingHelpers;
+import de.datexis.encoder.TimeStepMatrixEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation profile of time step matrix encoding. Compares the slice-and-assign baseline with
+ * TimeStepMatrixEncoder, which writes time steps with strided encodeInto() directly into the matrix.
+ * Run with "-prof gc" to measure the heap allocation rate, e.g. bin/texoo-benchmark "TimeStepMatrix -prof gc".
+ * The allocation profile is also asserted after each trial: the direct write must allocate less heap per batch
+ * than the baseline, and the reused target must not allocate any further off-heap matrix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeStepMatrixBenchmark {
+
+  @Param({"Trigram", "Surface", "BagOfWords"})
+  public String encoderType;
+
+  /** number of Documents per batch */
+  @Param({"16"})
+  public int batchSize;
+
+  /** number of time steps (Tokens) per Document */
+  @Param({"128"})
+  public int maxTimeSteps;
+
+  protected Encoder encoder;
+  protected List<Document> batch;
+  protected TimeStepMatrixEncoder matrixEncoder;
+  protected INDArray target;
+
+  @Setup
+  public void setup() {
+    SyntheticData data = new SyntheticData(42, 5000);
+    List<Document> train = data.documents(200, 20);
+    batch = data.documents(batchSize, 10);
+    encoder = EncoderBenchmark.createEncoder(encoderType, train);
+    matrixEncoder = new TimeStepMatrixEncoder(encoder);
+    target = EncodingHelpers.createTimeStepMatrix(batch.size(), encoder.getEmbeddingVectorSize(), maxTimeSteps);
+  }
+
+  /**
+   * New zeroed matrix per batch, encode() and slice().slice().assign() per time step.
+   */
+  @Benchmark
+  public INDArray sliceAssign() {
+    INDArray matrix = EncodingHelpers.createTimeStepMatrix(batch.size(), encoder.getEmbeddingVectorSize(), maxTimeSteps);
+    for(int b = 0; b < batch.size(); b++) {
+      List<Token> tokens = batch.get(b).getTokens();
+      for(int t = 0; t < tokens.size() && t < maxTimeSteps; t++) {
+        EncodingHelpers.putTimeStep(matrix, b, t, encoder.encode(tokens.get(t)));
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * New zeroed matrix per batch, written with strided encodeInto() in place.
+   */
+  @Benchmark
+  public INDArray directAllocate() {
+    return EncodingHelpers.encodeTimeStepMatrix(batch, encoder, maxTimeSteps, Token.class);
+  }
+
+  /**
+   * Opt-in reuse of a single matrix for all batches, written with strided encodeInto() in place.
+   */
+  @Benchmark
+  public INDArray directReuse() {
+    return matrixEncoder.encode(batch, maxTimeSteps, Token.class, target);
+  }
+
+  @TearDown(Level.Trial)
+  public void verifyAllocations() {
+    int runs = 20;
+    long baseline = heapBytesPerCall(this::sliceAssign, runs);
+    long direct = heapBytesPerCall(this::directAllocate, runs);
+    if(direct >= baseline) {
+      throw new IllegalStateException("direct write allocated " + direct + " heap bytes per batch, baseline " + baseline);
+    }
+    long offHeap = Pointer.totalBytes();
+    for(int i = 0; i < runs; i++) {
+      if(directReuse() != target) throw new IllegalStateException("reused encoding did not return the target");
+    }
+    long growth = Pointer.totalBytes() - offHeap;
+    long matrixBytes = target.length() * target.dataType().width();
+    if(growth >= matrixBytes) {
+      throw new IllegalStateException("reused encoding allocated " + growth + " off-heap bytes in " + runs + " batches");
+    }
+  }
+
+  protected static long heapBytesPerCall(Supplier<INDArray> call, int runs) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long id = Thread.currentThread().getId();
+    call.get();
+    long before = threads.getThreadAllocatedBytes(id);
+    for(int i = 0; i < runs; i++) call.get();
+    return (threads.getThreadAllocatedBytes(id) - before) / runs;
+  }
+
+}
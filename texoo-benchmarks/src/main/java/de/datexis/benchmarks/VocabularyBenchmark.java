@@ -0,0 +1,80 @@
+package de.datexis.benchmarks;
+
+import de.datexis.encoder.Vocabulary;
+import org.deeplearning4j.models.word2vec.wordstore.VocabularyHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup throughput of the DL4J VocabularyHolder compared to Vocabulary with open addressing and with a
+ * frozen perfect hash. Every operation looks up a batch of words, of which about 10% are unknown. Query Strings
+ * are created before every lookup like n-grams during encoding, so that their hash codes are not cached.
+ * Run with "-prof gc" to compare allocations per lookup, e.g. bin/texoo-benchmark "Vocabulary -prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VocabularyBenchmark {
+
+  /** number of distinct words in the training data */
+  @Param({"100000"})
+  public int vocabSize;
+
+  /** number of lookups per operation */
+  @Param({"1024"})
+  public int batchSize;
+
+  protected VocabularyHolder holder;
+  protected Vocabulary table;
+  protected Vocabulary frozen;
+  protected char[][] queries;
+
+  @Setup
+  public void setup() {
+    List<String> words = new SyntheticData(42, vocabSize).getVocabulary();
+    holder = new VocabularyHolder.Builder().build();
+    table = new Vocabulary();
+    frozen = new Vocabulary();
+    for(String w : words) {
+      if(!holder.containsWord(w)) holder.addWord(w);
+      else holder.incrementWordCounter(w);
+      table.add(w);
+      frozen.add(w);
+    }
+    holder.updateHuffmanCodes();
+    frozen.freeze();
+    SyntheticData queryData = new SyntheticData(7, vocabSize);
+    queries = new char[batchSize][];
+    for(int i = 0; i < batchSize; i++) {
+      String query = i % 10 == 0 ? queryData.word() + "#" : words.get(queryData.getRandom().nextInt(words.size()));
+      queries[i] = query.toCharArray();
+    }
+  }
+
+  @Benchmark
+  public int lookupHolder() {
+    int sum = 0;
+    for(char[] q : queries) sum += holder.indexOf(new String(q));
+    return sum;
+  }
+
+  @Benchmark
+  public int lookupOpenAddressing() {
+    int sum = 0;
+    for(char[] q : queries) sum += table.indexOf(new String(q));
+    return sum;
+  }
+
+  @Benchmark
+  public int lookupFrozen() {
+    int sum = 0;
+    for(char[] q : queries) sum += frozen.indexOf(new String(q));
+    return sum;
+  }
+
+}
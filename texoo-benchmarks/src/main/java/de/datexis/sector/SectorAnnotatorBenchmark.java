@@ -0,0 +1,84 @@
+package de.datexis.sector;
+
+import de.datexis.benchmarks.SyntheticData;
+import de.datexis.encoder.impl.DummyEncoder;
+import de.datexis.encoder.impl.StructureEncoder;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.sector.encoder.ClassEncoder;
+import de.datexis.sector.model.SectionAnnotation;
+import de.datexis.sector.tagger.SectorEncoder;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for SectorAnnotator.detectSections() (segmentation from attached SECTOR embeddings).
+ * The network is not run, instead synthetic embeddings are attached to all sentences.
+ * This class is located in package de.datexis.sector to access the protected method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SectorAnnotatorBenchmark {
+
+  @Param({"EMD", "BEMD"})
+  public String segmentation;
+
+  /** number of Sentences per Document */
+  @Param({"50", "200"})
+  public int sentences;
+
+  @Param({"16"})
+  public int numDocuments;
+
+  @Param({"128"})
+  public int embeddingSize;
+
+  protected SectorAnnotator sector;
+  protected List<Document> docs;
+  protected SectorAnnotator.SegmentationMethod method;
+
+  @Setup
+  public void setup() {
+    Nd4j.getRandom().setSeed(42);
+    ClassEncoder target = new ClassEncoder();
+    target.trainModel(Arrays.asList("introduction", "history", "symptoms", "treatment", "references"), 0);
+    sector = new SectorAnnotator.Builder()
+      .withId("SEC>T")
+      .withInputEncoders("bench", new DummyEncoder(), new DummyEncoder(), new StructureEncoder())
+      .withTargetEncoder(target)
+      .withModelParams(0, 16, embeddingSize)
+      .build();
+    method = SectorAnnotator.SegmentationMethod.valueOf(segmentation);
+    docs = new SyntheticData(42, 5000).documents(numDocuments, sentences);
+    for(Document doc : docs) {
+      for(Sentence s : doc.getSentences()) {
+        s.putVector(SectorEncoder.class, Nd4j.randn(embeddingSize, 1));
+        s.putVector("embeddingFW", Nd4j.randn(embeddingSize, 1));
+        s.putVector("embeddingBW", Nd4j.randn(embeddingSize, 1));
+        s.putVector(ClassEncoder.class, Nd4j.rand(new long[]{target.getEmbeddingVectorSize(), 1}));
+      }
+    }
+  }
+
+  /** remove predicted sections from the previous invocation */
+  @Setup(Level.Invocation)
+  public void clearSections() {
+    for(Document doc : docs) doc.clearAnnotations(Annotation.Source.PRED, SectionAnnotation.class);
+  }
+
+  @Benchmark
+  public List<Document> detectSections() {
+    sector.detectSections(docs, method);
+    return docs;
+  }
+
+}
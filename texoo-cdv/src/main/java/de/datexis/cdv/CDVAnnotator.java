@@ -9,6 +9,7 @@ import de.datexis.cdv.tagger.CDVModelBuilder;
 import de.datexis.cdv.tagger.CDVSentenceIterator;
 import de.datexis.cdv.tagger.CDVTagger;
 import de.datexis.common.AnnotationHelpers;
+import de.datexis.common.Metrics;
 import de.datexis.common.Timer;
 import de.datexis.common.WordHelpers;
 import de.datexis.encoder.Encoder;
@@ -91,9 +92,11 @@ public class CDVAnnotator extends Annotator {
    */
   public void annotateSentences(Collection<Document> docs) {
     log.info("Running CDV neural net encoding...");
+    long t = Metrics.start();
     timer.start();
     getTagger().attachCDVSentenceVectors(docs, DocumentSentenceIterator.Stage.ENCODE);
     timer.stop();
+    Metrics.record(getClass(), "annotate", t, docs.size());
     getTagger().appendTestLog("Encoding complete", timer.getLong());
   }
   
@@ -314,6 +317,9 @@ public class CDVAnnotator extends Annotator {
     private double dropOut = 0.95;
     private int batchSize = 16; // number of Examples until Sample/Test
     private int numEpochs = 1;
+    private int workers = 1;
+    private int averagingFrequency = 1;
+    private boolean sharedGradients = false;
     
     private boolean classBalancing = false;
     private boolean enabletrainingUI = false;
@@ -393,6 +399,18 @@ public class CDVAnnotator extends Annotator {
       return this;
     }
         
+    /**
+     * Enable data-parallel training with the given number of worker replicas.
+     * @param averagingFrequency number of iterations between parameter averaging
+     * @param sharedGradients use gradient sharing instead of parameter averaging
+     */
+    public Builder withWorkspaceParams(int workers, int averagingFrequency, boolean sharedGradients) {
+      this.workers = workers;
+      this.averagingFrequency = averagingFrequency;
+      this.sharedGradients = sharedGradients;
+      return this;
+    }
+        
     public Builder withInputEncoders(String desc, Encoder inputEncoder, Encoder flagEncoder) {
       this.inputEncoder = inputEncoder;
       this.flagEncoder = flagEncoder;
@@ -459,6 +477,7 @@ public class CDVAnnotator extends Annotator {
       if(enabletrainingUI) tagger.enableTrainingUI();
       tagger.setTrainingParams(examplesPerEpoch, maxSentencesPerDoc, batchSize, numEpochs, true, classBalancing);
       tagger.setTrainingLimits(examplesPerEpoch, maxSentencesPerDoc, maxWordsPerSentence);
+      tagger.setParallelTrainingParams(workers, averagingFrequency, sharedGradients);
       tagger.setEmbeddingLayerSize(this.embeddingLayerSize);
       //ann.getProvenance().setTask(tagger.getId());
       tagger.setName(ann.getProvenance().toString());
@@ -6,6 +6,7 @@ import de.datexis.cdv.index.AspectIndex;
 import de.datexis.cdv.index.AspectIndexBuilder;
 import de.datexis.cdv.index.EntityIndex;
 import de.datexis.cdv.index.PassageIndex;
+import de.datexis.cdv.index.SentenceVectorIndex;
 import de.datexis.cdv.reader.MatchZooReader;
 import de.datexis.cdv.retrieval.QueryRunner;
 import de.datexis.common.CommandLineParser;
@@ -105,8 +106,9 @@ public class EvaluateCDVRetrieval {
     
     // --- query ----------------------------------------------------------------------------------------------------
     QueryRunner runner = new QueryRunner(corpus, entityIndex, aspectIndex, QueryRunner.Strategy.PASSAGE_RANK);
+    runner.setSentenceIndex(SentenceVectorIndex.build(corpus.getDocuments(), entityIndex.getClass(), aspectIndex.getClass()));
     MatchZooReader.addCandidateSamples(corpus, PassageIndex.NUM_CANDIDATES); // adds 64 candidates to be comparable with MatchZoo models
-    runner.retrieveAllQueries(QueryRunner.Candidates.GIVEN);
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.GIVEN);
   
     // --- evaluate ----------------------------------------------------------------------------------------------------
     RetrievalEvaluation eval = new RetrievalEvaluation(corpus.getName());
@@ -137,8 +139,9 @@ public class EvaluateCDVRetrieval {
     
     // --- query ----------------------------------------------------------------------------------------------------
     QueryRunner runner = new QueryRunner(corpus, entityIndex, aspectIndex, QueryRunner.Strategy.PASSAGE_RANK);
+    runner.setSentenceIndex(SentenceVectorIndex.build(corpus.getDocuments(), entityIndex.getClass(), aspectIndex.getClass()));
     MatchZooReader.addCandidateSamples(corpus, PassageIndex.NUM_CANDIDATES); // adds 64 candidates to be comparable with MatchZoo models
-    runner.retrieveAllQueries(QueryRunner.Candidates.GIVEN);
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.GIVEN);
     
     // --- evaluate ----------------------------------------------------------------------------------------------------
     RetrievalEvaluation eval = new RetrievalEvaluation(corpus.getName());
@@ -1,6 +1,9 @@
 package de.datexis.cdv.index;
 
+import de.datexis.common.Metrics;
+import de.datexis.common.QueryCache;
 import de.datexis.common.Resource;
+import de.datexis.common.WordHelpers;
 import de.datexis.model.Dataset;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
@@ -33,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Lucene Index that stores all Documents in a given dataset in memory.
@@ -52,7 +56,20 @@ public class DocumentIndex {
   protected IndexSearcher searcher;
   protected Analyzer analyzer;
   
+  /** results of recent query strings, keys are not lowercased because the parser has case sensitive operators */
+  protected QueryCache<String, List<DocumentResult>> cache = new QueryCache<>("DocumentIndex.search", 10000, 1, TimeUnit.HOURS);
+  
+  /**
+   * Replace the cache of search results.
+   * @param maxSize maximum number of cached queries, or 0 to disable the cache
+   * @param ttl time to live of cached results, or 0 if results do not expire
+   */
+  public void setQueryCache(int maxSize, long ttl, TimeUnit unit) {
+    cache = new QueryCache<>("DocumentIndex.search", maxSize, ttl, unit);
+  }
+  
   public void loadModel(Resource path) throws IOException {
+    cache.invalidate();
     FSDirectory index = FSDirectory.open(path.getPath());
     reader = DirectoryReader.open(index);
     searcher = new IndexSearcher(reader);
@@ -92,6 +109,7 @@ public class DocumentIndex {
   }
   
   public void createInMemoryIndex(Dataset data) throws IOException {
+    cache.invalidate();
     RAMDirectory indexDir = new RAMDirectory();
     createIndex(data, indexDir);
     reader = DirectoryReader.open(indexDir);
@@ -101,6 +119,7 @@ public class DocumentIndex {
   
   public void setSimilarity(Similarity sim) {
     searcher.setSimilarity(sim);
+    cache.invalidate();
   }
   
   public void createIndex(Dataset data, Resource indexPath) throws IOException {
@@ -145,6 +164,15 @@ public class DocumentIndex {
    *  @return a list of <document,passage> IDs
    */
   public List<DocumentResult> search(String querystring, int hits) {
+    long start = Metrics.start();
+    String key = hits + "\t" + WordHelpers.spacePattern.matcher(querystring.trim()).replaceAll(" ");
+    // callers modify the returned list, so we return a copy
+    List<DocumentResult> result = new ArrayList<>(cache.get(key, k -> searchIndex(querystring, hits)));
+    Metrics.record(getClass(), "search", start, 1);
+    return result;
+  }
+  
+  protected List<DocumentResult> searchIndex(String querystring, int hits) {
     
     List<DocumentResult> result = new ArrayList<>();
     
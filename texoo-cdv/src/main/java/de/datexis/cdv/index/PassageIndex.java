@@ -1,7 +1,10 @@
 package de.datexis.cdv.index;
 
 import de.datexis.cdv.retrieval.EntityAspectQueryAnnotation;
+import de.datexis.common.Metrics;
+import de.datexis.common.QueryCache;
 import de.datexis.common.Resource;
+import de.datexis.common.WordHelpers;
 import de.datexis.model.Annotation;
 import de.datexis.model.Dataset;
 import de.datexis.model.Result;
@@ -39,6 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -60,7 +64,20 @@ public class PassageIndex {
   protected IndexSearcher searcher;
   protected Analyzer analyzer;
   
+  /** results of recent query strings, keys are not lowercased because the parser has case sensitive operators */
+  protected QueryCache<String, List<PassageResult>> cache = new QueryCache<>("PassageIndex.search", 10000, 1, TimeUnit.HOURS);
+  
+  /**
+   * Replace the cache of search results.
+   * @param maxSize maximum number of cached queries, or 0 to disable the cache
+   * @param ttl time to live of cached results, or 0 if results do not expire
+   */
+  public void setQueryCache(int maxSize, long ttl, TimeUnit unit) {
+    cache = new QueryCache<>("PassageIndex.search", maxSize, ttl, unit);
+  }
+  
   public void loadModel(Resource path) throws IOException {
+    cache.invalidate();
     FSDirectory index = FSDirectory.open(path.getPath());
     reader = DirectoryReader.open(index);
     searcher = new IndexSearcher(reader);
@@ -101,6 +118,7 @@ public class PassageIndex {
   }
   
   public void createInMemoryIndex(Dataset data) throws IOException {
+    cache.invalidate();
     RAMDirectory indexDir = new RAMDirectory();
     createIndex(data, indexDir);
     reader = DirectoryReader.open(indexDir);
@@ -109,6 +127,7 @@ public class PassageIndex {
   
   public void setSimilarity(Similarity sim) {
     searcher.setSimilarity(sim);
+    cache.invalidate();
   }
   
   public void createIndex(Dataset data, Resource indexPath) throws IOException {
@@ -164,13 +183,7 @@ public class PassageIndex {
     
     Random random = new Random();
     for(de.datexis.model.Query q : corpus.getQueries()) {
-      String entity = q.getAnnotation(EntityAspectQueryAnnotation.class).getEntity();
-      String aspect = q.getAnnotation(EntityAspectQueryAnnotation.class).getAspectHeading();
-      if(aspect == null) aspect = q.getAnnotation(EntityAspectQueryAnnotation.class).getAspect();
-      entity = entity.replace("/", " ").replace("-", " ").replace(":", " ");
-      aspect = aspect.replace("/", " ").replace("-", " ").replace(":", " ");
-      
-      List<PassageResult> candidates = search(entity + " " + aspect, num);
+      List<PassageResult> candidates = search(getQueryString(q), num);
       if(candidates.size() == 0)
         log.error("no match found");
   
@@ -231,6 +244,19 @@ public class PassageIndex {
     }
   }
   
+  /**
+   * @return the entity and aspect of the Query as Lucene query string, without characters that the parser interprets
+   */
+  public static String getQueryString(de.datexis.model.Query q) {
+    EntityAspectQueryAnnotation ann = q.getAnnotation(EntityAspectQueryAnnotation.class);
+    String entity = ann.getEntity();
+    String aspect = ann.getAspectHeading();
+    if(aspect == null) aspect = ann.getAspect();
+    entity = entity.replace("/", " ").replace("-", " ").replace(":", " ");
+    aspect = aspect.replace("/", " ").replace("-", " ").replace(":", " ");
+    return entity + " " + aspect;
+  }
+  
   /**
    * Add Lucene results to Queries as PRED ScoredResult
    * @param candidatesOnly set to TRUE to restrict search on given candidates only
@@ -283,6 +309,15 @@ public class PassageIndex {
    *  @return a list of <document,passage> IDs
    */
   public List<PassageResult> search(String querystring, int hits) {
+    long start = Metrics.start();
+    String key = hits + "\t" + WordHelpers.spacePattern.matcher(querystring.trim()).replaceAll(" ");
+    // callers modify the returned list, so we return a copy
+    List<PassageResult> result = new ArrayList<>(cache.get(key, k -> searchIndex(querystring, hits)));
+    Metrics.record(getClass(), "search", start, 1);
+    return result;
+  }
+  
+  protected List<PassageResult> searchIndex(String querystring, int hits) {
     
     List<PassageResult> result = new ArrayList<>();
     
@@ -0,0 +1,329 @@
+package de.datexis.cdv.index;
+
+import de.datexis.common.Timer;
+import de.datexis.encoder.IEncoder;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.impl.PassageAnnotation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Index that holds the entity and aspect sentence vectors of a corpus in one contiguous matrix
+ * [ entity size + aspect size X sentences ], which is stored column-wise so that the sentences of every Document are
+ * a contiguous block. Offset arrays map Documents, sentence positions and gold passages to matrix columns, so that
+ * passages can be scored directly from a projection without accessing the Documents.
+ * Build the index once after the vectors were attached with CDVTagger.
+ */
+public class SentenceVectorIndex {
+
+  protected final static Logger log = LoggerFactory.getLogger(SentenceVectorIndex.class);
+
+  /** sentence vectors [ entity size + aspect size X sentences ] in column order */
+  protected final INDArray matrix;
+
+  protected final int entitySize, aspectSize;
+
+  /** inverse L2 norm of every column, used to normalize concatenated entity and aspect vectors */
+  protected final float[] inverseNorms;
+
+  protected final Document[] docs;
+
+  /** first column of every Document, and number of sentences as last element */
+  protected final int[] docOffsets;
+
+  /** begin and end positions of every sentence */
+  protected final int[] sentenceBegin, sentenceEnd;
+
+  /** first passage of every Document, and number of passages as last element */
+  protected final int[] passageOffsets;
+
+  /** first column and end column (exclusive) of every gold passage */
+  protected final int[] passageBegin, passageEnd;
+
+  protected final PassageAnnotation[] passages;
+
+  /** Document.hashCode() is expensive, so we compare references */
+  private final Map<Document, Integer> docIndex = new IdentityHashMap<>();
+
+  protected SentenceVectorIndex(List<Document> docs, List<float[][]> entityVectors, List<float[][]> aspectVectors, int entitySize, int aspectSize) {
+    this.entitySize = entitySize;
+    this.aspectSize = aspectSize;
+    this.docs = docs.toArray(new Document[0]);
+    this.docOffsets = new int[docs.size() + 1];
+    int sentences = 0;
+    for(int d = 0; d < docs.size(); d++) {
+      docOffsets[d] = sentences;
+      sentences += docs.get(d).countSentences();
+      docIndex.put(docs.get(d), d);
+    }
+    docOffsets[docs.size()] = sentences;
+    int dim = entitySize + aspectSize;
+    if((long) dim * sentences > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("corpus with " + sentences + " sentences is too large for a single index");
+    }
+    // fill sentence vectors and positions
+    float[] data = new float[dim * sentences];
+    this.inverseNorms = new float[sentences];
+    this.sentenceBegin = new int[sentences];
+    this.sentenceEnd = new int[sentences];
+    List<PassageAnnotation> passageList = new ArrayList<>();
+    this.passageOffsets = new int[docs.size() + 1];
+    for(int d = 0; d < docs.size(); d++) {
+      Document doc = docs.get(d);
+      float[][] vf = entityVectors.get(d);
+      float[][] va = aspectVectors.get(d);
+      int col = docOffsets[d];
+      for(Sentence s : doc.getSentences()) {
+        int t = col - docOffsets[d];
+        int pos = col * dim;
+        for(int i = 0; i < entitySize; i++) data[pos + i] = vf[i][t];
+        for(int i = 0; i < aspectSize; i++) data[pos + entitySize + i] = va[i][t];
+        double norm = 0;
+        for(int i = 0; i < dim; i++) norm += data[pos + i] * data[pos + i];
+        inverseNorms[col] = norm > 0 ? (float) (1. / Math.sqrt(norm)) : 1f;
+        sentenceBegin[col] = s.getBegin();
+        sentenceEnd[col] = s.getEnd();
+        col++;
+      }
+      passageOffsets[d] = passageList.size();
+      passageList.addAll(getPassages(doc));
+    }
+    passageOffsets[docs.size()] = passageList.size();
+    this.passages = passageList.toArray(new PassageAnnotation[0]);
+    this.passageBegin = new int[passages.length];
+    this.passageEnd = new int[passages.length];
+    for(int d = 0; d < docs.size(); d++) {
+      for(int p = passageOffsets[d]; p < passageOffsets[d + 1]; p++) {
+        passageBegin[p] = getFirstSentence(d, passages[p].getBegin());
+        passageEnd[p] = getEndSentence(d, passages[p].getEnd());
+      }
+    }
+    // the index must not be attached to the workspace of the current thread
+    try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+      this.matrix = Nd4j.create(data, new long[]{dim, sentences}, 'f');
+    }
+  }
+
+  /**
+   * Build the index from the vectors that are attached to the given Documents. Document matrices are used if they
+   * exist, otherwise the vectors of all Sentences are collected. Documents without vectors are skipped.
+   * @param entityKey the class of the entity encoder that the vectors are stored under, or null to skip entities
+   * @param aspectKey the class of the aspect encoder that the vectors are stored under, or null to skip aspects
+   */
+  public static SentenceVectorIndex build(Collection<Document> docs, Class<? extends IEncoder> entityKey, Class<? extends IEncoder> aspectKey) {
+    final Timer timer = new Timer();
+    timer.start();
+    List<Document> indexed = new ArrayList<>();
+    List<float[][]> entityVectors = new ArrayList<>();
+    List<float[][]> aspectVectors = new ArrayList<>();
+    int entitySize = -1, aspectSize = -1;
+    for(Document doc : docs) {
+      if(doc.isEmpty()) continue;
+      float[][] vf = entityKey != null ? getVectors(doc, entityKey) : new float[0][];
+      float[][] va = aspectKey != null ? getVectors(doc, aspectKey) : new float[0][];
+      if(vf == null || va == null) {
+        log.warn("skipping document '{}' without sentence vectors", doc.getId());
+        continue;
+      }
+      if((vf.length > 0 && vf[0].length != doc.countSentences()) || (va.length > 0 && va[0].length != doc.countSentences())) {
+        log.warn("skipping document '{}' with truncated sentence vectors", doc.getId());
+        continue;
+      }
+      if(entitySize < 0) {
+        entitySize = vf.length;
+        aspectSize = va.length;
+      } else if(vf.length != entitySize || va.length != aspectSize) {
+        throw new IllegalArgumentException("document '" + doc.getId() + "' has sentence vectors of different size");
+      }
+      indexed.add(doc);
+      entityVectors.add(vf);
+      aspectVectors.add(va);
+    }
+    SentenceVectorIndex index = new SentenceVectorIndex(indexed, entityVectors, aspectVectors, Math.max(0, entitySize), Math.max(0, aspectSize));
+    log.info("Built sentence vector index with {} documents, {} sentences and {} passages [{}]",
+      index.countDocuments(), index.countSentences(), index.passages.length, Timer.millisToLongDHMS(timer.getLong()));
+    return index;
+  }
+
+  /**
+   * @return the vectors of a Document [ embedding size X sentences ], or null if there are none for every Sentence
+   */
+  private static float[][] getVectors(Document doc, Class<? extends IEncoder> key) {
+    INDArray vec = doc.getVector(key);
+    if(vec != null) return vec.castTo(DataType.FLOAT).toFloatMatrix();
+    float[][] result = null;
+    int t = 0;
+    for(Sentence s : doc.getSentences()) {
+      INDArray sentVec = s.getVector(key);
+      if(sentVec == null) return null;
+      float[] data = sentVec.castTo(DataType.FLOAT).reshape(sentVec.length()).toFloatVector();
+      if(result == null) result = new float[data.length][doc.countSentences()];
+      for(int i = 0; i < data.length; i++) result[i][t] = data[i];
+      t++;
+    }
+    return result;
+  }
+
+  /**
+   * @return all gold passages of the Document in sorted order
+   */
+  private static List<PassageAnnotation> getPassages(Document doc) {
+    return doc
+      .streamAnnotations(Annotation.Source.GOLD, PassageAnnotation.class, true)
+      .sorted()
+      .map(ann -> {
+        // update documentRef if it is empty for some reason
+        ann.setDocumentRef(doc);
+        return ann;
+      })
+      .collect(Collectors.toList());
+  }
+
+  public int countDocuments() {
+    return docs.length;
+  }
+
+  public int countSentences() {
+    return docOffsets[docs.length];
+  }
+
+  public int getEntitySize() {
+    return entitySize;
+  }
+
+  public int getAspectSize() {
+    return aspectSize;
+  }
+
+  /**
+   * @return the number of rows of the index, i.e. the size of concatenated entity and aspect vectors
+   */
+  public int getDimension() {
+    return entitySize + aspectSize;
+  }
+
+  public Document getDocument(int d) {
+    return docs[d];
+  }
+
+  /**
+   * @return the index of the given Document, or -1 if it is not indexed
+   */
+  public int indexOf(Document doc) {
+    Integer d = docIndex.get(doc);
+    return d != null ? d : -1;
+  }
+
+  /**
+   * @return the first column of the given Document
+   */
+  public int getDocumentBegin(int d) {
+    return docOffsets[d];
+  }
+
+  /**
+   * @return the end column (exclusive) of the given Document
+   */
+  public int getDocumentEnd(int d) {
+    return docOffsets[d + 1];
+  }
+
+  /**
+   * @return the end (exclusive) of the Documents starting at the given one that have at most blockSize sentences
+   * in total, and at least one Document
+   */
+  public int getBlockEnd(int from, int blockSize) {
+    int end = from + 1;
+    while(end < docs.length && docOffsets[end + 1] - docOffsets[from] <= blockSize) end++;
+    return end;
+  }
+
+  public int getSentenceBegin(int col) {
+    return sentenceBegin[col];
+  }
+
+  public int getSentenceEnd(int col) {
+    return sentenceEnd[col];
+  }
+
+  /**
+   * @return the first column of the given Document whose Sentence starts at or after the given position
+   */
+  public int getFirstSentence(int d, int begin) {
+    int idx = Arrays.binarySearch(sentenceBegin, docOffsets[d], docOffsets[d + 1], begin);
+    if(idx < 0) return -idx - 1;
+    while(idx > docOffsets[d] && sentenceBegin[idx - 1] == begin) idx--;
+    return idx;
+  }
+
+  /**
+   * @return the end column (exclusive) of the given Document whose Sentences end at or before the given position
+   */
+  public int getEndSentence(int d, int end) {
+    int idx = Arrays.binarySearch(sentenceEnd, docOffsets[d], docOffsets[d + 1], end);
+    if(idx < 0) return -idx - 1;
+    while(idx + 1 < docOffsets[d + 1] && sentenceEnd[idx + 1] == end) idx++;
+    return idx + 1;
+  }
+
+  /**
+   * @return the first gold passage of the given Document
+   */
+  public int getPassagesBegin(int d) {
+    return passageOffsets[d];
+  }
+
+  /**
+   * @return the end (exclusive) of the gold passages of the given Document
+   */
+  public int getPassagesEnd(int d) {
+    return passageOffsets[d + 1];
+  }
+
+  public PassageAnnotation getPassage(int p) {
+    return passages[p];
+  }
+
+  /**
+   * @return the first column of the given passage
+   */
+  public int getPassageBegin(int p) {
+    return passageBegin[p];
+  }
+
+  /**
+   * @return the end column (exclusive) of the given passage
+   */
+  public int getPassageEnd(int p) {
+    return passageEnd[p];
+  }
+
+  public float getInverseNorm(int col) {
+    return inverseNorms[col];
+  }
+
+  /**
+   * @return a view on all sentence vectors [ entity size + aspect size X sentences ]
+   */
+  public INDArray getMatrix() {
+    return matrix;
+  }
+
+  /**
+   * @return a view on the given rows and columns of the index
+   */
+  public INDArray getMatrix(int rowBegin, int rowEnd, int colBegin, int colEnd) {
+    return matrix.get(NDArrayIndex.interval(rowBegin, rowEnd), NDArrayIndex.interval(colBegin, colEnd));
+  }
+
+}
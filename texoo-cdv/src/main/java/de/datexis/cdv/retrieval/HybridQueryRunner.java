@@ -0,0 +1,287 @@
+package de.datexis.cdv.retrieval;
+
+import de.datexis.cdv.index.PassageIndex;
+import de.datexis.cdv.index.QueryIndex;
+import de.datexis.cdv.index.SentenceVectorIndex;
+import de.datexis.common.Timer;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Query;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.retrieval.model.ScoredResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * QueryRunner that retrieves passages from a lexical PassageIndex (BM25) and from the dense SentenceVectorIndex
+ * concurrently and merges both rankings with rank fusion. In contrast to candidate generation with the DocumentIndex
+ * and dense reranking, recall is not bounded by the lexical top-k. With reciprocal rank fusion, the lexical ranking
+ * is retrieved only as deep as required to bound the fused top hits.
+ */
+public class HybridQueryRunner extends QueryRunner {
+
+  protected final static Logger log = LoggerFactory.getLogger(HybridQueryRunner.class);
+
+  /** Strategy to merge lexical and dense rankings. */
+  public enum Fusion {
+    /** sum of 1 / (k + rank) over both rankings */
+    RECIPROCAL_RANK,
+    /** weighted sum of min-max normalized scores of both rankings */
+    SCORE
+  }
+
+  protected PassageIndex passageIndex;
+
+  protected Fusion fusion = Fusion.RECIPROCAL_RANK;
+
+  /** rank constant k of reciprocal rank fusion */
+  protected int rankConstant = 60;
+
+  /** weight of the lexical ranking in score fusion, the dense ranking is weighted with 1 - lexicalWeight */
+  protected double lexicalWeight = 0.5;
+
+  /** number of results that are retrieved from each index per query */
+  protected int depth = 100;
+
+  /** number of fused results per query */
+  protected int hits = NUM_CANDIDATES;
+
+  /** position of every document in the sentence vector index by document id */
+  private Map<String, Integer> documents;
+
+  public HybridQueryRunner(Dataset corpus, QueryIndex entityIndex, QueryIndex aspectIndex, PassageIndex passageIndex) {
+    super(corpus, entityIndex, aspectIndex, Strategy.PASSAGE_RANK);
+    this.passageIndex = passageIndex;
+  }
+
+  public void setFusion(Fusion fusion) {
+    this.fusion = fusion;
+  }
+
+  public void setRankConstant(int rankConstant) {
+    this.rankConstant = rankConstant;
+  }
+
+  public void setLexicalWeight(double lexicalWeight) {
+    this.lexicalWeight = lexicalWeight;
+  }
+
+  /**
+   * @param depth number of results that are retrieved from each index per query
+   */
+  public void setDepth(int depth) {
+    this.depth = depth;
+  }
+
+  /**
+   * @param hits number of fused results per query
+   */
+  public void setHits(int hits) {
+    this.hits = hits;
+  }
+
+  /**
+   * Retrieve all Queries from the lexical and dense index and add the fused results. The lexical index is searched
+   * in a background thread while the dense projection runs in batches. The dense index scores every passage in a
+   * single pass, so its ranking is retrieved to the full depth once. Both rankings are consumed incrementally with
+   * reciprocal rank fusion: a query stops as soon as its top hits are bounded (see fuse()), otherwise its lexical
+   * ranking is retrieved again with twice the depth, up to the full depth.
+   */
+  public void retrieveAllQueriesHybrid() {
+    final Timer timer = new Timer();
+    timer.start();
+    List<Query> queries = new ArrayList<>(corpus.getQueries());
+    log.info("Retrieving {} queries on {} documents with {} fusion...", queries.size(), corpus.countDocuments(), fusion);
+    SentenceVectorIndex index = getSentenceIndex();
+    getDocuments();
+    // score fusion normalizes by the lowest score of the full ranking, so it cannot stop early
+    final int initialDepth = fusion == Fusion.RECIPROCAL_RANK ? Math.max(1, Math.min(depth, hits)) : depth;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletableFuture<List<List<ScoredResult>>> lexical = CompletableFuture.supplyAsync(() -> queries.stream()
+        .map(q -> retrieveLexical(q, initialDepth))
+        .collect(Collectors.toList()), executor);
+      List<List<ScoredResult>> dense = new ArrayList<>(queries.size());
+      List<QueryTask> tasks = new ArrayList<>();
+      for(Query q : queries) {
+        List<ScoredResult> results = new ArrayList<>();
+        dense.add(results);
+        QueryTask task = createTask(q, depth, results::add);
+        if(task != null) tasks.add(task);
+      }
+      retrieveTasks(tasks, index);
+      log.info("Finished dense retrieval [{}]", Timer.millisToLongDHMS(timer.setSplit("dense")));
+      List<List<ScoredResult>> lexicalResults = new ArrayList<>(lexical.join());
+      log.info("Finished lexical retrieval [{}]", Timer.millisToLongDHMS(timer.setSplit("lexical")));
+      List<Integer> open = new ArrayList<>(queries.size());
+      for(int i = 0; i < queries.size(); i++) open.add(i);
+      for(int d = initialDepth; !open.isEmpty(); d = Math.min(depth, 2 * d)) {
+        List<Integer> next = new ArrayList<>();
+        for(int i : open) {
+          List<ScoredResult> fused = fuse(lexicalResults.get(i), dense.get(i), d);
+          if(fused == null) next.add(i);
+          else for(ScoredResult result : fused) queries.get(i).addResult(result);
+        }
+        log.debug("{} queries stopped at depth {}", open.size() - next.size(), d);
+        for(int i : next) lexicalResults.set(i, retrieveLexical(queries.get(i), Math.min(depth, 2 * d)));
+        open = next;
+      }
+    } finally {
+      executor.shutdown();
+    }
+    long elapsed = timer.getLong();
+    log.info("Finished {} queries on {} documents... [{}, {} queries/sec]", queries.size(), corpus.countDocuments(), Timer.millisToLongDHMS(elapsed), String.format(Locale.ROOT, "%.2f", queries.size() * 1000. / Math.max(1, elapsed)));
+  }
+
+  /**
+   * @return the passages retrieved from the lexical index in rank order, as results that reference the passage
+   */
+  protected List<ScoredResult> retrieveLexical(Query query, int hits) {
+    List<ScoredResult> results = new ArrayList<>(hits);
+    for(PassageIndex.PassageResult r : passageIndex.search(PassageIndex.getQueryString(query), hits)) {
+      PassageAnnotation passage = findPassage(r.documentId, r.passageId);
+      if(passage == null) {
+        log.warn("passage {} of document {} is not indexed", r.passageId, r.documentId);
+        continue;
+      }
+      ScoredResult result = createResult(passage.getDocumentRef(), passage.getBegin(), passage.getEnd(), r.score);
+      result.setAnnotationRef(passage);
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Use a prebuilt sentence vector index, or invalidate it with null. The positions of the documents are
+   * invalidated as well.
+   */
+  @Override
+  public synchronized void setSentenceIndex(SentenceVectorIndex sentenceIndex) {
+    super.setSentenceIndex(sentenceIndex);
+    documents = null;
+  }
+
+  /**
+   * @return the position of every document in the sentence vector index by document id
+   */
+  protected synchronized Map<String, Integer> getDocuments() {
+    if(documents == null) {
+      SentenceVectorIndex index = getSentenceIndex();
+      documents = new HashMap<>();
+      for(int d = 0; d < index.countDocuments(); d++) {
+        String id = index.getDocument(d).getId();
+        if(id != null && documents.putIfAbsent(id, d) != null) log.warn("duplicate document id {}", id);
+      }
+    }
+    return documents;
+  }
+
+  /**
+   * @return the gold passage with given id in the sentence vector index, or null if it is not indexed. Passages
+   * without id are never found, because the PassageIndex requires an id.
+   */
+  protected PassageAnnotation findPassage(String documentId, String passageId) {
+    Integer d = getDocuments().get(documentId);
+    if(d == null || passageId == null) return null;
+    SentenceVectorIndex index = getSentenceIndex();
+    for(int p = index.getPassagesBegin(d); p < index.getPassagesEnd(d); p++) {
+      if(passageId.equals(index.getPassage(p).getId())) return index.getPassage(p);
+    }
+    return null;
+  }
+
+  /**
+   * Merge the first d lexical and dense results that reference the same passages into the top hits. A passage that
+   * was not reached in a ranking can gain at most the contribution at rank d from it, so its fused score lies
+   * between its partial score and its partial score plus these bounds. A ranking that is exhausted or reached the full
+   * depth contributes nothing beyond its end. The fusion is final once the partial score of each of the top hits is
+   * at least the bound of every passage below it and of every unseen passage, so that both the hits and their order
+   * are the same as at full depth. Score fusion normalizes by the lowest retrieved score and is always final.
+   * Results with equal score keep the order in which they were first seen.
+   * @return the fused results in score order, or null if the rankings are required to a greater depth
+   */
+  protected List<ScoredResult> fuse(List<ScoredResult> lexical, List<ScoredResult> dense, int d) {
+    List<List<ScoredResult>> rankings = Arrays.asList(sortByScore(lexical), sortByScore(dense));
+    double[] weights = fusion == Fusion.SCORE ? new double[] {lexicalWeight, 1. - lexicalWeight} : new double[] {1., 1.};
+    // Document.hashCode() is expensive, so we compare passage references
+    Map<Annotation, Integer> positions = new IdentityHashMap<>();
+    List<ScoredResult> passages = new ArrayList<>();
+    double[] scores = new double[Math.min(lexical.size(), d) + Math.min(dense.size(), d)];
+    // bit mask of the rankings that contain each passage
+    int[] rankedIn = new int[scores.length];
+    // maximum contribution of each ranking to passages that were not reached
+    double[] bounds = new double[rankings.size()];
+    for(int l = 0; l < rankings.size(); l++) {
+      List<ScoredResult> ranking = rankings.get(l);
+      int length = Math.min(ranking.size(), d);
+      boolean exhausted = ranking.size() < d || d >= depth || fusion != Fusion.RECIPROCAL_RANK;
+      bounds[l] = exhausted ? 0. : weights[l] * contribution(d, 0., 0., 0.);
+      if(length == 0) continue;
+      double max = ranking.get(0).getScore(), min = ranking.get(length - 1).getScore();
+      Set<Annotation> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+      for(int r = 0; r < length; r++) {
+        Annotation passage = ranking.get(r).getAnnotationRef();
+        if(!seen.add(passage)) continue;
+        Integer pos = positions.get(passage);
+        if(pos == null) {
+          pos = passages.size();
+          positions.put(passage, pos);
+          passages.add(ranking.get(r));
+        }
+        scores[pos] += weights[l] * contribution(r, ranking.get(r).getScore(), min, max);
+        rankedIn[pos] |= 1 << l;
+      }
+    }
+    List<Integer> order = new ArrayList<>(passages.size());
+    for(int i = 0; i < passages.size(); i++) order.add(i);
+    order.sort((i, j) -> Double.compare(scores[j], scores[i]));
+    int top = Math.min(hits, order.size());
+    double unseen = Arrays.stream(bounds).sum();
+    if(unseen > 0.) {
+      if(order.size() < hits) return null;
+      // highest upper bound of all passages below position i
+      double below = unseen;
+      double[] maxBelow = new double[top];
+      for(int i = order.size() - 1; i >= 0; i--) {
+        if(i < top) maxBelow[i] = below;
+        int pos = order.get(i);
+        double upper = scores[pos];
+        for(int l = 0; l < bounds.length; l++) if((rankedIn[pos] & (1 << l)) == 0) upper += bounds[l];
+        below = Math.max(below, upper);
+      }
+      for(int i = 0; i < top; i++) if(scores[order.get(i)] < maxBelow[i]) return null;
+    }
+    List<ScoredResult> result = new ArrayList<>(top);
+    for(int i : order.subList(0, top)) {
+      Annotation passage = passages.get(i).getAnnotationRef();
+      ScoredResult fused = createResult(passages.get(i).getDocumentRef(), passage.getBegin(), passage.getEnd(), scores[i]);
+      fused.setAnnotationRef(passage);
+      result.add(fused);
+    }
+    return result;
+  }
+
+  /**
+   * @return the contribution of a result at given rank (starting with 0) and score to the fused score
+   */
+  protected double contribution(int rank, double score, double min, double max) {
+    switch(fusion) {
+      case SCORE: return max > min ? (score - min) / (max - min) : 1.;
+      default:
+      case RECIPROCAL_RANK: return 1. / (rankConstant + rank + 1);
+    }
+  }
+
+  private static List<ScoredResult> sortByScore(List<ScoredResult> results) {
+    List<ScoredResult> sorted = new ArrayList<>(results);
+    sorted.sort(Comparator.comparingDouble(ScoredResult::getScore).reversed());
+    return sorted;
+  }
+
+}
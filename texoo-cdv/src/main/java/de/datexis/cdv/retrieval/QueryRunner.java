@@ -2,6 +2,7 @@ package de.datexis.cdv.retrieval;
 
 import de.datexis.cdv.index.DocumentIndex;
 import de.datexis.cdv.index.QueryIndex;
+import de.datexis.cdv.index.SentenceVectorIndex;
 import de.datexis.cdv.model.EntityAspectAnnotation;
 import de.datexis.common.AnnotationHelpers;
 import de.datexis.common.Timer;
@@ -11,6 +12,7 @@ import de.datexis.model.impl.PassageAnnotation;
 import de.datexis.retrieval.model.RelevanceResult;
 import de.datexis.retrieval.model.ScoredResult;
 import org.apache.commons.math3.util.FastMath;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.ops.transforms.Transforms;
@@ -20,7 +22,9 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
@@ -46,6 +50,16 @@ public class QueryRunner {
     INDEX
   }
   
+  /** Query vectors that are used for projection. */
+  public enum QueryMode {
+    /** concatenated entity and aspect vectors */
+    ENTITY_ASPECT,
+    /** entity vector only */
+    ENTITY,
+    /** aspect vector only */
+    ASPECT
+  }
+  
   public final static int NUM_CANDIDATES = 64;
   
   Dataset corpus;
@@ -54,6 +68,19 @@ public class QueryRunner {
   DocumentIndex index;
   protected Timer timer = new Timer();
   
+  /** number of queries that are projected with a single matrix multiplication in batched retrieval */
+  protected int queryBatchSize = 256;
+  
+  /** maximum number of sentences per block of the sentence matrix in batched retrieval */
+  protected int blockSize = 16384;
+  
+  /** maximum number of results per query in retrieval from the sentence index, or 0 to keep all results */
+  protected int maxResults = 0;
+  
+  /** sentence vectors of the corpus, built once on first use or set after CDVTagger.attachCDVSentenceVectors(),
+   * invalidated with invalidateSentenceIndex() */
+  protected SentenceVectorIndex sentenceIndex;
+  
   public QueryRunner(Dataset corpus, QueryIndex entityIndex, QueryIndex aspectIndex) {
     this(corpus, entityIndex, aspectIndex, Strategy.SENTENCE_THRESHOLD);
   }
@@ -63,12 +90,65 @@ public class QueryRunner {
     this.entityIndex = entityIndex;
     this.aspectIndex = aspectIndex;
     this.strategy = strategy;
-    this.index = new DocumentIndex();
-    try {
-      index.createInMemoryIndex(corpus);
-    } catch(IOException e) {
-      e.printStackTrace();
+  }
+  
+  /**
+   * @return the full-text index of the corpus, which is built on first use
+   */
+  protected synchronized DocumentIndex getDocumentIndex() {
+    if(index == null) {
+      index = new DocumentIndex();
+      try {
+        index.createInMemoryIndex(corpus);
+      } catch(IOException e) {
+        e.printStackTrace();
+      }
     }
+    return index;
+  }
+  
+  public void setQueryBatchSize(int queryBatchSize) {
+    this.queryBatchSize = queryBatchSize;
+  }
+  
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+  
+  /**
+   * Use a prebuilt index of the corpus sentence vectors, e.g. to share it between several runners. Setting null
+   * invalidates the index, so that it is built again from the corpus on next use.
+   */
+  public synchronized void setSentenceIndex(SentenceVectorIndex sentenceIndex) {
+    this.sentenceIndex = sentenceIndex;
+  }
+  
+  /**
+   * Invalidate the sentence vector index, so that it is built again from the corpus on next use. The index is a
+   * snapshot of the sentence vectors at the time it was built. Call this after CDVTagger.attachCDVSentenceVectors()
+   * or after adding Documents to the corpus, otherwise new vectors are ignored and new Documents are skipped.
+   */
+  public void invalidateSentenceIndex() {
+    setSentenceIndex(null);
+  }
+  
+  /**
+   * @return the sentence vector index of the corpus, which is built on first use
+   */
+  public synchronized SentenceVectorIndex getSentenceIndex() {
+    if(sentenceIndex == null) {
+      sentenceIndex = SentenceVectorIndex.build(corpus.getDocuments(),
+        entityIndex != null ? entityIndex.getClass() : null,
+        aspectIndex != null ? aspectIndex.getClass() : null);
+    }
+    return sentenceIndex;
+  }
+  
+  /**
+   * @param maxResults maximum number of results per query in retrieval from the sentence index, or 0 to keep all results
+   */
+  public void setMaxResults(int maxResults) {
+    this.maxResults = maxResults;
   }
   
   /**
@@ -98,7 +178,123 @@ public class QueryRunner {
         log.info("Finished query {}/{} '{}' ({}) - '{}' [{}]", i.incrementAndGet(), count, ann.getEntity(), ann.getEntityId(), ann.getAspect(), Timer.millisToLongDHMS(timer.setSplit("query")));
       });
     long elapsed = timer.getLong();
-    log.info("Finished {} queries on {} documents... [{}, {}/q]", count, corpus.countDocuments(), Timer.millisToLongDHMS(elapsed), Timer.millisToLongDHMS(elapsed / count));
+    log.info("Finished {} queries on {} documents... [{}, {}/q, {} queries/sec]", count, corpus.countDocuments(), Timer.millisToLongDHMS(elapsed), Timer.millisToLongDHMS(elapsed / count), String.format(Locale.ROOT, "%.2f", count * 1000. / Math.max(1, elapsed)));
+  }
+  
+  /**
+   * Retrieve all Queries with given candidate strategy in batches. All query vectors of a batch are stacked into a
+   * single matrix and projected onto the sentence vector index of the corpus with one matrix multiplication
+   * per block of documents. Results are equal to retrieveAllQueries(), but limited to maxResults per query.
+   */
+  public void retrieveAllQueriesBatched(Candidates candidateStrategy) {
+    final Timer timer = new Timer();
+    timer.start();
+    long count = corpus.countQueries();
+    log.info("Retrieving {} queries on {} documents in batches of {}...", count, corpus.countDocuments(), queryBatchSize);
+    SentenceVectorIndex index = getSentenceIndex();
+    List<QueryTask> tasks = new ArrayList<>();
+    for(Query q : corpus.getQueries()) {
+      QueryTask task = createTask(q, maxResults, q::addResult);
+      if(task == null) continue;
+      if(candidateStrategy.equals(Candidates.GIVEN)) task.setCandidates(q, index);
+      else if(candidateStrategy.equals(Candidates.INDEX)) task.setDocuments(getIndexCandidates(q), index);
+      tasks.add(task);
+    }
+    log.info("Encoded {} queries [{}]", count, Timer.millisToLongDHMS(timer.setSplit("encode")));
+    retrieveTasks(tasks, index);
+    long elapsed = timer.getLong();
+    log.info("Finished {} queries on {} documents... [{}, {}/q, {} queries/sec]", count, corpus.countDocuments(), Timer.millisToLongDHMS(elapsed), Timer.millisToLongDHMS(elapsed / Math.max(1, count)), String.format(Locale.ROOT, "%.2f", count * 1000. / Math.max(1, elapsed)));
+  }
+  
+  /**
+   * @return a task that retrieves the given Query from the sentence vector index, or null if the Query has no vectors
+   * @param limit maximum number of results, or 0 to keep all results
+   * @param sink consumer of the results, which is called from a single thread
+   */
+  protected QueryTask createTask(Query query, int limit, Consumer<ScoredResult> sink) {
+    INDArray[] vectors = lookupQuery(query.getAnnotation(EntityAspectQueryAnnotation.class));
+    QueryMode mode = getQueryMode(vectors[0], vectors[1]);
+    if(mode == null) {
+      log.warn("skipping query '{}' without entity and aspect vector", query.getText());
+      return null;
+    }
+    return new QueryTask(query, mode, getQueryVector(mode, vectors[0], vectors[1]), limit, sink);
+  }
+  
+  /**
+   * Retrieve all tasks from the sentence vector index in batches of queries with the same mode.
+   */
+  protected void retrieveTasks(List<QueryTask> tasks, SentenceVectorIndex index) {
+    final Timer timer = new Timer();
+    timer.start();
+    Map<QueryMode, List<QueryTask>> modes = new EnumMap<>(QueryMode.class);
+    for(QueryTask task : tasks) modes.computeIfAbsent(task.mode, m -> new ArrayList<>()).add(task);
+    int finished = 0;
+    for(Map.Entry<QueryMode, List<QueryTask>> entry : modes.entrySet()) {
+      List<QueryTask> list = entry.getValue();
+      for(int from = 0; from < list.size(); from += queryBatchSize) {
+        List<QueryTask> batch = list.subList(from, Math.min(from + queryBatchSize, list.size()));
+        retrieveBatch(batch, entry.getKey(), index);
+        finished += batch.size();
+        log.info("Finished query {}/{} [{}]", finished, tasks.size(), Timer.millisToLongDHMS(timer.setSplit("query")));
+      }
+    }
+  }
+  
+  /**
+   * Project a batch of queries onto the sentence vector index block by block and score the passages of all candidate
+   * documents. Every block is restricted to the columns of documents that are candidates of any query. Every query is
+   * scored by a single thread, so results are collected without synchronization.
+   */
+  protected void retrieveBatch(List<QueryTask> batch, QueryMode mode, SentenceVectorIndex index) {
+    // rows of the index that are used in the given mode
+    final int rowBegin = mode == QueryMode.ASPECT ? index.getEntitySize() : 0;
+    final int rowEnd = mode == QueryMode.ENTITY ? index.getEntitySize() : index.getDimension();
+    final int dim = rowEnd - rowBegin;
+    float[] data = new float[batch.size() * dim];
+    for(int i = 0; i < batch.size(); i++) {
+      QueryTask task = batch.get(i);
+      if(task.vector.length != dim) {
+        throw new IllegalArgumentException("query vector of size " + task.vector.length + " does not match " + mode + " sentence vectors of size " + dim);
+      }
+      System.arraycopy(task.vector, 0, data, i * dim, dim);
+    }
+    INDArray queries = Nd4j.create(data, new long[]{batch.size(), dim});
+    for(int from = 0; from < index.countDocuments(); ) {
+      final int to = index.getBlockEnd(from, blockSize);
+      // restrict the block to the first and last candidate document
+      int first = to, last = from - 1;
+      for(QueryTask task : batch) {
+        first = Math.min(first, task.firstDocument(from, to));
+        last = Math.max(last, task.lastDocument(from, to));
+      }
+      from = to;
+      if(first > last) continue;
+      final int colBegin = index.getDocumentBegin(first);
+      final int firstDoc = first, lastDoc = last;
+      float[][] scores = queries.mmul(index.getMatrix(rowBegin, rowEnd, colBegin, index.getDocumentEnd(last))).toFloatMatrix();
+      IntStream.range(0, batch.size()).parallel().forEach(i -> {
+        QueryTask task = batch.get(i);
+        task.forEachDocument(firstDoc, lastDoc, (d, candidates) -> {
+          if(mode == QueryMode.ENTITY_ASPECT) {
+            // normalize all sentences to unit length after stacking
+            for(int c = index.getDocumentBegin(d); c < index.getDocumentEnd(d); c++) scores[i][c - colBegin] *= index.getInverseNorm(c);
+          }
+          scorePassages(index, d, scores[i], colBegin, candidates, task.results);
+        });
+      });
+    }
+    for(QueryTask task : batch) task.finish();
+  }
+  
+  /**
+   * @return the documents retrieved from the document index for the given Query
+   */
+  protected List<Document> getIndexCandidates(Query query) {
+    EntityAspectQueryAnnotation ann = query.getAnnotation(EntityAspectQueryAnnotation.class);
+    return getDocumentIndex().search(ann.getEntity(), NUM_CANDIDATES).stream()
+      .map(cand -> corpus.getDocument(cand.documentId).get())
+      .collect(Collectors.toList());
   }
   
   /**
@@ -146,7 +342,7 @@ public class QueryRunner {
    */
   public Query retrieveQueryFromIndex(Query query) {
     EntityAspectQueryAnnotation ann = query.getAnnotation(EntityAspectQueryAnnotation.class);
-    Collection<DocumentIndex.DocumentResult> candidates = index.search(ann.getEntity(), NUM_CANDIDATES);
+    Collection<DocumentIndex.DocumentResult> candidates = getDocumentIndex().search(ann.getEntity(), NUM_CANDIDATES);
     List<Document> docs = candidates.stream()
       .map(cand -> corpus.getDocument(cand.documentId).get())
       .collect(Collectors.toList());
@@ -158,9 +354,26 @@ public class QueryRunner {
     return retrieveQueryFromDocs(query, docs, null);
   }
   
+  /**
+   * Retrieve Query on the given Documents from the sentence vector index, limited to maxResults.
+   */
   protected Query retrieveQueryFromDocs(Query query, Collection<Document> docs, Collection<? extends Annotation> candidates) {
     // encode query terms once
-    EntityAspectQueryAnnotation ann = query.getAnnotation(EntityAspectQueryAnnotation.class);
+    QueryTask task = createTask(query, maxResults, query::addResult);
+    if(task == null) return query;
+    // correlate documents with query (projection)
+    SentenceVectorIndex index = getSentenceIndex();
+    if(candidates != null) task.setCandidates(candidates, index);
+    else task.setDocuments(docs, index);
+    retrieveBatch(Collections.singletonList(task), task.mode, index);
+    return query;
+  }
+  
+  /**
+   * Lookup the entity and aspect vectors of a Query from the indexes, with fallback encoding if they are not found.
+   * @return array of entity and aspect vector, which are null if the Query has no entity or aspect
+   */
+  protected INDArray[] lookupQuery(EntityAspectQueryAnnotation ann) {
     INDArray qf = null, qa = null;
     if(entityIndex != null && ann.hasEntity()) {
       qf = entityIndex.lookup(ann.getEntityId() != null ? ann.getEntityId() : ann.getEntity()); // query vector lookup
@@ -176,18 +389,30 @@ public class QueryRunner {
         qa = aspectIndex.encode(ann.getAspect()); // fallback encoding
       }
     }
-    final INDArray qf2 = qf;
-    final INDArray qa2 = qa;
-    // correlate documents with query (projection)
-    docs.stream()
-      .parallel()
-      .filter(doc -> !doc.isEmpty())
-      .forEach(doc -> {
-        // encode histogram
-        INDArray hist = getHistogram(doc, qf2, qa2);
-        retrievePassages(doc, query, hist, candidates);
-      });
-    return query;
+    return new INDArray[] {qf, qa};
+  }
+  
+  /**
+   * @return the query mode that getHistogram() uses for the given vectors, or null if there are none
+   */
+  protected static QueryMode getQueryMode(INDArray qf, INDArray qa) {
+    if(qf != null && qa != null) return QueryMode.ENTITY_ASPECT;
+    else if(qf != null) return QueryMode.ENTITY;
+    else if(qa != null) return QueryMode.ASPECT;
+    else return null;
+  }
+  
+  /**
+   * @return the normalized query vector as used in projectQuery()
+   */
+  protected static float[] getQueryVector(QueryMode mode, INDArray qf, INDArray qa) {
+    INDArray q;
+    switch(mode) {
+      case ENTITY_ASPECT: q = Transforms.unitVec(Nd4j.vstack(Transforms.unitVec(qf), Transforms.unitVec(qa))); break;
+      case ENTITY: q = Transforms.unitVec(qf); break;
+      default: q = Transforms.unitVec(qa); break;
+    }
+    return q.castTo(DataType.FLOAT).reshape(q.length()).toFloatVector();
   }
   
   /**
@@ -281,6 +506,80 @@ public class QueryRunner {
     else throw new IllegalArgumentException("Both encodings are null");
   }
   
+  /**
+   * Score the passages of an indexed Document from the projection that starts with column colBegin of the index.
+   * @param candidates candidate passages in the Document, or null to use its gold passages
+   */
+  protected void scorePassages(SentenceVectorIndex index, int d, float[] scores, int colBegin, List<Annotation> candidates, Consumer<ScoredResult> results) {
+    switch(this.strategy) {
+      case PASSAGE_RANK: scorePassagesByRanking(index, d, scores, colBegin, candidates, results); break;
+      default:
+      case SENTENCE_THRESHOLD: scorePassagesByThreshold(index, d, scores, colBegin, results); break;
+    }
+  }
+  
+  /**
+   * Score passages by their average sentence relevance.
+   */
+  protected void scorePassagesByRanking(SentenceVectorIndex index, int d, float[] scores, int colBegin, List<Annotation> candidates, Consumer<ScoredResult> results) {
+    Document doc = index.getDocument(d);
+    if(candidates == null) {
+      for(int p = index.getPassagesBegin(d); p < index.getPassagesEnd(d); p++) {
+        Annotation passage = index.getPassage(p);
+        addResult(doc, passage, scores, index.getPassageBegin(p) - colBegin, index.getPassageEnd(p) - colBegin, results);
+      }
+    } else {
+      for(Annotation cand : candidates) {
+        int begin = index.getFirstSentence(d, cand.getBegin());
+        int end = index.getEndSentence(d, cand.getEnd());
+        addResult(doc, cand, scores, begin - colBegin, end - colBegin, results);
+      }
+    }
+  }
+  
+  /** add a passage result with the average of scores[begin, end) */
+  private static void addResult(Document doc, Annotation passage, float[] scores, int begin, int end, Consumer<ScoredResult> results) {
+    if(end <= begin) return;
+    double sum = 0;
+    for(int t = begin; t < end; t++) sum += scores[t];
+    ScoredResult result = createResult(doc, passage.getBegin(), passage.getEnd(), (float) (sum / (end - begin)));
+    result.setAnnotationRef(passage);
+    results.accept(result);
+  }
+  
+  /**
+   * Score passages using per-sentence thresholds.
+   */
+  protected void scorePassagesByThreshold(SentenceVectorIndex index, int d, float[] scores, int colBegin, Consumer<ScoredResult> results) {
+    Document doc = index.getDocument(d);
+    double thresIn = 0.8;
+    double thresOut = 0.6;
+    boolean inside = false;
+    int begin = 0, end = 0;
+    double length = 1;
+    double sum = 0.;
+    for(int c = index.getDocumentBegin(d); c < index.getDocumentEnd(d); c++) {
+      double p = scores[c - colBegin];
+      if(!inside && p >= thresIn) {
+        inside = true;
+        length = 1;
+        sum = p;
+        begin = index.getSentenceBegin(c);
+        end = index.getSentenceEnd(c);
+      } else if(inside && p < thresOut) {
+        inside = false;
+        results.accept(createResult(doc, begin, end, sum / length));
+      } else if(inside) {
+        length++;
+        sum += p;
+        end = index.getSentenceEnd(c);
+      }
+    }
+    if(inside) {
+      results.accept(createResult(doc, begin, end, sum / length));
+    }
+  }
+  
   protected Query retrievePassagesByRanking(Document doc, Query query, INDArray hist, Collection<? extends Annotation> candidates) {
     if(candidates == null) {
       // generate candidate passages from annotations
@@ -391,11 +690,17 @@ public class QueryRunner {
     return query;
   }
   
-  /** add a result with free begin / end */
-  public void addResult(Query q, Document doc, int begin, int end, double score) {
+  /** create a predicted result with free begin / end */
+  protected static ScoredResult createResult(Document doc, int begin, int end, double score) {
     ScoredResult ann = new ScoredResult(Annotation.Source.PRED, doc, begin, end);
     ann.setConfidence(score);
     ann.setScore(score);
+    return ann;
+  }
+  
+  /** add a result with free begin / end */
+  public void addResult(Query q, Document doc, int begin, int end, double score) {
+    ScoredResult ann = createResult(doc, begin, end, score);
     q.addResult(ann);
     log.trace("adding result from document '{}' with relevance {}: '{}'", doc.getTitle(), score, doc.getText(ann));
   }
@@ -410,4 +715,120 @@ public class QueryRunner {
     log.trace("adding result from document '{}' with relevance {}: '{}'", doc.getTitle(), score, doc.getText(ann));
   }
   
+  /**
+   * A Query in retrieval from the sentence vector index with its normalized vector, candidates and collected results.
+   */
+  protected class QueryTask {
+    
+    protected final Query query;
+    protected final QueryMode mode;
+    protected final float[] vector;
+    protected final Consumer<ScoredResult> results;
+    private final Consumer<ScoredResult> sink;
+    private final PriorityQueue<ScoredResult> topResults;
+    /** sorted indexes of candidate Documents, or null to use all Documents */
+    private int[] docs = null;
+    /** candidate passages of every candidate Document, or null to use the gold passages */
+    private List<Annotation>[] candidates = null;
+    
+    protected QueryTask(Query query, QueryMode mode, float[] vector, int limit, Consumer<ScoredResult> sink) {
+      this.query = query;
+      this.mode = mode;
+      this.vector = vector;
+      this.sink = sink;
+      if(limit > 0) {
+        topResults = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(ScoredResult::getScore));
+        results = result -> {
+          topResults.add(result);
+          if(topResults.size() > limit) topResults.poll();
+        };
+      } else {
+        topResults = null;
+        results = sink;
+      }
+    }
+    
+    /** restrict retrieval to the given Documents */
+    protected void setDocuments(Collection<Document> documents, SentenceVectorIndex index) {
+      int[] indexes = documents.stream().mapToInt(index::indexOf).toArray();
+      docs = Arrays.stream(indexes)
+        .filter(d -> d >= 0)
+        .sorted()
+        .distinct()
+        .toArray();
+      long skipped = Arrays.stream(indexes).filter(d -> d < 0).count();
+      if(skipped > 0) logSkipped(skipped, indexes.length);
+    }
+    
+    private void logSkipped(long skipped, int total) {
+      log.warn("Query '{}' skips {} of {} documents that are not in the sentence vector index, " +
+        "call invalidateSentenceIndex() after attaching new vectors", query.getText(), skipped, total);
+    }
+    
+    /** restrict retrieval to the candidates given in the Query results */
+    protected void setCandidates(Query query, SentenceVectorIndex index) {
+      Collection<RelevanceResult> results = query.getResults(Annotation.Source.GOLD, RelevanceResult.class);
+      results.addAll(query.getResults(Annotation.Source.SILVER, RelevanceResult.class));
+      setCandidates(results, index);
+    }
+    
+    /** restrict retrieval to the given candidate passages */
+    @SuppressWarnings("unchecked")
+    protected void setCandidates(Collection<? extends Annotation> passages, SentenceVectorIndex index) {
+      TreeMap<Integer, List<Annotation>> map = new TreeMap<>();
+      long skipped = 0;
+      for(Annotation passage : passages) {
+        int d = index.indexOf(passage.getDocumentRef());
+        if(d >= 0) map.computeIfAbsent(d, k -> new ArrayList<>()).add(passage);
+        else skipped++;
+      }
+      if(skipped > 0) logSkipped(skipped, passages.size());
+      docs = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+      candidates = map.values().toArray(new List[0]);
+    }
+    
+    /** @return the first candidate Document in [from, to), or to if there is none */
+    protected int firstDocument(int from, int to) {
+      if(docs == null) return from;
+      int i = lowerBound(from);
+      return i < docs.length && docs[i] < to ? docs[i] : to;
+    }
+    
+    /** @return the last candidate Document in [from, to), or from - 1 if there is none */
+    protected int lastDocument(int from, int to) {
+      if(docs == null) return to - 1;
+      int i = lowerBound(to) - 1;
+      return i >= 0 && docs[i] >= from ? docs[i] : from - 1;
+    }
+    
+    /** call the consumer with all candidate Documents in [first, last] and their candidate passages */
+    protected void forEachDocument(int first, int last, DocumentConsumer consumer) {
+      if(docs == null) {
+        for(int d = first; d <= last; d++) consumer.accept(d, null);
+      } else {
+        for(int i = lowerBound(first); i < docs.length && docs[i] <= last; i++) {
+          consumer.accept(docs[i], candidates != null ? candidates[i] : null);
+        }
+      }
+    }
+    
+    /** @return the position of the first candidate Document that is not smaller than d */
+    private int lowerBound(int d) {
+      int i = Arrays.binarySearch(docs, d);
+      return i >= 0 ? i : -i - 1;
+    }
+    
+    protected void finish() {
+      if(topResults != null) {
+        for(ScoredResult result : topResults) sink.accept(result);
+        topResults.clear();
+      }
+    }
+    
+  }
+  
+  protected interface DocumentConsumer {
+    void accept(int d, List<Annotation> candidates);
+  }
+  
 }
@@ -3,6 +3,7 @@ package de.datexis.cdv.tagger;
 import com.google.common.collect.Lists;
 import de.datexis.cdv.index.AspectIndex;
 import de.datexis.cdv.index.EntityIndex;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncodingHelpers;
@@ -21,10 +22,13 @@ import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
 import org.deeplearning4j.earlystopping.EarlyStoppingResult;
 import org.deeplearning4j.earlystopping.listener.EarlyStoppingListener;
 import org.deeplearning4j.earlystopping.trainer.EarlyStoppingGraphTrainer;
+import org.deeplearning4j.earlystopping.trainer.IEarlyStoppingTrainer;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.preprocessor.FeedForwardToRnnPreProcessor;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.optimize.api.TrainingListener;
+import org.deeplearning4j.parallelism.EarlyStoppingParallelTrainer;
+import org.deeplearning4j.parallelism.ParallelWrapper;
 import org.deeplearning4j.ui.api.UIServer;
 import org.deeplearning4j.ui.model.stats.StatsListener;
 import org.deeplearning4j.ui.model.storage.InMemoryStatsStorage;
@@ -207,26 +211,22 @@ public class CDVTagger extends Tagger implements IEncoder {
     timer.start();
     appendTrainLog("Training " + getName() + " with " + numExamples + " examples in " + batches + " batches for " + numEpochs + " epochs.");
     // ParallelWrapper will take care of load balancing between GPUs.
-    /*ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
-        .prefetchBuffer(24)  // DataSets prefetching options. Set this value with respect to number of actual devices
-        .workers(4)          // set number of workers equal or higher then number of available devices. x1-x2 are good values to start with
-        .averagingFrequency(1) // rare averaging improves performance, but might reduce model accuracy
-        .reportScoreAfterAveraging(true) // if set to TRUE, on every averaging model score will be reported
-        .build();*/
+    ParallelWrapper wrapper = createParallelWrapper();
     int n = 0;
     Nd4j.getMemoryManager().togglePeriodicGc(false);
     for(int i = 1; i <= numEpochs; i++) {
       appendTrainLog("Starting epoch " + i + " of " + numEpochs + "\t" + n);
       triggerEpochListeners(true, i - 1);
-      getNN().fit(it);
-      //wrapper.fit(it);
+      if(wrapper != null) wrapper.fit(it);
+      else getNN().fit(it);
       n += numExamples;
       timer.setSplit("epoch");
-      appendTrainLog("Completed epoch " + i + " of " + numEpochs + "\t" + n, timer.getLong("epoch"));
+      appendTrainLog("Completed epoch " + i + " of " + numEpochs + "\t" + n + " using " + workers + " workers (" + (numExamples * 1000L / Math.max(1, timer.getLong("epoch"))) + " examples/s)", timer.getLong("epoch"));
       triggerEpochListeners(false, i - 1);
       if(i < numEpochs) it.reset(); // shuffling may take some time
       Nd4j.getMemoryManager().invokeGc();
     }
+    if(wrapper != null) wrapper.shutdown();
     timer.stop();
     appendTrainLog("Training complete", timer.getLong());
     //Nd4j.getMemoryManager().togglePeriodicGc(true);
@@ -257,8 +257,9 @@ public class CDVTagger extends Tagger implements IEncoder {
       }
     };
     
-    //EarlyStoppingParallelTrainer trainer = new EarlyStoppingParallelTrainer(conf, getNN(), null, trainIt, listener, 4, 4, 1, false, false);
-    EarlyStoppingGraphTrainer trainer = new EarlyStoppingGraphTrainer(conf, getNN(), trainIt, listener);
+    IEarlyStoppingTrainer<ComputationGraph> trainer = isParallelEarlyStopping() ?
+      new EarlyStoppingParallelTrainer<>(conf, getNN(), null, trainIt, listener, workers, workers * 4, averagingFrequency) :
+      new EarlyStoppingGraphTrainer(conf, getNN(), trainIt, listener);
 
     EarlyStoppingResult<ComputationGraph> result = trainer.fit();
     timer.stop();
@@ -293,7 +294,8 @@ public class CDVTagger extends Tagger implements IEncoder {
   }
   
   /**
-   * Attach embeddings and output vectors to sentences of each Document.
+   * Attach embeddings and output vectors to sentences of each Document. A QueryRunner on these Documents keeps
+   * the vectors it has indexed before, call QueryRunner.invalidateSentenceIndex() to use the new ones.
    */
   public void attachCDVSentenceVectors(Collection<Document> docs, Stage stage) {
     DocumentSentenceIterator it = createIterator(stage, docs);
@@ -304,6 +306,7 @@ public class CDVTagger extends Tagger implements IEncoder {
   
   protected void attachCDVSentenceVectors(DocumentSentenceIterator.DocumentBatch batch) {
     // predict outputs
+    long start = Metrics.start();
     INDArray[] weights;
     synchronized(getNN()) {
       getNN().setLabels(batch.dataset.getLabels()); // setting empty labels because batchsize is calculated from labels array
@@ -342,6 +345,7 @@ public class CDVTagger extends Tagger implements IEncoder {
       }
       batchIndex++;
     }
+    Metrics.record(getClass(), "attachSentenceVectors", start, batch.docs.size());
   }
   
   /**
@@ -366,6 +370,7 @@ public class CDVTagger extends Tagger implements IEncoder {
   
   protected void attachCDVDocumentMatrix(DocumentSentenceIterator.DocumentBatch batch) {
     // predict outputs
+    long start = Metrics.start();
     INDArray[] weights;
     synchronized(getNN()) {
       getNN().setLabels(batch.dataset.getLabels()); // setting empty labels because batchsize is calculated from labels array
@@ -405,6 +410,7 @@ public class CDVTagger extends Tagger implements IEncoder {
       }
       batchIndex++;
     }
+    Metrics.record(getClass(), "attachDocumentMatrix", start, batch.docs.size());
   }
   
   @Deprecated
@@ -0,0 +1,183 @@
+package de.datexis.cdv.index;
+
+import de.datexis.cdv.retrieval.EntityAspectQueryAnnotation;
+import de.datexis.cdv.retrieval.QueryRunner;
+import de.datexis.model.*;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the SentenceVectorIndex layout and top-k passage retrieval from the index against brute-force cosine ranking.
+ */
+public class SentenceVectorIndexTest {
+
+  protected final static int ENTITY_SIZE = 5, ASPECT_SIZE = 4;
+
+  protected final QueryIndex entityIndex = new EntityIndex() {};
+  protected final QueryIndex aspectIndex = new AspectIndex() {};
+  protected final Random random = new Random(7);
+
+  protected List<Document> docs;
+  /** stacked sentence vectors [ sentences X entity size + aspect size ] of every Document */
+  protected Map<Document, float[][]> vectors;
+  /** first and end sentence of every gold passage */
+  protected Map<PassageAnnotation, int[]> passageSentences;
+
+  @Before
+  public void createCorpus() {
+    docs = new ArrayList<>();
+    vectors = new IdentityHashMap<>();
+    passageSentences = new IdentityHashMap<>();
+    for(int d = 0; d < 15; d++) {
+      int length = 1 + random.nextInt(9);
+      StringBuilder text = new StringBuilder();
+      for(int s = 0; s < length; s++) text.append("The quick brown fox jumps over the lazy dog. ");
+      Document doc = DocumentFactory.fromText(text.toString().trim());
+      doc.setId("doc" + d);
+      float[][] vf = new float[ENTITY_SIZE][length];
+      float[][] va = new float[ASPECT_SIZE][length];
+      float[][] stacked = new float[length][ENTITY_SIZE + ASPECT_SIZE];
+      for(int s = 0; s < length; s++) {
+        for(int i = 0; i < ENTITY_SIZE; i++) stacked[s][i] = vf[i][s] = (float) random.nextGaussian();
+        for(int i = 0; i < ASPECT_SIZE; i++) stacked[s][ENTITY_SIZE + i] = va[i][s] = (float) random.nextGaussian();
+      }
+      doc.putVector(entityIndex.getClass(), Nd4j.create(vf).castTo(DataType.FLOAT));
+      doc.putVector(aspectIndex.getClass(), Nd4j.create(va).castTo(DataType.FLOAT));
+      vectors.put(doc, stacked);
+      for(int s = 0; s < length; ) {
+        int end = Math.min(length, s + 1 + random.nextInt(3));
+        PassageAnnotation passage = new PassageAnnotation(Annotation.Source.GOLD);
+        passage.setBegin(doc.getSentence(s).getBegin());
+        passage.setEnd(doc.getSentence(end - 1).getEnd());
+        doc.addAnnotation(passage);
+        passageSentences.put(passage, new int[] {s, end});
+        s = end;
+      }
+      docs.add(doc);
+    }
+  }
+
+  protected static double cosine(float[] a, float[] b) {
+    double dot = 0, na = 0, nb = 0;
+    for(int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      na += a[i] * a[i];
+      nb += b[i] * b[i];
+    }
+    return dot / Math.sqrt(na * nb);
+  }
+
+  @Test
+  public void testLayout() {
+    SentenceVectorIndex index = SentenceVectorIndex.build(docs, entityIndex.getClass(), aspectIndex.getClass());
+    assertEquals(docs.size(), index.countDocuments());
+    assertEquals(ENTITY_SIZE + ASPECT_SIZE, index.getDimension());
+    int col = 0;
+    for(int d = 0; d < docs.size(); d++) {
+      Document doc = docs.get(d);
+      assertSame(doc, index.getDocument(d));
+      assertEquals(d, index.indexOf(doc));
+      assertEquals(col, index.getDocumentBegin(d));
+      float[][] stacked = vectors.get(doc);
+      for(int s = 0; s < doc.countSentences(); s++, col++) {
+        INDArray column = index.getMatrix(0, index.getDimension(), col, col + 1);
+        for(int i = 0; i < stacked[s].length; i++) assertEquals(stacked[s][i], column.getFloat(i), 1e-6f);
+        double norm = 0;
+        for(float f : stacked[s]) norm += f * f;
+        assertEquals(1. / Math.sqrt(norm), index.getInverseNorm(col), 1e-5);
+        assertEquals(doc.getSentence(s).getBegin(), index.getSentenceBegin(col));
+      }
+      assertEquals(col, index.getDocumentEnd(d));
+      for(int p = index.getPassagesBegin(d); p < index.getPassagesEnd(d); p++) {
+        int[] range = passageSentences.get(index.getPassage(p));
+        assertEquals(index.getDocumentBegin(d) + range[0], index.getPassageBegin(p));
+        assertEquals(index.getDocumentBegin(d) + range[1], index.getPassageEnd(p));
+      }
+    }
+    assertEquals(col, index.countSentences());
+  }
+
+  @Test
+  public void testBlocks() {
+    SentenceVectorIndex index = SentenceVectorIndex.build(docs, entityIndex.getClass(), aspectIndex.getClass());
+    for(int blockSize : new int[] {1, 5, 12, index.countSentences(), index.countSentences() + 1}) {
+      int blocks = 0;
+      for(int from = 0; from < index.countDocuments(); blocks++) {
+        int to = index.getBlockEnd(from, blockSize);
+        assertTrue(to > from);
+        int sentences = index.getDocumentEnd(to - 1) - index.getDocumentBegin(from);
+        // a block exceeds the block size only if it contains a single document
+        assertTrue(sentences <= blockSize || to == from + 1);
+        // the next document would not have fit into the block
+        if(to < index.countDocuments()) assertTrue(index.getDocumentEnd(to) - index.getDocumentBegin(from) > blockSize);
+        from = to;
+      }
+      if(blockSize >= index.countSentences()) assertEquals(1, blocks);
+    }
+  }
+
+  @Test
+  public void testTopKRetrieval() {
+    for(int blockSize : new int[] {4, 10, 16384}) {
+      for(int maxResults : new int[] {0, 1, 6}) {
+        assertTopK(blockSize, maxResults);
+      }
+    }
+  }
+
+  protected void assertTopK(int blockSize, int maxResults) {
+    float[] qf = new float[ENTITY_SIZE], qa = new float[ASPECT_SIZE];
+    for(int i = 0; i < ENTITY_SIZE; i++) qf[i] = (float) random.nextGaussian();
+    for(int i = 0; i < ASPECT_SIZE; i++) qa[i] = (float) random.nextGaussian();
+    // stacked query of unit entity and aspect vectors
+    double nf = 0, na = 0;
+    for(float f : qf) nf += f * f;
+    for(float f : qa) na += f * f;
+    float[] q = new float[ENTITY_SIZE + ASPECT_SIZE];
+    for(int i = 0; i < ENTITY_SIZE; i++) q[i] = (float) (qf[i] / Math.sqrt(nf));
+    for(int i = 0; i < ASPECT_SIZE; i++) q[ENTITY_SIZE + i] = (float) (qa[i] / Math.sqrt(na));
+
+    // brute-force ranking of all passages by their average sentence cosine similarity
+    List<Map.Entry<PassageAnnotation, Double>> expected = new ArrayList<>();
+    for(Map.Entry<PassageAnnotation, int[]> passage : passageSentences.entrySet()) {
+      float[][] stacked = vectors.get(passage.getKey().getDocumentRef());
+      double sum = 0;
+      for(int s = passage.getValue()[0]; s < passage.getValue()[1]; s++) sum += cosine(q, stacked[s]);
+      expected.add(new AbstractMap.SimpleEntry<>(passage.getKey(), sum / (passage.getValue()[1] - passage.getValue()[0])));
+    }
+    expected.sort(Map.Entry.<PassageAnnotation, Double>comparingByValue().reversed());
+    if(maxResults > 0) expected = expected.subList(0, maxResults);
+
+    Dataset corpus = new Dataset("test", docs);
+    Query query = EntityAspectQueryAnnotation.createQuery("entity", "aspect");
+    EntityAspectQueryAnnotation ann = query.getAnnotation(EntityAspectQueryAnnotation.class);
+    QueryRunner runner = new QueryRunner(corpus, entityIndex, aspectIndex, QueryRunner.Strategy.PASSAGE_RANK) {
+      @Override
+      protected INDArray[] lookupQuery(EntityAspectQueryAnnotation a) {
+        assertSame(ann, a);
+        return new INDArray[] { Nd4j.create(qf, new long[]{ENTITY_SIZE, 1}), Nd4j.create(qa, new long[]{ASPECT_SIZE, 1}) };
+      }
+    };
+    runner.setSentenceIndex(SentenceVectorIndex.build(docs, entityIndex.getClass(), aspectIndex.getClass()));
+    runner.setBlockSize(blockSize);
+    runner.setMaxResults(maxResults);
+    runner.retrieveQuery(query);
+
+    List<? extends Result> actual = query.getResults(Annotation.Source.PRED);
+    assertEquals(expected.size(), actual.size());
+    for(int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i).getKey(), actual.get(i).getAnnotationRef());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getScore(), 1e-4);
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+package de.datexis.cdv.retrieval;
+
+import de.datexis.cdv.index.AspectIndex;
+import de.datexis.cdv.index.EntityIndex;
+import de.datexis.cdv.index.QueryIndex;
+import de.datexis.model.*;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.preprocess.DocumentFactory;
+import de.datexis.retrieval.model.ScoredResult;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares retrieval from the sentence vector index with the per-document projection of QueryRunner.
+ */
+public class QueryRunnerTest {
+
+  protected final static int ENTITY_SIZE = 8, ASPECT_SIZE = 6;
+
+  protected final QueryIndex entityIndex = new EntityIndex() {};
+  protected final QueryIndex aspectIndex = new AspectIndex() {};
+  protected final Random random = new Random(42);
+
+  /** entity and aspect vectors of all queries, the entity or aspect may be null */
+  protected final Map<EntityAspectQueryAnnotation, INDArray[]> queryVectors = new IdentityHashMap<>();
+
+  /** QueryRunner that looks up the fixed query vectors */
+  protected class TestQueryRunner extends QueryRunner {
+
+    TestQueryRunner(Dataset corpus, Strategy strategy) {
+      super(corpus, entityIndex, aspectIndex, strategy);
+    }
+
+    @Override
+    protected INDArray[] lookupQuery(EntityAspectQueryAnnotation ann) {
+      return queryVectors.get(ann);
+    }
+
+  }
+
+  protected float[] randomUnitVector(int size) {
+    float[] v = new float[size];
+    double norm = 0;
+    for(int i = 0; i < size; i++) {
+      v[i] = (float) random.nextGaussian();
+      norm += v[i] * v[i];
+    }
+    for(int i = 0; i < size; i++) v[i] /= Math.sqrt(norm);
+    return v;
+  }
+
+  /**
+   * @return a column vector that is close to the given vector with some noise, normalized to unit length
+   */
+  protected float[] similarVector(float[] v) {
+    float[] noise = randomUnitVector(v.length);
+    float[] result = new float[v.length];
+    double norm = 0;
+    for(int i = 0; i < v.length; i++) {
+      result[i] = v[i] + 0.2f * noise[i];
+      norm += result[i] * result[i];
+    }
+    for(int i = 0; i < v.length; i++) result[i] /= Math.sqrt(norm);
+    return result;
+  }
+
+  /**
+   * @return a corpus of Documents with gold passages and sentence vectors, where some sentences are similar to the
+   * given query vectors, and the given queries
+   */
+  protected Dataset createCorpus(List<float[][]> queries) {
+    Dataset corpus = new Dataset("test");
+    for(int d = 0; d < 12; d++) {
+      int length = 3 + random.nextInt(10);
+      StringBuilder text = new StringBuilder();
+      for(int s = 0; s < length; s++) text.append("The quick brown fox jumps over the lazy dog. ");
+      Document doc = DocumentFactory.fromText(text.toString().trim());
+      doc.setId("doc" + d);
+      assertEquals(length, doc.countSentences());
+      float[][] vf = new float[ENTITY_SIZE][length];
+      float[][] va = new float[ASPECT_SIZE][length];
+      for(int s = 0; s < length; s++) {
+        float[][] query = random.nextInt(3) > 0 ? queries.get(random.nextInt(queries.size())) : null;
+        float[] ef = query != null && query[0] != null ? similarVector(query[0]) : randomUnitVector(ENTITY_SIZE);
+        float[] ea = query != null && query[1] != null ? similarVector(query[1]) : randomUnitVector(ASPECT_SIZE);
+        for(int i = 0; i < ENTITY_SIZE; i++) vf[i][s] = ef[i];
+        for(int i = 0; i < ASPECT_SIZE; i++) va[i][s] = ea[i];
+      }
+      doc.putVector(entityIndex.getClass(), Nd4j.create(vf).castTo(DataType.FLOAT));
+      doc.putVector(aspectIndex.getClass(), Nd4j.create(va).castTo(DataType.FLOAT));
+      // gold passages of one to three sentences
+      for(int s = 0; s < length; ) {
+        int end = Math.min(length, s + 1 + random.nextInt(3));
+        PassageAnnotation passage = new PassageAnnotation(Annotation.Source.GOLD);
+        passage.setBegin(doc.getSentence(s).getBegin());
+        passage.setEnd(doc.getSentence(end - 1).getEnd());
+        doc.addAnnotation(passage);
+        s = end;
+      }
+      corpus.addDocument(doc);
+    }
+    return corpus;
+  }
+
+  /**
+   * @return a Query with the given vectors, which are registered for lookup
+   */
+  protected Query createQuery(String entity, String aspect, float[][] vectors) {
+    Query query = EntityAspectQueryAnnotation.createQuery(entity, aspect);
+    INDArray qf = vectors[0] != null ? Nd4j.create(vectors[0], new long[]{vectors[0].length, 1}) : null;
+    INDArray qa = vectors[1] != null ? Nd4j.create(vectors[1], new long[]{vectors[1].length, 1}) : null;
+    queryVectors.put(query.getAnnotation(EntityAspectQueryAnnotation.class), new INDArray[] {qf, qa});
+    return query;
+  }
+
+  /**
+   * @return the results of the per-document projection with projectQuery() and retrievePassages(), limited to the
+   * best results if limit > 0
+   */
+  protected List<? extends Result> retrieveReference(QueryRunner runner, Dataset corpus, Query query, int limit) {
+    INDArray[] vectors = queryVectors.get(query.getAnnotation(EntityAspectQueryAnnotation.class));
+    Query reference = new Query();
+    for(Document doc : corpus.getDocuments()) {
+      INDArray hist = runner.getHistogram(doc, vectors[0], vectors[1]);
+      runner.retrievePassages(doc, reference, hist);
+    }
+    List<? extends Result> results = reference.getResults(Annotation.Source.PRED);
+    return limit > 0 ? results.subList(0, Math.min(limit, results.size())) : results;
+  }
+
+  protected void assertResultsEqual(List<? extends Result> expected, List<? extends Result> actual) {
+    assertEquals(toString(expected), toString(actual));
+    for(int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-4);
+      assertEquals(expected.get(i).getAnnotationRef(), actual.get(i).getAnnotationRef());
+    }
+  }
+
+  protected static List<String> toString(List<? extends Result> results) {
+    return results.stream()
+      .map(r -> r.getDocumentRef().getId() + ":" + r.getBegin() + "-" + r.getEnd())
+      .collect(Collectors.toList());
+  }
+
+  protected void testRetrieval(QueryRunner.Strategy strategy, int maxResults, int blockSize, int queryBatchSize) {
+    List<float[][]> vectors = Arrays.asList(
+      new float[][] {randomUnitVector(ENTITY_SIZE), randomUnitVector(ASPECT_SIZE)},
+      new float[][] {randomUnitVector(ENTITY_SIZE), randomUnitVector(ASPECT_SIZE)},
+      new float[][] {randomUnitVector(ENTITY_SIZE), null},
+      new float[][] {null, randomUnitVector(ASPECT_SIZE)}
+    );
+    Dataset corpus = createCorpus(vectors);
+    List<Query> queries = new ArrayList<>();
+    for(int q = 0; q < vectors.size(); q++) {
+      Query query = createQuery(vectors.get(q)[0] != null ? "entity" + q : null, vectors.get(q)[1] != null ? "aspect" + q : null, vectors.get(q));
+      queries.add(query);
+      corpus.addQuery(query);
+    }
+    TestQueryRunner runner = new TestQueryRunner(corpus, strategy);
+    runner.setMaxResults(maxResults);
+    runner.setBlockSize(blockSize);
+    runner.setQueryBatchSize(queryBatchSize);
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.ALL);
+
+    int total = 0;
+    for(int q = 0; q < queries.size(); q++) {
+      List<? extends Result> expected = retrieveReference(runner, corpus, queries.get(q), maxResults);
+      assertResultsEqual(expected, queries.get(q).getResults(Annotation.Source.PRED));
+      // single query retrieval uses the same index
+      Query single = createQuery("single", "single", vectors.get(q));
+      runner.retrieveQuery(single);
+      assertResultsEqual(expected, single.getResults(Annotation.Source.PRED));
+      total += expected.size();
+    }
+    assertTrue(total > 0);
+  }
+
+  @Test
+  public void testPassageRank() {
+    testRetrieval(QueryRunner.Strategy.PASSAGE_RANK, 0, 16384, 256);
+  }
+
+  @Test
+  public void testPassageRankInBlocks() {
+    testRetrieval(QueryRunner.Strategy.PASSAGE_RANK, 5, 7, 2);
+  }
+
+  @Test
+  public void testSentenceThreshold() {
+    testRetrieval(QueryRunner.Strategy.SENTENCE_THRESHOLD, 0, 16384, 256);
+  }
+
+  @Test
+  public void testSentenceThresholdInBlocks() {
+    testRetrieval(QueryRunner.Strategy.SENTENCE_THRESHOLD, 3, 7, 1);
+  }
+
+  @Test
+  public void testGivenCandidates() {
+    List<float[][]> vectors = Collections.singletonList(new float[][] {randomUnitVector(ENTITY_SIZE), randomUnitVector(ASPECT_SIZE)});
+    Dataset corpus = createCorpus(vectors);
+    Query query = createQuery("entity", "aspect", vectors.get(0));
+    corpus.addQuery(query);
+    // two passages of two documents are given as candidates
+    List<Document> docs = Arrays.asList(corpus.getDocument(3).get(), corpus.getDocument(8).get());
+    List<PassageAnnotation> candidates = new ArrayList<>();
+    for(Document doc : docs) {
+      doc.streamAnnotations(PassageAnnotation.class).limit(2).forEach(passage -> {
+        candidates.add(passage);
+        ScoredResult result = new ScoredResult(Annotation.Source.GOLD, doc, passage.getBegin(), passage.getEnd());
+        query.addResult(result);
+      });
+    }
+    TestQueryRunner runner = new TestQueryRunner(corpus, QueryRunner.Strategy.PASSAGE_RANK);
+    runner.setBlockSize(7);
+    runner.retrieveAllQueriesBatched(QueryRunner.Candidates.GIVEN);
+
+    INDArray[] q = queryVectors.get(query.getAnnotation(EntityAspectQueryAnnotation.class));
+    Query reference = new Query();
+    for(Document doc : docs) {
+      runner.retrievePassages(doc, reference, runner.getHistogram(doc, q[0], q[1]), query.getResults(Annotation.Source.GOLD, ScoredResult.class));
+    }
+    assertEquals(candidates.size(), reference.getResults(Annotation.Source.PRED).size());
+    List<? extends Result> actual = query.getResults(Annotation.Source.PRED);
+    List<? extends Result> expected = reference.getResults(Annotation.Source.PRED);
+    assertEquals(toString(expected), toString(actual));
+    for(int i = 0; i < expected.size(); i++) assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-4);
+  }
+
+  @Test
+  public void testInvalidateSentenceIndex() {
+    List<float[][]> vectors = Collections.singletonList(new float[][] {randomUnitVector(ENTITY_SIZE), randomUnitVector(ASPECT_SIZE)});
+    Dataset corpus = createCorpus(vectors);
+    TestQueryRunner runner = new TestQueryRunner(corpus, QueryRunner.Strategy.PASSAGE_RANK);
+    INDArray[] q = {Nd4j.create(vectors.get(0)[0], new long[]{ENTITY_SIZE, 1}), Nd4j.create(vectors.get(0)[1], new long[]{ASPECT_SIZE, 1})};
+    Query first = createQuery("entity", "aspect", vectors.get(0));
+    runner.retrieveQuery(first);
+    assertTrue(first.getResults(Annotation.Source.PRED).size() > 0);
+
+    // a Document that is added after the first query is not in the index and skipped
+    Document added = createCorpus(vectors).getDocument(0).get();
+    added.setId("added");
+    corpus.addDocument(added);
+    Query skipped = runner.retrieveQueryFromDocs(createQuery("entity", "aspect", vectors.get(0)), Collections.singleton(added));
+    assertEquals(0, skipped.getResults(Annotation.Source.PRED).size());
+
+    // vectors that are attached again are used after invalidation
+    Document doc = corpus.getDocument(3).get();
+    float[][] vf = new float[ENTITY_SIZE][doc.countSentences()];
+    float[][] va = new float[ASPECT_SIZE][doc.countSentences()];
+    for(int s = 0; s < doc.countSentences(); s++) {
+      float[] ef = similarVector(vectors.get(0)[0]), ea = similarVector(vectors.get(0)[1]);
+      for(int i = 0; i < ENTITY_SIZE; i++) vf[i][s] = ef[i];
+      for(int i = 0; i < ASPECT_SIZE; i++) va[i][s] = ea[i];
+    }
+    doc.putVector(entityIndex.getClass(), Nd4j.create(vf).castTo(DataType.FLOAT));
+    doc.putVector(aspectIndex.getClass(), Nd4j.create(va).castTo(DataType.FLOAT));
+    runner.invalidateSentenceIndex();
+
+    for(Document d : Arrays.asList(added, doc)) {
+      Query reference = new Query();
+      runner.retrievePassages(d, reference, runner.getHistogram(d, q[0], q[1]));
+      Query actual = runner.retrieveQueryFromDocs(createQuery("entity", "aspect", vectors.get(0)), Collections.singleton(d));
+      assertTrue(reference.getResults(Annotation.Source.PRED).size() > 0);
+      assertResultsEqual(reference.getResults(Annotation.Source.PRED), actual.getResults(Annotation.Source.PRED));
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+package cc.fasttext;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Direct binding to the FastText port from https://github.com/sszuev/fastText_java that reads word vectors from
+ * the input matrix without reflection, boxing or intermediate Vector objects. It lives in the package of the
+ * port to access its package-private matrix and vector data.
+ */
+public class FastTextBinding {
+
+  private final FastText ft;
+  private final Dictionary dict;
+  private final Model model;
+  private final int dim;
+
+  public FastTextBinding(FastText ft) {
+    this.ft = ft;
+    this.dict = ft.getDictionary();
+    this.model = ft.getModel();
+    this.dim = ft.getArgs().dim();
+  }
+
+  public int getDimension() {
+    return dim;
+  }
+
+  public int getNumWords() {
+    return dict.nwords();
+  }
+
+  public String getWord(int id) {
+    return dict.getWord(id);
+  }
+
+  /**
+   * @return the id of the word in the dictionary, or -1 if the word is out of vocabulary
+   */
+  public int getWordId(String word) {
+    return dict.getId(word);
+  }
+
+  /**
+   * Writes the word vector, i.e. the average of all subword vectors, into target at given offset.
+   * The result is identical to FastText.getWordVector().
+   */
+  public void getWordVector(String word, float[] target, int offset) {
+    if(model.isQuant()) {
+      System.arraycopy(ft.getWordVector(word).data(), 0, target, offset, dim);
+      return;
+    }
+    List<Integer> subwords = dict.getSubwords(word);
+    float[][] rows = model.input().data();
+    Arrays.fill(target, offset, offset + dim, 0f);
+    for(int i = 0; i < subwords.size(); i++) {
+      float[] row = rows[subwords.get(i)];
+      for(int j = 0; j < dim; j++) target[offset + j] += row[j];
+    }
+    if(!subwords.isEmpty()) {
+      float norm = 1f / subwords.size();
+      for(int j = 0; j < dim; j++) target[offset + j] *= norm;
+    }
+  }
+
+  /**
+   * @return the sentence vector as float array
+   */
+  public float[] getSentenceVector(String sentence) {
+    return ft.getSentenceVector(sentence).data();
+  }
+
+  /**
+   * @return the normalized vectors of all dictionary words as rows, which are computed once and kept softly
+   */
+  public float[][] getNormalizedWordVectors() {
+    return ft.getPrecomputedWordVectors().data();
+  }
+
+  /**
+   * @return the data of the vector without copy
+   */
+  public static float[] getData(Vector vec) {
+    return vec.data();
+  }
+
+  /**
+   * @return a Vector that is backed by the given data
+   */
+  public static Vector toVector(float[] data) {
+    return new Vector(data);
+  }
+
+}
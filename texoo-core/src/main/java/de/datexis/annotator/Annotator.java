@@ -1,11 +1,12 @@
 package de.datexis.annotator;
 
-import de.datexis.tagger.Tagger;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.model.Dataset;
 import de.datexis.model.Document;
 import de.datexis.tagger.AbstractIterator;
 import de.datexis.tagger.EmptyTagger;
+import de.datexis.tagger.Tagger;
 import de.datexis.preprocess.DocumentFactory;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -80,7 +81,9 @@ public class Annotator {
   }
   
   public void annotate(Collection<Document> docs) {
+    long t = Metrics.start();
     tagger.tag(docs);
+    Metrics.record(getClass(), "annotate", t, docs.size());
   }
   
   public Document createDocument(String text) {
@@ -2,12 +2,10 @@ package de.datexis.annotator;
 
 import de.datexis.common.ExternalResource;
 import de.datexis.common.Resource;
+import de.datexis.common.SubtypeRegistry;
 import de.datexis.encoder.Encoder;
 import de.datexis.tagger.Tagger;
 import org.nd4j.shade.jackson.databind.ObjectMapper;
-import org.reflections.Configuration;
-import org.reflections.Reflections;
-import org.reflections.util.ConfigurationBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.CDATASection;
@@ -48,13 +46,11 @@ public class AnnotatorFactory {
   final static Map<String,Class<? extends AnnotatorComponent>> componentClasses = new TreeMap<>();
   
   static {
-    Configuration conf = ConfigurationBuilder.build("de.datexis").setExpandSuperTypes(false);
-    Reflections reflections = new Reflections(conf);
     annotatorClasses.put("Annotator", Annotator.class);
-    Set<Class<? extends Annotator>> annotators = reflections.getSubTypesOf(Annotator.class);
+    Set<Class<? extends Annotator>> annotators = SubtypeRegistry.getSubTypesOf(Annotator.class);
     for(Class<? extends Annotator> c : annotators) annotatorClasses.put(c.getSimpleName(), c);         
     componentClasses.put("AnnotatorComponent", AnnotatorComponent.class);
-    Set<Class<? extends AnnotatorComponent>> components = reflections.getSubTypesOf(AnnotatorComponent.class);
+    Set<Class<? extends AnnotatorComponent>> components = SubtypeRegistry.getSubTypesOf(AnnotatorComponent.class);
     for(Class<? extends AnnotatorComponent> c : components) componentClasses.put(c.getSimpleName(), c);         
   }
   
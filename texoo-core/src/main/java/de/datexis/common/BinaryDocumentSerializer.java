@@ -0,0 +1,642 @@
+package de.datexis.common;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Helper class for compact binary Document serialization. In contrast to JSON, Sentence and Token
+ * boundaries are stored explicitly, so no tokenization is required when reading Documents.
+ *
+ * A file consists of a header and a sequence of independent blocks. Every block holds a number of
+ * Documents and its own string table, so blocks can be decoded in parallel. Block contents can
+ * optionally be compressed with Deflate. Numbers are written as variable-length integers and
+ * Strings are written only once per block.
+ *
+ * Documents and Annotations are written using their common fields. Additional String fields of
+ * Annotation subclasses are written natively as well. All other additional fields are stored as JSON,
+ * so that all types that can be serialized with ObjectSerializer are supported.
+ */
+public class BinaryDocumentSerializer {
+
+  protected final static Logger log = LoggerFactory.getLogger(BinaryDocumentSerializer.class);
+
+  /** file header: "TXB" + version */
+  protected static final byte[] MAGIC = { 'T', 'X', 'B', 2 };
+
+  /** marks the beginning of every block */
+  protected static final int BLOCK_SYNC = 0x54584253;
+
+  /** size of the block header in bytes */
+  protected static final int BLOCK_HEADER_SIZE = 16;
+
+  protected static final byte FLAG_DEFLATE = 1;
+
+  /** written instead of the ordinal for Annotations without source */
+  protected static final int NULL_SOURCE = 0xFF;
+
+  /** Annotation without additional fields */
+  protected static final int EXTRA_NONE = 0;
+  /** Annotation with additional String fields as name/value pairs */
+  protected static final int EXTRA_STRINGS = 1;
+  /** Annotation with additional fields as JSON */
+  protected static final int EXTRA_JSON = 2;
+
+  /** default uncompressed size of a block in bytes */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+  /** fields that are written natively and removed from the JSON fallback */
+  protected static final String[] DOCUMENT_FIELDS = { "id", "uid", "title", "language", "type", "begin", "length", "text", "annotations" };
+  protected static final String[] ANNOTATION_FIELDS = { "class", "uid", "begin", "length", "text", "source", "confidence" };
+
+  /** type information of all Annotation classes, resolved once per class */
+  private static final Map<Class<?>, AnnotationType> annotationTypes = new ConcurrentHashMap<>();
+
+  /** Annotation classes of all type ids that were read */
+  private static final Map<String, AnnotationType> annotationTypeIds = new ConcurrentHashMap<>();
+
+  private BinaryDocumentSerializer() {}
+
+  /**
+   * Writes all Documents into a binary file using Deflate compression.
+   */
+  public static void writeDocuments(Iterable<Document> docs, Resource res) throws IOException {
+    try(Writer writer = new Writer(res.getOutputStream(), true, DEFAULT_BLOCK_SIZE)) {
+      for(Document doc : docs) writer.write(doc);
+    }
+  }
+
+  /**
+   * @return an Iterator that reads Documents block by block from a binary file.
+   */
+  public static Iterator<Document> readDocumentIterable(Resource res) throws IOException {
+    return new Reader(res.getInputStream());
+  }
+
+  /**
+   * @return a parallel Stream over all Documents of a binary file. Blocks are read and decoded concurrently.
+   */
+  public static Stream<Document> streamDocumentsParallel(Resource res) throws IOException {
+    final File file = res.toFile();
+    return findBlockOffsets(file)
+      .parallelStream()
+      .flatMap(offset -> readBlock(file, offset).stream());
+  }
+
+  /**
+   * @return the byte offsets of all blocks in a binary file. Blocks can be read independently using readBlock().
+   */
+  public static List<Long> findBlockOffsets(File file) throws IOException {
+    List<Long> offsets = new ArrayList<>();
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      readHeader(raf);
+      long pos = raf.getFilePointer();
+      while(pos + BLOCK_HEADER_SIZE <= raf.length()) {
+        raf.seek(pos);
+        if(raf.readInt() != BLOCK_SYNC) throw new IOException("corrupt block at offset " + pos);
+        raf.readInt(); // number of documents
+        raf.readInt(); // raw length
+        int storedLength = raf.readInt();
+        offsets.add(pos);
+        pos += BLOCK_HEADER_SIZE + storedLength;
+      }
+    }
+    return offsets;
+  }
+
+  /**
+   * @return all Documents in the block that starts at the given offset
+   */
+  public static List<Document> readBlock(File file, long offset) {
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      boolean deflate = (readHeader(raf) & FLAG_DEFLATE) != 0;
+      raf.seek(offset);
+      return readBlock(raf, deflate);
+    } catch(IOException ex) {
+      throw new UncheckedIOException("could not read block at offset " + offset, ex);
+    }
+  }
+
+  protected static byte readHeader(DataInput in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if(!Arrays.equals(Arrays.copyOf(magic, 3), Arrays.copyOf(MAGIC, 3))) throw new IOException("not a binary document file");
+    if(magic[3] != MAGIC[3]) throw new IOException("unsupported binary document version " + magic[3]);
+    return in.readByte();
+  }
+
+  protected static List<Document> readBlock(DataInput in, boolean deflate) throws IOException {
+    if(in.readInt() != BLOCK_SYNC) throw new IOException("corrupt block");
+    int numDocs = in.readInt();
+    int rawLength = in.readInt();
+    byte[] stored = new byte[in.readInt()];
+    in.readFully(stored);
+    byte[] raw = stored;
+    if(deflate) {
+      raw = new byte[rawLength];
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(stored);
+        int n = 0;
+        while(n < rawLength && !inflater.finished()) n += inflater.inflate(raw, n, rawLength - n);
+      } catch(DataFormatException ex) {
+        throw new IOException("corrupt compressed block", ex);
+      } finally {
+        inflater.end();
+      }
+    }
+    BlockDecoder decoder = new BlockDecoder(raw);
+    List<Document> docs = new ArrayList<>(numDocs);
+    for(int i = 0; i < numDocs; i++) docs.add(decoder.readDocument());
+    return docs;
+  }
+
+  /**
+   * Streaming writer for binary Document files.
+   */
+  public static class Writer implements Closeable {
+
+    protected final DataOutputStream out;
+    protected final boolean deflate;
+    protected final int blockSize;
+    protected BlockEncoder block = new BlockEncoder();
+    protected int blockDocs = 0;
+
+    /**
+     * @param os the stream to write into, will be closed on close()
+     * @param deflate enable Deflate compression of blocks
+     * @param blockSize uncompressed size in bytes after which a block is flushed
+     */
+    public Writer(OutputStream os, boolean deflate, int blockSize) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(os));
+      this.deflate = deflate;
+      this.blockSize = blockSize;
+      out.write(MAGIC);
+      out.writeByte(deflate ? FLAG_DEFLATE : 0);
+    }
+
+    public void write(Document doc) throws IOException {
+      block.writeDocument(doc);
+      blockDocs++;
+      if(block.size() >= blockSize) flushBlock();
+    }
+
+    /**
+     * Writes the current block. All Documents written afterwards will start a new block.
+     */
+    public void flushBlock() throws IOException {
+      if(blockDocs == 0) return;
+      byte[] raw = block.toByteArray();
+      byte[] stored = raw;
+      int storedLength = raw.length;
+      if(deflate) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        stored = new byte[raw.length + raw.length / 1000 + 64];
+        try {
+          deflater.setInput(raw);
+          deflater.finish();
+          storedLength = 0;
+          while(!deflater.finished()) {
+            if(storedLength == stored.length) stored = Arrays.copyOf(stored, stored.length * 2);
+            storedLength += deflater.deflate(stored, storedLength, stored.length - storedLength);
+          }
+        } finally {
+          deflater.end();
+        }
+      }
+      out.writeInt(BLOCK_SYNC);
+      out.writeInt(blockDocs);
+      out.writeInt(raw.length);
+      out.writeInt(storedLength);
+      out.write(stored, 0, storedLength);
+      block = new BlockEncoder();
+      blockDocs = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flushBlock();
+      out.close();
+    }
+
+  }
+
+  /**
+   * Streaming reader for binary Document files. Reads one block at a time.
+   */
+  public static class Reader implements Iterator<Document>, Closeable {
+
+    protected final DataInputStream in;
+    protected final boolean deflate;
+    protected Iterator<Document> current = Collections.emptyIterator();
+
+    public Reader(InputStream is) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(is));
+      this.deflate = (readHeader(in) & FLAG_DEFLATE) != 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while(!current.hasNext()) {
+          in.mark(1);
+          if(in.read() < 0) {
+            in.close();
+            return false;
+          }
+          in.reset();
+          current = readBlock(in, deflate).iterator();
+        }
+        return true;
+      } catch(IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    public Document next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      return current.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  }
+
+  /**
+   * Encodes Documents into a single block with variable-length integers and a string table.
+   */
+  protected static class BlockEncoder {
+
+    protected final ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    protected final Map<String, Integer> strings = new HashMap<>();
+    protected byte[] buf = new byte[4096];
+    protected int pos = 0;
+
+    public int size() {
+      return pos;
+    }
+
+    public byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+
+    protected void ensure(int n) {
+      if(pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+    }
+
+    protected void writeByte(int b) {
+      ensure(1);
+      buf[pos++] = (byte) b;
+    }
+
+    protected void writeVarLong(long v) {
+      ensure(10);
+      while((v & ~0x7FL) != 0) {
+        buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[pos++] = (byte) v;
+    }
+
+    protected void writeVarInt(int v) {
+      writeVarLong(v & 0xFFFFFFFFL);
+    }
+
+    protected void writeSignedVarInt(int v) {
+      writeVarInt((v << 1) ^ (v >> 31));
+    }
+
+    protected void writeDouble(double d) {
+      long v = Double.doubleToLongBits(d);
+      ensure(8);
+      for(int i = 56; i >= 0; i -= 8) buf[pos++] = (byte) (v >>> i);
+    }
+
+    /**
+     * Writes a String: 0 = null, 1 = new literal, 2+ = reference into the string table.
+     */
+    protected void writeString(String s) {
+      if(s == null) {
+        writeVarInt(0);
+        return;
+      }
+      Integer id = strings.get(s);
+      if(id != null) {
+        writeVarInt(id + 2);
+      } else {
+        strings.put(s, strings.size());
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(1);
+        writeVarInt(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+      }
+    }
+
+    protected void writeUid(Long uid) {
+      writeVarLong(uid == null ? 0 : uid + 1);
+    }
+
+    public void writeDocument(Document doc) throws IOException {
+      // subclasses are written with their additional fields as JSON
+      if(doc.getClass() != Document.class) {
+        ObjectNode node = mapper.valueToTree(doc);
+        node.remove(Arrays.asList(DOCUMENT_FIELDS));
+        writeString(mapper.writeValueAsString(node));
+      } else {
+        writeString(null);
+      }
+      writeString(doc.getId());
+      writeUid(doc.getUid());
+      writeString(doc.getTitle());
+      writeString(doc.getLanguage());
+      writeString(doc.getType());
+      writeSignedVarInt(doc.getBegin());
+      writeVarInt(doc.getLength());
+      // sentences and tokens are positioned relative to the end of their predecessor
+      int cursor = doc.getBegin();
+      writeVarInt(doc.countSentences());
+      for(Sentence s : doc.getSentences()) {
+        writeSignedVarInt(s.getBegin() - cursor);
+        writeVarInt(s.getLength());
+        writeVarInt(s.countTokens());
+        cursor = s.getBegin();
+        for(Token t : s.getTokens()) {
+          writeString(t.getText());
+          writeSignedVarInt(t.getBegin() - cursor);
+          writeSignedVarInt(t.getLength() - t.getText().length());
+          cursor = t.getEnd();
+        }
+        cursor = s.getEnd();
+      }
+      writeVarLong(doc.countAnnotations());
+      for(Annotation ann : doc.getAnnotations()) {
+        writeAnnotation(ann);
+      }
+    }
+
+    protected void writeAnnotation(Annotation ann) throws IOException {
+      AnnotationType type = annotationTypes.computeIfAbsent(ann.getClass(), c -> new AnnotationType(mapper, c));
+      writeString(type.id);
+      if(type.extraFields.isEmpty()) {
+        writeByte(EXTRA_NONE);
+      } else if(type.stringFields) {
+        writeByte(EXTRA_STRINGS);
+        List<String> values = new ArrayList<>(type.extraFields.size());
+        for(BeanPropertyDefinition prop : type.extraFields) values.add((String) prop.getAccessor().getValue(ann));
+        writeVarInt((int) values.stream().filter(Objects::nonNull).count());
+        for(int i = 0; i < values.size(); i++) {
+          if(values.get(i) == null) continue;
+          writeString(type.extraFields.get(i).getName());
+          writeString(values.get(i));
+        }
+      } else {
+        writeByte(EXTRA_JSON);
+        ObjectNode node = mapper.valueToTree(ann);
+        node.remove(Arrays.asList(ANNOTATION_FIELDS));
+        writeString(mapper.writeValueAsString(node));
+      }
+      writeUid(ann.getUid());
+      writeSignedVarInt(ann.getBegin());
+      writeVarInt(ann.getLength());
+      writeString(ann.getText());
+      writeByte(ann.getSource() == null ? NULL_SOURCE : ann.getSource().ordinal());
+      writeDouble(ann.getConfidence());
+    }
+
+  }
+
+  /**
+   * Decodes Documents from a single block.
+   */
+  protected static class BlockDecoder {
+
+    protected final ObjectMapper mapper = ObjectSerializer.getObjectMapper();
+    protected final List<String> strings = new ArrayList<>();
+    protected final byte[] buf;
+    protected int pos = 0;
+
+    public BlockDecoder(byte[] buf) {
+      this.buf = buf;
+    }
+
+    protected int readByte() {
+      return buf[pos++] & 0xFF;
+    }
+
+    protected long readVarLong() {
+      long v = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buf[pos++];
+        v |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while((b & 0x80) != 0);
+      return v;
+    }
+
+    protected int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    protected int readSignedVarInt() {
+      int v = readVarInt();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    protected double readDouble() {
+      long v = 0;
+      for(int i = 0; i < 8; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+      return Double.longBitsToDouble(v);
+    }
+
+    protected String readString() {
+      int id = readVarInt();
+      if(id == 0) return null;
+      if(id > 1) return strings.get(id - 2);
+      int length = readVarInt();
+      String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      strings.add(s);
+      return s;
+    }
+
+    protected Long readUid() {
+      long uid = readVarLong();
+      return uid == 0 ? null : uid - 1;
+    }
+
+    public Document readDocument() throws IOException {
+      String json = readString();
+      Document doc = json == null ? new Document() : mapper.readerFor(Document.class).readValue(json);
+      doc.setId(readString());
+      doc.setUid(readUid());
+      doc.setTitle(readString());
+      doc.setLanguage(readString());
+      doc.setType(readString());
+      int begin = readSignedVarInt();
+      int length = readVarInt();
+      int cursor = begin;
+      int numSentences = readVarInt();
+      for(int i = 0; i < numSentences; i++) {
+        int sBegin = cursor + readSignedVarInt();
+        int sLength = readVarInt();
+        int numTokens = readVarInt();
+        Sentence s = new Sentence(new ArrayList<>(numTokens));
+        cursor = sBegin;
+        for(int j = 0; j < numTokens; j++) {
+          String text = readString();
+          int tBegin = cursor + readSignedVarInt();
+          int tEnd = tBegin + text.length() + readSignedVarInt();
+          s.addToken(new Token(text, tBegin, tEnd));
+          cursor = tEnd;
+        }
+        s.setBegin(sBegin);
+        s.setLength(sLength);
+        doc.addSentence(s, false);
+        cursor = s.getEnd();
+      }
+      doc.setBegin(begin);
+      doc.setLength(length);
+      long numAnnotations = readVarLong();
+      if(numAnnotations > 0) {
+        List<Annotation> anns = new ArrayList<>((int) numAnnotations);
+        for(long i = 0; i < numAnnotations; i++) anns.add(readAnnotation());
+        doc.addAnnotations(anns);
+      }
+      return doc;
+    }
+
+    protected Annotation readAnnotation() throws IOException {
+      String id = readString();
+      int extra = readByte();
+      Annotation ann;
+      if(extra == EXTRA_JSON) {
+        ObjectNode node = (ObjectNode) mapper.readTree(readString());
+        if(id != null) node.put("class", id);
+        ann = mapper.treeToValue(node, Annotation.class);
+      } else {
+        AnnotationType type = getAnnotationType(id);
+        ann = type.newInstance();
+        if(extra == EXTRA_STRINGS) {
+          int n = readVarInt();
+          for(int i = 0; i < n; i++) type.setField(ann, readString(), readString());
+        }
+      }
+      ann.setUid(readUid());
+      int begin = readSignedVarInt();
+      ann.setBegin(begin);
+      ann.setEnd(begin + readVarInt());
+      ann.setText(readString());
+      int source = readByte();
+      ann.setSource(source == NULL_SOURCE ? null : Annotation.Source.values()[source]);
+      ann.setConfidence(readDouble());
+      return ann;
+    }
+
+    /**
+     * @return the Annotation class of the given type id, which is resolved by Jackson once
+     */
+    protected AnnotationType getAnnotationType(String id) throws IOException {
+      if(id == null) throw new IOException("Annotation without type");
+      AnnotationType type = annotationTypeIds.get(id);
+      if(type == null) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("class", id);
+        Class<? extends Annotation> clazz = mapper.treeToValue(node, Annotation.class).getClass();
+        type = annotationTypes.computeIfAbsent(clazz, c -> new AnnotationType(mapper, c));
+        annotationTypeIds.put(id, type);
+      }
+      return type;
+    }
+
+  }
+
+  /**
+   * JSON type id of an Annotation class and its fields that are not written natively.
+   */
+  protected static class AnnotationType {
+
+    final Class<?> clazz;
+    final String id;
+    /** serializable fields of the subclass that are not common Annotation fields */
+    final List<BeanPropertyDefinition> extraFields = new ArrayList<>();
+    /** true if all extra fields are Strings that can be read and written without JSON */
+    final boolean stringFields;
+    private final Map<String, BeanPropertyDefinition> mutators = new HashMap<>();
+    private Constructor<?> constructor;
+
+    AnnotationType(ObjectMapper mapper, Class<?> clazz) {
+      this.clazz = clazz;
+      try {
+        TypeSerializer typeSerializer = mapper.getSerializerFactory()
+          .createTypeSerializer(mapper.getSerializationConfig(), mapper.constructType(Annotation.class));
+        this.id = typeSerializer.getTypeIdResolver().idFromValueAndType(null, clazz);
+      } catch(JsonMappingException ex) {
+        throw new UncheckedIOException("could not resolve type id of " + clazz.getName(), ex);
+      }
+      Set<String> common = new HashSet<>(Arrays.asList(ANNOTATION_FIELDS));
+      BeanDescription desc = mapper.getSerializationConfig().introspect(mapper.constructType(clazz));
+      boolean strings = true;
+      for(BeanPropertyDefinition prop : desc.findProperties()) {
+        if(!prop.couldSerialize() || common.contains(prop.getName())) continue;
+        prop.getAccessor().fixAccess(true);
+        extraFields.add(prop);
+        if(prop.getRawPrimaryType() != String.class) strings = false;
+      }
+      this.stringFields = strings;
+      if(strings) {
+        for(BeanPropertyDefinition prop : mapper.getDeserializationConfig().introspect(mapper.constructType(clazz)).findProperties()) {
+          if(prop.getMutator() == null) continue;
+          prop.getMutator().fixAccess(true);
+          mutators.put(prop.getName(), prop);
+        }
+      }
+    }
+
+    Annotation newInstance() throws IOException {
+      try {
+        if(constructor == null) {
+          Constructor<?> c = clazz.getDeclaredConstructor();
+          c.setAccessible(true);
+          constructor = c;
+        }
+        return (Annotation) constructor.newInstance();
+      } catch(ReflectiveOperationException | RuntimeException ex) {
+        throw new IOException("could not create Annotation of type " + clazz.getName(), ex);
+      }
+    }
+
+    void setField(Annotation ann, String name, String value) {
+      BeanPropertyDefinition prop = mutators.get(name);
+      if(prop != null) prop.getMutator().setValue(ann, value); // unknown fields are ignored like in JSON
+    }
+
+  }
+
+}
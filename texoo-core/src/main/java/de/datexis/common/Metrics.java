@@ -0,0 +1,283 @@
+package de.datexis.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Lightweight metrics registry with latency histograms, counters and gauges.
+ * Metrics are disabled by default and can be enabled with -Dtexoo.metrics=true or setEnabled(true).
+ * Instrumented code uses start() and record(), which only cost a single volatile read when disabled:
+ * <pre>
+ *   long t = Metrics.start();
+ *   ...
+ *   Metrics.record(getClass(), "annotate", t, docs.size());
+ * </pre>
+ * This records latency (in nanoseconds) into histogram "SimpleClassName.annotate" and the number of
+ * processed items into counter "SimpleClassName.annotate.items".
+ */
+public class Metrics {
+
+  protected final static Logger log = LoggerFactory.getLogger(Metrics.class);
+
+  /** system property to enable metrics on startup */
+  public static final String ENABLE_PROPERTY = "texoo.metrics";
+
+  /** returned by start() if metrics are disabled, System.nanoTime() can be any other value */
+  public static final long DISABLED = Long.MIN_VALUE;
+
+  private static volatile boolean enabled = Boolean.getBoolean(ENABLE_PROPERTY);
+
+  private static final Map<String,Histogram> histograms = new ConcurrentHashMap<>();
+  private static final Map<String,Counter> counters = new ConcurrentHashMap<>();
+  private static final Map<String,DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+  private Metrics() {}
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  /**
+   * Remove all registered metrics.
+   */
+  public static void reset() {
+    histograms.clear();
+    counters.clear();
+    gauges.clear();
+  }
+
+  public static Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  public static Counter counter(String name) {
+    return counters.computeIfAbsent(name, n -> new Counter());
+  }
+
+  /**
+   * Register a gauge that is evaluated on every snapshot. An existing gauge with the same name is replaced.
+   */
+  public static void gauge(String name, DoubleSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /**
+   * Register a gauge that is evaluated on every snapshot, if there is no gauge with the same name yet.
+   */
+  public static void gaugeIfAbsent(String name, DoubleSupplier value) {
+    gauges.putIfAbsent(name, value);
+  }
+
+  /**
+   * @return current time in nanoseconds, or DISABLED if metrics are disabled
+   */
+  public static long start() {
+    return enabled ? System.nanoTime() : DISABLED;
+  }
+
+  /**
+   * Record the time elapsed since start() into histogram "name".
+   */
+  public static void record(String name, long start) {
+    if(start == DISABLED || !enabled) return;
+    histogram(name).record(System.nanoTime() - start);
+  }
+
+  /**
+   * Record the time elapsed since start() into histogram "Owner.operation" and add the number of items to
+   * counter "Owner.operation.items".
+   */
+  public static void record(Class<?> owner, String operation, long start, long items) {
+    if(start == DISABLED || !enabled) return;
+    long elapsed = System.nanoTime() - start;
+    String name = owner.getSimpleName() + "." + operation;
+    histogram(name).record(elapsed);
+    counter(name + ".items").add(items);
+  }
+
+  /**
+   * @return a point-in-time copy of all metrics, sorted by name
+   */
+  public static Snapshot snapshot() {
+    Snapshot snapshot = new Snapshot();
+    snapshot.timestamp = System.currentTimeMillis();
+    for(Map.Entry<String,Histogram> e : new TreeMap<>(histograms).entrySet()) {
+      snapshot.histograms.put(e.getKey(), e.getValue().snapshot());
+    }
+    for(Map.Entry<String,Counter> e : new TreeMap<>(counters).entrySet()) {
+      snapshot.counters.put(e.getKey(), e.getValue().get());
+    }
+    for(Map.Entry<String,DoubleSupplier> e : new TreeMap<>(gauges).entrySet()) {
+      try {
+        snapshot.gauges.put(e.getKey(), e.getValue().getAsDouble());
+      } catch(RuntimeException ex) {
+        log.warn("could not read gauge {}: {}", e.getKey(), ex.toString());
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Write a snapshot of all metrics as JSON.
+   */
+  public static void writeJSON(Resource file) {
+    ObjectSerializer.writeJSON(snapshot(), file);
+  }
+
+  /**
+   * Write a snapshot of all metrics as CSV with one line per metric.
+   */
+  public static void writeCSV(Resource file) throws IOException {
+    Snapshot snapshot = snapshot();
+    try(Writer out = new OutputStreamWriter(file.getOutputStream(), StandardCharsets.UTF_8)) {
+      out.write("type,name,count,value,mean,min,max,p50,p90,p99,p999\n");
+      for(Map.Entry<String,HistogramSnapshot> e : snapshot.histograms.entrySet()) {
+        HistogramSnapshot h = e.getValue();
+        out.write(String.format(Locale.ROOT, "histogram,%s,%d,%d,%.1f,%d,%d,%d,%d,%d,%d\n",
+          e.getKey(), h.count, h.sum, h.mean, h.min, h.max, h.p50, h.p90, h.p99, h.p999));
+      }
+      for(Map.Entry<String,Long> e : snapshot.counters.entrySet()) {
+        out.write(String.format(Locale.ROOT, "counter,%s,,%d,,,,,,,\n", e.getKey(), e.getValue()));
+      }
+      for(Map.Entry<String,Double> e : snapshot.gauges.entrySet()) {
+        out.write(String.format(Locale.ROOT, "gauge,%s,,%s,,,,,,,\n", e.getKey(), e.getValue()));
+      }
+    }
+  }
+
+  /**
+   * A monotonic counter.
+   */
+  public static class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void inc() {
+      value.increment();
+    }
+
+    public void add(long n) {
+      value.add(n);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+
+  }
+
+  /**
+   * A lock-free histogram for non-negative long values (e.g. latencies in nanoseconds) with HDR-style
+   * log-linear buckets: every power of two is divided into 32 linear sub-buckets, so that percentiles
+   * have a relative error below 3% over the full value range using a fixed amount of memory.
+   */
+  public static class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (62 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    public void record(long value) {
+      if(value < 0) value = 0;
+      buckets.incrementAndGet(bucketIndex(value));
+      count.increment();
+      sum.add(value);
+      min.accumulate(value);
+      max.accumulate(value);
+    }
+
+    static int bucketIndex(long value) {
+      if(value < 2 * SUB_BUCKETS) return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** @return the smallest value that falls into the given bucket */
+    static long bucketLowerBound(int index) {
+      if(index < 2 * SUB_BUCKETS) return index;
+      int shift = index / SUB_BUCKETS - 1;
+      return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /** @return the largest value that falls into the given bucket */
+    static long bucketUpperBound(int index) {
+      if(index < 2 * SUB_BUCKETS) return index;
+      int shift = index / SUB_BUCKETS - 1;
+      return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return the highest value that is equivalent to the given percentile (within bucket precision)
+     */
+    public long getValueAtPercentile(double percentile) {
+      long total = count.sum();
+      if(total == 0) return 0;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100. * total));
+      long seen = 0;
+      for(int i = 0; i < NUM_BUCKETS; i++) {
+        seen += buckets.get(i);
+        if(seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+      }
+      return max.get();
+    }
+
+    public HistogramSnapshot snapshot() {
+      HistogramSnapshot s = new HistogramSnapshot();
+      s.count = count.sum();
+      s.sum = sum.sum();
+      if(s.count > 0) {
+        s.mean = (double) s.sum / s.count;
+        s.min = min.get();
+        s.max = max.get();
+        s.p50 = getValueAtPercentile(50);
+        s.p90 = getValueAtPercentile(90);
+        s.p99 = getValueAtPercentile(99);
+        s.p999 = getValueAtPercentile(99.9);
+      }
+      return s;
+    }
+
+  }
+
+  public static class HistogramSnapshot {
+    public long count, sum, min, max, p50, p90, p99, p999;
+    public double mean;
+  }
+
+  public static class Snapshot {
+    public long timestamp;
+    public final Map<String,HistogramSnapshot> histograms = new LinkedHashMap<>();
+    public final Map<String,Long> counters = new LinkedHashMap<>();
+    public final Map<String,Double> gauges = new LinkedHashMap<>();
+  }
+
+}
@@ -9,8 +9,6 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.reflections.Reflections;
-import org.reflections.util.ConfigurationBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,10 +28,8 @@ public class ObjectSerializer {
   private static ObjectMapper getInstance() {
     if(mapper == null) {
       mapper = new ObjectMapper();
-      org.reflections.Configuration conf = ConfigurationBuilder.build("de.datexis").setExpandSuperTypes(false);
-      Reflections reflections = new Reflections(conf);
-      // search for all extensions of datexis Document model
-      for(Class<? extends Span> c : reflections.getSubTypesOf(Span.class)) mapper.registerSubtypes(c);
+      // register all extensions of datexis Document model
+      for(Class<? extends Span> c : SubtypeRegistry.getSubTypesOf(Span.class)) mapper.registerSubtypes(c);
       mapper.setSerializationInclusion(Include.NON_NULL);
     }
     return mapper;
@@ -0,0 +1,185 @@
+package de.datexis.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * LRU cache for query results of an index, bounded by number of entries and time to live. Keys should be normalized
+ * (e.g. with normalize()) so that equivalent queries share an entry. Owners must call invalidate() whenever the index
+ * changes; results that are loaded while the cache is invalidated are not stored. Cached values are shared, so owners
+ * have to return copies of mutable results.
+ * If metrics are enabled, hits and misses are counted as "name.hits" and "name.misses". Gauge "name.hitRate" is
+ * computed from these counters, so it covers all caches with the same name and does not reference any cache.
+ */
+public class QueryCache<K,V> {
+
+  protected final String name;
+
+  /** maximum number of cached queries, or 0 to disable the cache */
+  protected final int maxSize;
+
+  /** time to live of cached results in nanoseconds, or 0 if results do not expire */
+  protected final long ttl;
+
+  private final Map<K,Entry<V>> cache;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /** incremented on every invalidation, so that concurrent loads of outdated results can be detected */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param name the name of this cache in Metrics
+   * @param maxSize maximum number of cached queries, or 0 to disable the cache
+   * @param ttl time to live of cached results, or 0 if results do not expire
+   */
+  public QueryCache(String name, int maxSize, long ttl, TimeUnit unit) {
+    this.name = name;
+    this.maxSize = maxSize;
+    this.ttl = unit.toNanos(ttl);
+    this.cache = Collections.synchronizedMap(new LinkedHashMap<K,Entry<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K,Entry<V>> eldest) {
+        if(size() > maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    });
+    if(Metrics.isEnabled()) registerHitRate(name);
+  }
+
+  private static void registerHitRate(String name) {
+    Metrics.gaugeIfAbsent(name + ".hitRate", () -> {
+      long h = Metrics.counter(name + ".hits").get(), m = Metrics.counter(name + ".misses").get();
+      return h + m > 0 ? (double) h / (h + m) : 0.;
+    });
+  }
+
+  /**
+   * Normalize a query string to lowercase with single spaces. Use only for indexes that ignore case and whitespace.
+   */
+  public static String normalize(String query) {
+    if(query == null) return null;
+    return WordHelpers.spacePattern.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @return the cached result for the given key, or the result of loader, which is cached if it is not null
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    if(maxSize <= 0) {
+      miss();
+      return loader.apply(key);
+    }
+    long now = now();
+    Entry<V> entry = cache.get(key);
+    if(entry != null) {
+      if(ttl <= 0 || now - entry.created < ttl) {
+        hit();
+        return entry.value;
+      }
+      if(cache.remove(key, entry)) evictions.increment();
+    }
+    miss();
+    long gen = generation.get();
+    V value = loader.apply(key);
+    if(value != null) {
+      synchronized(cache) {
+        if(generation.get() == gen) cache.put(key, new Entry<>(value, now));
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Remove all cached results. Call this whenever the underlying index is created, opened or changed.
+   */
+  public void invalidate() {
+    synchronized(cache) {
+      generation.incrementAndGet();
+      cache.clear();
+    }
+  }
+
+  /**
+   * Remove the cached result for the given key.
+   */
+  public void invalidate(K key) {
+    synchronized(cache) {
+      generation.incrementAndGet();
+      cache.remove(key);
+    }
+  }
+
+  private void hit() {
+    hits.increment();
+    if(Metrics.isEnabled()) Metrics.counter(name + ".hits").inc();
+  }
+
+  private void miss() {
+    misses.increment();
+    if(Metrics.isEnabled()) Metrics.counter(name + ".misses").inc();
+  }
+
+  /**
+   * @return current time in nanoseconds
+   */
+  protected long now() {
+    return System.nanoTime();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of results that were removed because of size or time to live
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the fraction of queries that were answered from the cache
+   */
+  public double getHitRate() {
+    long h = hits.sum(), m = misses.sum();
+    return h + m > 0 ? (double) h / (h + m) : 0.;
+  }
+
+  private static class Entry<V> {
+    final V value;
+    final long created;
+    Entry(V value, long created) {
+      this.value = value;
+      this.created = created;
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package de.datexis.common;
+
+import de.datexis.registry.SubtypeIndex;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+
+/**
+ * Lookup of registered subtypes (e.g. Span, Annotator, AnnotatorComponent) for deserialization.
+ * Subtypes are read from the index that is generated at build time by texoo-registry. A runtime
+ * classpath scan of package "de.datexis" is only used if enabled with -Dtexoo.subtypes.scan=true,
+ * e.g. when classes were compiled without annotation processing.
+ */
+public class SubtypeRegistry {
+
+  protected final static Logger log = LoggerFactory.getLogger(SubtypeRegistry.class);
+
+  /** system property to enable the runtime classpath scan */
+  public static final String SCAN_PROPERTY = "texoo.subtypes.scan";
+
+  private static Reflections reflections = null;
+
+  /**
+   * @return all known subtypes of the given base class (not including the base class itself)
+   */
+  public static <T> Set<Class<? extends T>> getSubTypesOf(Class<T> base) {
+    if(Boolean.getBoolean(SCAN_PROPERTY)) {
+      return getReflections().getSubTypesOf(base);
+    }
+    if(!SubtypeIndex.isAvailable(base)) {
+      log.warn("No subtype index found for {}. Compile with annotation processing or run with -D{}=true", base.getName(), SCAN_PROPERTY);
+    }
+    return SubtypeIndex.getSubTypesOf(base);
+  }
+
+  private static synchronized Reflections getReflections() {
+    if(reflections == null) {
+      log.info("Scanning classpath for subtypes...");
+      org.reflections.Configuration conf = ConfigurationBuilder.build("de.datexis").setExpandSuperTypes(false);
+      reflections = new Reflections(conf);
+    }
+    return reflections;
+  }
+
+}
@@ -1,8 +1,8 @@
 package de.datexis.encoder;
 
-import com.google.common.collect.Lists;
 import de.datexis.annotator.AnnotatorComponent;
 import de.datexis.annotator.IComponent;
+import de.datexis.common.Metrics;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
@@ -11,8 +11,8 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.shade.jackson.annotation.JsonIgnore;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -44,12 +44,19 @@ public abstract class Encoder extends AnnotatorComponent implements IEncoder, IC
     this.enableCache = enableCache;
   }
   
+  @Override
+  @JsonIgnore
+  public boolean isThreadSafe() {
+    return false;
+  }
+  
   /**
    * Encode a fixed-size vector from multiple Spans
    * @param spans the Spans to encode
    * @return INDArray containing all Tokens combined
    */
   public INDArray encode(Iterable<? extends Span> spans) {
+    long t = Metrics.start();
     INDArray avg = Nd4j.create(getEmbeddingVectorSize(), 1);
     INDArray vec;
     int i = 0;
@@ -60,6 +67,7 @@ public abstract class Encoder extends AnnotatorComponent implements IEncoder, IC
         i++;
       }
     }
+    Metrics.record(getClass(), "encode", t, i);
     return avg.divi(i);
   }
 
@@ -70,44 +78,27 @@ public abstract class Encoder extends AnnotatorComponent implements IEncoder, IC
    * @param elementClass - the class of sub elements in the Document, e.g. Sentence.class
    */
   public void encodeEach(Document input, Class<? extends Span> elementClass) {
+    long start = Metrics.start();
     if(elementClass == Token.class) input.streamTokens().forEach(t -> t.putVector(this.getClass(), encode(t)));
     else if(elementClass == Sentence.class) input.streamSentences().forEach(s -> s.putVector(this.getClass(), encode(s)));
     else throw new IllegalArgumentException("Cannot encode class " + elementClass.toString() + " from Document");
+    Metrics.record(getClass(), "encodeEach", start, 1);
   }
 
   /**
    * Encodes each element in the input and returns these vectors as matrix.
+   * Cached vectors are used and attached if caching is enabled.
    * Please override this if the elements of your encoders are not independent or stateful.
    *  @param input - the Document that should be encoded
    * @param timeStepClass - the class of sub elements in the Document, e.g. Sentence.class
    */
   public INDArray encodeMatrix(List<Document> input, int maxTimeSteps, Class<? extends Span> timeStepClass) {
 
-    INDArray encoding = EncodingHelpers.createTimeStepMatrix(input.size(), getEmbeddingVectorSize(), maxTimeSteps);
-    Document example;
-
-    for(int batchIndex = 0; batchIndex < input.size(); batchIndex++) {
-      
-      example = input.get(batchIndex);
-
-      List<? extends Span> spansToEncode = Collections.EMPTY_LIST;
-      if(timeStepClass == Token.class) spansToEncode = Lists.newArrayList(example.getTokens());
-      else if(timeStepClass == Sentence.class) spansToEncode = Lists.newArrayList(example.getSentences());
-
-      for(int t = 0; t < spansToEncode.size() && t < maxTimeSteps; t++) {
-        Span span = spansToEncode.get(t);
-        INDArray vec;
-        if(isCachingEnabled() && span.hasVector(this.getClass())) {
-          // use cached vector
-          vec = span.getVector(this.getClass());
-        } else {
-          vec = encode(span);
-          if(isCachingEnabled()) span.putVector(this.getClass(), vec);
-        }
-        EncodingHelpers.putTimeStep(encoding, batchIndex, t, vec);
-      }
-      
-    }
+    long start = Metrics.start();
+    INDArray encoding = new TimeStepMatrixEncoder(this)
+      .setUseCachedVectors(true)
+      .encode(input, maxTimeSteps, timeStepClass);
+    Metrics.record(getClass(), "encodeMatrix", start, input.size());
     return encoding;
   }
 
@@ -115,12 +106,20 @@ public abstract class Encoder extends AnnotatorComponent implements IEncoder, IC
    * Encodes each element in the input and attaches the vectors to the element.
    * Please override this if the elements of your encoders are not independent or stateful.
    * Please override this if your encoder allows batches.
+   * Documents are encoded in parallel if the Encoder is thread-safe.
    * @param docs - the Documents that should be encoded
    * @param elementClass - the class of sub elements in the Document, e.g. Sentence.class
    */
   public void encodeEach(Collection<Document> docs, Class<? extends Span> elementClass) {
-    for(Document doc : docs) {
-      encodeEach(doc, elementClass);
+    if(ParallelEncoding.isParallel(this, docs.size())) {
+      final List<Document> list = docs instanceof List ? (List<Document>) docs : new ArrayList<>(docs);
+      ParallelEncoding.forEachChunk(list.size(), (from, to) -> {
+        for(int i = from; i < to; i++) encodeEach(list.get(i), elementClass);
+      });
+    } else {
+      for(Document doc : docs) {
+        encodeEach(doc, elementClass);
+      }
     }
   }
   
@@ -131,8 +130,10 @@ public abstract class Encoder extends AnnotatorComponent implements IEncoder, IC
    * @param elementClass - the class of sub elements in the Sentence, e.g. Token.class
    */
   public void encodeEach(Sentence input, Class<? extends Span> elementClass) {
+    long start = Metrics.start();
     if(elementClass == Token.class) input.streamTokens().forEach(t -> t.putVector(this.getClass(), encode(t)));
     else throw new IllegalArgumentException("Cannot encode class " + elementClass.toString() + " from Sentence");
+    Metrics.record(getClass(), "encodeEach", start, 1);
   }
     
   public abstract void trainModel(Collection<Document> documents);
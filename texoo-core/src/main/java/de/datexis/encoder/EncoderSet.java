@@ -1,13 +1,14 @@
 package de.datexis.encoder;
 
+import de.datexis.model.Document;
 import de.datexis.model.Span;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -21,6 +22,9 @@ public class EncoderSet implements Iterable<Encoder>, IEncoder {
   protected List<Encoder> encoders;
   protected int size;
   
+  /** start index of each Encoder in the concatenated vector */
+  protected long[] offsets = new long[0];
+  
   public EncoderSet(Encoder... encoders) {
     this.encoders = new ArrayList<>(encoders.length);
     this.size = 0;
@@ -31,8 +35,11 @@ public class EncoderSet implements Iterable<Encoder>, IEncoder {
   
   public final void addEncoder(Encoder e) {
     encoders.add(e);
-    if(e.getEmbeddingVectorSize() == 0) log.warn("Adding uninitialized Encoder " + e.getName());
-    this.size += e.getEmbeddingVectorSize();
+    long vectorSize = e.getEmbeddingVectorSize();
+    if(vectorSize == 0) log.warn("Adding uninitialized Encoder " + e.getName());
+    offsets = Arrays.copyOf(offsets, encoders.size());
+    offsets[encoders.size() - 1] = size;
+    this.size += vectorSize;
   }
   
   /**
@@ -40,16 +47,36 @@ public class EncoderSet implements Iterable<Encoder>, IEncoder {
    */
   public void updateVectorSize() {
     this.size = 0;
-    for(Encoder enc : this.encoders) {
-      this.size += enc.getEmbeddingVectorSize();
+    this.offsets = new long[encoders.size()];
+    for(int i = 0; i < encoders.size(); i++) {
+      offsets[i] = size;
+      this.size += encoders.get(i).getEmbeddingVectorSize();
     }
   }
   
+  /**
+   * @return start index of the given Encoder's vector in the concatenated vector
+   */
+  public long getOffset(int encoderIndex) {
+    return offsets[encoderIndex];
+  }
+  
   @Override
   public long getEmbeddingVectorSize() {
     return size;
   }
   
+  /**
+   * @return true if all Encoders are thread-safe
+   */
+  @Override
+  public boolean isThreadSafe() {
+    for(Encoder enc : encoders) {
+      if(!enc.isThreadSafe()) return false;
+    }
+    return true;
+  }
+  
   public Iterable<Encoder> iterable() {
     return encoders;
   }
@@ -64,22 +91,59 @@ public class EncoderSet implements Iterable<Encoder>, IEncoder {
    */
   public INDArray encode(String word) {
     INDArray result = Nd4j.create(getEmbeddingVectorSize());
-    int i = 0;
-    for(Encoder enc : encoders) {
-      final INDArray vec = enc.encode(word);
-      result.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(vec);
-      i += enc.getEmbeddingVectorSize();
-    }
+    encodeInto(word, result, 0);
     return result;
   }
   
+  /**
+   * Encodes a given String using all Encoders directly into target[offset, offset + getEmbeddingVectorSize()).
+   * Every Encoder writes into its own column slice, so that no intermediate vectors are copied.
+   */
+  @Override
+  public void encodeInto(String word, INDArray target, long offset) {
+    encodeInto(word, target, offset, 1);
+  }
+  
+  /**
+   * Encodes a given Span using all Encoders directly into target[offset, offset + getEmbeddingVectorSize()).
+   * Same semantics as encode(Span): every Encoder receives the String representation of the Span.
+   */
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span.toString(), target, offset, 1);
+  }
+  
+  /**
+   * Encodes a given String using all Encoders directly into the strided elements of target, e.g. a time step
+   * column of a batch matrix. Every Encoder writes its slice starting at offset + offsets[i] * stride.
+   */
+  @Override
+  public void encodeInto(String word, INDArray target, long offset, long stride) {
+    for(int i = 0; i < encoders.size(); i++) {
+      encoders.get(i).encodeInto(word, target, offset + offsets[i] * stride, stride);
+    }
+  }
+  
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    encodeInto(span.toString(), target, offset, stride);
+  }
+  
+  /**
+   * Encodes each element in the input and returns the concatenated vectors as time step matrix.
+   * Every Encoder writes directly into its column slice of the time step.
+   * @param input - the Documents that should be encoded
+   * @param timeStepClass - the class of sub elements in the Document, e.g. Token.class
+   * @return [ batch size X vector size X time steps ]
+   */
+  public INDArray encodeMatrix(List<Document> input, int maxTimeSteps, Class<? extends Span> timeStepClass) {
+    return EncodingHelpers.encodeTimeStepMatrix(input, this, maxTimeSteps, timeStepClass);
+  }
+  
   public INDArray encode(Iterable<? extends Span> spans) {
     INDArray result = Nd4j.create(getEmbeddingVectorSize());
-    int i = 0;
-    for(Encoder enc : encoders) {
-      final INDArray vec = enc.encode(spans);
-      result.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(vec);
-      i += enc.getEmbeddingVectorSize();
+    for(int i = 0; i < encoders.size(); i++) {
+      EncodingHelpers.putRange(result, offsets[i], encoders.get(i).encode(spans));
     }
     return result;
   }
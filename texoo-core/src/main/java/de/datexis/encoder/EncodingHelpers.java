@@ -1,15 +1,11 @@
 package de.datexis.encoder;
 
-import com.google.common.collect.Lists;
-import de.datexis.model.Document;
-import de.datexis.model.Sentence;
 import de.datexis.model.Span;
-import de.datexis.model.Token;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 
-import java.util.Collections;
 import java.util.List;
 
 public class EncodingHelpers {
@@ -32,6 +28,50 @@ public class EncodingHelpers {
     matrix.slice(batchIndex, 0).slice(t, 1).assign(value); // 25% faster
   }
   
+  /**
+   * Get a single time step as vector view into a time step matrix. Writing into this view will modify the matrix.
+   * @param matrix Full batch matrix [ batch size X vector size X time steps ]
+   * @param batchIndex Index of the batch
+   * @param t Index of the time step
+   * @return The view as vector [ vector size ]
+   */
+  public static INDArray getTimeStepView(INDArray matrix, long batchIndex, long t) {
+    return matrix.slice(batchIndex, 0).slice(t, 1);
+  }
+  
+  /**
+   * Copy a vector into a range of a target vector, e.g. a column slice of a concatenated vector.
+   * @param target The vector to write into
+   * @param offset Index of the first element to write
+   * @param value The vector to copy [ length X 1 ]
+   */
+  public static void putRange(INDArray target, long offset, INDArray value) {
+    target.get(NDArrayIndex.interval(offset, offset + value.length())).assign(value);
+  }
+  
+  /**
+   * Set a range of a target vector to zero.
+   */
+  public static void clearRange(INDArray target, long offset, long length) {
+    target.get(NDArrayIndex.interval(offset, offset + length)).assign(0);
+  }
+  
+  /**
+   * Put a vector into the elements offset, offset + stride, ... of a flat target vector.
+   */
+  public static void putStrided(INDArray target, long offset, long stride, INDArray value) {
+    if(stride == 1) putRange(target, offset, value);
+    else target.get(NDArrayIndex.interval(offset, stride, offset + (value.length() - 1) * stride + 1)).assign(value);
+  }
+  
+  /**
+   * Set the elements offset, offset + stride, ... of a flat target vector to zero.
+   */
+  public static void clearStrided(INDArray target, long offset, long stride, long length) {
+    if(stride == 1) clearRange(target, offset, length);
+    else target.get(NDArrayIndex.interval(offset, stride, offset + (length - 1) * stride + 1)).assign(0);
+  }
+  
   /**
    * Get a single example column vector from a time step matrix
    * @param matrix Full batch matrix [ batch size X vector size X time steps ]
@@ -47,32 +87,12 @@ public class EncodingHelpers {
   }
   
   /**
-   * Encodes each element in the input and returns these vectors as matrix.
+   * Encodes each element in the input and returns these vectors as newly allocated matrix.
    * @param input - the Documents that should be encoded
    * @param timeStepClass - the class of sub elements in the Document, e.g. Sentence.class
    */
   public static INDArray encodeTimeStepMatrix(List<? extends Span> input, IEncoder encoder, int maxTimeSteps, Class<? extends Span> timeStepClass) {
-
-    INDArray encoding = Nd4j.zeros(DataType.FLOAT, input.size(), encoder.getEmbeddingVectorSize(), maxTimeSteps);
-    Span example;
-
-    for(int batchIndex = 0; batchIndex < input.size(); batchIndex++) {
-
-      example = input.get(batchIndex);
-
-      List<? extends Span> spansToEncode = Collections.EMPTY_LIST;
-      if(example instanceof Document && timeStepClass == Token.class) spansToEncode = Lists.newArrayList(((Document)example).getTokens());
-      else if(example instanceof Document && timeStepClass == Sentence.class) spansToEncode = Lists.newArrayList(((Document)example).getSentences());
-      else if(example instanceof Sentence && timeStepClass == Token.class) spansToEncode = Lists.newArrayList(((Sentence)example).getTokens());
-      else if(example instanceof Sentence && timeStepClass == Sentence.class) spansToEncode = Lists.newArrayList(((Sentence)example));
-
-      for(int t = 0; t < spansToEncode.size() && t < maxTimeSteps; t++) {
-        INDArray vec = encoder.encode(spansToEncode.get(t));
-        encoding.slice(batchIndex, 0).slice(t, 1).assign(vec); // 25% faster
-      }
-
-    }
-    return encoding;
+    return new TimeStepMatrixEncoder(encoder).encode(input, maxTimeSteps, timeStepClass);
   }
   
   public static INDArray encodeBatchMatrix(List<? extends Span> input, IEncoder encoder) {
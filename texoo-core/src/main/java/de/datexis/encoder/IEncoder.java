@@ -37,4 +37,57 @@ public interface IEncoder {
    */
   public INDArray encode(Iterable<? extends Span> spans);
   
+  /**
+   * @return true if encode() and encodeInto() may be called concurrently from multiple threads, so that
+   * batches can be encoded in parallel (see ParallelEncoding). Encoders that modify state during encoding
+   * must return false.
+   */
+  default boolean isThreadSafe() {
+    return false;
+  }
+  
+  /**
+   * Encodes a single Span directly into a range of a pre-allocated vector, e.g. the column slice of a
+   * concatenated EncoderSet vector or a time step of a batch matrix. Implementations must overwrite
+   * the whole range [offset, offset + getEmbeddingVectorSize()).
+   * The default implementation copies the result of encode(span). Please override this if your Encoder
+   * can write its values without allocating an intermediate vector.
+   * @param span the Span to encode
+   * @param target the vector to write into
+   * @param offset index of the first element to write
+   */
+  default void encodeInto(Span span, INDArray target, long offset) {
+    EncodingHelpers.putRange(target, offset, encode(span));
+  }
+  
+  /**
+   * Encodes a String directly into a range of a pre-allocated vector.
+   * @see #encodeInto(Span, INDArray, long)
+   */
+  default void encodeInto(String word, INDArray target, long offset) {
+    EncodingHelpers.putRange(target, offset, encode(word));
+  }
+  
+  /**
+   * Encodes a single Span directly into the strided elements offset, offset + stride, ... of a pre-allocated
+   * vector, e.g. a time step column of a flat 'c' ordered batch matrix [ batch size X vector size X time steps ]
+   * with stride = time steps. Implementations must overwrite all getEmbeddingVectorSize() strided elements.
+   * The default implementation uses encodeInto(span, target, offset) for stride 1 and copies the result of
+   * encode(span) otherwise.
+   * @param stride distance between two consecutive elements of the encoding in target
+   */
+  default void encodeInto(Span span, INDArray target, long offset, long stride) {
+    if(stride == 1) encodeInto(span, target, offset);
+    else EncodingHelpers.putStrided(target, offset, stride, encode(span));
+  }
+  
+  /**
+   * Encodes a String directly into the strided elements of a pre-allocated vector.
+   * @see #encodeInto(Span, INDArray, long, long)
+   */
+  default void encodeInto(String word, INDArray target, long offset, long stride) {
+    if(stride == 1) encodeInto(word, target, offset);
+    else EncodingHelpers.putStrided(target, offset, stride, encode(word));
+  }
+  
 }
@@ -3,14 +3,13 @@ package de.datexis.encoder;
 import de.datexis.common.Resource;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
-import org.deeplearning4j.models.word2vec.wordstore.VocabularyHolder;
-import org.deeplearning4j.models.word2vec.wordstore.VocabularyWord;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.shade.jackson.annotation.JsonIgnore;
@@ -23,7 +22,7 @@ import org.slf4j.LoggerFactory;
 public abstract class LookupCacheEncoder extends Encoder {
 
   /** a cache of all existing n-grams */
-  protected VocabularyHolder vocab;
+  protected Vocabulary vocab;
   
   protected int totalWords = 0;
   
@@ -34,7 +33,7 @@ public abstract class LookupCacheEncoder extends Encoder {
   public LookupCacheEncoder(String id) {
     super(id);
     log = LoggerFactory.getLogger(LookupCacheEncoder.class);
-    vocab = new VocabularyHolder.Builder().build();
+    vocab = new Vocabulary();
   }
 
   public int getTotalWords() {
@@ -48,7 +47,7 @@ public abstract class LookupCacheEncoder extends Encoder {
   @Override
   //@JsonIgnore
   public long getEmbeddingVectorSize() {
-    return vocab.numWords();
+    return vocab.size();
   }
   
   /**
@@ -73,8 +72,7 @@ public abstract class LookupCacheEncoder extends Encoder {
    * Return the frequency of a word in the vocabulary.
    */
   public int getFrequency(String word) {
-    VocabularyWord w = vocab.getVocabularyWordByString(word);
-    return w != null ? w.getCount() : 0;
+    return vocab.getFrequency(word);
   }
   
   public double getProbability(String word) {
@@ -93,74 +91,82 @@ public abstract class LookupCacheEncoder extends Encoder {
    * Return word from the vocabulary at a given index.
    */
   public String getWord(int index) {
-    VocabularyWord w = vocab.getVocabularyWordByIdx(index);
-    return w != null ? w.getWord() : null;
+    return vocab.getWord(index);
   }
   
   public boolean isUnknown(String word) {
-    return !vocab.containsWord(word);
+    return !vocab.contains(word);
   }
   
   /**
-   * Saves the model to <name>.tsv.gz
+   * Saves the model to <name>.bin and a readable copy to <name>.tsv.gz
    * @param modelPath
    * @param name 
    */
   @Override
   public void saveModel(Resource modelPath, String name) {
-    Resource modelFile = modelPath.resolve(name + ".tsv.gz");
-    try(OutputStreamWriter out = new OutputStreamWriter(modelFile.getGZIPOutputStream())) {
-      // FIXME: simply serialize vocab!
-      int i = 0;
-      for(VocabularyWord w : vocab.getVocabulary()) {
-        i++;
-        out.write(w.getHuffmanNode().getIdx() + "\t" + w.getWord() + "\t" + w.getCount() + "\n");
+    Resource tsvFile = modelPath.resolve(name + ".tsv.gz");
+    try(OutputStreamWriter out = new OutputStreamWriter(tsvFile.getGZIPOutputStream(), "UTF-8")) {
+      for(int i = 0; i < vocab.size(); i++) {
+        out.write(i + "\t" + vocab.getWord(i) + "\t" + vocab.getFrequency(i) + "\n");
       }
-      setModel(modelFile);
-      log.info("saved " + i + " words");
     } catch(IOException ex) {
       log.error(ex.toString());
     }
-    Resource streamFile = modelPath.resolve(name + ".bin");
-    try(ObjectOutputStream oos = new ObjectOutputStream(streamFile.getOutputStream())) {
-      oos.writeObject(vocab);
+    Resource modelFile = modelPath.resolve(name + ".bin");
+    try(OutputStream out = modelFile.getOutputStream()) {
+      vocab.write(out);
+      setModel(modelFile);
+      log.info("saved " + vocab.size() + " words");
     } catch(IOException ex) {
       log.error(ex.toString());
     }
   }
   
+  /**
+   * Loads the model from a binary .bin file or from a .tsv(.gz) file with lines "index, word, frequency".
+   */
   @Override
   public void loadModel(Resource modelFile) throws IOException {
-    /* unfortunately, VocabularyHolder is in fact not serializable yet
-      if(modelFile.getFileName().endsWith(".bin")) {
-      vocab = SerializationUtils.readObject(modelFile.getInputStream());
-      vocab.updateHuffmanCodes();
+    if(modelFile.getFileName().endsWith(".bin")) {
+      try(InputStream in = modelFile.getInputStream()) {
+        vocab = Vocabulary.read(in);
+      }
       setModel(modelFile);
       setModelAvailable(true);
-      log.info("loaded " + vocab.numWords() + " words from binary " + modelFile.toString());
-    } else {*/
+      log.info("loaded " + vocab.size() + " words from binary " + modelFile.toString());
+      return;
+    }
     try(BufferedReader fr = new BufferedReader(new InputStreamReader(modelFile.getInputStream(), "UTF-8"))) {
+      // lines are not sorted by index in legacy models
+      List<String> words = new ArrayList<>();
+      List<Integer> counts = new ArrayList<>();
       String line;
-      int i = 1000000000; // FIXME: we are abusing this VocabCache here. But it works (TM)
-                          // No, seriously, this should only be used fpr legacy models in the future. Let's save as binary files.
       while((line = fr.readLine()) != null) {
         String[] tsv = line.split("\\t");
-        VocabularyWord w = new VocabularyWord(tsv[1]);
-        //w.setCount(Integer.parseInt(tsv[2]));
-        int huffmanIdx = Integer.parseInt(tsv[0]);
-        w.setCount(i-huffmanIdx); // dirty fix to override resort of huffman tree for same counts
-        vocab.addWord(w);
+        int idx = Integer.parseInt(tsv[0]);
+        while(words.size() <= idx) {
+          words.add(null);
+          counts.add(0);
+        }
+        words.set(idx, tsv[1]);
+        counts.set(idx, Integer.parseInt(tsv[2]));
+      }
+      Vocabulary result = new Vocabulary();
+      for(int i = 0; i < words.size(); i++) {
+        if(words.get(i) == null) throw new IOException("missing word index " + i + " in " + modelFile.toString());
+        if(result.add(words.get(i), counts.get(i)) != i) throw new IOException("duplicate word '" + words.get(i) + "' in " + modelFile.toString());
       }
-      vocab.updateHuffmanCodes();
+      vocab = result;
       setModel(modelFile);
       setModelAvailable(true);
-      log.info("loaded " + vocab.numWords() + " words from " + modelFile.toString());
+      log.info("loaded " + vocab.size() + " words from " + modelFile.toString());
     }
   }
   
   @JsonIgnore
   public List<String> getWords() {
-    return vocab.words().stream().map( a -> a.getWord()).collect(Collectors.toList());
+    return new ArrayList<>(vocab.words());
   }
   
   /**
@@ -0,0 +1,118 @@
+package de.datexis.encoder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared ForkJoin pool for parallel encoding with thread-safe Encoders (see IEncoder.isThreadSafe()).
+ * Work is split recursively into chunks, so that idle workers can steal the remaining chunks of slow ones.
+ * The number of threads defaults to the number of available processors and can be set with
+ * -Dtexoo.encoder.parallelism=N or setParallelism(N). A parallelism of 1 disables parallel encoding.
+ */
+public class ParallelEncoding {
+
+  protected final static Logger log = LoggerFactory.getLogger(ParallelEncoding.class);
+
+  /** system property to set the number of encoding threads */
+  public static final String PARALLELISM_PROPERTY = "texoo.encoder.parallelism";
+
+  /** number of chunks per thread, more chunks allow better balancing of uneven work */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private static volatile ForkJoinPool pool = null;
+
+  private static volatile int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+  private ParallelEncoding() {}
+
+  public static int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Set the number of threads used for parallel encoding. A value of 1 disables parallel encoding.
+   */
+  public static synchronized void setParallelism(int threads) {
+    if(threads < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+    if(threads == parallelism) return;
+    parallelism = threads;
+    if(pool != null) pool.shutdown();
+    pool = null;
+  }
+
+  /**
+   * @return true if the given number of items should be encoded in parallel with the given encoder
+   */
+  public static boolean isParallel(IEncoder encoder, int items) {
+    return items > 1 && parallelism > 1 && encoder.isThreadSafe();
+  }
+
+  /**
+   * Runs the given action over chunks of the index range [0, size) in the shared pool and waits for completion.
+   * Runtime exceptions thrown by the action are propagated to the caller.
+   */
+  public static void forEachChunk(int size, RangeAction action) {
+    forEachChunk(size, Math.max(1, size / (parallelism * CHUNKS_PER_THREAD)), action);
+  }
+
+  /**
+   * Runs the given action over fixed chunks [c * chunkSize, min((c + 1) * chunkSize, size)) in the shared pool
+   * and waits for completion. The chunk boundaries do not depend on the parallelism, so chunk c = from / chunkSize
+   * can be used as a deterministic id, e.g. for random streams.
+   */
+  public static void forEachChunk(int size, int chunkSize, RangeAction action) {
+    if(chunkSize < 1) throw new IllegalArgumentException("chunk size must be at least 1");
+    getPool().invoke(new RangeTask(action, 0, size, chunkSize));
+  }
+
+  private static ForkJoinPool getPool() {
+    ForkJoinPool result = pool;
+    if(result == null) {
+      synchronized(ParallelEncoding.class) {
+        if(pool == null) {
+          log.debug("starting encoding pool with {} threads", parallelism);
+          pool = new ForkJoinPool(parallelism);
+        }
+        result = pool;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * An action on the index range [from, to).
+   */
+  @FunctionalInterface
+  public interface RangeAction {
+    void apply(int from, int to);
+  }
+
+  private static class RangeTask extends RecursiveAction {
+
+    private final RangeAction action;
+    private final int from, to, chunkSize;
+
+    RangeTask(RangeAction action, int from, int to, int chunkSize) {
+      this.action = action;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute() {
+      if(to - from <= chunkSize) {
+        action.apply(from, to);
+      } else {
+        int chunks = (to - from + chunkSize - 1) / chunkSize;
+        int mid = from + (chunks / 2) * chunkSize; // split at a chunk boundary
+        invokeAll(new RangeTask(action, from, mid, chunkSize), new RangeTask(action, mid, to, chunkSize));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,157 @@
+package de.datexis.encoder;
+
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Span;
+import de.datexis.model.Token;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Encodes batches of Spans into time step matrices [ batch size X vector size X time steps ] without creating
+ * a view or intermediate vector per time step. The matrix is allocated once in 'c' order and every time step is
+ * written directly into its flat buffer with encodeInto(span, target, offset, stride), where the stride is the
+ * number of time steps. Temporary arrays that are created by Encoders during encoding are allocated in a cyclic
+ * memory workspace instead of the off-heap allocator. Thread-safe Encoders write disjoint examples of the
+ * output in parallel.
+ */
+public class TimeStepMatrixEncoder {
+
+  /** workspace for temporary arrays during encoding */
+  public static final String WORKSPACE_ID = "TEXOO_ENCODING";
+
+  protected static final WorkspaceConfiguration WORKSPACE_CONFIG = WorkspaceConfiguration.builder()
+    .policyAllocation(AllocationPolicy.OVERALLOCATE)
+    .policyLearning(LearningPolicy.FIRST_LOOP)
+    .policySpill(SpillPolicy.REALLOCATE)
+    .build();
+
+  protected final IEncoder encoder;
+
+  protected boolean useWorkspace = true;
+
+  protected boolean useCachedVectors = false;
+
+  public TimeStepMatrixEncoder(IEncoder encoder) {
+    this.encoder = encoder;
+  }
+
+  public TimeStepMatrixEncoder setUseWorkspace(boolean useWorkspace) {
+    this.useWorkspace = useWorkspace;
+    return this;
+  }
+
+  /**
+   * Use vectors that are attached to the Spans and attach newly encoded vectors, if the Encoder has caching
+   * enabled. Disabled by default, so that Spans are not modified during encoding.
+   */
+  public TimeStepMatrixEncoder setUseCachedVectors(boolean useCachedVectors) {
+    this.useCachedVectors = useCachedVectors;
+    return this;
+  }
+
+  /**
+   * Encodes each element in the input and returns these vectors as matrix.
+   * @param input - the Documents or Sentences that should be encoded
+   * @param maxTimeSteps - the number of time steps in the matrix, longer inputs are truncated
+   * @param timeStepClass - the class of sub elements in the input, e.g. Sentence.class
+   * @return a new matrix [ batch size X vector size X time steps ] in 'c' order
+   */
+  public INDArray encode(List<? extends Span> input, int maxTimeSteps, Class<? extends Span> timeStepClass) {
+    INDArray matrix;
+    try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+      matrix = EncodingHelpers.createTimeStepMatrix(input.size(), encoder.getEmbeddingVectorSize(), maxTimeSteps);
+    }
+    return encodeMatrix(input, maxTimeSteps, timeStepClass, matrix);
+  }
+
+  /**
+   * Encodes each element in the input into a given matrix, so that no matrix is allocated per batch.
+   * The target is zeroed and overwritten completely. This is unsafe if the previous result is still in use,
+   * e.g. with asynchronous iterators (AsyncDataSetIterator) that prefetch the next batch while the network
+   * still reads the current one. Use a new target per batch in these cases.
+   * @param target - matrix [ batch size X vector size X time steps ] in 'c' order with default strides
+   * @return the target
+   */
+  public INDArray encode(List<? extends Span> input, int maxTimeSteps, Class<? extends Span> timeStepClass, INDArray target) {
+    long[] shape = {input.size(), encoder.getEmbeddingVectorSize(), maxTimeSteps};
+    if(!Arrays.equals(target.shape(), shape) || target.ordering() != 'c' || !Shape.hasDefaultStridesForShape(target)) {
+      throw new IllegalArgumentException("target must be a 'c' ordered matrix of shape " + Arrays.toString(shape) +
+        ", but was " + Arrays.toString(target.shape()));
+    }
+    target.assign(0);
+    return encodeMatrix(input, maxTimeSteps, timeStepClass, target);
+  }
+
+  protected INDArray encodeMatrix(List<? extends Span> input, int maxTimeSteps, Class<? extends Span> timeStepClass, INDArray matrix) {
+    if(matrix.length() == 0) return matrix;
+    INDArray flat = matrix.reshape('c', matrix.length());
+    if(ParallelEncoding.isParallel(encoder, input.size())) {
+      ParallelEncoding.forEachChunk(input.size(), (from, to) -> encodeRange(input, from, to, maxTimeSteps, timeStepClass, flat));
+    } else {
+      encodeRange(input, 0, input.size(), maxTimeSteps, timeStepClass, flat);
+    }
+    return matrix;
+  }
+
+  /**
+   * Encodes the examples [from, to) of the input. Workspaces are thread-local, so this can be run in parallel.
+   */
+  protected void encodeRange(List<? extends Span> input, int from, int to, int maxTimeSteps, Class<? extends Span> timeStepClass, INDArray flat) {
+    if(useWorkspace) {
+      try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(WORKSPACE_CONFIG, WORKSPACE_ID)) {
+        encodeInto(input, from, to, maxTimeSteps, timeStepClass, flat);
+      }
+    } else {
+      encodeInto(input, from, to, maxTimeSteps, timeStepClass, flat);
+    }
+  }
+
+  /**
+   * Writes the time steps of examples [from, to) into the flat 'c' ordered buffer. Element (b, v, t) of the
+   * matrix is stored at b * vectorSize * maxTimeSteps + v * maxTimeSteps + t.
+   */
+  protected void encodeInto(List<? extends Span> input, int from, int to, int maxTimeSteps, Class<? extends Span> timeStepClass, INDArray flat) {
+    long exampleSize = encoder.getEmbeddingVectorSize() * maxTimeSteps;
+    for(int batchIndex = from; batchIndex < to; batchIndex++) {
+      Iterator<? extends Span> spans = timeSteps(input.get(batchIndex), timeStepClass);
+      long offset = batchIndex * exampleSize;
+      for(int t = 0; t < maxTimeSteps && spans.hasNext(); t++) {
+        encodeTimeStep(spans.next(), flat, offset + t, maxTimeSteps);
+      }
+    }
+  }
+
+  /**
+   * Writes the encoding of a single time step into the elements offset, offset + stride, ... of target.
+   */
+  protected void encodeTimeStep(Span span, INDArray target, long offset, long stride) {
+    if(useCachedVectors && encoder instanceof Encoder && ((Encoder) encoder).isCachingEnabled()) {
+      Encoder enc = (Encoder) encoder;
+      if(!span.hasVector(enc.getClass())) span.putVector(enc.getClass(), enc.encode(span));
+      EncodingHelpers.putStrided(target, offset, stride, span.getVector(enc.getClass()));
+    } else {
+      encoder.encodeInto(span, target, offset, stride);
+    }
+  }
+
+  protected static Iterator<? extends Span> timeSteps(Span example, Class<? extends Span> timeStepClass) {
+    if(example instanceof Document && timeStepClass == Token.class) return ((Document) example).streamTokens().iterator();
+    else if(example instanceof Document && timeStepClass == Sentence.class) return ((Document) example).getSentences().iterator();
+    else if(example instanceof Sentence && timeStepClass == Token.class) return ((Sentence) example).getTokens().iterator();
+    else if(example instanceof Sentence && timeStepClass == Sentence.class) return Collections.singletonList(example).iterator();
+    else return Collections.emptyIterator();
+  }
+
+}
@@ -0,0 +1,497 @@
+package de.datexis.encoder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact vocabulary that maps words to dense int ids, used by LookupCacheEncoders. Words are stored as
+ * UTF-8 bytes in a single pool and frequencies in packed arrays, so there are no objects per entry.
+ * Lookups use an open-addressing hash table with linear probing, which is also used after training and loading.
+ * freeze() optionally replaces the table with a perfect hash (hash and displace), so that every lookup probes
+ * exactly one slot with a smaller table. It is not used by default, because the scattered slot access is slower
+ * than short probe sequences in the open-addressing table (see VocabularyBenchmark). A frozen vocabulary can
+ * still be truncated and sorted, but no new words can be added.
+ * Lookups do not allocate and are thread-safe, as long as the vocabulary is not modified concurrently.
+ */
+public class Vocabulary {
+
+  protected final static Logger log = LoggerFactory.getLogger(Vocabulary.class);
+
+  /** file header: "TXV" + version */
+  protected static final byte[] MAGIC = { 'T', 'X', 'V', 1 };
+
+  /** average number of words per bucket in the perfect hash */
+  private static final int BUCKET_SIZE = 4;
+
+  /** ratio of words to slots in the perfect hash */
+  private static final double LOAD_FACTOR = 0.95;
+
+  /** maximum number of displacements that are tried per bucket before freezing fails */
+  private static final int MAX_DISPLACEMENT = 1 << 20;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+  private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[64]);
+
+  /** UTF-8 bytes of all words, in order of their ids */
+  protected byte[] pool = new byte[1024];
+  protected int poolSize = 0;
+
+  /** word i is stored at pool[offsets[i], offsets[i+1]) */
+  protected int[] offsets = new int[17];
+  protected int[] counts = new int[16];
+  protected int size = 0;
+
+  /**
+   * Slots of the open-addressing table, or of the perfect hash if frozen. Every slot holds the upper 32 bits
+   * of the word hash as fingerprint and id+1 in the lower 32 bits, 0 is empty.
+   */
+  protected long[] slots = new long[32];
+
+  /** displacement per bucket of the perfect hash, null if not frozen */
+  protected int[] displacements = null;
+
+  protected boolean frozen = false;
+
+  /**
+   * @return number of words in the vocabulary
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  public boolean contains(String word) {
+    return indexOf(word) >= 0;
+  }
+
+  /**
+   * @return the id of the word, or -1 if it is not contained in the vocabulary
+   */
+  public int indexOf(String word) {
+    // ASCII words are hashed and compared without encoding
+    long h = FNV_OFFSET;
+    for(int i = 0; i < word.length(); i++) {
+      char c = word.charAt(i);
+      if(c >= 0x80) return indexOfEncoded(word);
+      h = (h ^ c) * FNV_PRIME;
+    }
+    return find(mix(h), word, null, 0, word.length());
+  }
+
+  /**
+   * @return the id of the word given as UTF-8 bytes in key[off, off + len), or -1 if it is not contained
+   */
+  public int indexOf(byte[] key, int off, int len) {
+    return find(hash(key, off, len), null, key, off, len);
+  }
+
+  private int indexOfEncoded(String word) {
+    byte[] bytes = scratch.get();
+    int len = utf8Length(word);
+    if(len > bytes.length) {
+      bytes = new byte[Math.max(len, bytes.length * 2)];
+      scratch.set(bytes);
+    }
+    encodeUtf8(word, bytes, 0);
+    return indexOf(bytes, 0, len);
+  }
+
+  /**
+   * Finds the word with given hash that is either given as ASCII String or as UTF-8 bytes.
+   */
+  private int find(long hash, String ascii, byte[] key, int off, int len) {
+    int fingerprint = (int) (hash >>> 32);
+    if(displacements != null) {
+      long slot = slots[slot(hash, displacements[bucket(hash, displacements.length)], slots.length)];
+      if(slot == 0 || (int) (slot >>> 32) != fingerprint) return -1;
+      int id = (int) slot - 1;
+      return equals(id, ascii, key, off, len) ? id : -1;
+    }
+    int mask = slots.length - 1;
+    for(int i = (int) hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+      long slot = slots[i];
+      if((int) (slot >>> 32) == fingerprint) {
+        int id = (int) slot - 1;
+        if(equals(id, ascii, key, off, len)) return id;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the word with given id, or null if the id is out of range
+   */
+  public String getWord(int id) {
+    if(id < 0 || id >= size) return null;
+    return new String(pool, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the frequency of the word with given id
+   */
+  public int getFrequency(int id) {
+    return counts[id];
+  }
+
+  /**
+   * @return the frequency of the word, or 0 if it is not contained in the vocabulary
+   */
+  public int getFrequency(String word) {
+    int id = indexOf(word);
+    return id >= 0 ? counts[id] : 0;
+  }
+
+  /**
+   * @return the sum of the frequencies of all words
+   */
+  public long getTotalFrequency() {
+    long total = 0;
+    for(int i = 0; i < size; i++) total += counts[i];
+    return total;
+  }
+
+  /**
+   * @return all words in order of their ids
+   */
+  public List<String> words() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return getWord(index);
+      }
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Adds the word with frequency 1 or increments its frequency if it is already contained.
+   * @return the id of the word
+   */
+  public int add(String word) {
+    return add(word, 1);
+  }
+
+  /**
+   * Adds the word with given frequency or increments its frequency if it is already contained.
+   * @return the id of the word
+   */
+  public int add(String word, int count) {
+    int id = indexOf(word);
+    if(id >= 0) {
+      counts[id] += count;
+      return id;
+    }
+    if(frozen) throw new IllegalStateException("cannot add words to a frozen vocabulary");
+    byte[] key = word.getBytes(StandardCharsets.UTF_8);
+    return append(key, 0, key.length, count);
+  }
+
+  /**
+   * Removes all words with a frequency lower than minFrequency. The remaining words keep their order.
+   */
+  public void truncate(int minFrequency) {
+    int[] order = new int[size];
+    int n = 0;
+    for(int i = 0; i < size; i++) {
+      if(counts[i] >= minFrequency) order[n++] = i;
+    }
+    if(n < size) reorder(Arrays.copyOf(order, n));
+  }
+
+  /**
+   * Assigns ids in order of descending frequency. Words with the same frequency keep their order.
+   */
+  public void sortByFrequency() {
+    Integer[] order = new Integer[size];
+    for(int i = 0; i < size; i++) order[i] = i;
+    Arrays.sort(order, (a, b) -> Integer.compare(counts[b], counts[a]));
+    int[] ids = new int[size];
+    for(int i = 0; i < size; i++) ids[i] = order[i];
+    reorder(ids);
+  }
+
+  /**
+   * Replaces the open-addressing table with a perfect hash over all words, which uses less memory but is
+   * slower for lookups. No words can be added afterwards.
+   */
+  public void freeze() {
+    frozen = true;
+    if(!buildPerfectHash()) {
+      log.warn("could not build perfect hash over {} words, using open addressing", size);
+      rehash(tableCapacity(size));
+    }
+  }
+
+  /**
+   * Writes the vocabulary in binary format.
+   */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.write(MAGIC);
+    data.writeInt(size);
+    data.writeInt(poolSize);
+    data.write(pool, 0, poolSize);
+    for(int i = 0; i < size; i++) data.writeInt(offsets[i + 1] - offsets[i]);
+    for(int i = 0; i < size; i++) data.writeInt(counts[i]);
+    data.flush();
+  }
+
+  /**
+   * Reads a vocabulary in binary format.
+   */
+  public static Vocabulary read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    byte[] magic = new byte[MAGIC.length];
+    data.readFully(magic);
+    if(!Arrays.equals(magic, MAGIC)) throw new IOException("invalid vocabulary file header");
+    Vocabulary vocab = new Vocabulary();
+    int size = data.readInt();
+    int poolSize = data.readInt();
+    vocab.pool = new byte[Math.max(poolSize, 1)];
+    data.readFully(vocab.pool, 0, poolSize);
+    vocab.poolSize = poolSize;
+    vocab.offsets = new int[size + 1];
+    for(int i = 0; i < size; i++) vocab.offsets[i + 1] = vocab.offsets[i] + data.readInt();
+    if(vocab.offsets[size] != poolSize) throw new IOException("invalid vocabulary word lengths");
+    vocab.counts = new int[size];
+    for(int i = 0; i < size; i++) vocab.counts[i] = data.readInt();
+    vocab.size = size;
+    vocab.rehash(tableCapacity(size));
+    return vocab;
+  }
+
+  protected int append(byte[] key, int off, int len, int count) {
+    if(size == counts.length) {
+      int capacity = Math.max(16, counts.length * 2); // read() and reorder() may leave empty arrays
+      counts = Arrays.copyOf(counts, capacity);
+      offsets = Arrays.copyOf(offsets, capacity + 1);
+    }
+    if(poolSize + len > pool.length) pool = Arrays.copyOf(pool, Math.max(poolSize + len, pool.length * 2));
+    System.arraycopy(key, off, pool, poolSize, len);
+    poolSize += len;
+    int id = size++;
+    offsets[size] = poolSize;
+    counts[id] = count;
+    if(size * 2 > slots.length) rehash(slots.length * 2);
+    else insert(slots, hash(key, off, len), id);
+    return id;
+  }
+
+  /**
+   * Keeps only the given ids in given order and rebuilds the hash.
+   */
+  protected void reorder(int[] ids) {
+    int newPoolSize = 0;
+    for(int id : ids) newPoolSize += offsets[id + 1] - offsets[id];
+    byte[] newPool = new byte[Math.max(newPoolSize, 1)];
+    int capacity = frozen ? ids.length : Math.max(16, ids.length);
+    int[] newOffsets = new int[capacity + 1];
+    int[] newCounts = new int[capacity];
+    for(int i = 0; i < ids.length; i++) {
+      int id = ids[i];
+      int len = offsets[id + 1] - offsets[id];
+      System.arraycopy(pool, offsets[id], newPool, newOffsets[i], len);
+      newOffsets[i + 1] = newOffsets[i] + len;
+      newCounts[i] = counts[id];
+    }
+    pool = newPool;
+    poolSize = newPoolSize;
+    offsets = newOffsets;
+    counts = newCounts;
+    size = ids.length;
+    if(frozen) freeze();
+    else rehash(tableCapacity(size));
+  }
+
+  private void rehash(int capacity) {
+    long[] table = new long[capacity];
+    for(int id = 0; id < size; id++) insert(table, hash(id), id);
+    slots = table;
+    displacements = null;
+  }
+
+  private static void insert(long[] table, long hash, int id) {
+    int mask = table.length - 1;
+    int i = (int) hash & mask;
+    while(table[i] != 0) i = (i + 1) & mask;
+    table[i] = entry(hash, id);
+  }
+
+  private static long entry(long hash, int id) {
+    return (hash & 0xFFFFFFFF00000000L) | (id + 1);
+  }
+
+  private static int tableCapacity(int size) {
+    int capacity = 32;
+    while(capacity < size * 2) capacity <<= 1;
+    return capacity;
+  }
+
+  /**
+   * Hash and displace: words are grouped into buckets, largest buckets first, and for every bucket the first
+   * displacement is chosen that maps all of its words into free slots.
+   * @return false if no perfect hash could be found
+   */
+  private boolean buildPerfectHash() {
+    int numBuckets = Math.max(1, size / BUCKET_SIZE);
+    int numSlots = Math.max(1, (int) Math.ceil(size / LOAD_FACTOR));
+    long[] hashes = new long[size];
+    for(int id = 0; id < size; id++) hashes[id] = hash(id);
+    // sort ids by bucket (counting sort)
+    int[] bucketStart = new int[numBuckets + 1];
+    for(int id = 0; id < size; id++) bucketStart[bucket(hashes[id], numBuckets) + 1]++;
+    int maxBucketSize = 0;
+    for(int b = 0; b < numBuckets; b++) {
+      maxBucketSize = Math.max(maxBucketSize, bucketStart[b + 1]);
+      bucketStart[b + 1] += bucketStart[b];
+    }
+    int[] bucketIds = new int[size];
+    int[] fill = Arrays.copyOf(bucketStart, numBuckets);
+    for(int id = 0; id < size; id++) bucketIds[fill[bucket(hashes[id], numBuckets)]++] = id;
+    // process buckets in order of descending size (counting sort)
+    int[] sizeStart = new int[maxBucketSize + 2];
+    for(int b = 0; b < numBuckets; b++) sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+    for(int s = 0; s <= maxBucketSize; s++) sizeStart[s + 1] += sizeStart[s];
+    int[] buckets = new int[numBuckets];
+    for(int b = 0; b < numBuckets; b++) buckets[sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+    long[] table = new long[numSlots];
+    int[] newDisplacements = new int[numBuckets];
+    int[] candidates = new int[maxBucketSize];
+    for(int b : buckets) {
+      int from = bucketStart[b], to = bucketStart[b + 1];
+      if(from == to) break;
+      int d = 0;
+      while(!tryPlace(hashes, bucketIds, from, to, d, table, candidates)) {
+        if(++d >= MAX_DISPLACEMENT) return false;
+      }
+      for(int i = from; i < to; i++) table[candidates[i - from]] = entry(hashes[bucketIds[i]], bucketIds[i]);
+      newDisplacements[b] = d;
+    }
+    slots = table;
+    displacements = newDisplacements;
+    return true;
+  }
+
+  private static boolean tryPlace(long[] hashes, int[] bucketIds, int from, int to, int d, long[] table, int[] candidates) {
+    for(int i = from; i < to; i++) {
+      int s = slot(hashes[bucketIds[i]], d, table.length);
+      if(table[s] != 0) return false;
+      for(int j = 0; j < i - from; j++) {
+        if(candidates[j] == s) return false;
+      }
+      candidates[i - from] = s;
+    }
+    return true;
+  }
+
+  /** maps the lower 32 bits of the hash to [0, numBuckets) */
+  private static int bucket(long hash, int numBuckets) {
+    return (int) (((hash & 0xFFFFFFFFL) * numBuckets) >>> 32);
+  }
+
+  /** maps the displaced hash to [0, numSlots) */
+  private static int slot(long hash, int displacement, int numSlots) {
+    long x = (hash + displacement * GOLDEN) * 0xff51afd7ed558ccdL;
+    return (int) (((x >>> 32) * numSlots) >>> 32);
+  }
+
+  private boolean equals(int id, String ascii, byte[] key, int off, int len) {
+    int start = offsets[id];
+    if(offsets[id + 1] - start != len) return false;
+    if(ascii != null) {
+      for(int i = 0; i < len; i++) {
+        if(pool[start + i] != ascii.charAt(i)) return false;
+      }
+    } else {
+      for(int i = 0; i < len; i++) {
+        if(pool[start + i] != key[off + i]) return false;
+      }
+    }
+    return true;
+  }
+
+  private long hash(int id) {
+    return hash(pool, offsets[id], offsets[id + 1] - offsets[id]);
+  }
+
+  /**
+   * 64-bit FNV-1a with a final mix.
+   */
+  private static long hash(byte[] key, int off, int len) {
+    long h = FNV_OFFSET;
+    for(int i = off; i < off + len; i++) h = (h ^ (key[i] & 0xff)) * FNV_PRIME;
+    return mix(h);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * @return the number of bytes of the word in UTF-8, consistent with String.getBytes()
+   */
+  private static int utf8Length(String word) {
+    int len = 0;
+    for(int i = 0; i < word.length(); i++) {
+      char c = word.charAt(i);
+      if(c < 0x80) len += 1;
+      else if(c < 0x800) len += 2;
+      else if(Character.isHighSurrogate(c) && i + 1 < word.length() && Character.isLowSurrogate(word.charAt(i + 1))) {
+        len += 4;
+        i++;
+      } else if(Character.isSurrogate(c)) len += 1;
+      else len += 3;
+    }
+    return len;
+  }
+
+  /**
+   * Encodes the word as UTF-8 into target, malformed surrogates are replaced with '?' like in String.getBytes().
+   */
+  private static void encodeUtf8(String word, byte[] target, int off) {
+    for(int i = 0; i < word.length(); i++) {
+      char c = word.charAt(i);
+      if(c < 0x80) {
+        target[off++] = (byte) c;
+      } else if(c < 0x800) {
+        target[off++] = (byte) (0xC0 | (c >> 6));
+        target[off++] = (byte) (0x80 | (c & 0x3F));
+      } else if(Character.isHighSurrogate(c) && i + 1 < word.length() && Character.isLowSurrogate(word.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, word.charAt(++i));
+        target[off++] = (byte) (0xF0 | (cp >> 18));
+        target[off++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        target[off++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        target[off++] = (byte) (0x80 | (cp & 0x3F));
+      } else if(Character.isSurrogate(c)) {
+        target[off++] = '?';
+      } else {
+        target[off++] = (byte) (0xE0 | (c >> 12));
+        target[off++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        target[off++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+}
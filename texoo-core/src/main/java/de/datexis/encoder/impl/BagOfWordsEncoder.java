@@ -1,16 +1,20 @@
 package de.datexis.encoder.impl;
 
 import de.datexis.common.WordHelpers;
+import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.ParallelEncoding;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
 import de.datexis.model.Token;
 import de.datexis.preprocess.MinimalLowercaseNewlinePreprocessor;
-import org.apache.commons.math3.util.Pair;
-import org.deeplearning4j.models.word2vec.wordstore.VocabularyHolder;
 import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.shade.jackson.annotation.JsonIgnore;
 import org.slf4j.LoggerFactory;
@@ -26,6 +30,18 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
   protected TokenPreProcess preprocessor = new MinimalLowercaseNewlinePreprocessor();
   protected WordHelpers wordHelpers;
   protected WordHelpers.Language language;
+
+  /** number of phrases that share a random stream in parallel subsampling */
+  protected static final int SUBSAMPLING_CHUNK = 256;
+
+  /** seed for subsampling, every stream is derived from this seed and a deterministic stream id */
+  protected long seed = 42;
+
+  /** default random stream 0, used by the subsampling methods without an explicit Random */
+  private Random random = null;
+
+  /** sampling weights of the current vocabulary */
+  private volatile SamplingTable samplingTable = null;
   
   public BagOfWordsEncoder() {
     this("BOW");
@@ -34,7 +50,6 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
   public BagOfWordsEncoder(String id) {
     super(id);
     log = LoggerFactory.getLogger(BagOfWordsEncoder.class);
-    vocab = new VocabularyHolder.Builder().build();
   }
   
   public Class getPreprocessorClass() {
@@ -60,6 +75,11 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     return "Bag-of-words Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   public void trainModel(Collection<Document> documents) {
     trainModel(documents, 1, WordHelpers.Language.EN);
@@ -68,6 +88,7 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
   public void trainModel(Collection<Document> documents, int minWordFrequency, WordHelpers.Language language) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     totalWords = 0;
     timer.start();
     setLanguage(language);
@@ -77,23 +98,23 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
         if(!w.isEmpty()) {
           totalWords++;
           if(!wordHelpers.isStopWord(w)) {
-            if(!vocab.containsWord(w)) vocab.addWord(w);
-            else vocab.incrementWordCounter(w);
+            vocab.add(w);
           }
         }
       }
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minWordFrequency);
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
   public void trainModel(Iterable<String> sentences, int minWordFrequency, int minWordLength, WordHelpers.Language language) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     totalWords = 0;
     timer.start();
     setLanguage(language);
@@ -103,17 +124,16 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
         if(!w.isEmpty()) {
           totalWords++;
           if(!wordHelpers.isStopWord(w) && w.length() >= minWordLength) {
-            if(!vocab.containsWord(w)) vocab.addWord(w);
-            else vocab.incrementWordCounter(w);
+            vocab.add(w);
           }
         }
       }
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minWordFrequency);
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
@@ -137,6 +157,33 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     return super.getProbability(preprocessor.preProcess(word));
   }
 
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Set the seed for subsampling and restart the default random stream.
+   */
+  public synchronized void setSeed(long seed) {
+    this.seed = seed;
+    random = null;
+  }
+
+  /**
+   * @return a new random stream with the given id, e.g. a batch or chunk index, that is reproducible for a fixed seed
+   */
+  public Random createRandom(long stream) {
+    return Nd4j.getRandomFactory().getNewRandomInstance(seed + stream);
+  }
+
+  /**
+   * @return the default random stream. Callers must synchronize on this encoder, because the stream is shared.
+   */
+  protected Random getRandom() {
+    if(random == null) random = createRandom(0);
+    return random;
+  }
+
   public WordHelpers.Language getLanguage() {
     return language;
   }
@@ -193,37 +240,132 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
   public INDArray encode(String phrase) {
     return encode(WordHelpers.splitSpaces(phrase));
   }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset) {
+    encodeInto(phrase, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    EncodingHelpers.clearStrided(target, offset, stride, getEmbeddingVectorSize());
+    if(span instanceof Token) putIndex(span.getText(), target, offset, stride);
+    else if(span instanceof Sentence) for(Token t : ((Sentence) span).getTokens()) putIndex(t.getText(), target, offset, stride);
+    else for(String w : WordHelpers.splitSpaces(span.getText())) putIndex(w, target, offset, stride);
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset, long stride) {
+    EncodingHelpers.clearStrided(target, offset, stride, getEmbeddingVectorSize());
+    for(String w : WordHelpers.splitSpaces(phrase)) putIndex(w, target, offset, stride);
+  }
+
+  private void putIndex(String word, INDArray target, long offset, long stride) {
+    int i = getIndex(word);
+    if(i>=0) target.putScalar(offset + i * stride, 1.0);
+  }
   
+  /**
+   * Tokenizes the String and encodes one word out of it with given distribution, using the default random stream.
+   */
+  public synchronized INDArray encodeSubsampled(String phrase) {
+    return encodeSubsampled(phrase, getRandom());
+  }
+
   /**
    * Tokenizes the String and encodes one word out of it with given distribution.
    */
-  public INDArray encodeSubsampled(String phrase) {
-    INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
+  public INDArray encodeSubsampled(String phrase, Random random) {
     String[] tokens = WordHelpers.splitSpaces(phrase);
     if(tokens.length == 1) return encode(tokens[0]);
-    List<Pair<String,Double>> itemWeights = new ArrayList<>(5);
+    INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
+    int i = sampleWord(tokens, random);
+    if(i >= 0) vector.putScalar(i, 0, 1.0);
+    return vector; // return zeroes if no word was sampled
+  }
+
+  /**
+   * Encodes one word out of every phrase with given distribution into a single buffer, the batch
+   * equivalent of encodeSubsampled(String).
+   * @return matrix [ phrases X vocab size ], rows of null phrases are empty
+   */
+  public INDArray encodeSubsampled(List<String> phrases, Random random) {
+    long size = getEmbeddingVectorSize();
+    INDArray flat = Nd4j.zeros(DataType.FLOAT, phrases.size() * size);
+    encodeSubsampledInto(phrases, 0, phrases.size(), flat, random);
+    return flat.reshape('c', phrases.size(), size);
+  }
+
+  /**
+   * Encodes one word out of every phrase in parallel. The phrases are split into chunks of SUBSAMPLING_CHUNK
+   * and chunk c draws from createRandom(c), so the result is reproducible for a fixed seed, independent of
+   * the number of threads and the order in which they process the chunks.
+   * @return matrix [ phrases X vocab size ], rows of null phrases are empty
+   */
+  public INDArray encodeSubsampled(List<String> phrases) {
+    long size = getEmbeddingVectorSize();
+    INDArray flat;
+    try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+      flat = Nd4j.zeros(DataType.FLOAT, phrases.size() * size);
+    }
+    ParallelEncoding.RangeAction chunk = (from, to) ->
+      encodeSubsampledInto(phrases, from, to, flat, createRandom(from / SUBSAMPLING_CHUNK));
+    if(ParallelEncoding.isParallel(this, phrases.size())) {
+      ParallelEncoding.forEachChunk(phrases.size(), SUBSAMPLING_CHUNK, chunk);
+    } else {
+      for(int from = 0; from < phrases.size(); from += SUBSAMPLING_CHUNK) {
+        chunk.apply(from, Math.min(from + SUBSAMPLING_CHUNK, phrases.size()));
+      }
+    }
+    return flat.reshape('c', phrases.size(), size);
+  }
+
+  /**
+   * Encodes the phrases [from, to) into the rows of a flat buffer [ phrases X vocab size ].
+   */
+  protected void encodeSubsampledInto(List<String> phrases, int from, int to, INDArray flat, Random random) {
+    long size = getEmbeddingVectorSize();
+    for(int r = from; r < to; r++) {
+      if(phrases.get(r) == null) continue;
+      String[] tokens = WordHelpers.splitSpaces(phrases.get(r));
+      if(tokens.length == 1) {
+        encodeInto(tokens[0], flat, r * size);
+      } else {
+        int i = sampleWord(tokens, random);
+        if(i >= 0) flat.putScalar(r * size + i, 1.0);
+      }
+    }
+  }
+
+  /**
+   * @return index of a word out of the tokens with probability proportional to its sampling weight,
+   * or -1 if no token is in the vocabulary
+   */
+  protected int sampleWord(String[] tokens, Random random) {
+    float[] weights = getSamplingTable().weights;
+    int[] ids = new int[tokens.length];
+    int n = 0;
     double completeWeight = 0.0;
-    String w;
     for(String t : tokens) {
-      w = preprocessor.preProcess(t);
-      if(!w.isEmpty() && !wordHelpers.isStopWord(w)) {
-        final double weight = samplingRate(super.getProbability(w));
-        if(weight == 1.) continue; // word not in vocab
-        completeWeight += weight;
-        itemWeights.add(new Pair(w, weight));
-      }
+      String w = preprocessor.preProcess(t);
+      if(w.isEmpty() || wordHelpers.isStopWord(w)) continue;
+      int i = vocab.indexOf(w);
+      if(i < 0) continue; // word not in vocab
+      completeWeight += weights[i];
+      ids[n++] = i;
     }
-    double r = Math.random() * completeWeight;
+    double r = random.nextDouble() * completeWeight;
     double countWeight = 0.0;
-    for(Pair<String,Double> item : itemWeights) {
-        countWeight += item.getValue();
-        if(countWeight >= r) {
-          int i = getIndex(item.getKey());
-          if(i>=0) vector.put(i, 0, 1.0);
-          return vector;
-        }
+    for(int k = 0; k < n; k++) {
+      countWeight += weights[ids[k]];
+      if(countWeight >= r) return ids[k];
     }
-    return vector; // return zeroes
+    return -1;
   }
   
   public double getConfidence(INDArray v, int i) {
@@ -264,26 +406,40 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
     return result;
 	}
 
-  public boolean keepWord(String word) {
-    return(Math.random() < samplingRate(word));
+  public synchronized boolean keepWord(String word) {
+    return keepWord(word, getRandom());
+  }
+
+  public boolean keepWord(String word, Random random) {
+    return(random.nextDouble() < samplingRate(word));
   }
 
   /**
    * Sets words in a given target to 0 based on probabilities.
    * http://mccormickml.com/2017/01/11/word2vec-tutorial-part-2-negative-sampling/
    */
-  public INDArray subsample(INDArray target) {
-    INDArray result = target.dup();
-    for(int i=0; i<target.length(); ++i) {
-      if(target.getDouble(i) > 0) {
-        if(!keepWord(getWord(i))) result.putScalar(i, 0.);
-      }
-    }
-    return result;
+  public synchronized INDArray subsample(INDArray target) {
+    return subsample(target.reshape('c', 1, target.length()), getRandom()).reshape(target.shape());
+  }
+
+  /**
+   * Sets words in every row of an n-hot matrix [ rows X vocab size ] to 0 based on probabilities,
+   * with a single mask multiply.
+   */
+  public INDArray subsample(INDArray batch, Random random) {
+    INDArray noise = Nd4j.rand(Nd4j.createUninitialized(batch.dataType(), batch.shape()), random);
+    INDArray mask = noise.subiRowVector(getSamplingTable().getKeepProbabilities(batch.dataType())).lt(0);
+    return batch.mul(mask.castTo(batch.dataType()));
   }
   
   protected double samplingRate(String word) {
-    double p = getProbability(word);
+    return keepProbability(getProbability(word));
+  }
+
+  /**
+   * @return the probability to keep a word with given probability during subsampling
+   */
+  protected double keepProbability(double p) {
     return (Math.sqrt(p / 0.001) + 1) * (0.001 / p);
   }
   
@@ -294,13 +450,64 @@ public class BagOfWordsEncoder extends LookupCacheEncoder {
 
   @JsonIgnore
   public INDArray subsampleWeights() {
-    INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
-    String w;
-    for(int i=0; i<getEmbeddingVectorSize(); ++i) {
-      w = getWord(i);
-      vector.put(i, 0, samplingRate(getProbability(w)));
+    return getSamplingTable().getWeights(DataType.FLOAT).dup();
+  }
+
+  /**
+   * @return sampling weights and keep probabilities of all words, computed once per vocabulary
+   */
+  protected SamplingTable getSamplingTable() {
+    SamplingTable table = samplingTable;
+    if(table == null || !table.isValid(vocab, totalWords)) {
+      table = new SamplingTable(vocab, totalWords);
+      samplingTable = table;
+    }
+    return table;
+  }
+
+  protected class SamplingTable {
+
+    private final Vocabulary vocab;
+    private final int size, totalWords;
+    private final float[] weights;
+    private final INDArray weightsRow, keepRow;
+
+    private SamplingTable(Vocabulary vocab, int totalWords) {
+      this.vocab = vocab;
+      this.size = vocab.size();
+      this.totalWords = totalWords;
+      weights = new float[size];
+      float[] keep = new float[size];
+      for(int i = 0; i < size; i++) {
+        double p = vocab.getFrequency(i) / (double) totalWords;
+        weights[i] = (float) samplingRate(p);
+        keep[i] = (float) Math.min(1., keepProbability(p));
+      }
+      // cached arrays must not be attached to the workspace of the current encoding
+      try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+        weightsRow = Nd4j.create(weights, new long[]{1, size}, DataType.FLOAT);
+        keepRow = Nd4j.create(keep, new long[]{1, size}, DataType.FLOAT);
+      }
+    }
+
+    private boolean isValid(Vocabulary vocab, int totalWords) {
+      return this.vocab == vocab && this.size == vocab.size() && this.totalWords == totalWords;
+    }
+
+    /**
+     * @return sampling weights as row vector [ 1 X vocab size ]
+     */
+    public INDArray getWeights(DataType type) {
+      return weightsRow.castTo(type);
     }
-    return vector.transpose();
+
+    /**
+     * @return keep probabilities as row vector [ 1 X vocab size ]
+     */
+    public INDArray getKeepProbabilities(DataType type) {
+      return keepRow.castTo(type);
+    }
+
   }
 
 }
@@ -5,19 +5,26 @@ import de.datexis.common.Resource;
 import de.datexis.common.WordHelpers;
 import de.datexis.hash.BitArrayBloomFilter;
 import de.datexis.hash.BitArrayBloomFilterStrategy;
+import de.datexis.encoder.EncodingHelpers;
 import de.datexis.model.Document;
+import de.datexis.model.Sentence;
 import de.datexis.model.Span;
+import de.datexis.model.Token;
 import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.shade.jackson.annotation.JsonIgnore;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -28,6 +35,14 @@ import java.util.zip.ZipOutputStream;
  */
 public class BloomEncoder extends BagOfWordsEncoder {
 
+  /** charset of the String funnel, words are hashed as bytes in this charset */
+  protected final static Charset CHARSET = Charset.defaultCharset();
+  
+  private final static boolean ASCII_COMPATIBLE = CHARSET.equals(StandardCharsets.UTF_8) ||
+      CHARSET.equals(StandardCharsets.ISO_8859_1) || CHARSET.equals(StandardCharsets.US_ASCII);
+
+  private final static ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
   protected BitArrayBloomFilter<CharSequence> bloom;
   
   public BloomEncoder() {
@@ -41,7 +56,7 @@ public class BloomEncoder extends BagOfWordsEncoder {
   public BloomEncoder(String id, int bitSize, int hashFunctions) {
     super(id);
     log = LoggerFactory.getLogger(BloomEncoder.class);
-    bloom = BitArrayBloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bitSize, hashFunctions, new BitArrayBloomFilterStrategy());
+    bloom = BitArrayBloomFilter.create(Funnels.stringFunnel(CHARSET), bitSize, hashFunctions, new BitArrayBloomFilterStrategy());
   }
   
   @Override
@@ -61,25 +76,32 @@ public class BloomEncoder extends BagOfWordsEncoder {
   @Override
   public void trainModel(Iterable<String> sentences, int minWordFrequency, int minWordLength, WordHelpers.Language language) {
     super.trainModel(sentences, minWordFrequency, minWordLength, language);
-    for(String word : getWords()) {
-      bloom.put(word);
-    }
-    appendTrainLog("trained Bloom filter over " + vocab.numWords() + " words into " + bloom.bitSize() + " bits (ratio: " + ((double) bloom.bitSize() / vocab.numWords()));
+    trainBloomFilter();
   }
   
   @Override
   public void trainModel(Collection<Document> documents, int minWordFrequency, WordHelpers.Language language) {
     super.trainModel(documents, minWordFrequency, language);
+    trainBloomFilter();
+  }
+  
+  protected void trainBloomFilter() {
     for(String word : getWords()) {
       bloom.put(word);
     }
-    appendTrainLog("trained Bloom filter over " + vocab.numWords() + " words into " + bloom.bitSize() + " bits (ratio: " + ((double) bloom.bitSize() / vocab.numWords()));
+    appendTrainLog("trained Bloom filter over " + vocab.size() + " words into " + bloom.bitSize() + " bits (ratio: " + ((double) bloom.bitSize() / vocab.size()) + 
+        ", collision rate: " + getCollisionRate() + ", expected FPP: " + bloom.expectedFpp() + ")");
   }
   
   @Override
   public long getEmbeddingVectorSize() {
     return bloom.bitSize();
   }
+
+  @JsonIgnore
+  public BitArrayBloomFilter<CharSequence> getBloomFilter() {
+    return bloom;
+  }
   
   @Override
   public INDArray encode(String phrase) {
@@ -88,27 +110,181 @@ public class BloomEncoder extends BagOfWordsEncoder {
   
   @Override
   public INDArray encode(Iterable<? extends Span> spans) {
-    INDArray vector = Nd4j.zeros(DataType.FLOAT, getEmbeddingVectorSize(), 1);
-    for(Span s : spans) {
-      double[] bits = bloom.getBitArray(preprocessor.preProcess(s.getText()));
-      INDArray x = Nd4j.create(bits, new long[]{getEmbeddingVectorSize(), 1}).castTo(DataType.FLOAT);
-      vector.addi(x);
-    }
-    for(long i = 0; i < vector.length(); i++) {
-      if(vector.getDouble(i) > 0.) vector.putScalar(i, 1.); // maximum value 1
-    }
-    return vector;
+    long[] bitset = new long[bloom.numWords()];
+    for(Span s : spans) putBits(s.getText(), bitset, 0);
+    return toVector(bitset);
   }
   
   @Override
   public INDArray encode(String[] words) {
-    INDArray vector = Nd4j.zeros(DataType.FLOAT, getEmbeddingVectorSize(), 1);
-    for(String s : words) {
-      double[] bits = bloom.getBitArray(preprocessor.preProcess(s));
-      INDArray x = Nd4j.create(bits, new long[]{getEmbeddingVectorSize(), 1}).castTo(DataType.FLOAT);
-      vector.addi(x);
+    long[] bitset = new long[bloom.numWords()];
+    for(String s : words) putBits(s, bitset, 0);
+    return toVector(bitset);
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset) {
+    encodeInto(phrase, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    long[] bitset = new long[bloom.numWords()];
+    if(span instanceof Token) putBits(span.getText(), bitset, 0);
+    else if(span instanceof Sentence) for(Token t : ((Sentence) span).getTokens()) putBits(t.getText(), bitset, 0);
+    else for(String w : WordHelpers.splitSpaces(span.getText())) putBits(w, bitset, 0);
+    EncodingHelpers.putStrided(target, offset, stride, toVector(bitset));
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset, long stride) {
+    long[] bitset = new long[bloom.numWords()];
+    for(String w : WordHelpers.splitSpaces(phrase)) putBits(w, bitset, 0);
+    EncodingHelpers.putStrided(target, offset, stride, toVector(bitset));
+  }
+
+  /**
+   * Hashes a batch of phrases into primitive bitsets, one row per phrase that contains the bits of all its words.
+   * @return bitsets with bloom.numWords() longs per phrase, rows of null phrases are empty
+   */
+  public long[] encodeBits(List<String> phrases) {
+    int words = bloom.numWords();
+    long[] bitsets = new long[phrases.size() * words];
+    for(int r = 0; r < phrases.size(); r++) {
+      if(phrases.get(r) == null) continue;
+      for(String w : WordHelpers.splitSpaces(phrases.get(r))) putBits(w, bitsets, r * words);
     }
-    return vector;
+    return bitsets;
+  }
+
+  /**
+   * Encodes a batch of phrases with a single copy into the network input.
+   * @return matrix [ phrases X bit size ]
+   */
+  public INDArray encodeBatch(List<String> phrases) {
+    return toMatrix(encodeBits(phrases), phrases.size());
+  }
+
+  /**
+   * Encodes a phrase as sparse indexes of its set bits.
+   * @return positions of all set bits in ascending order
+   */
+  public int[] encodeIndexes(String phrase) {
+    long[] bitset = new long[bloom.numWords()];
+    for(String w : WordHelpers.splitSpaces(phrase)) putBits(w, bitset, 0);
+    return toIndexes(bitset, 0);
+  }
+
+  /**
+   * Converts bitset rows into a dense matrix [ rows X bit size ] with a single copy.
+   */
+  public INDArray toMatrix(long[] bitsets, int rows) {
+    return Nd4j.create(toFloats(bitsets), new long[]{rows, getEmbeddingVectorSize()}, DataType.FLOAT);
+  }
+
+  /**
+   * @return positions of all set bits in the given bitset row in ascending order
+   */
+  public int[] toIndexes(long[] bitsets, int row) {
+    int words = bloom.numWords();
+    int from = row * words;
+    int count = 0;
+    for(int i = from; i < from + words; i++) count += Long.bitCount(bitsets[i]);
+    int[] indexes = new int[count];
+    int n = 0;
+    for(int i = from; i < from + words; i++) {
+      for(long bits = bitsets[i]; bits != 0; bits &= bits - 1) {
+        indexes[n++] = ((i - from) << 6) + Long.numberOfTrailingZeros(bits);
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * @return fraction of vocabulary words that share all bit positions with another word, so that their
+   * encodings can not be distinguished
+   */
+  @JsonIgnore
+  public double getCollisionRate() {
+    int size = vocab.size();
+    if(size == 0) return 0.;
+    Scratch s = scratch.get();
+    long[] positions = new long[bloom.numHashFunctions()];
+    long[] fingerprints = new long[size];
+    for(int i = 0; i < size; i++) {
+      s.setWord(vocab.getWord(i));
+      bloom.getBitIndexes(s.bytes, 0, s.length, positions, s.hash);
+      Arrays.sort(positions);
+      long fp = 0;
+      for(long p : positions) fp = (fp ^ p) * 0x9e3779b97f4a7c15L;
+      fingerprints[i] = fp;
+    }
+    Arrays.sort(fingerprints);
+    int collisions = 0;
+    for(int i = 0; i < size; i++) {
+      if((i > 0 && fingerprints[i] == fingerprints[i - 1]) || (i < size - 1 && fingerprints[i] == fingerprints[i + 1])) collisions++;
+    }
+    return (double) collisions / size;
+  }
+
+  /**
+   * Sets the bits of a single word in the bitset row starting at offset.
+   */
+  protected void putBits(String word, long[] bitsets, int offset) {
+    Scratch s = scratch.get();
+    s.setWord(preprocessor.preProcess(word));
+    bloom.putBits(s.bytes, 0, s.length, bitsets, offset, s.hash);
+  }
+
+  private INDArray toVector(long[] bitset) {
+    return Nd4j.create(toFloats(bitset), new long[]{getEmbeddingVectorSize(), 1}, DataType.FLOAT);
+  }
+
+  private static float[] toFloats(long[] bitsets) {
+    float[] data = new float[bitsets.length << 6];
+    for(int i = 0; i < bitsets.length; i++) {
+      for(long bits = bitsets[i]; bits != 0; bits &= bits - 1) {
+        data[(i << 6) + Long.numberOfTrailingZeros(bits)] = 1f;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Per-thread buffers to hash words without allocation.
+   */
+  private static class Scratch {
+
+    byte[] bytes = new byte[64];
+    int length;
+    final long[] hash = new long[2];
+
+    void setWord(String word) {
+      int len = word.length();
+      if(ASCII_COMPATIBLE) {
+        if(bytes.length < len) bytes = new byte[Math.max(len, bytes.length * 2)];
+        int i = 0;
+        for(; i < len; i++) {
+          char c = word.charAt(i);
+          if(c >= 0x80) break;
+          bytes[i] = (byte) c;
+        }
+        if(i == len) {
+          length = len;
+          return;
+        }
+      }
+      byte[] encoded = word.getBytes(CHARSET);
+      if(bytes.length < encoded.length) bytes = new byte[Math.max(encoded.length, bytes.length * 2)];
+      System.arraycopy(encoded, 0, bytes, 0, encoded.length);
+      length = encoded.length;
+    }
+
   }
   
   private static void writeEntry(InputStream inputStream, ZipOutputStream zipStream) throws IOException {
@@ -175,7 +351,7 @@ public class BloomEncoder extends BagOfWordsEncoder {
       stream = zipFile.getInputStream(zipFile.getEntry("bloom.bin"));
       Files.copy(stream, temp.resolve("bloom.bin").getPath(), StandardCopyOption.REPLACE_EXISTING);
       bloom = BitArrayBloomFilter.readFrom(temp.resolve("bloom.bin").getInputStream(), 
-          Funnels.stringFunnel(Charset.defaultCharset()),
+          Funnels.stringFunnel(CHARSET),
           new BitArrayBloomFilterStrategy());
       
       setModel(modelFile);
@@ -2,7 +2,6 @@ package de.datexis.encoder.impl;
 
 import de.datexis.encoder.StaticEncoder;
 import de.datexis.model.Span;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -38,9 +37,14 @@ public class CharClassEncoder extends StaticEncoder {
     return "Character Class Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   public long getEmbeddingVectorSize() {
-    return encode("Test").length();
+    return getFeatures("Test").length;
   }
 
   @Override
@@ -50,30 +54,58 @@ public class CharClassEncoder extends StaticEncoder {
   
   @Override
   public INDArray encode(String span) {
-   
-    span = span.trim();
-    ArrayList<Boolean> features = new ArrayList<>();
-    // Character classes, also see http://www.regular-expressions.info/unicode.html#category
-    features.add(isSymbol(span));
-    features.add(isOperator(span));
-    features.add(isOpeningQuote(span));
-    features.add(isClosingQuote(span));
-    features.add(isOpeningParanthesis(span));
-    features.add(isClosingParanthesis(span));
-    features.add(isSlash(span));
-    features.add(isComma(span));
-    features.add(isDash(span));
-    features.add(isSentenceTerminator(span));
-    features.add(isColon(span));
-    
-    INDArray vector = Nd4j.zeros(features.size(), 1);
-    int i = 0;
-    for(Boolean f : features) {
-      vector.put(i++, 0, f ? 1.0 : 0.0);
+    boolean[] features = getFeatures(span);
+    INDArray vector = Nd4j.zeros(features.length, 1);
+    for(int i = 0; i < features.length; i++) {
+      vector.put(i, 0, features[i] ? 1.0 : 0.0);
     }
     return vector;
   }
   
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span.getText(), target, offset, 1);
+  }
+  
+  @Override
+  public void encodeInto(String span, INDArray target, long offset) {
+    encodeInto(span, target, offset, 1);
+  }
+  
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    encodeInto(span.getText(), target, offset, stride);
+  }
+  
+  @Override
+  public void encodeInto(String span, INDArray target, long offset, long stride) {
+    boolean[] features = getFeatures(span);
+    for(int i = 0; i < features.length; i++) {
+      target.putScalar(offset + i * stride, features[i] ? 1.0 : 0.0);
+    }
+  }
+  
+  /**
+   * @return all char class features of the given String
+   */
+  protected boolean[] getFeatures(String span) {
+    span = span.trim();
+    return new boolean[] {
+      // Character classes, also see http://www.regular-expressions.info/unicode.html#category
+      isSymbol(span),
+      isOperator(span),
+      isOpeningQuote(span),
+      isClosingQuote(span),
+      isOpeningParanthesis(span),
+      isClosingParanthesis(span),
+      isSlash(span),
+      isComma(span),
+      isDash(span),
+      isSentenceTerminator(span),
+      isColon(span)
+    };
+  }
+  
   // symbols and signs    SYM $ #
   static Collection<String> symbols = Arrays.asList("#","$","%","@","^","_","~","¢","£","¥","§","€");
   public boolean isSymbol(String token) {
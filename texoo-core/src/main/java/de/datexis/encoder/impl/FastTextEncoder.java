@@ -1,19 +1,18 @@
 package de.datexis.encoder.impl;
 
 import cc.fasttext.FastText;
-import cc.fasttext.Matrix;
+import cc.fasttext.FastTextBinding;
 import cc.fasttext.Vector;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import de.datexis.common.Resource;
+import de.datexis.common.Timer;
 import de.datexis.encoder.Encoder;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
 import de.datexis.model.Token;
-import de.datexis.preprocess.SentenceDetectorMENL;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.Validate;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -22,10 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
-import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 /**
@@ -42,7 +38,12 @@ public class FastTextEncoder extends Encoder {
   private Resource modelSource;
   private long size = 0;
 
-  private Method getPrecomputedWordVectors, findNN;
+  private FastTextBinding binding;
+
+  /** maximum number of out-of-vocabulary words with cached subword vectors */
+  protected int cacheSize = 100000;
+
+  private Map<String,float[]> oovCache = createCache(cacheSize);
 
 	public FastTextEncoder() {
     super("FT");
@@ -52,23 +53,27 @@ public class FastTextEncoder extends Encoder {
     super(id);
   }
 
-  private void initializeMethodsFromReflection() {
-    try {
-      // we need to get some methods from FastText through reflection
-      getPrecomputedWordVectors = ft.getClass().getDeclaredMethod("getPrecomputedWordVectors");
-      getPrecomputedWordVectors.setAccessible(true);
-      findNN = ft.getClass().getDeclaredMethod("findNN", Matrix.class, Vector.class, int.class, Set.class);
-      findNN.setAccessible(true);
-      /*for(Method method : ft.getClass().getDeclaredMethods()) {
-        if(method.getName().equals("getPrecomputedWordVectors")) {
-          getPrecomputedWordVectors = method;
-        } else if(method.getName().equals("findNN")) {
-          findNN = method;
-        }
-      }*/
-    } catch(Exception ex) {
-      java.util.logging.Logger.getLogger(SentenceDetectorMENL.class.getName()).log(Level.SEVERE, null, ex);
-    }
+  private static Map<String,float[]> createCache(int cacheSize) {
+    if(cacheSize <= 0) return null;
+    return Collections.synchronizedMap(new LinkedHashMap<String,float[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,float[]> eldest) {
+        return size() > cacheSize;
+      }
+    });
+  }
+
+  @JsonIgnore
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @param cacheSize maximum number of out-of-vocabulary words with cached subword vectors, or 0 to disable the cache
+   */
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = cacheSize;
+    this.oovCache = createCache(cacheSize);
   }
 
   public static FastTextEncoder load(Resource path) throws IOException {
@@ -84,8 +89,12 @@ public class FastTextEncoder extends Encoder {
   public void loadModel(Resource modelFile) throws IOException {
     log.info("Loading FastText model: " +  modelFile.getFileName());
     ft = FastText.DEFAULT_FACTORY.load(modelFile.getInputStream());
-    initializeMethodsFromReflection();
-    size = ft.getWordVector("the").size();
+    Timer timer = new Timer();
+    timer.start();
+    binding = new FastTextBinding(ft);
+    oovCache = createCache(cacheSize);
+    size = binding.getDimension();
+    log.debug("Created FastText binding in {} ms", timer.getLong());
     setModel(modelFile);
     setModelAvailable(true);
     modelSource = modelFile;
@@ -135,41 +144,53 @@ public class FastTextEncoder extends Encoder {
    * @return FastText Vector as INDArray
    */
   protected INDArray asINDArray(Vector vec) {
-    INDArray arr = Nd4j.createUninitialized(vec.size(), 1);
-    int i = 0;
-    for(Float f : vec.getData()) {
-      arr.putScalar(i++, 1, f.doubleValue());
-    }
-    return arr;
+    return Nd4j.create(FastTextBinding.getData(vec), new long[]{vec.size(), 1});
   }
 
   /**
    * @return INDArray as FastText Vector
    */
   protected Vector asVector(INDArray arr) {
-    Vector vec = new Vector((int)arr.length());
-    for(int i = 0; i < arr.length(); i++) {
-      vec.set(i, arr.getFloat(i));
+    return FastTextBinding.toVector(arr.dup().reshape(arr.length()).toFloatVector());
+  }
+  
+  /**
+   * Writes the vector of a word into target at given offset. Vectors of out-of-vocabulary words are built from
+   * hashed character n-grams, so these are kept in a LRU cache.
+   */
+  protected void getWordVector(String word, float[] target, int offset) {
+    Map<String,float[]> cache = oovCache;
+    if(cache == null || binding.getWordId(word) >= 0) {
+      binding.getWordVector(word, target, offset);
+      return;
     }
-    return vec;
+    float[] vec = cache.get(word);
+    if(vec == null) {
+      vec = new float[(int) size];
+      binding.getWordVector(word, vec, 0);
+      cache.put(word, vec);
+    }
+    System.arraycopy(vec, 0, target, offset, vec.length);
   }
   
 	/**
 	 * Use this function to access word vectors
 	 */
 	protected INDArray getWordVector(String word) {
-		return asINDArray(ft.getWordVector(word));
+    float[] vec = new float[(int) size];
+    getWordVector(word, vec, 0);
+		return Nd4j.create(vec, new long[]{size, 1});
 	}
   
   /**
 	 * Use this function to access sentence vectors
 	 */
 	protected INDArray getSentenceVector(String sentence) {
-		return asINDArray(ft.getSentenceVector(sentence));
+		return Nd4j.create(binding.getSentenceVector(sentence), new long[]{size, 1});
 	}
 
 	public boolean isUnknown(String word) {
-		return ft.getDictionary().getId(word) <= 0;
+		return binding.getWordId(word) <= 0;
 	}
 
 	@Override
@@ -193,6 +214,18 @@ public class FastTextEncoder extends Encoder {
 	  else return getWordVector(word);
 	}
 
+  /**
+   * Encodes a batch of words into a single contiguous matrix.
+   * @return matrix [ words X embedding size ]
+   */
+  public INDArray encode(List<String> words) {
+    float[] data = new float[words.size() * (int) size];
+    for(int i = 0; i < words.size(); i++) {
+      getWordVector(words.get(i), data, i * (int) size);
+    }
+    return Nd4j.create(data, new long[]{words.size(), size});
+  }
+
 	public List<String> getNearestNeighbours(String word, int k) {
     Multimap<String, Float> result = ft.nn(k, word);
     return result.entries().stream()
@@ -201,22 +234,27 @@ public class FastTextEncoder extends Encoder {
       .collect(Collectors.toList());
 	}
 
+  /**
+   * @return the k dictionary words with highest cosine similarity to the given vector
+   */
 	public List<String> getNearestNeighbours(INDArray v, int k) {
-    try {
-      Validate.isTrue(k > 0, "Not positive factor");
-      Matrix wordVectors = null;
-      wordVectors = (Matrix) getPrecomputedWordVectors.invoke(ft);
-      Set<String> banSet = new HashSet<>();
-      Vector queryVec = asVector(v);
-      Multimap<String, Float> result = Multimaps.invertFrom((Multimap<Float, String>) findNN.invoke(ft, wordVectors, queryVec, k, banSet), ArrayListMultimap.create());
-      return result.entries().stream()
-        .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-        .map(e -> e.getKey())
-        .collect(Collectors.toList());
-    } catch(IllegalAccessException | InvocationTargetException e) {
-      e.printStackTrace();
+    Validate.isTrue(k > 0, "Not positive factor");
+    float[][] wordVectors = binding.getNormalizedWordVectors();
+    float[] query = v.dup().reshape(v.length()).toFloatVector();
+    PriorityQueue<Map.Entry<Float,Integer>> best = new PriorityQueue<>(k + 1, Map.Entry.comparingByKey());
+    for(int i = 0; i < wordVectors.length; i++) {
+      float dot = 0f;
+      for(int j = 0; j < query.length; j++) dot += wordVectors[i][j] * query[j];
+      if(best.size() < k) best.add(new AbstractMap.SimpleEntry<>(dot, i));
+      else if(dot > best.peek().getKey()) {
+        best.poll();
+        best.add(new AbstractMap.SimpleEntry<>(dot, i));
+      }
     }
-    return Collections.EMPTY_LIST;
+    List<String> result = new ArrayList<>(best.size());
+    while(!best.isEmpty()) result.add(binding.getWord(best.poll().getValue()));
+    Collections.reverse(result);
+    return result;
   }
 
 }
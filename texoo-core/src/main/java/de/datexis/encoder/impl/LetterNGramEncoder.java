@@ -2,13 +2,19 @@ package de.datexis.encoder.impl;
 
 import de.datexis.model.Document;
 import de.datexis.model.Token;
+import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.model.Span;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.shade.jackson.annotation.JsonIgnore;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -20,6 +26,17 @@ public class LetterNGramEncoder extends LookupCacheEncoder {
   /** the number of chars per gram */
   protected int n;
   
+  /** size of the hashed feature space, or 0 to use the ids of the trained vocabulary */
+  protected int hashBuckets = 0;
+  
+  /** maximum number of tokens with cached n-gram ids */
+  protected int cacheSize = 100000;
+  
+  private static final ThreadLocal<NGramExtractor> extractor = ThreadLocal.withInitial(NGramExtractor::new);
+  
+  private final Map<String,int[]> idCache = new ConcurrentHashMap<>();
+  private volatile Vocabulary cachedVocab = null;
+  
   public LetterNGramEncoder() {
     super("TRI");
     log = LoggerFactory.getLogger(LetterNGramEncoder.class);
@@ -41,15 +58,84 @@ public class LetterNGramEncoder extends LookupCacheEncoder {
     return Integer.toString(n)+"-gram Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   public int getN() {
     return n;
   }
   
   public LetterNGramEncoder setN(int n) {
     this.n = n;
+    idCache.clear();
     return this;
   }
 
+  public int getHashBuckets() {
+    return hashBuckets;
+  }
+
+  /**
+   * Map n-grams into a fixed-size feature space with a rolling hash instead of vocabulary lookups.
+   * @param hashBuckets the size of the feature space, or 0 to use the trained vocabulary
+   */
+  public LetterNGramEncoder setHashBuckets(int hashBuckets) {
+    this.hashBuckets = hashBuckets;
+    idCache.clear();
+    return this;
+  }
+
+  @JsonIgnore
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = cacheSize;
+    idCache.clear();
+  }
+
+  @Override
+  public long getEmbeddingVectorSize() {
+    return hashBuckets > 0 ? hashBuckets : super.getEmbeddingVectorSize();
+  }
+
+  /**
+   * Returns the feature ids of all n-grams of a token, without unknown n-grams. Ids of the first cacheSize
+   * distinct tokens are cached, which covers the most frequent tokens of a corpus. The returned array
+   * is shared and must not be modified.
+   */
+  public int[] getNGramIds(String token) {
+    if(cachedVocab != vocab) {
+      idCache.clear();
+      cachedVocab = vocab;
+    }
+    int[] ids = idCache.get(token);
+    if(ids != null) return ids;
+    NGramExtractor ngrams = extractor.get().setToken(token, this);
+    ids = new int[ngrams.count(n)];
+    int count = hashBuckets > 0 ? ngrams.hash(n, hashBuckets, ids) : ngrams.lookup(vocab, n, ids);
+    if(count < ids.length) ids = Arrays.copyOf(ids, count);
+    if(idCache.size() < cacheSize) idCache.put(token, ids);
+    return ids;
+  }
+
+  /**
+   * Encodes a phrase as sparse feature ids.
+   * @return distinct ids of all n-grams in ascending order
+   */
+  public int[] encodeIndexes(String phrase) {
+    int[] ids = getNGramIds(phrase).clone();
+    Arrays.sort(ids);
+    int count = 0;
+    for(int i = 0; i < ids.length; i++) {
+      if(i == 0 || ids[i] != ids[i - 1]) ids[count++] = ids[i];
+    }
+    return count < ids.length ? Arrays.copyOf(ids, count) : ids;
+  }
+
   @Override
   public INDArray encode(Span span) {
     return encode(span.getText());
@@ -57,24 +143,37 @@ public class LetterNGramEncoder extends LookupCacheEncoder {
 
   @Override
   public INDArray encode(String phrase) {
+    // best results were seen with no normalization and 1.0 instead of word frequency
     INDArray vector = Nd4j.zeros(getEmbeddingVectorSize(), 1);
-    List<String> ngrams = generateNGrams(phrase);
-    int i;
-    for(String ngram : ngrams) {
-       i = getIndex(ngram);
-       // best results were seen with no normalization and 1.0 instead of word frequency
-       if(i>=0) vector.put(i, 0, 1.0);//cache.wordFrequency(ngram));
-    }
-    return vector;//.div(vector.norm1(0));
+    for(int i : getNGramIds(phrase)) vector.putScalar(i, 0, 1.0);
+    return vector;
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span.getText(), target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset) {
+    encodeInto(phrase, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    encodeInto(span.getText(), target, offset, stride);
+  }
+
+  @Override
+  public void encodeInto(String phrase, INDArray target, long offset, long stride) {
+    EncodingHelpers.clearStrided(target, offset, stride, getEmbeddingVectorSize());
+    for(int i : getNGramIds(phrase)) target.putScalar(offset + i * stride, 1.0);
   }
 
   @Override
   public boolean isUnknown(String word) {
-    List<String> ngrams = generateNGrams(word);
-    for(String ngram : ngrams) {
-      if(!vocab.containsWord(ngram)) return true;
-    }
-    return false;
+    NGramExtractor ngrams = extractor.get().setToken(word, this);
+    return ngrams.lookup(vocab, n, new int[ngrams.count(n)]) < ngrams.count(n);
   }
 
   /**
@@ -125,6 +224,7 @@ public class LetterNGramEncoder extends LookupCacheEncoder {
   public void trainModel(Collection<Document> documents, int minWordFrequency) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     timer.start();
     List<String> ngrams;
     totalWords = 0;
@@ -134,19 +234,15 @@ public class LetterNGramEncoder extends LookupCacheEncoder {
         for(String w : ngrams) {
           totalWords++;
           //System.out.println(x + ": " + cache.containsWord(x));
-          if(!vocab.containsWord(w)) {
-            vocab.addWord(w);
-          } else {
-            vocab.incrementWordCounter(w);
-          }
+          vocab.add(w);
         }
       }
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minWordFrequency); // TODO: truncate
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minWordFrequency);
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " " + n + "-grams (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " " + n + "-grams (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
@@ -0,0 +1,156 @@
+package de.datexis.encoder.impl;
+
+import de.datexis.encoder.Vocabulary;
+
+/**
+ * Extracts the character n-grams of a token, surrounded by #, from reusable char and byte buffers without
+ * intermediate Strings. Every n-gram gets a polynomial rolling hash that is updated in constant time per
+ * position. N-grams are either looked up as UTF-8 byte ranges in a Vocabulary or hashed into a fixed number
+ * of buckets. An instance is not thread-safe, so every thread should use its own extractor.
+ */
+public class NGramExtractor {
+
+  /** odd multiplier of the rolling hash */
+  private static final long BASE = 0x100000001b3L;
+
+  /** filter and lowercase table for ASCII chars, consistent with LetterNGramEncoder.keepOnlyPrintableChars() */
+  private static final char[] ASCII = new char[128];
+
+  static {
+    for(char c = 0; c < 128; c++) {
+      String s = String.valueOf(c);
+      String kept = s.replaceAll("[^\\p{L}\\p{N}\\p{P}\\p{Sm}\\p{Sc}]", "").toLowerCase();
+      ASCII[c] = kept.length() == 1 ? kept.charAt(0) : 0;
+    }
+  }
+
+  private char[] chars = new char[64];
+  private byte[] bytes = new byte[192];
+  private int[] offsets = new int[65];
+  private int length;
+  private boolean surrogates;
+
+  /**
+   * Normalizes the token like LetterNGramEncoder.keepOnlyPrintableChars() and surrounds it with #.
+   * Tokens with chars outside of ASCII use the regular expression of the encoder.
+   */
+  public NGramExtractor setToken(String token, LetterNGramEncoder encoder) {
+    int len = token.length();
+    ensureCapacity(len + 2);
+    chars[0] = '#';
+    int k = 1;
+    for(int i = 0; i < len; i++) {
+      char c = token.charAt(i);
+      if(c >= 128) {
+        setNormalized(encoder.keepOnlyPrintableChars(token));
+        return this;
+      }
+      char lower = ASCII[c];
+      if(lower != 0) chars[k++] = lower;
+    }
+    chars[k++] = '#';
+    length = k;
+    encodeBytes();
+    return this;
+  }
+
+  private void setNormalized(String word) {
+    ensureCapacity(word.length() + 2);
+    chars[0] = '#';
+    word.getChars(0, word.length(), chars, 1);
+    chars[word.length() + 1] = '#';
+    length = word.length() + 2;
+    encodeBytes();
+  }
+
+  /**
+   * @return the number of n-grams of the current token
+   */
+  public int count(int n) {
+    return Math.max(0, length - n + 1);
+  }
+
+  /**
+   * @return the n-gram at given position as String
+   */
+  public String getNGram(int start, int n) {
+    return new String(chars, start, n);
+  }
+
+  /**
+   * Writes the ids of all n-grams of the current token that are contained in the vocabulary into target.
+   * @return the number of ids written, which is less than count(n) if there are unknown n-grams
+   */
+  public int lookup(Vocabulary vocab, int n, int[] target) {
+    int found = 0;
+    for(int start = 0; start < count(n); start++) {
+      int id = surrogates ?
+          vocab.indexOf(getNGram(start, n)) :
+          vocab.indexOf(bytes, offsets[start], offsets[start + n] - offsets[start]);
+      if(id >= 0) target[found++] = id;
+    }
+    return found;
+  }
+
+  /**
+   * Writes the bucket of every n-gram of the current token into target, using a rolling hash over the chars.
+   * @return the number of buckets written, which is count(n)
+   */
+  public int hash(int n, int buckets, int[] target) {
+    int count = count(n);
+    if(count == 0) return 0;
+    long power = 1;
+    for(int i = 1; i < n; i++) power *= BASE;
+    long h = 0;
+    for(int i = 0; i < n; i++) h = h * BASE + chars[i];
+    target[0] = bucket(h, buckets);
+    for(int start = 1; start < count; start++) {
+      h = (h - chars[start - 1] * power) * BASE + chars[start + n - 1];
+      target[start] = bucket(h, buckets);
+    }
+    return count;
+  }
+
+  private static int bucket(long h, int buckets) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) (((h >>> 32) * buckets) >>> 32);
+  }
+
+  /**
+   * Encodes the chars as UTF-8 and records the byte offset of every char.
+   */
+  private void encodeBytes() {
+    surrogates = false;
+    int off = 0;
+    for(int i = 0; i < length; i++) {
+      char c = chars[i];
+      offsets[i] = off;
+      if(c < 0x80) {
+        bytes[off++] = (byte) c;
+      } else if(c < 0x800) {
+        bytes[off++] = (byte) (0xC0 | (c >> 6));
+        bytes[off++] = (byte) (0x80 | (c & 0x3F));
+      } else if(Character.isSurrogate(c)) {
+        surrogates = true; // n-grams might split pairs, so these are looked up as Strings
+        return;
+      } else {
+        bytes[off++] = (byte) (0xE0 | (c >> 12));
+        bytes[off++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[off++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    offsets[length] = off;
+  }
+
+  private void ensureCapacity(int len) {
+    if(chars.length < len) {
+      int capacity = Math.max(len, chars.length * 2);
+      chars = new char[capacity];
+      bytes = new byte[capacity * 3];
+      offsets = new int[capacity + 1];
+    }
+  }
+
+}
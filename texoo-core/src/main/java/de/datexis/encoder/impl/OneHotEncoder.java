@@ -2,7 +2,9 @@ package de.datexis.encoder.impl;
 
 import de.datexis.model.Document;
 import de.datexis.model.Token;
+import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.model.Span;
 import de.datexis.preprocess.MinimalLowercasePreprocessor;
 import java.util.ArrayList;
@@ -35,6 +37,11 @@ public class OneHotEncoder extends LookupCacheEncoder {
     return "1-hot Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   public INDArray encode(Span span) {
     return encode(span.getText());
@@ -49,9 +56,31 @@ public class OneHotEncoder extends LookupCacheEncoder {
     return vector;
   }
 
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span.getText(), target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(String word, INDArray target, long offset) {
+    encodeInto(word, target, offset, 1);
+  }
+
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    encodeInto(span.getText(), target, offset, stride);
+  }
+
+  @Override
+  public void encodeInto(String word, INDArray target, long offset, long stride) {
+    EncodingHelpers.clearStrided(target, offset, stride, getEmbeddingVectorSize());
+    int i = vocab.indexOf(preprocessor.preProcess(word));
+    if(i>=0) target.putScalar(offset + i * stride, 1.0);
+  }
+
   public boolean isUnknown(String word) {
     String w = preprocessor.preProcess(word);
-    return !vocab.containsWord(w);
+    return !vocab.contains(w);
   }
     
   @Override
@@ -67,6 +96,7 @@ public class OneHotEncoder extends LookupCacheEncoder {
   public void trainModel(Collection<Document> documents, int minWordFrequency) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     timer.start();
     String w;
     totalWords = 0;
@@ -75,18 +105,14 @@ public class OneHotEncoder extends LookupCacheEncoder {
         w = preprocessor.preProcess(t.getText());
         totalWords++;
         if(w.isEmpty()) continue;
-        if(!vocab.containsWord(w)) {
-          vocab.addWord(w);
-        } else {
-          vocab.incrementWordCounter(w);
-        }
+        vocab.add(w);
       }
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minWordFrequency);
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minWordFrequency);
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
@@ -41,6 +41,11 @@ public class PositionEncoder extends StaticEncoder {
     return "Positional Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   @JsonIgnore
   public long getEmbeddingVectorSize() {
@@ -2,6 +2,7 @@ package de.datexis.encoder.impl;
 
 import de.datexis.common.Resource;
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
@@ -9,16 +10,18 @@ import de.datexis.model.Token;
 import de.datexis.preprocess.DocumentFactory;
 import de.datexis.preprocess.MinimalLowercasePreprocessor;
 import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.transforms.segment.UnsortedSegmentSum;
 import org.nd4j.linalg.dimensionalityreduction.PCA;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.shade.jackson.annotation.JsonIgnore;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * A "Simple but Tough-to-Beat Baseline for Sentence Embeddings" implemented after Arora et al. (2017)
@@ -37,6 +40,18 @@ public class SentenceEmbeddingEncoder extends LookupCacheEncoder {
   /** parameter a */
   protected final double alpha = 0.0001;
   
+  /** number of sentences per batch during training */
+  protected int batchSize = 1024;
+  
+  /** cached projection I - u*u^T that removes the principal component u */
+  private volatile Projection projection = null;
+  
+  /** maximum number of cached word vectors */
+  protected int wordCacheSize = 100000;
+  
+  /** cached word vectors and weights */
+  private volatile WordTable wordTable = null;
+  
   public SentenceEmbeddingEncoder() {
     super("EMB");
     log = LoggerFactory.getLogger(SentenceEmbeddingEncoder.class);
@@ -61,16 +76,33 @@ public class SentenceEmbeddingEncoder extends LookupCacheEncoder {
   public String getName() {
     return "Simple Sentence Embedding Encoder";
   }
+  
+  /**
+   * @param wordCacheSize maximum number of word vectors and weights that are cached for encoding
+   */
+  public void setWordCacheSize(int wordCacheSize) {
+    this.wordCacheSize = wordCacheSize;
+    this.wordTable = null;
+  }
 
   @Override
   public long getEmbeddingVectorSize() {
     return vec.getEmbeddingVectorSize();
   }
 
+  /**
+   * @return the first principal component of the training sentences [ embedding size X 1 ]
+   */
+  @JsonIgnore
+  public INDArray getPrincipalComponent() {
+    return principal;
+  }
+
   @Override
   public void trainModel(Collection<Document> documents) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     timer.start();
     String w;
     int d = 0;
@@ -82,47 +114,184 @@ public class SentenceEmbeddingEncoder extends LookupCacheEncoder {
         w = preprocessor.preProcess(t.getText());
         totalWords++;
         if(!w.isEmpty()) {
-          if(!vocab.containsWord(w)) {
-            vocab.addWord(w);
-          } else {
-            vocab.incrementWordCounter(w);
-          }
+          vocab.add(w);
         }
       }
     }
-    int total = vocab.numWords();
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.sortByFrequency();
     timer.stop();
     
     // phase 2: compute first principal component
     INDArray v = Nd4j.zeros(new long[]{d, getEmbeddingVectorSize()});
     d = 0;
+    List<List<Token>> batch = new ArrayList<>(batchSize);
     for(Document doc : documents) {
       for(Sentence s : doc.getSentences()) {
-        v.getRow(d++).assign(weightedSum(s.getTokens(), alpha));
+        batch.add(s.getTokens());
+        if(batch.size() == batchSize) {
+          v.get(NDArrayIndex.interval(d, d + batch.size()), NDArrayIndex.all()).assign(weightedSums(batch));
+          d += batch.size();
+          batch.clear();
+        }
       }
     }
+    if(!batch.isEmpty()) v.get(NDArrayIndex.interval(d, d + batch.size()), NDArrayIndex.all()).assign(weightedSums(batch));
     this.principal = PCA.pca_factor(v, 1, false);
     
-    appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
-  private INDArray weightedSum(Iterable<? extends Span> it, double a) {
-    int i = 0;
-    INDArray sum = Nd4j.create(getEmbeddingVectorSize(), 1);
-    INDArray v;
-    double p, f;
-    for(Span s : it) {
-      v = vec.encode(s.getText());
-      p = getProbability(s.getText());
-      f = a / (a + p);
-      //if(p == 0.) f = 0;
-      v.muli(f);
-      sum.addi(v);
-      i++;
+  /**
+   * Computes the SIF weighted averages of a batch of token sequences. The cached vectors of all tokens are copied
+   * into a single matrix, every row is weighted with a / (a + p(w)) / length and averages are computed with a single
+   * weighted segment sum over all tokens of the batch.
+   * @return matrix [ batch size X embedding size ]
+   */
+  protected INDArray weightedSums(List<? extends Iterable<? extends Span>> batch) {
+    WordTable table = getWordTable();
+    int dim = (int) getEmbeddingVectorSize();
+    float[] data = new float[64 * dim];
+    int[] segment = new int[64];
+    float[] weight = new float[64];
+    int t = 0;
+    for(int b = 0; b < batch.size(); b++) {
+      int start = t, length = 0;
+      for(Span s : batch.get(b)) {
+        length++;
+        Word word = table.get(s.getText());
+        if(word == null) continue; // unknown words count for the length only
+        if(t == segment.length) {
+          data = Arrays.copyOf(data, t * 2 * dim);
+          segment = Arrays.copyOf(segment, t * 2);
+          weight = Arrays.copyOf(weight, t * 2);
+        }
+        System.arraycopy(word.vector, 0, data, t * dim, dim);
+        segment[t] = b;
+        weight[t] = word.factor;
+        t++;
+      }
+      for(int i = start; i < t; i++) weight[i] /= length;
+    }
+    if(t == 0) return Nd4j.zeros(DataType.FLOAT, batch.size(), getEmbeddingVectorSize());
+    INDArray vectors = Nd4j.create(Arrays.copyOf(data, t * dim), new long[]{t, dim}, 'c');
+    vectors.muliColumnVector(Nd4j.create(Arrays.copyOf(weight, t), new long[]{t, 1}, DataType.FLOAT));
+    // UnsortedSegmentSum does not reduce a single row correctly
+    if(batch.size() == 1) return vectors.sum(true, 0);
+    if(t == 1) {
+      INDArray result = Nd4j.zeros(DataType.FLOAT, batch.size(), getEmbeddingVectorSize());
+      result.putRow(segment[0], vectors);
+      return result;
+    }
+    INDArray segments = Nd4j.createFromArray(Arrays.copyOf(segment, t));
+    return Nd4j.exec(new UnsortedSegmentSum(vectors, segments, batch.size()))[0];
+  }
+
+  /**
+   * @return the cache of word vectors and weights, valid for the current vocabulary and word vectors
+   */
+  protected WordTable getWordTable() {
+    WordTable table = wordTable;
+    if(table == null || table.vocab != vocab || table.source != vec) {
+      table = new WordTable(vec, vocab, wordCacheSize);
+      wordTable = table;
+    }
+    return table;
+  }
+
+  /**
+   * LRU cache of word vectors and SIF weights of recently encoded words. Words without vector are not cached.
+   * Vectors are computed outside of the lock, so concurrent batches only synchronize on map access. If two threads
+   * encode the same word at the same time, both compute the same vector and the last one is kept.
+   */
+  protected class WordTable {
+
+    private final Word2VecEncoder source;
+    private final Vocabulary vocab;
+    private final Map<String,Word> words;
+
+    private WordTable(Word2VecEncoder source, Vocabulary vocab, int maxSize) {
+      this.source = source;
+      this.vocab = vocab;
+      this.words = Collections.synchronizedMap(new LinkedHashMap<String,Word>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Word> eldest) {
+          return size() > maxSize;
+        }
+      });
+    }
+
+    /**
+     * @return vector and weight of the word, or null if there is no vector for it
+     */
+    private Word get(String text) {
+      Word word = words.get(text);
+      if(word != null) return word;
+      if(source.isUnknown(text)) return null;
+      float[] vector = source.encode(text).castTo(DataType.FLOAT).reshape(getEmbeddingVectorSize()).toFloatVector();
+      word = new Word(vector, (float) (alpha / (alpha + getProbability(text))));
+      words.put(text, word);
+      return word;
+    }
+
+    /**
+     * @return the number of cached words
+     */
+    public int size() {
+      return words.size();
     }
-    return sum.divi(i);
+
+  }
+
+  private static class Word {
+
+    final float[] vector;
+    final float factor;
+
+    Word(float[] vector, float factor) {
+      this.vector = vector;
+      this.factor = factor;
+    }
+
+  }
+
+  /**
+   * Encodes a batch of token sequences, e.g. Sentences, into SIF embeddings. The principal component is
+   * removed from all weighted averages with a single multiplication with the cached projection matrix.
+   * @return matrix [ batch size X embedding size ]
+   */
+  public INDArray encodeBatch(List<? extends Iterable<? extends Span>> batch) {
+    return weightedSums(batch).mmul(getProjection());
+  }
+
+  /**
+   * @return projection matrix I - u*u^T [ embedding size X embedding size ], computed once per principal component
+   */
+  @JsonIgnore
+  protected INDArray getProjection() {
+    Projection p = projection;
+    if(p == null || p.principal != principal) {
+      p = new Projection(principal);
+      projection = p;
+    }
+    return p.matrix;
+  }
+
+  private static class Projection {
+
+    final INDArray principal;
+    final INDArray matrix;
+
+    Projection(INDArray principal) {
+      this.principal = principal;
+      // cached arrays must not be attached to the workspace of the current encoding
+      try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+        INDArray u = principal.castTo(DataType.FLOAT);
+        this.matrix = Nd4j.eye(u.rows()).castTo(DataType.FLOAT).subi(u.mmul(u.transpose()));
+      }
+    }
+
   }
   
   @Override
@@ -147,10 +316,25 @@ public class SentenceEmbeddingEncoder extends LookupCacheEncoder {
   
   @Override
   public INDArray encode(Iterable<? extends Span> spans) {
-    INDArray v = weightedSum(spans, alpha);
-    INDArray u = this.principal;
-    final INDArray uuTv = u.mmul(u.transpose()).mmul(v);
-    return v.subi(uuTv);
+    return encodeBatch(Collections.singletonList(spans)).reshape(getEmbeddingVectorSize(), 1);
+  }
+
+  @Override
+  public void encodeEach(Document input, Class<? extends Span> elementClass) {
+    if(elementClass != Sentence.class) {
+      super.encodeEach(input, elementClass);
+      return;
+    }
+    List<Sentence> sentences = input.getSentences();
+    for(int from = 0; from < sentences.size(); from += batchSize) {
+      List<Sentence> batch = sentences.subList(from, Math.min(from + batchSize, sentences.size()));
+      List<List<Token>> tokens = new ArrayList<>(batch.size());
+      for(Sentence s : batch) tokens.add(s.getTokens());
+      INDArray encoded = encodeBatch(tokens);
+      for(int i = 0; i < batch.size(); i++) {
+        batch.get(i).putVector(getClass(), encoded.getRow(i, true).transpose().dup());
+      }
+    }
   }
   
   @Override
@@ -2,7 +2,6 @@ package de.datexis.encoder.impl;
 
 import de.datexis.encoder.StaticEncoder;
 import de.datexis.model.Span;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -39,10 +38,15 @@ public class SurfaceEncoder extends StaticEncoder {
     return "Surface Form Encoder";
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   @JsonIgnore
   public long getEmbeddingVectorSize() {
-    return encode("Test").length();
+    return getFeatures("Test").length;
   }
 
   public void setVectorSize(int size) {
@@ -58,29 +62,58 @@ public class SurfaceEncoder extends StaticEncoder {
   
   @Override
   public INDArray encode(String span) {
-    span = span.trim();
-    ArrayList<Boolean> features = new ArrayList<>();
-    // surface form features
-    features.add(startsWithUppercase(span));
-    features.add(startsWithLowercase(span));
-    features.add(isAllUppercase(span));
-    features.add(isAllLowercase(span));
-    features.add(isMixedCase(span));
-    features.add(isAllNumeric(span));
-    features.add(includesNumeric(span));
-    features.add(startsWithNumeric(span));
-    features.add(endsWithNumeric(span));
-    features.add(startsWithPunctuation(span));
-    features.add(endsWithPunctuation(span));
-    
-    INDArray vector = Nd4j.zeros(features.size(), 1);
-    int i = 0;
-    for(Boolean f : features) {
-      vector.put(i++, 0, f ? 1.0 : 0.0);
+    boolean[] features = getFeatures(span);
+    INDArray vector = Nd4j.zeros(features.length, 1);
+    for(int i = 0; i < features.length; i++) {
+      vector.put(i, 0, features[i] ? 1.0 : 0.0);
     }
     return vector;
   }
   
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset) {
+    encodeInto(span.getText(), target, offset, 1);
+  }
+  
+  @Override
+  public void encodeInto(String span, INDArray target, long offset) {
+    encodeInto(span, target, offset, 1);
+  }
+  
+  @Override
+  public void encodeInto(Span span, INDArray target, long offset, long stride) {
+    encodeInto(span.getText(), target, offset, stride);
+  }
+  
+  @Override
+  public void encodeInto(String span, INDArray target, long offset, long stride) {
+    boolean[] features = getFeatures(span);
+    for(int i = 0; i < features.length; i++) {
+      target.putScalar(offset + i * stride, features[i] ? 1.0 : 0.0);
+    }
+  }
+  
+  /**
+   * @return all surface form features of the given String
+   */
+  protected boolean[] getFeatures(String span) {
+    span = span.trim();
+    return new boolean[] {
+      // surface form features
+      startsWithUppercase(span),
+      startsWithLowercase(span),
+      isAllUppercase(span),
+      isAllLowercase(span),
+      isMixedCase(span),
+      isAllNumeric(span),
+      includesNumeric(span),
+      startsWithNumeric(span),
+      endsWithNumeric(span),
+      startsWithPunctuation(span),
+      endsWithPunctuation(span)
+    };
+  }
+  
   // empty
   public boolean isEmpty(String token) {
     return token.isEmpty();
@@ -242,6 +242,11 @@ public class Word2VecEncoder extends Encoder {
 	public String getName() {
 		return modelName;
 	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
   
 	/**
 	 * Use this function to access word vectors
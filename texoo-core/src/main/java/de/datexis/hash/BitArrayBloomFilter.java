@@ -114,7 +114,58 @@ public final class BitArrayBloomFilter<T> implements Predicate<T>, Serializable
   public double[] getBitArray(T object) {
     return ((BitArrayBloomFilterStrategy) strategy).getBitArray(object, funnel, numHashFunctions, bits);
   }
-  
+
+  /**
+   * Sets all bits of an element that are also set in this filter in the target bitset, like
+   * {@link #getBitArray} but without reflection and allocations. The element must be given as the bytes
+   * that the funnel would write, positions are computed with murmur3_128 as in
+   * {@link BitArrayBloomFilterStrategy}.
+   *
+   * @param target bitset with {@link #numWords()} longs starting at {@code targetOffset}
+   * @param hash scratch array for the two 64-bit halves of the hash
+   */
+  public void putBits(
+      byte[] bytes, int offset, int length, long[] target, int targetOffset, long[] hash) {
+    Murmur3.hash128(bytes, offset, length, hash);
+    long bitSize = bitSize();
+    long combinedHash = hash[0];
+    for (int i = 0; i < numHashFunctions; i++) {
+      long index = (combinedHash & Long.MAX_VALUE) % bitSize;
+      if (bits.get(index)) {
+        target[targetOffset + (int) (index >>> 6)] |= 1L << index;
+      }
+      combinedHash += hash[1];
+    }
+  }
+
+  /**
+   * Writes the {@link #numHashFunctions()} bit positions of an element into the target array, regardless
+   * of the bits set in this filter.
+   */
+  public void getBitIndexes(byte[] bytes, int offset, int length, long[] target, long[] hash) {
+    Murmur3.hash128(bytes, offset, length, hash);
+    long bitSize = bitSize();
+    long combinedHash = hash[0];
+    for (int i = 0; i < numHashFunctions; i++) {
+      target[i] = (combinedHash & Long.MAX_VALUE) % bitSize;
+      combinedHash += hash[1];
+    }
+  }
+
+  /**
+   * Returns the number of longs in the underlying bit array.
+   */
+  public int numWords() {
+    return bits.data.length;
+  }
+
+  /**
+   * Returns the number of hashes per element.
+   */
+  public int numHashFunctions() {
+    return numHashFunctions;
+  }
+
   /**
    * @deprecated Provided only to satisfy the {@link Predicate} interface; use {@link #mightContain}
    *     instead.
@@ -0,0 +1,100 @@
+package de.datexis.hash;
+
+/**
+ * Allocation-free 128-bit MurmurHash3 (x64 variant, seed 0) over byte ranges. Produces the same values as
+ * Guava's Hashing.murmur3_128(), where the first long is the lower and the second long the upper half.
+ */
+public final class Murmur3 {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private Murmur3() {}
+
+  /**
+   * Hashes the given byte range and writes both 64-bit halves into out[0] and out[1].
+   */
+  public static void hash128(byte[] data, int offset, int length, long[] out) {
+    long h1 = 0, h2 = 0;
+    int end = offset + (length & ~15);
+    int i = offset;
+    for(; i < end; i += 16) {
+      long k1 = getLong(data, i);
+      long k2 = getLong(data, i + 8);
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    long k1 = 0, k2 = 0;
+    switch(length & 15) {
+      case 15: k2 ^= (long) (data[i + 14] & 0xff) << 48;
+      case 14: k2 ^= (long) (data[i + 13] & 0xff) << 40;
+      case 13: k2 ^= (long) (data[i + 12] & 0xff) << 32;
+      case 12: k2 ^= (long) (data[i + 11] & 0xff) << 24;
+      case 11: k2 ^= (long) (data[i + 10] & 0xff) << 16;
+      case 10: k2 ^= (long) (data[i + 9] & 0xff) << 8;
+      case 9: k2 ^= (long) (data[i + 8] & 0xff);
+      case 8: k1 ^= (long) (data[i + 7] & 0xff) << 56;
+      case 7: k1 ^= (long) (data[i + 6] & 0xff) << 48;
+      case 6: k1 ^= (long) (data[i + 5] & 0xff) << 40;
+      case 5: k1 ^= (long) (data[i + 4] & 0xff) << 32;
+      case 4: k1 ^= (long) (data[i + 3] & 0xff) << 24;
+      case 3: k1 ^= (long) (data[i + 2] & 0xff) << 16;
+      case 2: k1 ^= (long) (data[i + 1] & 0xff) << 8;
+      case 1: k1 ^= (long) (data[i] & 0xff);
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+      default:
+    }
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    out[0] = h1;
+    out[1] = h2;
+  }
+
+  private static long getLong(byte[] data, int i) {
+    return (data[i] & 0xffL)
+        | (data[i + 1] & 0xffL) << 8
+        | (data[i + 2] & 0xffL) << 16
+        | (data[i + 3] & 0xffL) << 24
+        | (data[i + 4] & 0xffL) << 32
+        | (data[i + 5] & 0xffL) << 40
+        | (data[i + 6] & 0xffL) << 48
+        | (data[i + 7] & 0xffL) << 56;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    return k2;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+}
@@ -5,11 +5,11 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncoderSet;
+import de.datexis.encoder.EncodingHelpers;
 import de.datexis.encoder.IEncoder;
 import de.datexis.model.tag.Tag;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
@@ -219,15 +219,21 @@ public abstract class Span implements Comparable<Span> {
    * @return A feature vector which is a concatenation of all Encoders
    */  
   public INDArray getVector(EncoderSet encoders) {
-    //TODO: better use Nd4j.hstack(arrs)
     INDArray result = Nd4j.create(encoders.getEmbeddingVectorSize());
+    getVector(encoders, result);
+    return result;
+  }
+  
+  /**
+   * Concatenate all vectors into a pre-allocated target vector, e.g. a time step view of a batch matrix.
+   * @param encoders The Encoders to use
+   * @param target A vector of length encoders.getEmbeddingVectorSize()
+   */
+  public void getVector(EncoderSet encoders, INDArray target) {
     int i = 0;
     for(Encoder enc : encoders) {
-      INDArray vec = getVector(enc.getClass());
-      result.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(vec);
-      i += enc.getEmbeddingVectorSize();
+      EncodingHelpers.putRange(target, encoders.getOffset(i++), getVector(enc.getClass()));
     }
-    return result;
   }
     
   public <T extends Tag> Span putTag(Annotation.Source source, T tag) {
@@ -53,7 +53,11 @@ public class HashDataset extends Dataset {
    * Update all Indexes in case Document IDs have changed
    */
   public void updateIndexes() {
-    // TODO: implement
+    Multimap<String, Document> index = ArrayListMultimap.create();
+    for(Document doc : documentIndex.values()) {
+      index.put(doc.getId(), doc);
+    }
+    documentIndex = index;
   }
   
   /**
@@ -0,0 +1,464 @@
+package de.datexis.model.impl;
+
+import de.datexis.common.BinaryDocumentSerializer;
+import de.datexis.common.ObjectSerializer;
+import de.datexis.common.Resource;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A read-only Dataset that is stored on disk in multiple shards. A manifest holds the number of
+ * Documents, Sentences and Tokens per shard, so that counting is possible without loading any
+ * Documents. Shards are loaded lazily and only a limited number of shards is kept in memory.
+ * Use ShardedDataset.Writer to create a new sharded Dataset.
+ *
+ * Caution: changes to Documents (e.g. Annotations or vectors) are not written back. When a shard is
+ * evicted from memory, all changes to its Documents are lost and the next access reloads it from disk.
+ * To annotate and evaluate a Dataset with more shards than maxResidentShards, process it shard by
+ * shard or copy it into memory with clone().
+ */
+public class ShardedDataset extends Dataset {
+
+  protected final static Logger log = LoggerFactory.getLogger(ShardedDataset.class);
+
+  public static final String MANIFEST_FILE = "manifest.json";
+  public static final String BINARY_EXTENSION = ".txb";
+
+  /** the directory that contains manifest and shards */
+  protected final Resource directory;
+
+  protected final Manifest manifest;
+
+  /** order in which shards are streamed */
+  protected final int[] shardOrder;
+
+  /** index of the first Document in each shard (according to shardOrder) */
+  protected final long[] shardOffsets;
+
+  /** total counts over all shards */
+  protected final long numDocuments, numSentences, numTokens;
+
+  /** shards that are currently held in memory, in LRU order */
+  protected final Map<Integer, List<Document>> residentShards;
+
+  /** true if a shard was evicted since opening */
+  private volatile boolean evicted = false;
+
+  /**
+   * Open a sharded Dataset with at most 4 resident shards.
+   * @param directory the directory that contains manifest and shards
+   */
+  public ShardedDataset(Resource directory) throws IOException {
+    this(directory, 4);
+  }
+
+  /**
+   * Open a sharded Dataset.
+   * @param directory the directory that contains manifest and shards
+   * @param maxResidentShards maximum number of shards that are held in memory
+   */
+  public ShardedDataset(Resource directory, int maxResidentShards) throws IOException {
+    this.directory = directory;
+    this.manifest = ObjectSerializer.readFromJSON(directory.resolve(MANIFEST_FILE), Manifest.class);
+    this.shardOrder = IntStream.range(0, manifest.getShards().size()).toArray();
+    this.shardOffsets = new long[shardOrder.length];
+    this.residentShards = Collections.synchronizedMap(new LinkedHashMap<Integer, List<Document>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, List<Document>> eldest) {
+        if(size() <= maxResidentShards) return false;
+        onEvict(eldest.getKey());
+        return true;
+      }
+    });
+    this.numDocuments = manifest.getShards().stream().mapToLong(Shard::getDocuments).sum();
+    this.numSentences = manifest.getShards().stream().mapToLong(Shard::getSentences).sum();
+    this.numTokens = manifest.getShards().stream().mapToLong(Shard::getTokens).sum();
+    updateOffsets();
+    setName(manifest.getName());
+    setLanguage(manifest.getLanguage());
+  }
+
+  protected void updateOffsets() {
+    long offset = 0;
+    for(int i = 0; i < shardOrder.length; i++) {
+      shardOffsets[i] = offset;
+      offset += manifest.getShards().get(shardOrder[i]).getDocuments();
+    }
+  }
+
+  /**
+   * @return the number of shards in this Dataset
+   */
+  public int countShards() {
+    return shardOrder.length;
+  }
+
+  /**
+   * @return true if the given shard is currently held in memory
+   */
+  public boolean isResident(int index) {
+    return residentShards.containsKey(index);
+  }
+
+  /**
+   * Called when a shard is removed from memory. Documents of this shard that were handed out are no
+   * longer part of this Dataset, so changes to them are lost.
+   */
+  protected void onEvict(int index) {
+    String file = manifest.getShards().get(index).getFile();
+    if(!evicted) {
+      evicted = true;
+      log.warn("evicting shard {} from memory, changes to its Documents are lost. Increase maxResidentShards to keep all {} shards.", file, countShards());
+    } else {
+      log.debug("evicting shard {} from memory", file);
+    }
+  }
+
+  /**
+   * @return all Documents of the given shard. The shard is loaded from disk if it is not resident.
+   * Changes to these Documents are lost when the shard is evicted (see class documentation).
+   */
+  public List<Document> getShard(int index) {
+    List<Document> docs = residentShards.get(index);
+    if(docs == null) {
+      docs = loadShard(index);
+      residentShards.put(index, docs);
+    }
+    return docs;
+  }
+
+  protected List<Document> loadShard(int index) {
+    Shard shard = manifest.getShards().get(index);
+    List<Document> docs = new ArrayList<>((int) shard.getDocuments());
+    try {
+      Resource file = directory.resolve(shard.getFile());
+      Iterator<Document> it = shard.getFile().endsWith(BINARY_EXTENSION) ?
+        BinaryDocumentSerializer.readDocumentIterable(file) :
+        ObjectSerializer.readJSONDocumentIterable(file);
+      while(it.hasNext()) docs.add(it.next());
+    } catch(IOException ex) {
+      throw new UncheckedIOException("could not read shard " + shard.getFile(), ex);
+    }
+    log.debug("loaded shard {} with {} documents", shard.getFile(), docs.size());
+    return Collections.unmodifiableList(docs);
+  }
+
+  /**
+   * @return all Documents in this Dataset. The returned Collection is a view that loads shards on iteration.
+   * If there are more shards than maxResidentShards, iteration evicts shards and changes to their Documents
+   * are lost, so a second iteration returns new Document instances that were reloaded from disk.
+   */
+  @Override
+  public Collection<Document> getDocuments() {
+    return new AbstractCollection<Document>() {
+      @Override
+      public Iterator<Document> iterator() {
+        return streamDocuments().iterator();
+      }
+      @Override
+      public int size() {
+        return countDocuments();
+      }
+    };
+  }
+
+  /**
+   * @return a sequential Stream of all Documents in this Dataset
+   */
+  @Override
+  public Stream<Document> streamDocuments() {
+    return Arrays.stream(shardOrder)
+      .boxed()
+      .flatMap(i -> getShard(i).stream());
+  }
+
+  /**
+   * @return a parallel Stream of all Documents in this Dataset that loads multiple shards concurrently
+   */
+  public Stream<Document> streamDocumentsParallel() {
+    return Arrays.stream(shardOrder)
+      .boxed()
+      .parallel()
+      .flatMap(i -> getShard(i).stream());
+  }
+
+  @Override
+  public Stream<Document> streamDocuments(int startIndex, int count) {
+    int first = findShard(startIndex);
+    if(first < 0) return Stream.empty();
+    return Arrays.stream(shardOrder, first, shardOrder.length)
+      .boxed()
+      .flatMap(i -> getShard(i).stream())
+      .skip(startIndex - shardOffsets[first])
+      .limit(count);
+  }
+
+  @Override
+  public Optional<Document> getDocument(int index) {
+    int shard = findShard(index);
+    if(shard < 0) return Optional.empty();
+    return Optional.of(getShard(shardOrder[shard]).get((int) (index - shardOffsets[shard])));
+  }
+
+  /**
+   * @return the position in shardOrder of the shard that contains the Document with given index, or -1
+   */
+  protected int findShard(long index) {
+    if(index < 0 || index >= countDocuments()) return -1;
+    int pos = Arrays.binarySearch(shardOffsets, index);
+    if(pos < 0) pos = -pos - 2;
+    // skip empty shards with the same offset
+    while(pos + 1 < shardOffsets.length && shardOffsets[pos + 1] == index) pos++;
+    return pos;
+  }
+
+  /**
+   * Randomizes the order of shards. The order of Documents inside a shard is kept.
+   */
+  @Override
+  public void randomizeDocuments() {
+    randomizeDocuments(random.nextLong());
+  }
+
+  /**
+   * Randomizes the order of shards. The order of Documents inside a shard is kept.
+   */
+  @Override
+  public synchronized void randomizeDocuments(long seed) {
+    Random rnd = new Random(seed);
+    for(int i = shardOrder.length - 1; i > 0; i--) {
+      int j = rnd.nextInt(i + 1);
+      int tmp = shardOrder[i];
+      shardOrder[i] = shardOrder[j];
+      shardOrder[j] = tmp;
+    }
+    updateOffsets();
+  }
+
+  @Override
+  public void addDocument(Document doc) {
+    throw new UnsupportedOperationException("Cannot add to ShardedDataset, please use ShardedDataset.Writer");
+  }
+
+  @Override
+  public void addDocumentFront(Document d) {
+    throw new UnsupportedOperationException("Cannot add to ShardedDataset, please use ShardedDataset.Writer");
+  }
+
+  @Override
+  public int countDocuments() {
+    return (int) numDocuments;
+  }
+
+  @Override
+  public long countSentences() {
+    return numSentences;
+  }
+
+  @Override
+  public long countTokens() {
+    return numTokens;
+  }
+
+  @Override
+  public Dataset clone() {
+    return new Dataset(getName(), streamDocuments().map(Document::clone).collect(Collectors.toList()));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o;
+  }
+
+  @Override
+  public int hashCode() {
+    return directory.hashCode();
+  }
+
+  /**
+   * Writes all Documents of a Dataset into a new sharded Dataset.
+   * @return the opened ShardedDataset
+   */
+  public static ShardedDataset write(Dataset dataset, Resource directory, int documentsPerShard) throws IOException {
+    return write(dataset, directory, documentsPerShard, false);
+  }
+
+  /**
+   * Writes all Documents of a Dataset into a new sharded Dataset.
+   * @param binary write shards using BinaryDocumentSerializer instead of JSON
+   * @return the opened ShardedDataset
+   */
+  public static ShardedDataset write(Dataset dataset, Resource directory, int documentsPerShard, boolean binary) throws IOException {
+    try(Writer writer = new Writer(directory, dataset.getName(), documentsPerShard)) {
+      writer.setLanguage(dataset.getLanguage());
+      writer.setBinary(binary);
+      dataset.streamDocuments().forEachOrdered(writer::addDocument);
+    }
+    return new ShardedDataset(directory);
+  }
+
+  /**
+   * Writes Documents into shards of fixed size and creates the manifest on close().
+   */
+  public static class Writer implements Closeable {
+
+    protected final Resource directory;
+    protected final int documentsPerShard;
+    protected final Manifest manifest = new Manifest();
+
+    protected boolean binary = false;
+    protected java.io.Writer out = null;
+    protected BinaryDocumentSerializer.Writer binaryOut = null;
+    protected Shard current = null;
+
+    public Writer(Resource directory, String name, int documentsPerShard) {
+      this.directory = directory;
+      this.documentsPerShard = documentsPerShard;
+      this.manifest.setName(name);
+      directory.toFile().mkdirs();
+    }
+
+    public void setLanguage(String language) {
+      manifest.setLanguage(language);
+    }
+
+    /**
+     * Write all following shards using BinaryDocumentSerializer instead of JSON.
+     */
+    public void setBinary(boolean binary) {
+      this.binary = binary;
+    }
+
+    public synchronized void addDocument(Document doc) {
+      try {
+        if(current == null || current.getDocuments() >= documentsPerShard) nextShard();
+        if(manifest.getLanguage() == null) manifest.setLanguage(doc.getLanguage());
+        if(binaryOut != null) {
+          binaryOut.write(doc);
+        } else {
+          out.write(ObjectSerializer.getJSONRaw(doc));
+          out.write('\n');
+        }
+        current.setDocuments(current.getDocuments() + 1);
+        current.setSentences(current.getSentences() + doc.countSentences());
+        current.setTokens(current.getTokens() + doc.countTokens());
+      } catch(IOException ex) {
+        throw new UncheckedIOException("could not write shard " + current.getFile(), ex);
+      }
+    }
+
+    protected void nextShard() throws IOException {
+      closeShard();
+      current = new Shard();
+      current.setFile(String.format("shard-%05d", manifest.getShards().size()) + (binary ? BINARY_EXTENSION : ".json.gz"));
+      manifest.getShards().add(current);
+      Resource file = directory.resolve(current.getFile());
+      if(binary) binaryOut = new BinaryDocumentSerializer.Writer(file.getOutputStream(), true, BinaryDocumentSerializer.DEFAULT_BLOCK_SIZE);
+      else out = new BufferedWriter(new OutputStreamWriter(file.getGZIPOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    protected void closeShard() throws IOException {
+      if(out != null) out.close();
+      if(binaryOut != null) binaryOut.close();
+      out = null;
+      binaryOut = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      closeShard();
+      ObjectSerializer.writeJSON(manifest, directory.resolve(MANIFEST_FILE));
+      log.info("written {} documents in {} shards to {}", manifest.getShards().stream().mapToLong(Shard::getDocuments).sum(), manifest.getShards().size(), directory.toString());
+    }
+
+  }
+
+  /**
+   * Manifest that stores the list of shards and their counts.
+   */
+  public static class Manifest {
+
+    private String name;
+    private String language;
+    private List<Shard> shards = new ArrayList<>();
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public String getLanguage() {
+      return language;
+    }
+
+    public void setLanguage(String language) {
+      this.language = language;
+    }
+
+    public List<Shard> getShards() {
+      return shards;
+    }
+
+    public void setShards(List<Shard> shards) {
+      this.shards = shards;
+    }
+
+  }
+
+  /**
+   * A single shard file with its counts.
+   */
+  public static class Shard {
+
+    private String file;
+    private long documents;
+    private long sentences;
+    private long tokens;
+
+    public String getFile() {
+      return file;
+    }
+
+    public void setFile(String file) {
+      this.file = file;
+    }
+
+    public long getDocuments() {
+      return documents;
+    }
+
+    public void setDocuments(long documents) {
+      this.documents = documents;
+    }
+
+    public long getSentences() {
+      return sentences;
+    }
+
+    public void setSentences(long sentences) {
+      this.sentences = sentences;
+    }
+
+    public long getTokens() {
+      return tokens;
+    }
+
+    public void setTokens(long tokens) {
+      this.tokens = tokens;
+    }
+
+  }
+
+}
@@ -9,9 +9,12 @@ import org.apache.commons.io.IOUtils;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.optimize.api.IterationListener;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.deeplearning4j.parallelism.ParallelWrapper;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -58,6 +61,15 @@ public abstract class Tagger extends AnnotatorComponent {
   protected boolean randomize = true;
   protected int embeddingLayerSize;
 
+  // --- parallel training parameters ------------------------------------------
+
+  /** Number of data-parallel worker replicas, 1 to train single-threaded */
+  protected int workers = 1;
+  /** Number of iterations between parameter averaging of the replicas */
+  protected int averagingFrequency = 1;
+  /** Share gradients between replicas instead of averaging parameters */
+  protected boolean sharedGradients = false;
+
   /** The network to train */
   protected Model net;
 
@@ -130,6 +142,18 @@ public abstract class Tagger extends AnnotatorComponent {
     return net;
   }
 
+  /**
+   * Configure data-parallel training.
+   * @param workers number of worker replicas (1 = single-threaded training)
+   * @param averagingFrequency number of iterations between parameter averaging
+   * @param sharedGradients use gradient sharing instead of parameter averaging
+   */
+  public void setParallelTrainingParams(int workers, int averagingFrequency, boolean sharedGradients) {
+    this.workers = workers;
+    this.averagingFrequency = averagingFrequency;
+    this.sharedGradients = sharedGradients;
+  }
+
   // --- serialization getters / setters ---------------------------------------
 
   @Override
@@ -286,6 +310,67 @@ public abstract class Tagger extends AnnotatorComponent {
     }
   }
 
+  /**
+   * Create a ParallelWrapper for data-parallel training of the current network.
+   * @return null if only a single worker is configured
+   */
+  protected ParallelWrapper createParallelWrapper() {
+    if(workers <= 1) return null;
+    log.info("training with {} workers ({}, frequency={})", workers, sharedGradients ? "shared gradients" : "parameter averaging", averagingFrequency);
+    return new ParallelWrapper.Builder<>(net)
+      .prefetchBuffer(workers * 4) // DataSets prefetching options. Set this value with respect to number of actual devices
+      .workers(workers)
+      .averagingFrequency(averagingFrequency) // rare averaging improves performance, but might reduce model accuracy
+      .reportScoreAfterAveraging(false)
+      .trainingMode(sharedGradients ? ParallelWrapper.TrainingMode.SHARED_GRADIENTS : ParallelWrapper.TrainingMode.AVERAGING)
+      .workspaceMode(WorkspaceMode.ENABLED)
+      .build();
+  }
+
+  /**
+   * Saves a training checkpoint including the updater state to <name>.zip
+   */
+  public void saveCheckpoint(Resource checkpointPath, String name) {
+    Resource checkpointFile = checkpointPath.resolve(name + ".zip");
+    try(OutputStream os = checkpointFile.getOutputStream()) {
+      ModelSerializer.writeModel(net, os, true);
+      log.info("saved checkpoint to " + checkpointFile.toString());
+    } catch (IOException ex) {
+      log.error(ex.toString());
+    }
+  }
+
+  /**
+   * Restores the network including the updater state from a training checkpoint. The checkpoint is restored as
+   * MultiLayerNetwork if the current network is one, otherwise as ComputationGraph. Listeners are kept.
+   * @throws IOException if the checkpoint could not be read, the current network is unchanged in this case
+   */
+  public void loadCheckpoint(Resource checkpointFile) throws IOException {
+    Collection<TrainingListener> listeners = null;
+    try(InputStream is = checkpointFile.getInputStream()) {
+      if(net instanceof MultiLayerNetwork) {
+        listeners = ((MultiLayerNetwork) net).getListeners();
+        net = ModelSerializer.restoreMultiLayerNetwork(is, true);
+      } else {
+        if(net instanceof ComputationGraph) listeners = ((ComputationGraph) net).getListeners();
+        net = ModelSerializer.restoreComputationGraph(is, true);
+      }
+    }
+    if(listeners != null) net.setListeners(listeners);
+    log.info("loaded checkpoint from " + checkpointFile.getFileName());
+  }
+  
+  /**
+   * Check if early stopping should use data-parallel training.
+   * @throws UnsupportedOperationException if shared gradients are configured, which EarlyStoppingParallelTrainer
+   * does not support
+   */
+  protected boolean isParallelEarlyStopping() {
+    if(workers <= 1) return false;
+    if(sharedGradients) throw new UnsupportedOperationException("Shared gradients are not supported with early stopping, please use parameter averaging");
+    return true;
+  }
+
   public void trainModel(Dataset train) {
     throw new UnsupportedOperationException("Training not implemented");
   }
@@ -0,0 +1,165 @@
+package de.datexis.common;
+
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.preprocess.DocumentFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class BinaryDocumentSerializerTest {
+
+  protected List<Document> createDocuments() throws IOException {
+    String text = IOUtils.toString(Resource.fromJAR("datasets/humanism.txt").getInputStream(), StandardCharsets.UTF_8);
+    List<Document> docs = new ArrayList<>();
+    int i = 0;
+    for(String paragraph : text.split("\n\n")) {
+      if(paragraph.trim().isEmpty()) continue;
+      Document doc = DocumentFactory.fromText(paragraph);
+      doc.setId("doc" + i++);
+      doc.setTitle("Humanism");
+      doc.setLanguage("en");
+      PassageAnnotation ann = new PassageAnnotation(Annotation.Source.GOLD);
+      ann.setBegin(doc.getBegin());
+      ann.setLength(doc.getLength());
+      ann.setLabel("paragraph");
+      doc.addAnnotation(ann);
+      docs.add(doc);
+    }
+    return docs;
+  }
+
+  protected void assertDocumentEquals(Document expected, Document actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getTitle(), actual.getTitle());
+    assertEquals(expected.getLanguage(), actual.getLanguage());
+    assertEquals(expected.getBegin(), actual.getBegin());
+    assertEquals(expected.getLength(), actual.getLength());
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.countSentences(), actual.countSentences());
+    for(int s = 0; s < expected.countSentences(); s++) {
+      Sentence exp = expected.getSentence(s);
+      Sentence act = actual.getSentence(s);
+      assertEquals(exp.getBegin(), act.getBegin());
+      assertEquals(exp.getEnd(), act.getEnd());
+      assertEquals(exp.countTokens(), act.countTokens());
+      for(int t = 0; t < exp.countTokens(); t++) {
+        Token expToken = exp.getToken(t);
+        Token actToken = act.getToken(t);
+        assertEquals(expToken.getText(), actToken.getText());
+        assertEquals(expToken.getBegin(), actToken.getBegin());
+        assertEquals(expToken.getEnd(), actToken.getEnd());
+      }
+    }
+    assertEquals(expected.getAnnotations(), actual.getAnnotations());
+    PassageAnnotation ann = actual.streamAnnotations(PassageAnnotation.class).findFirst().get();
+    assertEquals("paragraph", ann.getLabel());
+    assertEquals(Annotation.Source.GOLD, ann.getSource());
+    assertSame(actual, ann.getDocumentRef());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    List<Document> docs = createDocuments();
+    assertTrue(docs.size() > 10);
+    Resource file = Resource.createTempFile("documents");
+    BinaryDocumentSerializer.writeDocuments(docs, file);
+    Iterator<Document> it = BinaryDocumentSerializer.readDocumentIterable(file);
+    for(Document expected : docs) {
+      assertTrue(it.hasNext());
+      assertDocumentEquals(expected, it.next());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testAnnotationWithoutSource() throws IOException {
+    Document doc = DocumentFactory.fromText("Berlin is a city.");
+    PassageAnnotation ann = new PassageAnnotation(Annotation.Source.GOLD);
+    ann.setSource(null);
+    ann.setBegin(0);
+    ann.setLength(6);
+    doc.addAnnotation(ann);
+    Resource file = Resource.createTempFile("documents");
+    BinaryDocumentSerializer.writeDocuments(Collections.singletonList(doc), file);
+    Document actual = BinaryDocumentSerializer.readDocumentIterable(file).next();
+    Annotation result = actual.streamAnnotations(PassageAnnotation.class).findFirst().get();
+    assertNull(result.getSource());
+    assertEquals(6, result.getLength());
+  }
+
+  @Test
+  public void testParallelBlocks() throws IOException {
+    List<Document> docs = createDocuments();
+    Resource file = Resource.createTempFile("documents");
+    // use tiny blocks so that every block only contains a few documents
+    try(BinaryDocumentSerializer.Writer writer = new BinaryDocumentSerializer.Writer(file.getOutputStream(), false, 1024)) {
+      for(Document doc : docs) writer.write(doc);
+    }
+    assertTrue(BinaryDocumentSerializer.findBlockOffsets(file.toFile()).size() > 1);
+    List<String> expected = docs.stream().map(Document::getId).sorted().collect(Collectors.toList());
+    List<String> actual = BinaryDocumentSerializer.streamDocumentsParallel(file)
+      .map(Document::getId)
+      .sorted()
+      .collect(Collectors.toList());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testAnnotationWithoutExtraFields() throws IOException {
+    ObjectSerializer.getObjectMapper().registerSubtypes(PlainAnnotation.class);
+    BinaryDocumentSerializer.AnnotationType plain = new BinaryDocumentSerializer.AnnotationType(ObjectSerializer.getObjectMapper(), PlainAnnotation.class);
+    assertTrue(plain.extraFields.isEmpty());
+    BinaryDocumentSerializer.AnnotationType passage = new BinaryDocumentSerializer.AnnotationType(ObjectSerializer.getObjectMapper(), PassageAnnotation.class);
+    assertEquals(ObjectSerializer.getObjectMapper().valueToTree(new PassageAnnotation(Annotation.Source.GOLD)).get("class").asText(), passage.id);
+    assertTrue(passage.stringFields);
+    assertFalse(passage.extraFields.isEmpty());
+    List<Document> docs = new ArrayList<>();
+    for(int i = 0; i < 3; i++) {
+      Document doc = DocumentFactory.fromText("Berlin is a city.");
+      PlainAnnotation ann = new PlainAnnotation(Annotation.Source.PRED, "Berlin", 0, 6);
+      ann.setConfidence(0.75);
+      ann.setUid(42L + i);
+      doc.addAnnotation(ann);
+      docs.add(doc);
+    }
+    Resource file = Resource.createTempFile("documents");
+    BinaryDocumentSerializer.writeDocuments(docs, file);
+    Iterator<Document> it = BinaryDocumentSerializer.readDocumentIterable(file);
+    for(int i = 0; i < docs.size(); i++) {
+      Document actual = it.next();
+      PlainAnnotation result = actual.streamAnnotations(PlainAnnotation.class).findFirst().get();
+      assertEquals(docs.get(i).getAnnotations(), actual.getAnnotations());
+      assertEquals("Berlin", result.getText());
+      assertEquals(0, result.getBegin());
+      assertEquals(6, result.getEnd());
+      assertEquals(Annotation.Source.PRED, result.getSource());
+      assertEquals(0.75, result.getConfidence(), 0.);
+      assertEquals(Long.valueOf(42L + i), result.getUid());
+      assertSame(actual, result.getDocumentRef());
+    }
+  }
+
+  public static class PlainAnnotation extends Annotation {
+
+    protected PlainAnnotation() {}
+
+    public PlainAnnotation(Source source, String text, int begin, int end) {
+      super(source, text, begin, end);
+    }
+
+  }
+
+}
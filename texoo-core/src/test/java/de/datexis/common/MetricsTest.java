@@ -0,0 +1,91 @@
+package de.datexis.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+  @After
+  public void tearDown() {
+    Metrics.setEnabled(false);
+    Metrics.reset();
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    int last = -1;
+    for(long v = 0; v < 100000; v++) {
+      int idx = Metrics.Histogram.bucketIndex(v);
+      assertTrue(idx == last || idx == last + 1);
+      assertTrue(Metrics.Histogram.bucketLowerBound(idx) <= v);
+      assertTrue(Metrics.Histogram.bucketUpperBound(idx) >= v);
+      last = idx;
+    }
+    int max = Metrics.Histogram.bucketIndex(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, Metrics.Histogram.bucketUpperBound(max));
+  }
+
+  @Test
+  public void testPercentiles() {
+    Metrics.Histogram h = new Metrics.Histogram();
+    for(long v = 1; v <= 100000; v++) h.record(v * 1000);
+    assertEquals(100000, h.getCount());
+    Metrics.HistogramSnapshot s = h.snapshot();
+    assertEquals(1000, s.min);
+    assertEquals(100000000, s.max);
+    assertEquals(50000500., s.mean, 0.1);
+    assertEquals(50000000, s.p50, 50000000 * 0.035);
+    assertEquals(99000000, s.p99, 99000000 * 0.035);
+    assertTrue(s.p50 <= s.p90 && s.p90 <= s.p99 && s.p99 <= s.p999 && s.p999 <= s.max);
+  }
+
+  @Test
+  public void testDisabled() {
+    Metrics.setEnabled(false);
+    long t = Metrics.start();
+    assertEquals(Metrics.DISABLED, t);
+    Metrics.record(MetricsTest.class, "test", t, 5);
+    assertTrue(Metrics.snapshot().histograms.isEmpty());
+    // measurements that were started before disabling are dropped
+    Metrics.setEnabled(true);
+    t = Metrics.start();
+    Metrics.setEnabled(false);
+    Metrics.record(MetricsTest.class, "test", t, 5);
+    assertTrue(Metrics.snapshot().histograms.isEmpty());
+    assertTrue(Metrics.snapshot().counters.isEmpty());
+  }
+
+  @Test
+  public void testExport() throws IOException {
+    Metrics.setEnabled(true);
+    for(int i = 0; i < 10; i++) {
+      long t = Metrics.start();
+      Metrics.record(MetricsTest.class, "test", t, 2);
+    }
+    Metrics.gauge("test.gauge", () -> 42.);
+    Metrics.Snapshot snapshot = Metrics.snapshot();
+    assertEquals(10, snapshot.histograms.get("MetricsTest.test").count);
+    assertEquals(20L, (long) snapshot.counters.get("MetricsTest.test.items"));
+    assertEquals(42., snapshot.gauges.get("test.gauge"), 0.);
+
+    Resource json = Resource.createTempFile("metrics");
+    Metrics.writeJSON(json);
+    JsonNode node = ObjectSerializer.getObjectMapper().readTree(json.getInputStream());
+    assertEquals(10, node.get("histograms").get("MetricsTest.test").get("count").asInt());
+
+    Resource csv = Resource.createTempFile("metrics");
+    Metrics.writeCSV(csv);
+    List<String> lines = IOUtils.readLines(csv.getInputStream(), StandardCharsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(1).startsWith("histogram,MetricsTest.test,10,"));
+  }
+
+}
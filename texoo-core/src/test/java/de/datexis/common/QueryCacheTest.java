@@ -0,0 +1,144 @@
+package de.datexis.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class QueryCacheTest {
+
+  @After
+  public void tearDown() {
+    Metrics.setEnabled(false);
+    Metrics.reset();
+  }
+
+  /** counts calls of the loader */
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private final Function<String,String> loader = key -> {
+    loads.incrementAndGet();
+    return key.toUpperCase();
+  };
+
+  @Test
+  public void testNormalize() {
+    assertEquals("barack obama", QueryCache.normalize("  Barack \t Obama "));
+    assertEquals(QueryCache.normalize("BERLIN"), QueryCache.normalize("berlin"));
+    assertNull(QueryCache.normalize(null));
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    QueryCache<String,String> cache = new QueryCache<>("test", 10, 0, TimeUnit.SECONDS);
+    assertEquals("A", cache.get("a", loader));
+    assertEquals("A", cache.get("a", loader));
+    assertEquals("B", cache.get("b", loader));
+    assertEquals("A", cache.get("a", loader));
+    assertEquals(2, loads.get());
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(0.5, cache.getHitRate(), 1e-9);
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testSizeEviction() {
+    QueryCache<String,String> cache = new QueryCache<>("test", 2, 0, TimeUnit.SECONDS);
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.get("a", loader); // a is more recent than b
+    cache.get("c", loader);
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictions());
+    cache.get("a", loader);
+    assertEquals(3, loads.get());
+    cache.get("b", loader);
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void testTimeToLive() {
+    final long[] time = {0};
+    QueryCache<String,String> cache = new QueryCache<String,String>("test", 10, 1, TimeUnit.SECONDS) {
+      @Override
+      protected long now() {
+        return time[0];
+      }
+    };
+    cache.get("a", loader);
+    time[0] = TimeUnit.MILLISECONDS.toNanos(999);
+    cache.get("a", loader);
+    assertEquals(1, loads.get());
+    time[0] = TimeUnit.SECONDS.toNanos(1);
+    cache.get("a", loader);
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testInvalidate() {
+    QueryCache<String,String> cache = new QueryCache<>("test", 10, 0, TimeUnit.SECONDS);
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.invalidate("a");
+    assertEquals(1, cache.size());
+    cache.invalidate();
+    assertEquals(0, cache.size());
+    // results that are loaded during invalidation are outdated
+    cache.get("a", key -> {
+      cache.invalidate();
+      return loader.apply(key);
+    });
+    assertEquals(0, cache.size());
+    cache.get("a", loader);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testDisabled() {
+    QueryCache<String,String> cache = new QueryCache<>("test", 0, 0, TimeUnit.SECONDS);
+    cache.get("a", loader);
+    cache.get("a", loader);
+    assertEquals(2, loads.get());
+    assertEquals(0, cache.size());
+    assertEquals(0., cache.getHitRate(), 1e-9);
+  }
+
+  @Test
+  public void testMetrics() {
+    Metrics.setEnabled(true);
+    QueryCache<String,String> cache = new QueryCache<>("test", 10, 0, TimeUnit.SECONDS);
+    cache.get("a", loader);
+    cache.get("a", loader);
+    cache.get("a", loader);
+    Metrics.Snapshot snapshot = Metrics.snapshot();
+    assertEquals(2L, (long) snapshot.counters.get("test.hits"));
+    assertEquals(1L, (long) snapshot.counters.get("test.misses"));
+    assertEquals(2. / 3., snapshot.gauges.get("test.hitRate"), 1e-9);
+  }
+
+  @Test
+  public void testMetricsOfReplacedCache() {
+    Metrics.setEnabled(true);
+    QueryCache<String,String> cache = new QueryCache<>("test", 10, 0, TimeUnit.SECONDS);
+    cache.get("a", loader);
+    cache.get("a", loader);
+    // a replacement with the same name keeps counting into the same metrics
+    QueryCache<String,String> replacement = new QueryCache<>("test", 10, 0, TimeUnit.SECONDS);
+    replacement.get("a", loader);
+    replacement.get("a", loader);
+    assertEquals(0.5, replacement.getHitRate(), 1e-9);
+    Metrics.Snapshot snapshot = Metrics.snapshot();
+    assertEquals(2L, (long) snapshot.counters.get("test.hits"));
+    assertEquals(2L, (long) snapshot.counters.get("test.misses"));
+    assertEquals(0.5, snapshot.gauges.get("test.hitRate"), 1e-9);
+    replacement.get("a", loader);
+    assertEquals(3. / 5., Metrics.snapshot().gauges.get("test.hitRate"), 1e-9);
+  }
+
+}
@@ -0,0 +1,27 @@
+package de.datexis.common;
+
+import de.datexis.annotator.AnnotatorComponent;
+import de.datexis.model.Span;
+import de.datexis.model.impl.PassageAnnotation;
+import de.datexis.registry.SubtypeIndex;
+import org.junit.Test;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SubtypeRegistryTest {
+
+  @Test
+  public void testIndexMatchesClasspathScan() {
+    Reflections reflections = new Reflections(ConfigurationBuilder.build("de.datexis").setExpandSuperTypes(false));
+    assertTrue(SubtypeIndex.isAvailable(Span.class));
+    Set<Class<? extends Span>> spans = SubtypeRegistry.getSubTypesOf(Span.class);
+    assertTrue(spans.contains(PassageAnnotation.class));
+    assertEquals(reflections.getSubTypesOf(Span.class), spans);
+    assertEquals(reflections.getSubTypesOf(AnnotatorComponent.class), SubtypeRegistry.getSubTypesOf(AnnotatorComponent.class));
+  }
+
+}
@@ -7,10 +7,15 @@ import de.datexis.encoder.impl.BagOfWordsEncoder;
 import de.datexis.model.Document;
 import de.datexis.preprocess.DocumentFactory;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 
 /**
  *
@@ -113,4 +118,116 @@ public class BagOfWordsEncoderTest {
     assertArrayEquals(new String[] { "laden","torture" }, enc.getNearestNeighbours(c, 2).toArray());
   }
   
+  @Test
+  public void testSubsampleWeights() {
+    Document doc = DocumentFactory.fromText(text);
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(doc), 3, WordHelpers.Language.EN);
+    INDArray weights = enc.subsampleWeights();
+    assertEquals(1, weights.rows());
+    assertEquals(enc.getEmbeddingVectorSize(), weights.columns());
+    for(int i = 0; i < weights.columns(); i++) {
+      double p = enc.getProbability(enc.getWord(i));
+      assertEquals(0.001 / (0.001 + p), weights.getDouble(i), 1e-6);
+    }
+  }
+  
+  @Test
+  public void testBatchSubsampling() {
+    Document doc = DocumentFactory.fromText(text);
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(doc), 3, WordHelpers.Language.EN);
+    List<String> phrases = new ArrayList<>();
+    for(int i = 0; i < 2000; i++) phrases.add("torture of Laden");
+    phrases.add("unknown words");
+    phrases.add(null);
+    
+    INDArray batch = enc.encodeSubsampled(phrases, enc.createRandom(0));
+    assertEquals(phrases.size(), batch.rows());
+    assertEquals(enc.getEmbeddingVectorSize(), batch.columns());
+    assertEquals(batch, enc.encodeSubsampled(phrases, enc.createRandom(0)));
+    assertNotEquals(batch, enc.encodeSubsampled(phrases, enc.createRandom(1)));
+    
+    // one word per row, drawn proportional to its weight
+    int torture = enc.getIndex("torture"), laden = enc.getIndex("laden");
+    INDArray weights = enc.subsampleWeights();
+    double expected = weights.getDouble(torture) / (weights.getDouble(torture) + weights.getDouble(laden));
+    for(int i = 0; i < 2000; i++) assertEquals(1., batch.getRow(i).sumNumber().doubleValue(), 0.);
+    assertEquals(0., batch.getRow(2000).sumNumber().doubleValue(), 0.);
+    assertEquals(0., batch.getRow(2001).sumNumber().doubleValue(), 0.);
+    double actual = batch.getColumn(torture).sumNumber().doubleValue() / 2000.;
+    assertEquals(expected, actual, 0.05);
+    assertEquals(2000., batch.getColumn(torture).sumNumber().doubleValue() + batch.getColumn(laden).sumNumber().doubleValue(), 0.);
+    
+    // subsampling only removes words
+    INDArray nhot = Nd4j.vstack(enc.encode("torture of Laden").transpose(), enc.encode("movie film").transpose());
+    INDArray sampled = enc.subsample(nhot, enc.createRandom(0));
+    assertEquals(0., sampled.mul(nhot.rsub(1)).sumNumber().doubleValue(), 0.);
+    assertEquals(nhot.shape()[1], sampled.shape()[1]);
+  }
+  
+  @Test
+  public void testKeepWordVariesPerOccurrence() {
+    Document doc = DocumentFactory.fromText(text);
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(doc), 3, WordHelpers.Language.EN);
+    double p = enc.getProbability("torture");
+    double expected = (Math.sqrt(p / 0.001) + 1) * (0.001 / p);
+    assertTrue(expected > 0.1 && expected < 0.9);
+    int n = 5000, kept = 0;
+    for(int i = 0; i < n; i++) if(enc.keepWord("torture")) kept++;
+    assertTrue(kept > 0);
+    assertTrue(kept < n);
+    assertEquals(expected, (double) kept / n, 0.03);
+  }
+  
+  @Test
+  public void testSubsamplingReproducibleForSeed() {
+    Document doc = DocumentFactory.fromText(text);
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(doc), 3, WordHelpers.Language.EN);
+    List<String> phrases = Arrays.asList("torture of Laden", "natural gas and fracking", "film about torture");
+    enc.setSeed(7);
+    List<INDArray> expected = new ArrayList<>();
+    for(int i = 0; i < 20; i++) for(String phrase : phrases) expected.add(enc.encodeSubsampled(phrase));
+    
+    // the same call sequence gives the same samples after resetting the seed
+    enc.setSeed(7);
+    List<INDArray> actual = new ArrayList<>();
+    for(int i = 0; i < 20; i++) for(String phrase : phrases) actual.add(enc.encodeSubsampled(phrase));
+    assertEquals(expected, actual);
+    
+    // but a repeated phrase is not always sampled the same way
+    Set<INDArray> samples = new HashSet<>();
+    for(int i = 0; i < expected.size(); i += phrases.size()) samples.add(expected.get(i));
+    assertTrue(samples.size() > 1);
+  }
+  
+  @Test
+  public void testParallelSubsamplingReproducibleForSeed() {
+    Document doc = DocumentFactory.fromText(text);
+    BagOfWordsEncoder enc = new BagOfWordsEncoder();
+    enc.trainModel(Arrays.asList(doc), 3, WordHelpers.Language.EN);
+    List<String> phrases = new ArrayList<>();
+    for(int i = 0; i < 2000; i++) phrases.add(i % 2 == 0 ? "torture of Laden" : "natural gas and fracking");
+    int parallelism = ParallelEncoding.getParallelism();
+    try {
+      ParallelEncoding.setParallelism(4);
+      assertTrue(ParallelEncoding.isParallel(enc, phrases.size()));
+      enc.setSeed(7);
+      INDArray first = enc.encodeSubsampled(phrases);
+      enc.setSeed(7);
+      INDArray second = enc.encodeSubsampled(phrases);
+      assertEquals(first, second);
+      // the streams depend on the chunk index only, not on the number of threads
+      ParallelEncoding.setParallelism(1);
+      enc.setSeed(7);
+      assertEquals(first, enc.encodeSubsampled(phrases));
+      enc.setSeed(8);
+      assertNotEquals(first, enc.encodeSubsampled(phrases));
+    } finally {
+      ParallelEncoding.setParallelism(parallelism);
+    }
+  }
+  
 }
@@ -0,0 +1,213 @@
+package de.datexis.encoder;
+
+import de.datexis.common.WordHelpers;
+import de.datexis.encoder.impl.*;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the fused encodeInto() path of EncoderSet produces the same vectors as concatenation.
+ */
+public class EncoderSetTest {
+
+  private final List<Document> docs;
+  private final EncoderSet encoders;
+
+  public EncoderSetTest() {
+    docs = Arrays.asList(
+      DocumentFactory.fromText("Paris is the capital of France. It has 2,148,271 inhabitants (2020)."),
+      DocumentFactory.fromText("The quick brown fox jumps over the lazy dog! Does it?")
+    );
+    TrigramEncoder trigram = new TrigramEncoder();
+    trigram.trainModel(docs);
+    BagOfWordsEncoder bag = new BagOfWordsEncoder();
+    bag.trainModel(docs, 1, WordHelpers.Language.EN);
+    OneHotEncoder oneHot = new OneHotEncoder();
+    oneHot.trainModel(docs);
+    encoders = new EncoderSet(trigram, new SurfaceEncoder(), bag, new CharClassEncoder(), oneHot, new DummyEncoder());
+  }
+
+  /**
+   * Concatenation of all single Encoder results, as it was done before encodeInto().
+   */
+  private INDArray concatenate(Token token) {
+    INDArray result = Nd4j.create(encoders.getEmbeddingVectorSize());
+    int i = 0;
+    for(Encoder enc : encoders) {
+      INDArray vec = enc.encode(token);
+      result.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(vec);
+      i += enc.getEmbeddingVectorSize();
+    }
+    return result;
+  }
+
+  @Test
+  public void testEncodeInto() {
+    long size = encoders.getEmbeddingVectorSize();
+    for(Document doc : docs) {
+      for(Token token : doc.getTokens()) {
+        INDArray expected = concatenate(token);
+        assertEquals(expected, encoders.encode(token.getText()));
+        // write into a dirty vector with offset, the whole range needs to be overwritten
+        INDArray target = Nd4j.ones(size + 3);
+        encoders.encodeInto(token, target, 2);
+        assertEquals(expected, target.get(NDArrayIndex.interval(2, 2 + size)));
+        assertEquals(1., target.getDouble(0), 0.);
+        assertEquals(1., target.getDouble(size + 2), 0.);
+      }
+    }
+  }
+
+  /**
+   * Concatenation of all single Encoder results for the String representation of a Span, as done by encode(Span).
+   */
+  private INDArray concatenate(String text) {
+    INDArray result = Nd4j.create(encoders.getEmbeddingVectorSize());
+    int i = 0;
+    for(Encoder enc : encoders) {
+      INDArray vec = enc.encode(text);
+      result.get(NDArrayIndex.interval(i, i + enc.getEmbeddingVectorSize())).assign(vec);
+      i += enc.getEmbeddingVectorSize();
+    }
+    return result;
+  }
+
+  @Test
+  public void testEncodeIntoSentence() {
+    long size = encoders.getEmbeddingVectorSize();
+    Sentence sentence = docs.get(0).getSentence(1);
+    assertNotEquals(sentence.getText(), sentence.toString());
+    INDArray expected = concatenate(sentence.toString());
+    assertEquals(expected, encoders.encode(sentence));
+    INDArray target = Nd4j.ones(size + 3);
+    encoders.encodeInto(sentence, target, 2);
+    assertEquals(expected, target.get(NDArrayIndex.interval(2, 2 + size)));
+    assertEquals(1., target.getDouble(0), 0.);
+    assertEquals(1., target.getDouble(size + 2), 0.);
+  }
+
+  @Test
+  public void testEncodeMatrix() {
+    int maxTimeSteps = 32;
+    INDArray matrix = encoders.encodeMatrix(docs, maxTimeSteps, Token.class);
+    assertArrayEquals(new long[] {docs.size(), encoders.getEmbeddingVectorSize(), maxTimeSteps}, matrix.shape());
+    for(int b = 0; b < docs.size(); b++) {
+      List<Token> tokens = docs.get(b).getTokens();
+      for(int t = 0; t < maxTimeSteps; t++) {
+        INDArray vec = EncodingHelpers.getTimeStep(matrix, b, t);
+        if(t < tokens.size()) assertEquals(concatenate(tokens.get(t)).reshape(vec.shape()).castTo(vec.dataType()), vec);
+        else assertEquals(0., vec.sumNumber().doubleValue(), 0.);
+      }
+    }
+  }
+
+  @Test
+  public void testEncodeSentenceMatrix() {
+    int maxTimeSteps = 4;
+    INDArray matrix = new TimeStepMatrixEncoder(encoders).encode(docs, maxTimeSteps, Sentence.class);
+    for(int b = 0; b < docs.size(); b++) {
+      List<Sentence> sentences = docs.get(b).getSentences();
+      for(int t = 0; t < sentences.size(); t++) {
+        INDArray vec = EncodingHelpers.getTimeStep(matrix, b, t);
+        assertEquals(encoders.encode(sentences.get(t)).reshape(vec.shape()).castTo(vec.dataType()), vec);
+      }
+    }
+  }
+
+  @Test
+  public void testCachedVectorsOptIn() {
+    SurfaceEncoder surface = new SurfaceEncoder();
+    surface.setCachingEnabled(true);
+    List<Document> input = Arrays.asList(DocumentFactory.fromText("Berlin is a city."));
+    new TimeStepMatrixEncoder(surface).encode(input, 8, Token.class);
+    for(Token token : input.get(0).getTokens()) assertFalse(token.hasVector(SurfaceEncoder.class));
+    INDArray matrix = surface.encodeMatrix(input, 8, Token.class);
+    List<Token> tokens = input.get(0).getTokens();
+    for(int t = 0; t < tokens.size(); t++) {
+      assertTrue(tokens.get(t).hasVector(SurfaceEncoder.class));
+      INDArray vec = EncodingHelpers.getTimeStep(matrix, 0, t);
+      assertEquals(surface.encode(tokens.get(t)).reshape(vec.shape()).castTo(vec.dataType()), vec);
+    }
+  }
+
+  @Test
+  public void testAttachedVectors() {
+    Sentence sentence = docs.get(0).getSentence(0);
+    for(Encoder enc : encoders) enc.encodeEach(sentence, Token.class);
+    INDArray matrix = EncodingHelpers.createTimeStepMatrix(1, encoders.getEmbeddingVectorSize(), sentence.countTokens());
+    for(int t = 0; t < sentence.countTokens(); t++) {
+      Token token = sentence.getToken(t);
+      token.getVector(encoders, EncodingHelpers.getTimeStepView(matrix, 0, t));
+      assertEquals(token.getVector(encoders).castTo(matrix.dataType()), EncodingHelpers.getTimeStepView(matrix, 0, t));
+    }
+  }
+
+  @Test
+  public void testContiguousOutput() {
+    TimeStepMatrixEncoder matrixEncoder = new TimeStepMatrixEncoder(encoders);
+    List<Sentence> sentences = docs.get(1).getSentences();
+    INDArray first = matrixEncoder.encode(docs, 32, Token.class);
+    assertEquals('c', first.ordering());
+    assertFalse(first.isView());
+    assertEquals(encoders.encodeMatrix(docs, 32, Token.class), first);
+    INDArray second = matrixEncoder.encode(sentences, 12, Token.class);
+    assertArrayEquals(new long[] {sentences.size(), encoders.getEmbeddingVectorSize(), 12}, second.shape());
+    // every call returns a new matrix
+    assertNotEquals(first.data().address(), second.data().address());
+    assertEquals(encoders.encodeMatrix(docs, 32, Token.class), first);
+    for(int b = 0; b < sentences.size(); b++) {
+      List<Token> tokens = sentences.get(b).getTokens();
+      for(int t = 0; t < 12; t++) {
+        INDArray vec = EncodingHelpers.getTimeStep(second, b, t);
+        if(t < tokens.size()) assertEquals(concatenate(tokens.get(t)).reshape(vec.shape()).castTo(vec.dataType()), vec);
+        else assertEquals(0., vec.sumNumber().doubleValue(), 0.);
+      }
+    }
+  }
+
+  @Test
+  public void testStridedEncodeInto() {
+    long size = encoders.getEmbeddingVectorSize();
+    long stride = 3;
+    INDArray target = Nd4j.ones(size * stride);
+    for(Token token : docs.get(0).getTokens()) {
+      encoders.encodeInto(token, target, 1, stride);
+      INDArray strided = target.get(NDArrayIndex.interval(1, stride, size * stride));
+      assertEquals(concatenate(token).castTo(target.dataType()), strided);
+      // elements between the strides are untouched
+      assertEquals(size, target.get(NDArrayIndex.interval(0, stride, size * stride)).sumNumber().longValue());
+    }
+  }
+
+  @Test
+  public void testReusedTarget() {
+    TimeStepMatrixEncoder matrixEncoder = new TimeStepMatrixEncoder(encoders);
+    INDArray target = EncodingHelpers.createTimeStepMatrix(docs.size(), encoders.getEmbeddingVectorSize(), 32);
+    INDArray first = matrixEncoder.encode(docs, 32, Token.class, target);
+    assertSame(target, first);
+    assertEquals(matrixEncoder.encode(docs, 32, Token.class), first);
+    // shorter examples must not leave time steps of the previous batch in the target
+    List<Document> reversed = Arrays.asList(docs.get(1), docs.get(0));
+    INDArray second = matrixEncoder.encode(reversed, 32, Token.class, target);
+    assertEquals(target.data().address(), second.data().address());
+    assertEquals(matrixEncoder.encode(reversed, 32, Token.class), second);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReusedTargetShape() {
+    INDArray target = EncodingHelpers.createTimeStepMatrix(docs.size(), encoders.getEmbeddingVectorSize(), 16);
+    new TimeStepMatrixEncoder(encoders).encode(docs, 32, Token.class, target);
+  }
+
+}
@@ -1,12 +1,14 @@
 package de.datexis.encoder;
 
 import de.datexis.encoder.impl.LetterNGramEncoder;
+import de.datexis.encoder.impl.NGramExtractor;
 import de.datexis.model.*;
 import de.datexis.model.tag.BIO2Tag;
 import org.junit.Test;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -180,6 +182,54 @@ public class NGramEncoderTest {
     assertEquals(2, a.rank());
   }
   
+  @Test
+  public void testNGramExtractor() {
+    NGramExtractor extractor = new NGramExtractor();
+    for(String text : Arrays.asList("Aspirin", "25°C (77°F)", "Straße", "ÄRGER", "a^b`c~d", "", "x", "𝒜bc", "Hello-World!")) {
+      List<String> expected = ngram.generateNGrams(text, 3);
+      extractor.setToken(text, ngram);
+      assertEquals(expected.size(), extractor.count(3));
+      for(int i = 0; i < expected.size(); i++) assertEquals(expected.get(i), extractor.getNGram(i, 3));
+    }
+  }
+  
+  @Test
+  public void testNGramIds() {
+    Dataset data = createTestData();
+    ngram.trainModel(data.getDocuments());
+    for(String text : Arrays.asList("Minister", "Mistister", "Kengo", "Primé")) {
+      List<Integer> expected = new ArrayList<>();
+      for(String gram : ngram.generateNGrams(text)) {
+        if(ngram.getIndex(gram) >= 0) expected.add(ngram.getIndex(gram));
+      }
+      int[] ids = ngram.getNGramIds(text);
+      assertEquals(expected.size(), ids.length);
+      for(int i = 0; i < ids.length; i++) assertEquals((int) expected.get(i), ids[i]);
+      assertSame(ids, ngram.getNGramIds(text)); // cached
+    }
+    int[] indexes = ngram.encodeIndexes("Mistister");
+    INDArray vec = ngram.encode("Mistister");
+    assertEquals(indexes.length, vec.sumNumber().intValue());
+    for(int i : indexes) assertEquals(1., vec.getDouble(i), 0.);
+    // retraining invalidates the cache
+    ngram.trainModel(Arrays.asList(new Document()));
+    assertEquals(0, ngram.getNGramIds("Minister").length);
+  }
+  
+  @Test
+  public void testHashedNGrams() {
+    LetterNGramEncoder hashed = new LetterNGramEncoder(3).setHashBuckets(1000);
+    assertEquals(1000, hashed.getEmbeddingVectorSize());
+    int[] ids = hashed.getNGramIds("Aspirin");
+    assertEquals(7, ids.length);
+    for(int i : ids) assertTrue(i >= 0 && i < 1000);
+    // rolling hash equals the hash of the n-gram on its own
+    assertEquals(ids[2], hashed.getNGramIds("spi")[1]);
+    INDArray vec = hashed.encode("Aspirin");
+    assertEquals(1000, vec.length());
+    assertEquals(hashed.encodeIndexes("Aspirin").length, vec.sumNumber().intValue());
+  }
+  
   private Dataset createTestData() {
     
     Dataset data = new Dataset("Test");
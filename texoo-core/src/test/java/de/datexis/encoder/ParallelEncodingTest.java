@@ -0,0 +1,96 @@
+package de.datexis.encoder;
+
+import de.datexis.encoder.impl.SurfaceEncoder;
+import de.datexis.encoder.impl.TrigramEncoder;
+import de.datexis.model.Document;
+import de.datexis.model.Token;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.shade.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ParallelEncodingTest {
+
+  private int parallelism;
+
+  @Before
+  public void setUp() {
+    parallelism = ParallelEncoding.getParallelism();
+    ParallelEncoding.setParallelism(4);
+  }
+
+  @After
+  public void tearDown() {
+    ParallelEncoding.setParallelism(parallelism);
+  }
+
+  private List<Document> createDocuments(int num) {
+    List<Document> docs = new ArrayList<>(num);
+    for(int i = 0; i < num; i++) {
+      docs.add(DocumentFactory.fromText("Document " + i + " was written in 20" + (i % 10) + "0. The FOX jumps over the dog-" + i + "!"));
+    }
+    return docs;
+  }
+
+  @Test
+  public void testForEachChunk() {
+    AtomicIntegerArray visits = new AtomicIntegerArray(1001);
+    ParallelEncoding.forEachChunk(visits.length(), (from, to) -> {
+      for(int i = from; i < to; i++) visits.incrementAndGet(i);
+    });
+    for(int i = 0; i < visits.length(); i++) assertEquals(1, visits.get(i));
+  }
+
+  @Test
+  public void testFixedChunks() {
+    AtomicIntegerArray visits = new AtomicIntegerArray(1001);
+    ParallelEncoding.forEachChunk(visits.length(), 64, (from, to) -> {
+      assertEquals(0, from % 64);
+      assertEquals(Math.min(from + 64, visits.length()), to);
+      for(int i = from; i < to; i++) visits.incrementAndGet(i);
+    });
+    for(int i = 0; i < visits.length(); i++) assertEquals(1, visits.get(i));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExceptionIsPropagated() {
+    ParallelEncoding.forEachChunk(100, (from, to) -> {
+      if(from <= 50 && to > 50) throw new IllegalStateException("failed");
+    });
+  }
+
+  @Test
+  public void testParallelEqualsSequential() {
+    List<Document> docs = createDocuments(50);
+    TrigramEncoder trigram = new TrigramEncoder();
+    trigram.trainModel(docs);
+    EncoderSet encoders = new EncoderSet(trigram, new SurfaceEncoder());
+    assertTrue(encoders.isThreadSafe());
+    assertTrue(ParallelEncoding.isParallel(encoders, docs.size()));
+
+    INDArray parallel = encoders.encodeMatrix(docs, 20, Token.class);
+    trigram.encodeEach(docs, Token.class);
+    ParallelEncoding.setParallelism(1);
+    assertFalse(ParallelEncoding.isParallel(encoders, docs.size()));
+    INDArray sequential = encoders.encodeMatrix(docs, 20, Token.class);
+    assertEquals(sequential, parallel);
+    for(Document doc : docs) {
+      for(Token t : doc.getTokens()) assertEquals(trigram.encode(t), t.getVector(TrigramEncoder.class));
+    }
+  }
+
+  @Test
+  public void testThreadSafeIsNotSerialized() throws Exception {
+    String json = new ObjectMapper().writeValueAsString(new SurfaceEncoder());
+    assertFalse(json, json.contains("threadSafe"));
+  }
+
+}
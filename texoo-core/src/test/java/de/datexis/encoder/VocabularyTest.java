@@ -0,0 +1,142 @@
+package de.datexis.encoder;
+
+import de.datexis.common.Resource;
+import de.datexis.encoder.impl.TrigramEncoder;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VocabularyTest {
+
+  @Test
+  public void testAddAndLookup() {
+    Vocabulary vocab = new Vocabulary();
+    assertEquals(0, vocab.add("cat"));
+    assertEquals(1, vocab.add("dog"));
+    assertEquals(0, vocab.add("cat"));
+    assertEquals(2, vocab.add("Straße"));
+    assertEquals(3, vocab.add("😀"));
+    assertEquals(4, vocab.add("bad\uD800"));
+    assertEquals(5, vocab.size());
+    assertEquals(2, vocab.getFrequency("cat"));
+    assertEquals(0, vocab.getFrequency("bird"));
+    assertEquals(-1, vocab.indexOf("bird"));
+    assertEquals(2, vocab.indexOf("Straße"));
+    assertEquals(3, vocab.indexOf("😀"));
+    assertEquals(4, vocab.indexOf("bad\uD800"));
+    assertEquals("Straße", vocab.getWord(2));
+    assertNull(vocab.getWord(5));
+    byte[] bytes = "xdogx".getBytes(StandardCharsets.UTF_8);
+    assertEquals(1, vocab.indexOf(bytes, 1, 3));
+    assertEquals(6, vocab.getTotalFrequency());
+  }
+
+  @Test
+  public void testTruncateSortAndFreeze() {
+    Vocabulary vocab = new Vocabulary();
+    for(String w : Arrays.asList("a", "b", "b", "c", "c", "c", "d", "e", "e")) vocab.add(w);
+    vocab.truncate(2);
+    assertEquals(Arrays.asList("b", "c", "e"), vocab.words());
+    vocab.sortByFrequency();
+    assertEquals(Arrays.asList("c", "b", "e"), vocab.words());
+    vocab.freeze();
+    assertTrue(vocab.isFrozen());
+    assertEquals(0, vocab.indexOf("c"));
+    assertEquals(-1, vocab.indexOf("a"));
+    assertEquals(1, vocab.add("b"));
+    assertEquals(3, vocab.getFrequency("b"));
+    try {
+      vocab.add("f");
+      fail("frozen vocabulary must not accept new words");
+    } catch(IllegalStateException ex) {}
+    vocab.truncate(3);
+    assertTrue(vocab.isFrozen());
+    assertEquals(Arrays.asList("c", "b"), vocab.words());
+    assertEquals(1, vocab.indexOf("b"));
+    assertEquals(-1, vocab.indexOf("e"));
+  }
+
+  @Test
+  public void testPerfectHash() {
+    Vocabulary vocab = new Vocabulary();
+    Random random = new Random(42);
+    for(int i = 0; i < 100000; i++) vocab.add(Integer.toString(random.nextInt(1000000), 36));
+    int size = vocab.size();
+    vocab.freeze();
+    assertEquals(size, vocab.size());
+    for(int i = 0; i < size; i++) assertEquals(i, vocab.indexOf(vocab.getWord(i)));
+    assertEquals(-1, vocab.indexOf("not-in-vocab"));
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    Vocabulary vocab = new Vocabulary();
+    for(String w : Arrays.asList("b", "a", "b", "Ärger", "")) vocab.add(w);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    vocab.write(out);
+    Vocabulary read = Vocabulary.read(new ByteArrayInputStream(out.toByteArray()));
+    assertFalse(read.isFrozen());
+    assertEquals(vocab.words(), read.words());
+    for(int i = 0; i < vocab.size(); i++) {
+      assertEquals(i, read.indexOf(vocab.getWord(i)));
+      assertEquals(vocab.getFrequency(i), read.getFrequency(i));
+    }
+    // loaded vocabularies use open addressing and can be extended
+    assertEquals(vocab.size(), read.add("c"));
+    assertEquals(vocab.size(), read.indexOf("c"));
+  }
+
+  @Test
+  public void testWriteAndReadEmpty() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new Vocabulary().write(out);
+    Vocabulary read = Vocabulary.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(0, read.size());
+    assertEquals(-1, read.indexOf("a"));
+    // an empty loaded vocabulary grows its arrays on the first add
+    for(int i = 0; i < 40; i++) assertEquals(i, read.add("w" + i));
+    for(int i = 0; i < 40; i++) assertEquals(i, read.indexOf("w" + i));
+  }
+
+  @Test
+  public void testSaveAndLoadEncoder() throws IOException {
+    Document doc = DocumentFactory.fromText("The quick brown fox jumps over the lazy dog. The dog sleeps.");
+    TrigramEncoder enc = new TrigramEncoder();
+    enc.trainModel(Arrays.asList(doc));
+    Resource temp = Resource.createTempDirectory();
+    enc.saveModel(temp, "trigram");
+    assertEquals("trigram.bin", enc.getModel());
+    for(String file : Arrays.asList("trigram.bin", "trigram.tsv.gz")) {
+      TrigramEncoder loaded = new TrigramEncoder();
+      loaded.loadModel(temp.resolve(file));
+      assertEquals(enc.getWords(), loaded.getWords());
+      assertEquals(enc.getFrequency("#th"), loaded.getFrequency("#th"));
+      assertEquals(enc.encode("dog"), loaded.encode("dog"));
+    }
+  }
+
+  @Test
+  public void testLoadUnsortedTSV() throws IOException {
+    Resource temp = Resource.createTempDirectory();
+    Resource file = temp.resolve("legacy.tsv");
+    try(OutputStreamWriter out = new OutputStreamWriter(file.getOutputStream(), StandardCharsets.UTF_8)) {
+      out.write("2\tcat\t1\n0\tdog\t5\n1\tfox\t3\n");
+    }
+    TrigramEncoder enc = new TrigramEncoder();
+    enc.loadModel(file);
+    assertEquals(Arrays.asList("dog", "fox", "cat"), enc.getWords());
+    assertEquals(2, enc.getIndex("cat"));
+    assertEquals(3, enc.getFrequency("fox"));
+  }
+
+}
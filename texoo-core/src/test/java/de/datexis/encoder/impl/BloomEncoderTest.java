@@ -4,12 +4,19 @@ import de.datexis.common.Resource;
 import de.datexis.common.WordHelpers;
 import de.datexis.model.Document;
 import de.datexis.preprocess.DocumentFactory;
+import com.google.common.hash.Hashing;
+import de.datexis.hash.Murmur3;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,4 +109,41 @@ public class BloomEncoderTest {
     
   }
 
+  @Test
+  public void testMurmur3() {
+    long[] hash = new long[2];
+    for(String s : Arrays.asList("", "a", "nuthatch", "0123456789abcdef", "white-breasted nuthatch", "Ärger")) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      Murmur3.hash128(bytes, 0, bytes.length, hash);
+      assertEquals(Hashing.murmur3_128().hashBytes(bytes).asLong(), hash[0]);
+    }
+  }
+  
+  @Test
+  public void testBitsetEncoding() {
+    Document doc = DocumentFactory.fromText(text);
+    BloomEncoder enc = new BloomEncoder(1024, 4);
+    enc.trainModel(Arrays.asList(doc), 0, WordHelpers.Language.EN);
+    // same bits as the reference implementation of the filter
+    for(String w : Arrays.asList("nuthatch", "songbird", "microsoft", "Sitta")) {
+      double[] expected = enc.bloom.getBitArray(enc.getPreprocessor().preProcess(w));
+      INDArray vec = enc.encode(w);
+      assertEquals(Nd4j.create(expected, new long[]{1024, 1}).castTo(DataType.FLOAT), vec);
+    }
+    assertTrue(enc.getCollisionRate() < 0.1);
+    List<String> phrases = Arrays.asList("white-breasted nuthatch", null, "Sitta carolinensis");
+    long[] bits = enc.encodeBits(phrases);
+    INDArray batch = enc.encodeBatch(phrases);
+    assertArrayEquals(new long[]{3, 1024}, batch.shape());
+    assertEquals(enc.encode(phrases.get(0)).transpose(), batch.getRow(0, true));
+    assertEquals(0, batch.getRow(1).sumNumber().intValue());
+    int[] indexes = enc.encodeIndexes(phrases.get(2));
+    assertArrayEquals(indexes, enc.toIndexes(bits, 2));
+    assertEquals(indexes.length, batch.getRow(2).sumNumber().intValue());
+    for(int i : indexes) assertEquals(1., batch.getDouble(2, i), 0.);
+    INDArray target = Nd4j.ones(DataType.FLOAT, 2048);
+    enc.encodeInto(phrases.get(2), target, 1024);
+    assertEquals(batch.getRow(2), target.get(org.nd4j.linalg.indexing.NDArrayIndex.interval(1024, 2048)));
+  }
+
 }
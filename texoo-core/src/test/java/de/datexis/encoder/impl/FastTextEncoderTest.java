@@ -0,0 +1,79 @@
+package de.datexis.encoder.impl;
+
+import cc.fasttext.Args;
+import cc.fasttext.FastText;
+import de.datexis.common.Resource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FastTextEncoderTest {
+
+  private static FastText ft;
+  private static FastTextEncoder enc;
+
+  private final static String text = "Berlin ist die Hauptstadt von Deutschland . Paris ist die Hauptstadt von Frankreich . " +
+      "Die Koralle lebt im Meer . Der Hirsch lebt im Wald . Berlin liegt an der Spree . Paris liegt an der Seine .";
+
+  @BeforeClass
+  public static void trainModel() throws Exception {
+    Resource dir = Resource.createTempDirectory();
+    Resource corpus = dir.resolve("corpus.txt");
+    Files.write(corpus.getPath(), Collections.nCopies(20, text), StandardCharsets.UTF_8);
+    Args args = new Args.Builder()
+        .setModel(Args.ModelName.SG)
+        .setDim(10)
+        .setBucket(1000)
+        .setMinCount(1)
+        .setEpoch(1)
+        .setThread(1)
+        .build();
+    Resource model = dir.resolve("model.bin");
+    ft = FastText.train(args, corpus.getPath().toString());
+    ft.saveModel(model.getPath().toString());
+    // loading a model is expensive, so all tests share the encoder
+    enc = FastTextEncoder.load(model);
+  }
+
+  @Test
+  public void testWordVectors() {
+    assertEquals(10, enc.getEmbeddingVectorSize());
+    for(String word : Arrays.asList("Berlin", "Koralle", "Hauptstädte", "unbekannt", "Berlin")) {
+      List<Float> data = ft.getWordVector(word).getData();
+      float[] expected = new float[data.size()];
+      for(int i = 0; i < expected.length; i++) expected[i] = data.get(i);
+      INDArray vec = enc.encode(word);
+      assertArrayEquals(new long[]{10, 1}, vec.shape());
+      assertArrayEquals(expected, vec.toFloatVector(), 1e-6f);
+    }
+  }
+
+  @Test
+  public void testBatchEncoding() {
+    List<String> words = Arrays.asList("Berlin", "Hauptstädte", "Paris", "Hauptstädte");
+    INDArray batch = enc.encode(words);
+    assertArrayEquals(new long[]{4, 10}, batch.shape());
+    for(int i = 0; i < words.size(); i++) {
+      assertEquals(enc.encode(words.get(i)).reshape(1, 10), batch.getRow(i, true));
+    }
+    enc.setCacheSize(0);
+    assertEquals(batch, enc.encode(words));
+    enc.setCacheSize(100000);
+  }
+
+  @Test
+  public void testNearestNeighbours() {
+    List<String> nn = enc.getNearestNeighbours(enc.encode("Berlin"), 3);
+    assertEquals(3, nn.size());
+    assertEquals("Berlin", nn.get(0));
+  }
+
+}
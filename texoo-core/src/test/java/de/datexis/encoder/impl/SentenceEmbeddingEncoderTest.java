@@ -0,0 +1,93 @@
+package de.datexis.encoder.impl;
+
+import de.datexis.common.Resource;
+import de.datexis.model.Document;
+import de.datexis.model.Sentence;
+import de.datexis.model.Token;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SentenceEmbeddingEncoderTest {
+
+  private final static Resource txt = Resource.fromJAR("encoder/word2vec.txt");
+
+  private final String text = "Berlin journal quartett progress . Koralle berliner Berlin und Hirschkuh . " +
+      "Journal berlin unbekannt koralle septakkord . West-Berlin Berlin journal . Hirschkuh .";
+
+  /**
+   * Reference implementation of SIF for a single sentence.
+   */
+  private INDArray encodeReference(SentenceEmbeddingEncoder enc, List<Token> tokens) {
+    INDArray sum = Nd4j.zeros(DataType.FLOAT, enc.getEmbeddingVectorSize(), 1);
+    for(Token t : tokens) {
+      double f = enc.alpha / (enc.alpha + enc.getProbability(t.getText()));
+      sum.addi(enc.vec.encode(t.getText()).castTo(DataType.FLOAT).mul(f));
+    }
+    sum.divi(tokens.size());
+    INDArray u = enc.principal.castTo(DataType.FLOAT);
+    return sum.sub(u.mmul(u.transpose()).mmul(sum));
+  }
+
+  @Test
+  public void testBatchEncoding() {
+    Document doc = DocumentFactory.fromText(text);
+    SentenceEmbeddingEncoder enc = SentenceEmbeddingEncoder.create(txt);
+    enc.trainModel(Arrays.asList(doc));
+    assertEquals(150, enc.principal.length());
+
+    List<List<Token>> batch = new ArrayList<>();
+    for(Sentence s : doc.getSentences()) batch.add(s.getTokens());
+    INDArray encoded = enc.encodeBatch(batch);
+    assertArrayEquals(new long[]{doc.countSentences(), 150}, encoded.shape());
+    for(int i = 0; i < batch.size(); i++) {
+      INDArray expected = encodeReference(enc, batch.get(i));
+      assertTrue(expected.equalsWithEps(encoded.getRow(i, true).transpose(), 1e-5));
+      assertTrue(expected.equalsWithEps(enc.encode(batch.get(i)), 1e-5));
+    }
+
+    // a single known word in a batch
+    List<List<Token>> single = Arrays.asList(batch.get(4), batch.get(1).subList(1, 2));
+    INDArray encodedSingle = enc.encodeBatch(single);
+    assertTrue(encodeReference(enc, single.get(0)).equalsWithEps(encodedSingle.getRow(0, true).transpose(), 1e-5));
+    assertTrue(encodeReference(enc, single.get(1)).equalsWithEps(encodedSingle.getRow(1, true).transpose(), 1e-5));
+
+    enc.encodeEach(doc, Sentence.class);
+    for(int i = 0; i < batch.size(); i++) {
+      INDArray vec = doc.getSentence(i).getVector(SentenceEmbeddingEncoder.class);
+      assertArrayEquals(new long[]{150, 1}, vec.shape());
+      assertTrue(encoded.getRow(i, true).transpose().equalsWithEps(vec, 1e-5));
+    }
+  }
+
+  @Test
+  public void testBoundedWordCache() {
+    Document doc = DocumentFactory.fromText(text);
+    SentenceEmbeddingEncoder enc = SentenceEmbeddingEncoder.create(txt);
+    enc.trainModel(Arrays.asList(doc));
+    enc.setWordCacheSize(3);
+    List<List<Token>> batch = new ArrayList<>();
+    for(Sentence s : doc.getSentences()) batch.add(s.getTokens());
+    // encode twice, so that evicted words are encoded again
+    for(int run = 0; run < 2; run++) {
+      INDArray encoded = enc.encodeBatch(batch);
+      for(int i = 0; i < batch.size(); i++) {
+        assertTrue(encodeReference(enc, batch.get(i)).equalsWithEps(encoded.getRow(i, true).transpose(), 1e-5));
+      }
+      assertEquals(3, enc.getWordTable().size());
+    }
+    // unknown words are not cached
+    enc.setWordCacheSize(100);
+    enc.encode(DocumentFactory.createTokensFromText("unbekannt und"));
+    assertEquals(0, enc.getWordTable().size());
+  }
+
+}
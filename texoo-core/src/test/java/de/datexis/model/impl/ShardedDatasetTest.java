@@ -0,0 +1,119 @@
+package de.datexis.model.impl;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import de.datexis.common.Resource;
+import de.datexis.model.Annotation;
+import de.datexis.model.Dataset;
+import de.datexis.model.Document;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ShardedDatasetTest {
+
+  protected Dataset createDataset(int numDocs) {
+    Dataset data = new Dataset("sharded");
+    for(int i = 0; i < numDocs; i++) {
+      Document doc = DocumentFactory.fromText("This is document number " + i + ". It has two sentences.");
+      doc.setId("doc" + i);
+      data.addDocument(doc);
+    }
+    return data;
+  }
+
+  @Test
+  public void testWriteAndCount() throws IOException {
+    Dataset data = createDataset(23);
+    Resource dir = Resource.createTempDirectory();
+    ShardedDataset sharded = ShardedDataset.write(data, dir, 5);
+    assertEquals(5, sharded.countShards());
+    assertEquals(data.countDocuments(), sharded.countDocuments());
+    assertEquals(data.countSentences(), sharded.countSentences());
+    assertEquals(data.countTokens(), sharded.countTokens());
+    assertEquals("sharded", sharded.getName());
+    assertEquals(data.getLanguage(), sharded.getLanguage());
+  }
+
+  @Test
+  public void testStreamAndAccess() throws IOException {
+    Dataset data = createDataset(23);
+    Resource dir = Resource.createTempDirectory();
+    ShardedDataset.write(data, dir, 5);
+    ShardedDataset sharded = new ShardedDataset(dir, 2);
+    List<String> expected = data.streamDocuments().map(Document::getText).collect(Collectors.toList());
+    assertEquals(expected, sharded.streamDocuments().map(Document::getText).collect(Collectors.toList()));
+    assertEquals(expected.size(), sharded.streamDocumentsParallel().count());
+    assertEquals(expected.size(), sharded.getDocuments().size());
+    assertEquals("doc0", sharded.getDocument(0).get().getId());
+    assertEquals("doc5", sharded.getDocument(5).get().getId());
+    assertEquals("doc22", sharded.getDocument(22).get().getId());
+    assertFalse(sharded.getDocument(23).isPresent());
+    assertEquals(expected.subList(4, 12), sharded.streamDocuments(4, 8).map(Document::getText).collect(Collectors.toList()));
+    assertEquals("doc7", sharded.getDocument("doc7").get().getId());
+  }
+
+  @Test
+  public void testBinaryShards() throws IOException {
+    Dataset data = createDataset(23);
+    Resource dir = Resource.createTempDirectory();
+    ShardedDataset sharded = ShardedDataset.write(data, dir, 5, true);
+    assertEquals(data.countTokens(), sharded.countTokens());
+    List<String> expected = data.streamDocuments().map(Document::getText).collect(Collectors.toList());
+    assertEquals(expected, sharded.streamDocuments().map(Document::getText).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testRandomizeShards() throws IOException {
+    Dataset data = createDataset(23);
+    Resource dir = Resource.createTempDirectory();
+    ShardedDataset sharded = ShardedDataset.write(data, dir, 5);
+    sharded.randomizeDocuments(42);
+    List<String> ids = sharded.streamDocuments().map(Document::getId).collect(Collectors.toList());
+    assertEquals(23, ids.size());
+    assertEquals(23, ids.stream().distinct().count());
+    for(int i = 0; i < ids.size(); i++) {
+      assertEquals(ids.get(i), sharded.getDocument(i).get().getId());
+    }
+  }
+
+  @Test
+  public void testEvictionLosesChanges() throws IOException {
+    Dataset data = createDataset(23);
+    Resource dir = Resource.createTempDirectory();
+    ShardedDataset.write(data, dir, 5);
+    ShardedDataset sharded = new ShardedDataset(dir, 2);
+    ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    appender.start();
+    Logger logger = (Logger) LoggerFactory.getLogger(ShardedDataset.class);
+    logger.addAppender(appender);
+    try {
+      Document doc = sharded.getDocument(0).get();
+      doc.addAnnotation(new PassageAnnotation(Annotation.Source.PRED));
+      assertTrue(sharded.isResident(0));
+      // changes are kept while the shard is resident
+      assertSame(doc, sharded.getDocument(0).get());
+      assertEquals(1, sharded.getDocument(0).get().countAnnotations());
+      assertTrue(appender.list.isEmpty());
+
+      // iterating over all shards evicts the first one
+      assertEquals(23, sharded.streamDocuments().count());
+      assertFalse(sharded.isResident(0));
+      assertTrue(appender.list.stream().anyMatch(e -> e.getLevel() == Level.WARN));
+      Document reloaded = sharded.getDocument(0).get();
+      assertNotSame(doc, reloaded);
+      assertEquals(0, reloaded.countAnnotations());
+    } finally {
+      logger.detachAppender(appender);
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+package de.datexis.tagger;
+
+import de.datexis.common.Resource;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TaggerCheckpointTest {
+
+  private static class TestTagger extends EmptyTagger {
+    TestTagger(Model net) {
+      this.net = net;
+    }
+  }
+
+  private static MultiLayerNetwork createNetwork() {
+    MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder()
+      .seed(42)
+      .list()
+      .layer(new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(4).nOut(3).activation(Activation.SOFTMAX).build())
+      .build());
+    net.init();
+    return net;
+  }
+
+  @Test
+  public void testLoadCheckpointKeepsNetworkType() throws IOException {
+    Resource dir = Resource.createTempDirectory();
+    TestTagger tagger = new TestTagger(createNetwork());
+    INDArray saved = tagger.getNN().params().dup();
+    tagger.saveCheckpoint(dir, "checkpoint_epoch1");
+    tagger.getNN().params().addi(1.);
+    tagger.loadCheckpoint(dir.resolve("checkpoint_epoch1.zip"));
+    assertTrue(tagger.getNN() instanceof MultiLayerNetwork);
+    assertEquals(saved, tagger.getNN().params());
+  }
+
+  @Test
+  public void testLoadMissingCheckpointThrows() {
+    Resource dir = Resource.createTempDirectory();
+    Model net = createNetwork();
+    TestTagger tagger = new TestTagger(net);
+    try {
+      tagger.loadCheckpoint(dir.resolve("checkpoint_epoch1.zip"));
+      fail("missing checkpoint was not reported");
+    } catch(IOException ex) {
+      assertSame(net, tagger.getNN());
+    }
+  }
+
+}
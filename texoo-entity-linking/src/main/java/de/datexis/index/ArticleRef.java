@@ -45,6 +45,20 @@ public class ArticleRef {
     this.vector = article.getVector();
   }
 
+  /**
+   * Copy Constructor, the vector is shared
+   * @param ref
+   */
+  public ArticleRef(ArticleRef ref) {
+    this.id = ref.id;
+    this.url = ref.url;
+    this.title = ref.title;
+    this.description = ref.description;
+    this.type = ref.type;
+    this.score = ref.score;
+    this.vector = ref.vector;
+  }
+
   @JsonIgnore
   public INDArray getVector() {
     return vector;
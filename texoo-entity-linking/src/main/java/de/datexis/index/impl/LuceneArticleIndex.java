@@ -1,13 +1,14 @@
 package de.datexis.index.impl;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
+import de.datexis.common.Metrics;
 import de.datexis.common.ObjectSerializer;
+import de.datexis.common.QueryCache;
 import de.datexis.common.Resource;
 import de.datexis.nel.model.Article;
 import de.datexis.index.ArticleIndex;
 import de.datexis.index.ArticleRef;
 import de.datexis.index.WikiDataArticle;
+import de.datexis.index.utils.AliasIndex;
 import de.datexis.preprocess.MinimalLowercasePreprocessor;
 import info.debatty.java.stringsimilarity.JaroWinkler;
 import info.debatty.java.stringsimilarity.interfaces.NormalizedStringSimilarity;
@@ -24,6 +25,8 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
@@ -93,9 +96,67 @@ public class LuceneArticleIndex extends ArticleIndex {
   protected Analyzer analyzer;
   protected final NormalizedStringSimilarity sim = new JaroWinkler();
   protected final TokenPreProcess preprocessor = new MinimalLowercasePreprocessor();
+
+  /** scored candidates of normalized names, which are independent of case and whitespace */
+  protected QueryCache<String,List<ArticleRef>> nameCache = new QueryCache<>("LuceneArticleIndex.names", 10000, 1, TimeUnit.HOURS);
+
+  /** articles of given IDs */
+  protected QueryCache<String,Optional<ArticleRef>> idCache = new QueryCache<>("LuceneArticleIndex.ids", 10000, 1, TimeUnit.HOURS);
+
+  /** fuzzy lookup of names, which is rebuilt whenever an index is opened, or null to search words in the "name" field */
+  protected AliasIndex aliasIndex;
+  protected boolean useAliasIndex = false;
   
   public LuceneArticleIndex() {
   }
+
+  /**
+   * Enable fuzzy name lookup with an AliasIndex of all names in memory, instead of phrase queries on the "name" field.
+   * The AliasIndex is built immediately if an index is open.
+   */
+  public void setAliasIndex(boolean enabled) {
+    useAliasIndex = enabled;
+    if(enabled && reader != null) buildAliasIndex();
+    else if(!enabled) aliasIndex = null;
+    invalidateQueryCache();
+  }
+
+  public AliasIndex getAliasIndex() {
+    return aliasIndex;
+  }
+
+  protected void buildAliasIndex() {
+    try {
+      AliasIndex index = new AliasIndex(preprocessor);
+      index.build(reader, FIELD_NAMES);
+      aliasIndex = index;
+    } catch(IOException e) {
+      log.error("Could not build alias index: " + e.toString());
+      aliasIndex = null;
+    }
+  }
+
+  /**
+   * Replace the query caches for names and IDs.
+   * @param maxSize maximum number of cached queries, or 0 to disable the caches
+   * @param ttl time to live of cached results, or 0 if results do not expire
+   */
+  public void setQueryCache(int maxSize, long ttl, TimeUnit unit) {
+    nameCache = new QueryCache<>("LuceneArticleIndex.names", maxSize, ttl, unit);
+    idCache = new QueryCache<>("LuceneArticleIndex.ids", maxSize, ttl, unit);
+  }
+
+  public QueryCache<String,List<ArticleRef>> getNameCache() {
+    return nameCache;
+  }
+
+  /**
+   * Remove all cached query results. This is called whenever an index is created or opened.
+   */
+  public void invalidateQueryCache() {
+    nameCache.invalidate();
+    idCache.invalidate();
+  }
   
   /**
    * tries to open an existing index from given path
@@ -110,12 +171,15 @@ public class LuceneArticleIndex extends ArticleIndex {
   }
   
   private boolean openIndex(Directory index) {
+    invalidateQueryCache();
     try {
       reader = DirectoryReader.open(index);
       searcher = new IndexSearcher(reader);
       //searcher.setSimilarity(new BM25Similarity(1f,1f));
       //searcher.setSimilarity(new ContextSimilarity());
       analyzer = buildAnalyzer();
+      aliasIndex = null; // document IDs have changed
+      if(useAliasIndex) buildAliasIndex();
       return true;
     } catch (IOException e) {
       return false;
@@ -139,6 +203,7 @@ public class LuceneArticleIndex extends ArticleIndex {
   
   public void createIndex(Iterator<? extends Article> articles, Directory index) {
     log.info("creating new index...");
+    invalidateQueryCache();
      
     analyzer = buildAnalyzer();
     
@@ -178,14 +243,30 @@ public class LuceneArticleIndex extends ArticleIndex {
    */
   @Override
   public List<ArticleRef> queryNames(String name, int hits) {
+    long start = Metrics.start();
+    // cached candidates are shared, so we return copies that can be rescored
+    List<ArticleRef> result = nameCache.get(QueryCache.normalize(name), this::scoreNames).stream()
+      .limit(hits)
+      .map(ArticleRef::new)
+      .collect(Collectors.toList());
+    Metrics.record(getClass(), "queryNames", start, 1);
+    return result;
+  }
+
+  /**
+   * @return all candidates for a normalized name, sorted by Jaro-Winkler similarity of their best matching name
+   */
+  protected List<ArticleRef> scoreNames(String name) {
+    if(aliasIndex != null) return scoreAliases(name);
     List<Document> docs = queryIndexNames(name, NUM_BM25_CANDIDATES);
-    List<ArticleRef> candidates = new ArrayList<>(NUM_BM25_CANDIDATES);
+    List<ArticleRef> candidates = new ArrayList<>(docs.size());
+    String query = preprocessor.preProcess(name);
     for(Document d : docs) {
       //log.debug("found " + d.get(FIELD_TITLE) + "\t" + d.get(FIELD_REFIDS + "wikidata") + "\t");
       Article a = createWikidataArticle(d);
       double score = 0.;
       for(String title : a.getNames()) {
-        double jaroSim = sim.similarity(preprocessor.preProcess(title), preprocessor.preProcess(name));
+        double jaroSim = sim.similarity(preprocessor.preProcess(title), query);
         if(jaroSim > score) score = jaroSim;
       }
       ArticleRef ref = new ArticleRef(a);
@@ -193,7 +274,24 @@ public class LuceneArticleIndex extends ArticleIndex {
       candidates.add(ref);
     }
     Collections.sort(candidates, new ArticleRef.ScoreComparator()); // stable sort
-    return Lists.newArrayList(Iterables.limit(candidates, hits));
+    return candidates;
+  }
+
+  /**
+   * @return candidates for a normalized name from the AliasIndex, sorted by Jaro-Winkler similarity of their best matching name
+   */
+  protected List<ArticleRef> scoreAliases(String name) {
+    List<ArticleRef> candidates = new ArrayList<>();
+    try {
+      for(AliasIndex.Match match : aliasIndex.query(name, NUM_BM25_CANDIDATES)) {
+        ArticleRef ref = new ArticleRef(createWikidataArticle(searcher.doc(match.doc)));
+        ref.setScore(match.score);
+        candidates.add(ref);
+      }
+    } catch(IOException ex) {
+      log.error(ex.toString());
+    }
+    return candidates;
   }
 
   /**
@@ -204,7 +302,10 @@ public class LuceneArticleIndex extends ArticleIndex {
    */
   @Override
   public List<ArticleRef> queryPrefixNames(String prefix, int hits) {
-    return queryIndexPrefix(prefix, hits);
+    long start = Metrics.start();
+    List<ArticleRef> result = queryIndexPrefix(prefix, hits);
+    Metrics.record(getClass(), "queryPrefixNames", start, 1);
+    return result;
   }
 
   /**
@@ -214,7 +315,10 @@ public class LuceneArticleIndex extends ArticleIndex {
    */
   @Override
   public Optional<ArticleRef> queryID(String id) {
-    return queryWikidataID(id);
+    long start = Metrics.start();
+    Optional<ArticleRef> result = idCache.get(id, this::queryWikidataID).map(ArticleRef::new);
+    Metrics.record(getClass(), "queryID", start, 1);
+    return result;
   }
   
   /**
@@ -1,17 +1,18 @@
 package de.datexis.index.impl;
 
 import de.datexis.common.Resource;
-import de.datexis.common.WordHelpers;
 import de.datexis.index.ArticleRef;
 import de.datexis.index.WikiDataArticle;
 import de.datexis.index.encoder.EntityEncoder;
+import de.datexis.index.utils.CandidateScorer;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.lucene.document.Document;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +28,9 @@ public class VectorArticleIndex extends LuceneArticleIndex {
   protected final static EntityEncoder.Strategy strategy = EntityEncoder.Strategy.NAME_CONTEXT;
       
   EntityEncoder encoder;
+
+  /** normalized article vectors for reranking */
+  protected final CandidateScorer scorer = new CandidateScorer();
       
   public VectorArticleIndex(Resource parVec) throws IOException {
     super();
@@ -45,30 +49,67 @@ public class VectorArticleIndex extends LuceneArticleIndex {
     else log.error("Could not encode entity {}", article.toString());
     return doc;
   }
+
+  @Override
+  public void invalidateQueryCache() {
+    super.invalidateQueryCache();
+    scorer.invalidate();
+  }
   
   public List<ArticleRef> querySimilarArticles(String mention, String context, int hits) {
-    ArrayList<ArticleRef> result = new ArrayList<>(hits);
     // first step: lucene query
-    List<ArticleRef> candidates = queryNames(mention, NUM_PARVEC_CANDIDATES);
+    List<ArticleRef> candidates = queryCandidates(mention);
     // second step: reranking
-    INDArray embedding = encoder.encodeMention(mention, context);
-    for(ArticleRef ref : candidates) {
-      INDArray entityEmbedding = ref.getVector();
-      if(entityEmbedding != null) {
-        INDArray candidate = Nd4j.hstack(entityEmbedding, entityEmbedding); // FIXME: only needed because we skipped context in EntityEncoder
-        double score = WordHelpers.cosineSim(candidate, embedding);
-        if(Double.isFinite(score)) ref.setScore(score);
-        else ref.setScore(0.);
-      } else {
-        //log.warn("missing vector for entity {}", ref.getId());
-        ref.setScore(0.);
+    return rankSimilarArticles(mention, Collections.singletonList(context), candidates, hits).get(0);
+  }
+
+  /**
+   * @return the candidates for a mention from Lucene, which are reranked with vectors
+   */
+  public List<ArticleRef> queryCandidates(String mention) {
+    return queryNames(mention, NUM_PARVEC_CANDIDATES);
+  }
+
+  /**
+   * Rerank the candidates of a mention in all given contexts. Every distinct context is encoded once and all
+   * candidates are scored against all contexts at once.
+   * @return a copy of all candidates for every context, sorted by cosine similarity of their vectors
+   */
+  public List<List<ArticleRef>> rankSimilarArticles(String mention, List<String> contexts, List<ArticleRef> candidates) {
+    return rankSimilarArticles(mention, contexts, candidates, candidates.size());
+  }
+
+  /**
+   * Rerank the candidates of a mention in all given contexts and keep the best candidates.
+   * @return a copy of the top hits candidates for every context, sorted by cosine similarity of their vectors and
+   * by Lucene order in case of equal scores
+   */
+  public List<List<ArticleRef>> rankSimilarArticles(String mention, List<String> contexts, List<ArticleRef> candidates, int hits) {
+    Map<String,Integer> distinct = new HashMap<>();
+    List<INDArray> embeddings = new ArrayList<>();
+    int[] embedding = new int[contexts.size()];
+    for(int i = 0; i < contexts.size(); i++) {
+      String context = contexts.get(i);
+      Integer idx = distinct.get(context);
+      if(idx == null) {
+        idx = embeddings.size();
+        distinct.put(context, idx);
+        embeddings.add(encoder.encodeMention(mention, context));
+      }
+      embedding[i] = idx;
+    }
+    List<CandidateScorer.Ranking> rankings = scorer.topK(candidates, embeddings, hits);
+    List<List<ArticleRef>> result = new ArrayList<>(contexts.size());
+    for(int i = 0; i < contexts.size(); i++) {
+      CandidateScorer.Ranking ranking = rankings.get(embedding[i]);
+      List<ArticleRef> ranked = new ArrayList<>(ranking.size());
+      for(int r = 0; r < ranking.size(); r++) {
+        ArticleRef ref = new ArticleRef(candidates.get(ranking.index[r]));
+        ref.setScore(ranking.score[r]);
+        ranked.add(ref);
       }
-      result.add(ref);
+      result.add(ranked);
     }
-    Collections.sort(result, new ArticleRef.ScoreComparator()); // this sort is stable, so it keeps Lucene sorting in case of score = 0
-    /*for(ArticleRef ref : result) {
-      log.debug(mention + "\t" + ref.toString() + "\t" + ref.getScore());
-    }*/
     return result;
   }
   
@@ -0,0 +1,243 @@
+package de.datexis.index.utils;
+
+import info.debatty.java.stringsimilarity.JaroWinkler;
+import info.debatty.java.stringsimilarity.interfaces.NormalizedStringSimilarity;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Index of all distinct aliases of the articles in a Lucene index for fuzzy name lookup. Every normalized alias is
+ * indexed once as a whole term for Levenshtein automata (FuzzyQuery) and with its character n-grams, which also match
+ * misspelled and partial names, and with its words. The aliases map to the Lucene document IDs of their articles in
+ * compact arrays, so only the best matching articles have to be loaded. Queries match exactly first, then all words in
+ * any order and only then fuzzy, and terminate early as soon as a step yields enough articles.
+ * The index is only valid for the IndexReader it was built from.
+ */
+public class AliasIndex {
+
+  protected final static Logger log = LoggerFactory.getLogger(AliasIndex.class);
+
+  protected final static String FIELD_ALIAS = "alias";
+  protected final static String FIELD_GRAM = "gram";
+  protected final static String FIELD_WORD = "word";
+  protected final static String FIELD_ENTRY = "entry";
+
+  /** size of character n-grams */
+  protected final static int GRAM_SIZE = 3;
+
+  protected final TokenPreProcess preprocessor;
+  protected final NormalizedStringSimilarity sim = new JaroWinkler();
+
+  /** maximum number of edits in fuzzy matches */
+  protected int maxEdits = LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE;
+
+  /** maximum number of similar aliases that are expanded from the automaton */
+  protected int maxExpansions = 64;
+
+  /** maximum number of aliases that are scored per query */
+  protected int maxAliases = 256;
+
+  /** maximum number of fuzzy matching aliases that are scored per query */
+  protected int maxFuzzyAliases = 64;
+
+  /** fraction of n-grams of the query that an alias has to contain */
+  protected float minGramMatch = 0.6f;
+
+  /** number of articles that terminate the query after exact or word matching */
+  protected int minHits = 1;
+
+  private IndexSearcher searcher;
+
+  /** normalized alias of every entry */
+  private String[] aliases;
+
+  /** sorted Lucene document IDs of the articles of every entry */
+  private int[][] articles;
+
+  /**
+   * @param preprocessor normalization of aliases and queries, which should also be used for string similarity
+   */
+  public AliasIndex(TokenPreProcess preprocessor) {
+    this.preprocessor = preprocessor;
+  }
+
+  public void setMaxEdits(int maxEdits) {
+    this.maxEdits = Math.min(maxEdits, LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+  }
+
+  public void setMaxExpansions(int maxExpansions) {
+    this.maxExpansions = maxExpansions;
+  }
+
+  public void setMaxAliases(int maxAliases) {
+    this.maxAliases = maxAliases;
+  }
+
+  public void setMaxFuzzyAliases(int maxFuzzyAliases) {
+    this.maxFuzzyAliases = maxFuzzyAliases;
+  }
+
+  public void setMinGramMatch(float minGramMatch) {
+    this.minGramMatch = minGramMatch;
+  }
+
+  /**
+   * @param minHits number of articles that terminate the query after exact or word matching, or
+   * Integer.MAX_VALUE to always match fuzzy
+   */
+  public void setMinHits(int minHits) {
+    this.minHits = minHits;
+  }
+
+  /**
+   * Build the index from all stored values of a field in the article index.
+   * @param reader the article index
+   * @param field the stored field that contains names and aliases
+   */
+  public void build(IndexReader reader, String field) throws IOException {
+    Map<String,int[]> entries = new HashMap<>();
+    Set<String> fields = Collections.singleton(field);
+    Bits live = MultiFields.getLiveDocs(reader);
+    for(int doc = 0; doc < reader.maxDoc(); doc++) {
+      if(live != null && !live.get(doc)) continue;
+      for(String name : reader.document(doc, fields).getValues(field)) {
+        String alias = preprocessor.preProcess(name);
+        if(alias == null || alias.isEmpty()) continue;
+        int[] docs = entries.get(alias);
+        if(docs == null) {
+          entries.put(alias, new int[] {doc});
+        } else if(docs[docs.length - 1] != doc) {
+          // documents are visited in order, so the arrays stay sorted and free of duplicates
+          docs = Arrays.copyOf(docs, docs.length + 1);
+          docs[docs.length - 1] = doc;
+          entries.put(alias, docs);
+        }
+      }
+    }
+    aliases = new String[entries.size()];
+    articles = new int[entries.size()][];
+    RAMDirectory index = new RAMDirectory();
+    try(IndexWriter writer = new IndexWriter(index, new IndexWriterConfig(new KeywordAnalyzer()))) {
+      int entry = 0;
+      for(Map.Entry<String,int[]> e : entries.entrySet()) {
+        aliases[entry] = e.getKey();
+        articles[entry] = e.getValue();
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_ALIAS, e.getKey(), Field.Store.NO));
+        for(String gram : grams(e.getKey())) doc.add(new StringField(FIELD_GRAM, gram, Field.Store.NO));
+        for(String word : words(e.getKey())) doc.add(new StringField(FIELD_WORD, word, Field.Store.NO));
+        doc.add(new NumericDocValuesField(FIELD_ENTRY, entry++));
+        writer.addDocument(doc);
+      }
+    }
+    searcher = new IndexSearcher(DirectoryReader.open(index));
+    log.info("Built alias index with {} aliases of {} articles", aliases.length, reader.numDocs());
+  }
+
+  public int size() {
+    return aliases == null ? 0 : aliases.length;
+  }
+
+  /**
+   * @return the articles of matching aliases, sorted by Jaro-Winkler similarity of their best matching alias
+   */
+  public List<Match> query(String name, int hits) throws IOException {
+    String query = preprocessor.preProcess(name);
+    if(searcher == null || query == null || query.isEmpty() || hits <= 0) return new ArrayList<>();
+    // articles with their best alias score, in order of first occurrence
+    Map<Integer,Match> matches = new LinkedHashMap<>();
+    // first step: exact matches only
+    addMatches(searcher.search(new TermQuery(new Term(FIELD_ALIAS, query)), 1), query, matches);
+    if(matches.size() >= Math.min(hits, minHits)) return sortMatches(matches, hits);
+    // second step: aliases that contain all words in any order
+    BooleanQuery.Builder words = new BooleanQuery.Builder();
+    for(String word : words(query)) words.add(new TermQuery(new Term(FIELD_WORD, word)), BooleanClause.Occur.MUST);
+    addMatches(searcher.search(words.build(), maxAliases), query, matches);
+    if(matches.size() >= Math.min(hits, minHits)) return sortMatches(matches, hits);
+    // third step: Levenshtein automaton and n-gram postings
+    BooleanQuery.Builder grams = new BooleanQuery.Builder();
+    Set<String> queryGrams = grams(query);
+    for(String gram : queryGrams) grams.add(new TermQuery(new Term(FIELD_GRAM, gram)), BooleanClause.Occur.SHOULD);
+    grams.setMinimumNumberShouldMatch(Math.max(1, Math.round(queryGrams.size() * minGramMatch)));
+    BooleanQuery.Builder fuzzy = new BooleanQuery.Builder()
+      .add(new BoostQuery(grams.build(), 1.0f), BooleanClause.Occur.SHOULD);
+    int edits = Math.min(maxEdits, query.length() / 4); // short names do not allow many edits
+    if(edits > 0) fuzzy.add(new BoostQuery(new FuzzyQuery(new Term(FIELD_ALIAS, query), edits, 1, maxExpansions, true), 2.0f), BooleanClause.Occur.SHOULD);
+    addMatches(searcher.search(fuzzy.build(), maxFuzzyAliases), query, matches);
+    return sortMatches(matches, hits);
+  }
+
+  private void addMatches(TopDocs top, String query, Map<Integer,Match> matches) throws IOException {
+    NumericDocValues entries = MultiDocValues.getNumericValues(searcher.getIndexReader(), FIELD_ENTRY);
+    for(ScoreDoc hit : top.scoreDocs) {
+      int entry = (int) entries.get(hit.doc);
+      double score = sim.similarity(aliases[entry], query);
+      for(int doc : articles[entry]) {
+        Match match = matches.get(doc);
+        if(match == null) matches.put(doc, new Match(doc, score));
+        else if(score > match.score) match.score = score;
+      }
+    }
+  }
+
+  private static List<Match> sortMatches(Map<Integer,Match> matches, int hits) {
+    List<Match> result = new ArrayList<>(matches.values());
+    result.sort((a, b) -> Double.compare(b.score, a.score)); // stable sort keeps exact matches first
+    return result.size() > hits ? new ArrayList<>(result.subList(0, hits)) : result;
+  }
+
+  /**
+   * @return all character n-grams of the alias, padded at begin and end
+   */
+  protected static Set<String> grams(String alias) {
+    String padded = "$" + alias + "$";
+    Set<String> result = new LinkedHashSet<>();
+    for(int i = 0; i + GRAM_SIZE <= padded.length(); i++) result.add(padded.substring(i, i + GRAM_SIZE));
+    if(result.isEmpty()) result.add(padded);
+    return result;
+  }
+
+  /**
+   * @return all words of the normalized alias, which uses "_" as space
+   */
+  protected static Set<String> words(String alias) {
+    Set<String> result = new LinkedHashSet<>();
+    for(String word : alias.split("_")) {
+      if(!word.isEmpty()) result.add(word);
+    }
+    return result;
+  }
+
+  /**
+   * An article that matches the query by one of its aliases.
+   */
+  public static class Match {
+
+    /** Lucene document ID of the article */
+    public final int doc;
+
+    /** Jaro-Winkler similarity of the best matching alias */
+    public double score;
+
+    Match(int doc, double score) {
+      this.doc = doc;
+      this.score = score;
+    }
+
+  }
+
+}
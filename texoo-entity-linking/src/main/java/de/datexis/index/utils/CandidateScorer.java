@@ -0,0 +1,238 @@
+package de.datexis.index.utils;
+
+import de.datexis.index.ArticleRef;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.*;
+
+/**
+ * Scores candidate articles against mention embeddings with cosine similarity and returns the top k candidates per
+ * mention. Article vectors are normalized once and cached by article ID, candidates are copied into a matrix that is
+ * reused by every call of the same thread. Entity vectors are implicitly repeated to the size of the mention
+ * embeddings, because we skipped context in EntityEncoder. Candidates without vectors and empty vectors score 0.
+ */
+public class CandidateScorer {
+
+  /** marks articles without vector in the cache */
+  private static final float[] EMPTY = new float[0];
+
+  /** maximum number of cached article vectors */
+  protected final int cacheSize;
+
+  /** normalized vectors of recent articles */
+  private final Map<String,float[]> cache;
+
+  /** candidate matrix [ candidates X dim ] in row order, grows with the largest candidate list */
+  private final ThreadLocal<float[]> matrix = ThreadLocal.withInitial(() -> EMPTY);
+
+  public CandidateScorer() {
+    this(100000);
+  }
+
+  /**
+   * @param cacheSize maximum number of cached article vectors, or 0 to disable the cache
+   */
+  public CandidateScorer(int cacheSize) {
+    this.cacheSize = cacheSize;
+    this.cache = Collections.synchronizedMap(new LinkedHashMap<String,float[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,float[]> eldest) {
+        return size() > cacheSize;
+      }
+    });
+  }
+
+  /**
+   * Remove all cached article vectors, e.g. after the index has changed.
+   */
+  public void invalidate() {
+    cache.clear();
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * @return the normalized vector of the article, or an empty array if it has no vector or the vector is empty
+   */
+  public float[] getNormalizedVector(ArticleRef ref) {
+    if(ref.getId() == null || cacheSize <= 0) return normalize(ref.getVector());
+    float[] vec = cache.get(ref.getId());
+    if(vec == null) {
+      vec = normalize(ref.getVector());
+      cache.put(ref.getId(), vec);
+    }
+    return vec;
+  }
+
+  /**
+   * Score all candidates against all mention embeddings and keep the k best candidates per embedding.
+   * @return the ranking for every embedding, sorted by descending score and by candidate order in case of equal scores
+   */
+  public List<Ranking> topK(List<ArticleRef> candidates, List<INDArray> embeddings, int k) {
+    int n = candidates.size();
+    k = Math.min(k, n);
+    List<Ranking> result = new ArrayList<>(embeddings.size());
+    if(n == 0 || k <= 0) {
+      for(int e = 0; e < embeddings.size(); e++) result.add(new Ranking(new int[0], new double[0]));
+      return result;
+    }
+    // fill the candidate matrix with normalized vectors
+    float[][] vectors = new float[n][];
+    int dim = 0;
+    for(int c = 0; c < n; c++) {
+      vectors[c] = getNormalizedVector(candidates.get(c));
+      if(vectors[c].length == 0) continue;
+      if(dim == 0) dim = vectors[c].length;
+      else if(vectors[c].length != dim) throw new IllegalArgumentException("entity vectors have different sizes");
+    }
+    float[] mat = matrix.get();
+    if(mat.length < n * dim) {
+      mat = new float[n * dim];
+      matrix.set(mat);
+    }
+    boolean[] empty = new boolean[n];
+    for(int c = 0; c < n; c++) {
+      empty[c] = vectors[c].length == 0;
+      if(!empty[c]) System.arraycopy(vectors[c], 0, mat, c * dim, dim);
+    }
+    float[] query = new float[dim];
+    int[] heapIdx = new int[k];
+    double[] heapScore = new double[k];
+    for(INDArray embedding : embeddings) {
+      double scale = dim == 0 ? 0. : fold(embedding, query);
+      // fused kernel: dot product, scaling and bounded min-heap of the best k candidates
+      int size = 0;
+      for(int c = 0; c < n; c++) {
+        double score = 0.;
+        if(!empty[c] && scale > 0) {
+          float dot = 0f;
+          int offset = c * dim;
+          for(int i = 0; i < dim; i++) dot += mat[offset + i] * query[i];
+          score = dot * scale;
+          if(!Double.isFinite(score)) score = 0.;
+        }
+        if(size < k) {
+          heapIdx[size] = c;
+          heapScore[size] = score;
+          siftUp(heapIdx, heapScore, size++);
+        } else if(score > heapScore[0]) {
+          heapIdx[0] = c;
+          heapScore[0] = score;
+          siftDown(heapIdx, heapScore, size);
+        }
+      }
+      // heap sort into descending order
+      int[] idx = new int[size];
+      double[] scores = new double[size];
+      for(int i = size - 1; i >= 0; i--) {
+        idx[i] = heapIdx[0];
+        scores[i] = heapScore[0];
+        heapIdx[0] = heapIdx[i];
+        heapScore[0] = heapScore[i];
+        siftDown(heapIdx, heapScore, i);
+      }
+      result.add(new Ranking(idx, scores));
+    }
+    return result;
+  }
+
+  /**
+   * Sum up all chunks of the embedding with the size of the entity vectors.
+   * @return the factor that turns dot products with normalized entity vectors into cosine similarity, or 0 for empty embeddings
+   */
+  private static double fold(INDArray embedding, float[] query) {
+    float[] vec = toFloatVector(embedding);
+    int dim = query.length;
+    if(vec.length % dim != 0) throw new IllegalArgumentException("entity vector does not match mention embedding size");
+    Arrays.fill(query, 0f);
+    double sum = 0;
+    float max = Float.NEGATIVE_INFINITY;
+    for(int i = 0; i < vec.length; i++) {
+      query[i % dim] += vec[i];
+      sum += vec[i] * vec[i];
+      if(vec[i] > max) max = vec[i];
+    }
+    if(max == 0 || sum == 0) return 0.;
+    return 1. / (Math.sqrt(sum) * Math.sqrt(vec.length / dim));
+  }
+
+  /** a candidate is worse than another if it has lower score, or same score and later position */
+  private static boolean worse(int[] idx, double[] score, int a, int b) {
+    return score[a] < score[b] || (score[a] == score[b] && idx[a] > idx[b]);
+  }
+
+  private static void siftUp(int[] idx, double[] score, int i) {
+    while(i > 0) {
+      int parent = (i - 1) / 2;
+      if(!worse(idx, score, i, parent)) break;
+      swap(idx, score, i, parent);
+      i = parent;
+    }
+  }
+
+  private static void siftDown(int[] idx, double[] score, int size) {
+    int i = 0;
+    while(true) {
+      int child = 2 * i + 1;
+      if(child >= size) break;
+      if(child + 1 < size && worse(idx, score, child + 1, child)) child++;
+      if(!worse(idx, score, child, i)) break;
+      swap(idx, score, i, child);
+      i = child;
+    }
+  }
+
+  private static void swap(int[] idx, double[] score, int a, int b) {
+    int i = idx[a];
+    idx[a] = idx[b];
+    idx[b] = i;
+    double s = score[a];
+    score[a] = score[b];
+    score[b] = s;
+  }
+
+  private static float[] normalize(INDArray vector) {
+    if(vector == null) return EMPTY;
+    float[] vec = toFloatVector(vector);
+    double sum = 0;
+    float max = Float.NEGATIVE_INFINITY;
+    for(float f : vec) {
+      sum += f * f;
+      if(f > max) max = f;
+    }
+    if(vec.length == 0 || max == 0 || sum == 0) return EMPTY;
+    float inv = (float) (1. / Math.sqrt(sum));
+    for(int i = 0; i < vec.length; i++) vec[i] *= inv;
+    return vec;
+  }
+
+  private static float[] toFloatVector(INDArray vec) {
+    return vec.castTo(DataType.FLOAT).reshape(vec.length()).toFloatVector();
+  }
+
+  /**
+   * The best candidates for a mention embedding.
+   */
+  public static class Ranking {
+
+    /** positions in the candidate list */
+    public final int[] index;
+
+    /** cosine similarity of the candidates */
+    public final double[] score;
+
+    Ranking(int[] index, double[] score) {
+      this.index = index;
+      this.score = score;
+    }
+
+    public int size() {
+      return index.length;
+    }
+
+  }
+
+}
@@ -3,6 +3,7 @@ package de.datexis.nel;
 import com.google.common.collect.Lists;
 import de.datexis.annotator.Annotator;
 import de.datexis.ner.MentionAnnotator;
+import de.datexis.common.Metrics;
 import de.datexis.common.Timer;
 import de.datexis.encoder.Encoder;
 import de.datexis.model.Document;
@@ -14,7 +15,10 @@ import de.datexis.index.impl.VectorArticleIndex;
 import de.datexis.preprocess.DocumentFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -63,6 +67,7 @@ public class NamedEntityAnnotator extends Annotator {
 
   @Override  
   public void annotate(Collection<Document> docs) {
+    long t = Metrics.start();
     Timer timer = new Timer();
     timer.start();
     NavigableMap<Integer,NamedEntityAnnotation> result = new TreeMap<>();
@@ -75,11 +80,12 @@ public class NamedEntityAnnotator extends Annotator {
     // search & disambiguate
     for(Document doc : docs) {
       createSignature(doc);
-      disambiguateMentions(doc, Annotation.Source.PRED);
     }
+    disambiguateMentions(docs, Annotation.Source.PRED);
     timer.setSplit("NED");
     
     timer.stop();
+    Metrics.record(getClass(), "annotate", t, docs.size());
     log.debug("Annotated " + docs.size() + " documends [" + timer.get("NER") + " NER, " + timer.get("NED") + " NED, " + timer.get() + " total]");
   }
   
@@ -106,31 +112,68 @@ public class NamedEntityAnnotator extends Annotator {
    * Attaches NamedEntityAnnotation to the Document
    */
   public void disambiguateMentions(Document doc, Annotation.Source source) {
-    //INDArray context = doc.getVector(encoder.getClass());
-    List<MentionAnnotation> anns = doc.streamAnnotations(source, MentionAnnotation.class).collect(Collectors.toList());
-    for(MentionAnnotation mention : anns) {
-      NamedEntityAnnotation entity = new NamedEntityAnnotation(mention, new ArrayList<>());
-      //if(annotationExists(ner, doc.ge)) {
-      String entityMention = mention.getText();
-      String entityContext = doc.getSentenceAtPosition(mention.getBegin()).get().toTokenizedString();
-      List<ArticleRef> candidates;
+    disambiguateMentions(Collections.singletonList(doc), source);
+  }
+
+  /**
+   * Attaches NamedEntityAnnotations to all Documents. Candidates are retrieved once per distinct surface form in
+   * parallel and all contexts of a surface form are scored against its candidates at once.
+   */
+  public void disambiguateMentions(Collection<Document> docs, Annotation.Source source) {
+    long t = Metrics.start();
+    List<Document> mentionDocs = new ArrayList<>();
+    List<MentionAnnotation> mentions = new ArrayList<>();
+    // indexes of all mentions with the same surface form
+    Map<String,List<Integer>> surfaces = new LinkedHashMap<>();
+    for(Document doc : docs) {
+      for(MentionAnnotation mention : doc.streamAnnotations(source, MentionAnnotation.class).collect(Collectors.toList())) {
+        surfaces.computeIfAbsent(mention.getText(), s -> new ArrayList<>()).add(mentions.size());
+        mentionDocs.add(doc);
+        mentions.add(mention);
+      }
+    }
+    // search: Lucene searchers are thread-safe
+    List<String> names = new ArrayList<>(surfaces.keySet());
+    List<List<ArticleRef>> candidates = names.parallelStream()
+      .map(this::queryCandidates)
+      .collect(Collectors.toList());
+    // disambiguate
+    ArticleRef[] best = new ArticleRef[mentions.size()];
+    for(int n = 0; n < names.size(); n++) {
+      List<Integer> idx = surfaces.get(names.get(n));
       if(index instanceof VectorArticleIndex) {
-        // get many top candidates from Lucene and rerank unsing vectors
-        candidates = ((VectorArticleIndex)index).querySimilarArticles(entityMention, entityContext, 1);
-      } else {
-        // get only top candidate from Lucene
-        candidates = index.queryNames(entityMention, 1);
+        // rerank candidates using vectors
+        List<String> contexts = new ArrayList<>(idx.size());
+        for(int i : idx) contexts.add(mentionDocs.get(i).getSentenceAtPosition(mentions.get(i).getBegin()).get().toTokenizedString());
+        List<List<ArticleRef>> ranked = ((VectorArticleIndex)index).rankSimilarArticles(names.get(n), contexts, candidates.get(n), 1);
+        for(int j = 0; j < idx.size(); j++) {
+          if(ranked.get(j).size() > 0) best[idx.get(j)] = ranked.get(j).get(0);
+        }
+      } else if(candidates.get(n).size() > 0) {
+        for(int i : idx) best[i] = candidates.get(n).get(0);
       }
-      if(candidates.size() > 0) {
+    }
+    for(int i = 0; i < mentions.size(); i++) {
+      NamedEntityAnnotation entity = new NamedEntityAnnotation(mentions.get(i), new ArrayList<>());
+      if(best[i] != null) {
         // TODO: this piece of code should be part of NamedEntityAnnotation!
-        entity.setRefName(candidates.get(0).getTitle());
-        entity.setRefId(candidates.get(0).getId());
-        entity.setRefUrl(candidates.get(0).getUrl());
+        entity.setRefName(best[i].getTitle());
+        entity.setRefId(best[i].getId());
+        entity.setRefUrl(best[i].getUrl());
       }
       //log.trace("adding ner result: " + entity.getText() + " (" + entity.getBegin() + "," + entity.getLength() + ") with id " + entity.getRefId());
       entity.setSource(Annotation.Source.PRED);
-      doc.addAnnotation(entity);
+      mentionDocs.get(i).addAnnotation(entity);
     }
+    Metrics.record(getClass(), "disambiguate", t, mentions.size());
+  }
+
+  /**
+   * @return many top candidates from Lucene to rerank using vectors, or only the top candidate otherwise
+   */
+  protected List<ArticleRef> queryCandidates(String mention) {
+    if(index instanceof VectorArticleIndex) return ((VectorArticleIndex)index).queryCandidates(mention);
+    else return index.queryNames(mention, 1);
   }
   
 }
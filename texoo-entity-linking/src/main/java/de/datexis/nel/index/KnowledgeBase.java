@@ -1,5 +1,7 @@
 package de.datexis.nel.index;
 
+import de.datexis.common.QueryCache;
+import de.datexis.common.Resource;
 import de.datexis.encoder.IEncoder;
 import de.datexis.nel.model.NamedEntity;
 import de.datexis.retrieval.index.IVectorIndex;
@@ -9,7 +11,12 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -31,6 +38,9 @@ public class KnowledgeBase {
   
   protected Map<String, NamedEntity> entities;
   
+  /** nearest entities of recent mentions, keys are not normalized because mention encoders may be case sensitive */
+  protected QueryCache<String, List<EntityCandidate>> cache = new QueryCache<>("KnowledgeBase.mentions", 10000, 1, TimeUnit.HOURS);
+  
   public KnowledgeBase(IEncoder mentionEncoder, IEncoder contextEncoder) {
     this.mentionEncoder = mentionEncoder;
     this.contextEncoder = contextEncoder;
@@ -40,6 +50,16 @@ public class KnowledgeBase {
   
   public void addEntity(NamedEntity entity) {
     entities.put(entity.getId(), entity);
+    cache.invalidate();
+  }
+  
+  /**
+   * Replace the cache of nearest entities.
+   * @param maxSize maximum number of cached mentions, or 0 to disable the cache
+   * @param ttl time to live of cached results, or 0 if results do not expire
+   */
+  public void setQueryCache(int maxSize, long ttl, TimeUnit unit) {
+    cache = new QueryCache<>("KnowledgeBase.mentions", maxSize, ttl, unit);
   }
   
   public void buildIndex() {
@@ -53,13 +73,40 @@ public class KnowledgeBase {
     });
     mentionIndex.buildKeyIndex(aliases.keySet(), false);
     mentionIndex.encodeAndBuildVectorIndex(aliases, false);
+    cache.invalidate();
+  }
+  
+  /**
+   * Load entities and mention index that were built with KnowledgeBaseBuilder.
+   * @param dir the output directory of the builder
+   */
+  public void loadIndex(Resource dir) throws IOException {
+    mentionIndex.loadModel(dir.resolve(KnowledgeBaseBuilder.MENTIONS_FILE));
+    entities.clear();
+    try(BufferedReader br = new BufferedReader(new InputStreamReader(dir.resolve(KnowledgeBaseBuilder.ENTITIES_FILE).getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while((line = br.readLine()) != null) {
+        if(!line.isEmpty()) addEntity(KnowledgeBaseBuilder.fromJSON(line));
+      }
+    }
+    cache.invalidate();
+    log.info("Loaded {} entities with {} mentions", countEntities(), countMentions());
   }
   
   public NamedEntity getEntity(String id) {
     return entities.get(id);
   }
   
+  /**
+   * @return a copy of the k entities with aliases nearest to the mention, cached until the index changes
+   */
   public List<EntityCandidate> findNearestEntities(String mention, int k) {
+    return cache.get(k + "\t" + mention, key -> searchNearestEntities(mention, k)).stream()
+      .map(EntityCandidate::new)
+      .collect(Collectors.toList());
+  }
+  
+  protected List<EntityCandidate> searchNearestEntities(String mention, int k) {
     INDArray key = mentionIndex.encode(mention);
     List<IVectorIndex.IndexEntry> entries = mentionIndex.find(key, k * 10);
     AtomicInteger idx = new AtomicInteger(0);
@@ -91,6 +138,14 @@ public class KnowledgeBase {
     public NamedEntity entity;
     public double similarity;
     
+    public EntityCandidate() {}
+    
+    public EntityCandidate(EntityCandidate other) {
+      this.index = other.index;
+      this.entity = other.entity;
+      this.similarity = other.similarity;
+    }
+    
     @Override
     public int compareTo(@NotNull EntityCandidate o) {
       return Double.compare(similarity, o.similarity);
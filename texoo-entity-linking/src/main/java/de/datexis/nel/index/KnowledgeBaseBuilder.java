@@ -0,0 +1,339 @@
+package de.datexis.nel.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.datexis.common.Resource;
+import de.datexis.common.Timer;
+import de.datexis.encoder.IEncoder;
+import de.datexis.index.WikiDataArticle;
+import de.datexis.nel.model.NamedEntity;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Builds the mention index of a KnowledgeBase on disk from a stream of entities, e.g. from a Wikidata dump. Entities
+ * are read in batches, their aliases are encoded in parallel (if the encoder is thread-safe) and written with their
+ * vectors to shards of bounded size, which are then merged into a single mention index. Only a bounded number of batches is held in memory, so
+ * peak heap during the build does not depend on the size of the knowledge base.
+ * Entity IDs must be unique in the stream. Load the result with KnowledgeBase.loadIndex().
+ */
+public class KnowledgeBaseBuilder {
+
+  protected final static Logger log = LoggerFactory.getLogger(KnowledgeBaseBuilder.class);
+
+  /** mention index in InMemoryIndex binary format */
+  public static final String MENTIONS_FILE = "mentions.bin";
+
+  /** entities as JSON lines */
+  public static final String ENTITIES_FILE = "entities.json.gz";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  protected final IEncoder mentionEncoder;
+
+  /** number of entities that are encoded in one task */
+  protected int batchSize = 1024;
+
+  /** maximum number of aliases per shard */
+  protected int shardSize = 100000;
+
+  /** number of encoder threads, only used if the mention encoder is thread-safe */
+  protected int threads = Runtime.getRuntime().availableProcessors();
+
+  public KnowledgeBaseBuilder(IEncoder mentionEncoder) {
+    this.mentionEncoder = mentionEncoder;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setShardSize(int shardSize) {
+    this.shardSize = shardSize;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @return the number of threads that encode in parallel, which is 1 if the mention encoder is not thread-safe
+   * (see IEncoder.isThreadSafe())
+   */
+  public int getThreads() {
+    return mentionEncoder.isThreadSafe() ? Math.max(1, threads) : 1;
+  }
+
+  /**
+   * Build the knowledge base from a dump of WikiDataArticles in JSON lines.
+   * @param dump the dump file, optionally compressed with gzip or bzip2
+   * @param dir the output directory
+   */
+  public void build(Resource dump, Resource dir) throws IOException {
+    log.info("Reading WikiData dump from {}", dump.toString());
+    try(BufferedReader br = new BufferedReader(new InputStreamReader(dump.getInputStream(), StandardCharsets.UTF_8));
+        Stream<NamedEntity> entities = br.lines()
+          .filter(line -> !line.isEmpty())
+          .map(KnowledgeBaseBuilder::convert)
+          .filter(Objects::nonNull)) {
+      build(entities.iterator(), dir);
+    }
+  }
+
+  /**
+   * Build the knowledge base from the given entities.
+   * @param dir the output directory
+   */
+  public void build(Iterator<NamedEntity> entities, Resource dir) throws IOException {
+    Timer timer = new Timer();
+    timer.start();
+    Files.createDirectories(dir.getPath());
+    List<Shard> shards = writeShards(entities, dir);
+    log.info("Wrote {} shards [{}]", shards.size(), Timer.millisToLongDHMS(timer.setSplit("shards")));
+    mergeShards(shards, dir.resolve(MENTIONS_FILE));
+    for(Shard shard : shards) {
+      Files.deleteIfExists(shard.keys.getPath());
+      Files.deleteIfExists(shard.vectors.getPath());
+    }
+    log.info("Merged mention index [{}]", Timer.millisToLongDHMS(timer.setSplit("merge")));
+  }
+
+  /**
+   * Read, encode and write all entities. Encoding runs in parallel, while batches are written in order.
+   */
+  protected List<Shard> writeShards(Iterator<NamedEntity> entities, Resource dir) throws IOException {
+    int threads = getThreads();
+    if(threads < this.threads) log.warn("{} is not thread-safe, encoding entities in a single thread", mentionEncoder.getClass().getSimpleName());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Deque<Future<EncodedBatch>> pending = new ArrayDeque<>();
+    List<Shard> shards = new ArrayList<>();
+    try(Writer entityWriter = new BufferedWriter(new OutputStreamWriter(dir.resolve(ENTITIES_FILE).getGZIPOutputStream(), StandardCharsets.UTF_8))) {
+      while(entities.hasNext()) {
+        List<NamedEntity> batch = new ArrayList<>(batchSize);
+        while(entities.hasNext() && batch.size() < batchSize) batch.add(entities.next());
+        pending.add(executor.submit(() -> encode(batch)));
+        // bound the number of batches in memory
+        while(pending.size() > 2 * threads) writeBatch(pending.poll(), shards, dir, entityWriter);
+      }
+      while(!pending.isEmpty()) writeBatch(pending.poll(), shards, dir, entityWriter);
+    } finally {
+      executor.shutdownNow();
+      for(Shard shard : shards) shard.close();
+    }
+    return shards;
+  }
+
+  private void writeBatch(Future<EncodedBatch> future, List<Shard> shards, Resource dir, Writer entityWriter) throws IOException {
+    EncodedBatch batch;
+    try {
+      batch = future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while encoding entities", e);
+    } catch(ExecutionException e) {
+      throw new IOException("could not encode entities", e.getCause());
+    }
+    for(NamedEntity entity : batch.entities) {
+      entityWriter.write(toJSON(entity));
+      entityWriter.write('\n');
+    }
+    for(int i = 0; i < batch.keys.size(); i++) {
+      if(shards.isEmpty() || shards.get(shards.size() - 1).size >= shardSize) {
+        if(!shards.isEmpty()) shards.get(shards.size() - 1).close();
+        shards.add(new Shard(dir, shards.size(), batch.dimension));
+        log.info("writing shard {}", shards.size() - 1);
+      }
+      shards.get(shards.size() - 1).write(batch.keys.get(i), batch.vectors[i]);
+    }
+  }
+
+  /**
+   * Encode all aliases of the given entities into normalized vectors with keys "ID.x".
+   */
+  protected EncodedBatch encode(List<NamedEntity> entities) {
+    List<String> keys = new ArrayList<>();
+    List<float[]> vectors = new ArrayList<>();
+    for(NamedEntity entity : entities) {
+      if(entity.getAliases() == null) continue;
+      int idx = 0;
+      for(String alias : entity.getAliases()) {
+        INDArray vec = mentionEncoder.encode(alias);
+        float[] data = vec.castTo(DataType.FLOAT).reshape(vec.length()).toFloatVector();
+        double norm = 0;
+        for(float f : data) norm += f * f;
+        if(norm > 0) {
+          float inv = (float) (1. / Math.sqrt(norm));
+          for(int i = 0; i < data.length; i++) data[i] *= inv;
+        }
+        keys.add(entity.getId() + "." + idx++);
+        vectors.add(data);
+      }
+    }
+    return new EncodedBatch(entities, keys, vectors.toArray(new float[0][]), (int) mentionEncoder.getEmbeddingVectorSize());
+  }
+
+  /**
+   * Merge all shards into a single InMemoryIndex binary model. Keys and vectors are streamed from the shards.
+   */
+  protected void mergeShards(List<Shard> shards, Resource output) throws IOException {
+    long numWords = 0;
+    for(Shard shard : shards) numWords += shard.size;
+    int dimension = (int) mentionEncoder.getEmbeddingVectorSize();
+    try(DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output.getOutputStream()))) {
+      writer.writeLong(numWords);
+      writer.writeLong(0);
+      writer.writeLong(dimension);
+      for(Shard shard : shards) {
+        try(DataInputStream reader = new DataInputStream(new BufferedInputStream(shard.keys.getInputStream()))) {
+          for(int i = 0; i < shard.size; i++) {
+            writer.writeUTF(reader.readUTF());
+            writer.writeDouble(1.0);
+          }
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+      float[] data = new float[dimension];
+      INDArray vec = Nd4j.create(DataType.FLOAT, 1, dimension);
+      for(Shard shard : shards) {
+        try(DataInputStream reader = new DataInputStream(new BufferedInputStream(shard.vectors.getInputStream()))) {
+          for(int i = 0; i < shard.size; i++) {
+            reader.readFully(buffer.array());
+            buffer.asFloatBuffer().get(data);
+            vec.data().setData(data);
+            Nd4j.write(vec, writer);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the entity as JSON object with id, name, aliases, description and links
+   */
+  public static String toJSON(NamedEntity entity) throws IOException {
+    ObjectNode node = mapper.createObjectNode();
+    node.put("id", entity.getId());
+    node.put("name", entity.getName());
+    ArrayNode aliases = node.putArray("aliases");
+    if(entity.getAliases() != null) entity.getAliases().forEach(aliases::add);
+    node.put("description", entity.getDescription());
+    ObjectNode links = node.putObject("links");
+    for(Map.Entry<String, Collection<String>> link : entity.getLinks().asMap().entrySet()) {
+      ArrayNode values = links.putArray(link.getKey());
+      link.getValue().forEach(values::add);
+    }
+    return mapper.writeValueAsString(node);
+  }
+
+  /**
+   * @return the entity from a JSON object that was written with toJSON()
+   */
+  public static NamedEntity fromJSON(String json) throws IOException {
+    JsonNode node = mapper.readTree(json);
+    NamedEntity entity = new NamedEntity();
+    entity.setId(node.path("id").asText(null));
+    entity.setName(node.path("name").asText(null));
+    List<String> aliases = new ArrayList<>();
+    node.path("aliases").forEach(alias -> aliases.add(alias.asText()));
+    entity.setAliases(aliases);
+    entity.setDescription(node.path("description").asText(null));
+    Iterator<Map.Entry<String, JsonNode>> links = node.path("links").fields();
+    while(links.hasNext()) {
+      Map.Entry<String, JsonNode> link = links.next();
+      link.getValue().forEach(value -> entity.addLink(link.getKey(), value.asText()));
+    }
+    return entity;
+  }
+
+  /**
+   * @return a NamedEntity with all names of a WikiDataArticle in JSON, or null if it could not be parsed
+   */
+  private static NamedEntity convert(String json) {
+    try {
+      WikiDataArticle article = mapper.readerFor(WikiDataArticle.class).readValue(json);
+      NamedEntity entity = new NamedEntity();
+      entity.setId(article.getId());
+      entity.setName(article.getTitle());
+      Set<String> aliases = new LinkedHashSet<>();
+      if(article.getTitle() != null) aliases.add(article.getTitle());
+      if(article.getNames() != null) aliases.addAll(article.getNames());
+      entity.setAliases(new ArrayList<>(aliases));
+      entity.setDescription(article.getDescription());
+      if(article.getRefIDs() != null) article.getRefIDs().forEach(entity::addLink);
+      return entity;
+    } catch(IOException ex) {
+      log.warn("Could not parse JSON: " + ex.toString());
+    }
+    return null;
+  }
+
+  protected static class EncodedBatch {
+    final List<NamedEntity> entities;
+    final List<String> keys;
+    final float[][] vectors;
+    final int dimension;
+    EncodedBatch(List<NamedEntity> entities, List<String> keys, float[][] vectors, int dimension) {
+      this.entities = entities;
+      this.keys = keys;
+      this.vectors = vectors;
+      this.dimension = dimension;
+    }
+  }
+
+  /**
+   * Files with keys and raw vectors of a bounded number of aliases.
+   */
+  protected static class Shard {
+
+    final Resource keys, vectors;
+    final int dimension;
+    int size = 0;
+    private DataOutputStream keyWriter, vectorWriter;
+    private final ByteBuffer buffer;
+
+    Shard(Resource dir, int num, int dimension) throws IOException {
+      String name = String.format(Locale.ROOT, "shard-%05d", num);
+      this.keys = dir.resolve(name + ".keys");
+      this.vectors = dir.resolve(name + ".vectors");
+      this.dimension = dimension;
+      this.buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+      this.keyWriter = new DataOutputStream(new BufferedOutputStream(keys.getOutputStream()));
+      this.vectorWriter = new DataOutputStream(new BufferedOutputStream(vectors.getOutputStream()));
+    }
+
+    void write(String key, float[] vector) throws IOException {
+      if(vector.length != dimension) throw new IllegalArgumentException("vector of key '" + key + "' has size " + vector.length);
+      keyWriter.writeUTF(key);
+      buffer.clear();
+      buffer.asFloatBuffer().put(vector);
+      vectorWriter.write(buffer.array());
+      size++;
+    }
+
+    void close() throws IOException {
+      if(keyWriter == null) return;
+      keyWriter.close();
+      vectorWriter.close();
+      keyWriter = null;
+      vectorWriter = null;
+    }
+
+  }
+
+}
@@ -57,7 +57,36 @@ public class LuceneArticleReaderTest {
     art = index.queryNames("arts fine", 10);
     assertEquals(1, art.size());
   }
-    
+
+  @Test
+  public void testAliasQueries() throws IOException {
+    Resource file = Resource.fromJAR("models/Articles_en_Wikidata_250_20170828.txt");
+    LuceneArticleIndex index = ArticleIndexFactory.loadWikiDataIndex(file);
+    index.setAliasIndex(true);
+    assertTrue(index.getAliasIndex().size() > 250);
+    List<ArticleRef> art;
+    art = index.queryNames("Berlin", 10);
+    assertEquals("Q64", art.get(0).getId());
+    assertEquals(1., art.get(0).getScore(), 1e-9);
+    art = index.queryNames("Sebastian", 10); // partial name
+    assertEquals("Q306", art.get(0).getId());
+    art = index.queryNames("Eurovision Song Contest", 10);
+    assertEquals("Q276", art.get(0).getId());
+    art = index.queryNames("Ubuntu Linux", 10);
+    assertEquals("Q381", art.get(0).getId());
+    art = index.queryNames("Ubnutu", 10); // typo
+    assertEquals("Q381", art.get(0).getId());
+    art = index.queryNames("Eurovison Song Contset", 10); // typos
+    assertEquals("Q276", art.get(0).getId());
+    art = index.queryNames("xyzzy", 10);
+    assertEquals(0, art.size());
+    // disabled alias index uses phrase queries again
+    index.setAliasIndex(false);
+    assertNull(index.getAliasIndex());
+    art = index.queryNames("Ubnutu", 10);
+    assertEquals(0, art.size());
+  }
+
   @Test
   public void testIDQueries() throws IOException {
     Resource file = Resource.fromJAR("models/Articles_en_Wikidata_250_20170828.txt");
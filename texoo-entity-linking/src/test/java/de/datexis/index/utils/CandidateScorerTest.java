@@ -0,0 +1,109 @@
+package de.datexis.index.utils;
+
+import de.datexis.index.ArticleRef;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CandidateScorerTest {
+
+  private static ArticleRef ref(String id, INDArray vec) {
+    ArticleRef ref = new ArticleRef();
+    ref.setId(id);
+    ref.setVector(vec);
+    return ref;
+  }
+
+  /**
+   * Reference scoring with cosine similarity of every candidate, repeated to the size of the embedding.
+   * @return scores [ embeddings X candidates ]
+   */
+  private static double[][] scoreAll(List<ArticleRef> candidates, List<INDArray> embeddings) {
+    double[][] scores = new double[embeddings.size()][candidates.size()];
+    for(int e = 0; e < embeddings.size(); e++) {
+      float[] mention = embeddings.get(e).castTo(DataType.FLOAT).reshape(embeddings.get(e).length()).toFloatVector();
+      for(int c = 0; c < candidates.size(); c++) {
+        INDArray vector = candidates.get(c).getVector();
+        if(vector == null) continue;
+        float[] entity = vector.castTo(DataType.FLOAT).reshape(vector.length()).toFloatVector();
+        double dot = 0, mentionNorm = 0, entityNorm = 0;
+        for(int i = 0; i < mention.length; i++) {
+          float f = entity[i % entity.length];
+          dot += f * mention[i];
+          mentionNorm += mention[i] * mention[i];
+          entityNorm += f * f;
+        }
+        double score = dot / Math.sqrt(mentionNorm * entityNorm);
+        scores[e][c] = Double.isFinite(score) ? score : 0.;
+      }
+    }
+    return scores;
+  }
+
+  @Test
+  public void testTopKMatchesFullScoring() {
+    Nd4j.getRandom().setSeed(42);
+    List<ArticleRef> candidates = new ArrayList<>();
+    for(int c = 0; c < 50; c++) candidates.add(ref("Q" + c, Nd4j.randn(DataType.FLOAT, 1, 8)));
+    candidates.add(ref("Q50", null));
+    candidates.add(ref("Q51", Nd4j.zeros(DataType.FLOAT, 1, 8)));
+    List<INDArray> embeddings = new ArrayList<>();
+    for(int e = 0; e < 4; e++) embeddings.add(Nd4j.randn(DataType.FLOAT, 1, 16));
+    double[][] expected = scoreAll(candidates, embeddings);
+    CandidateScorer scorer = new CandidateScorer();
+    // second call uses cached vectors and the reused matrix
+    for(int run = 0; run < 2; run++) {
+      List<CandidateScorer.Ranking> rankings = scorer.topK(candidates, embeddings, 5);
+      assertEquals(4, rankings.size());
+      for(int e = 0; e < 4; e++) {
+        Integer[] order = new Integer[candidates.size()];
+        for(int c = 0; c < order.length; c++) order[c] = c;
+        double[] scores = expected[e];
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        CandidateScorer.Ranking ranking = rankings.get(e);
+        assertEquals(5, ranking.size());
+        for(int r = 0; r < 5; r++) {
+          assertEquals((int) order[r], ranking.index[r]);
+          assertEquals(scores[order[r]], ranking.score[r], 1e-5);
+        }
+      }
+    }
+    assertEquals(52, scorer.size());
+    scorer.invalidate();
+    assertEquals(0, scorer.size());
+  }
+
+  @Test
+  public void testEqualScoresKeepCandidateOrder() {
+    List<ArticleRef> candidates = new ArrayList<>();
+    candidates.add(ref("A", null));
+    candidates.add(ref("B", Nd4j.create(new float[] {0f, 1f})));
+    candidates.add(ref("C", Nd4j.zeros(DataType.FLOAT, 1, 2)));
+    candidates.add(ref("D", Nd4j.create(new float[] {0f, 2f})));
+    candidates.add(ref("E", Nd4j.create(new float[] {1f, 0f})));
+    List<INDArray> embeddings = Collections.singletonList(Nd4j.create(new float[] {0f, 1f, 0f, 1f}));
+    CandidateScorer.Ranking ranking = new CandidateScorer(0).topK(candidates, embeddings, 10).get(0);
+    assertArrayEquals(new int[] {1, 3, 0, 2, 4}, ranking.index);
+    assertEquals(1., ranking.score[0], 1e-6);
+    assertEquals(1., ranking.score[1], 1e-6);
+    assertEquals(0., ranking.score[4], 1e-6);
+  }
+
+  @Test
+  public void testEmpty() {
+    CandidateScorer scorer = new CandidateScorer();
+    List<INDArray> embeddings = Collections.singletonList(Nd4j.create(new float[] {1f, 1f}));
+    assertEquals(0, scorer.topK(new ArrayList<>(), embeddings, 3).get(0).size());
+    // embedding without information scores 0 and keeps candidate order
+    List<ArticleRef> candidates = Arrays.asList(ref("A", Nd4j.create(new float[] {1f})), ref("B", Nd4j.create(new float[] {2f})));
+    CandidateScorer.Ranking ranking = scorer.topK(candidates, Collections.singletonList(Nd4j.zeros(DataType.FLOAT, 1, 2)), 3).get(0);
+    assertArrayEquals(new int[] {0, 1}, ranking.index);
+    assertEquals(0., ranking.score[0], 0.);
+  }
+
+}
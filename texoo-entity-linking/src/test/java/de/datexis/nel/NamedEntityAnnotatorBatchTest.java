@@ -0,0 +1,219 @@
+package de.datexis.nel;
+
+import de.datexis.index.ArticleIndex;
+import de.datexis.index.ArticleRef;
+import de.datexis.index.WikiDataArticle;
+import de.datexis.index.impl.LuceneArticleIndex;
+import de.datexis.index.impl.VectorArticleIndex;
+import de.datexis.model.Annotation;
+import de.datexis.model.Document;
+import de.datexis.ner.MentionAnnotation;
+import de.datexis.preprocess.DocumentFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that batched disambiguation of many Documents links every mention like the former per-mention loop.
+ */
+public class NamedEntityAnnotatorBatchTest {
+
+  private List<Document> docs;
+
+  /** candidates of the vector index by surface form, the keyword in the title decides the context */
+  private final Map<String, List<ArticleRef>> candidates = new HashMap<>();
+
+  @Before
+  public void init() {
+    docs = Arrays.asList(
+      createDocument("Paris is the capital of France. Berlin is a city in Germany.", "Paris", "Berlin"),
+      createDocument("Paris is a small town in Texas. Xyzzy is not known at all.", "Paris", "Xyzzy"),
+      createDocument("Paris is the capital of France. Paris has many museums.", "Paris", "Paris")
+    );
+    candidates.put("Paris", Arrays.asList(createRef("Q830149", "Paris (Texas)"), createRef("Q90", "Paris (France)")));
+    candidates.put("Berlin", Collections.singletonList(createRef("Q64", "Berlin (Germany)")));
+  }
+
+  /**
+   * @return a Document with a GOLD MentionAnnotation for every occurrence of the given mentions in order
+   */
+  private static Document createDocument(String text, String... mentions) {
+    Document doc = DocumentFactory.fromText(text);
+    int from = 0;
+    for(String mention : mentions) {
+      int begin = doc.getText().indexOf(mention, from);
+      doc.addAnnotation(new MentionAnnotation(Annotation.Source.GOLD, mention, begin, begin + mention.length()));
+      from = begin + mention.length();
+    }
+    return doc;
+  }
+
+  private static ArticleRef createRef(String id, String title) {
+    ArticleRef ref = new ArticleRef();
+    ref.setId(id);
+    ref.setTitle(title);
+    ref.setUrl("https://www.wikidata.org/wiki/" + id);
+    return ref;
+  }
+
+  /**
+   * Ranks candidates whose title keyword occurs in the context first, and keeps the candidate order otherwise.
+   */
+  private static List<List<ArticleRef>> rank(List<String> contexts, List<ArticleRef> refs, int hits) {
+    List<List<ArticleRef>> result = new ArrayList<>();
+    for(String context : contexts) {
+      List<ArticleRef> ranked = new ArrayList<>();
+      for(ArticleRef ref : refs) {
+        ArticleRef copy = new ArticleRef(ref);
+        String keyword = ref.getTitle().replaceAll(".*\\((.*)\\)", "$1");
+        copy.setScore(context.contains(keyword) ? 1. : 0.);
+        ranked.add(copy);
+      }
+      ranked.sort(Comparator.comparingDouble(ArticleRef::getScore).reversed());
+      result.add(new ArrayList<>(ranked.subList(0, Math.min(hits, ranked.size()))));
+    }
+    return result;
+  }
+
+  private VectorArticleIndex createVectorIndex() {
+    VectorArticleIndex index = mock(VectorArticleIndex.class);
+    when(index.queryCandidates(anyString())).thenAnswer(inv ->
+      candidates.getOrDefault(inv.<String>getArgument(0), Collections.emptyList()));
+    when(index.rankSimilarArticles(anyString(), anyList(), anyList(), anyInt())).thenAnswer(inv ->
+      rank(inv.getArgument(1), inv.getArgument(2), inv.<Integer>getArgument(3)));
+    when(index.querySimilarArticles(anyString(), anyString(), anyInt())).thenAnswer(inv ->
+      rank(Collections.singletonList(inv.getArgument(1)), index.queryCandidates(inv.getArgument(0)), inv.<Integer>getArgument(2)).get(0));
+    return index;
+  }
+
+  private static LuceneArticleIndex createLuceneIndex() {
+    List<WikiDataArticle> articles = new ArrayList<>();
+    articles.add(createArticle("Q90", "Paris", "capital of France"));
+    articles.add(createArticle("Q64", "Berlin", "capital of Germany"));
+    LuceneArticleIndex index = new LuceneArticleIndex();
+    index.createIndexRAM(articles.iterator());
+    return index;
+  }
+
+  private static WikiDataArticle createArticle(String id, String title, String description) {
+    Map<String, String> refIDs = new TreeMap<>();
+    refIDs.put("wikidata", id);
+    refIDs.put("wikipedia", title);
+    return new WikiDataArticle(id, title, "entity", refIDs, new TreeMap<>(), description,
+      new TreeSet<>(Collections.singleton(title)), new TreeSet<>());
+  }
+
+  /**
+   * Former disambiguation with one search per mention.
+   */
+  private static void disambiguateEach(ArticleIndex index, Document doc, Annotation.Source source) {
+    List<MentionAnnotation> anns = doc.streamAnnotations(source, MentionAnnotation.class).collect(Collectors.toList());
+    for(MentionAnnotation mention : anns) {
+      NamedEntityAnnotation entity = new NamedEntityAnnotation(mention, new ArrayList<>());
+      String entityMention = mention.getText();
+      String entityContext = doc.getSentenceAtPosition(mention.getBegin()).get().toTokenizedString();
+      List<ArticleRef> refs;
+      if(index instanceof VectorArticleIndex) refs = ((VectorArticleIndex) index).querySimilarArticles(entityMention, entityContext, 1);
+      else refs = index.queryNames(entityMention, 1);
+      if(refs.size() > 0) {
+        entity.setRefName(refs.get(0).getTitle());
+        entity.setRefId(refs.get(0).getId());
+        entity.setRefUrl(refs.get(0).getUrl());
+      }
+      entity.setSource(Annotation.Source.PRED);
+      doc.addAnnotation(entity);
+    }
+  }
+
+  /**
+   * @return "document begin refId refName" of all predicted entities in all Documents, and clears the predictions
+   */
+  private List<String> collectLinks() {
+    List<String> links = new ArrayList<>();
+    for(int d = 0; d < docs.size(); d++) {
+      Document doc = docs.get(d);
+      String prefix = d + " ";
+      doc.streamAnnotations(Annotation.Source.PRED, NamedEntityAnnotation.class)
+        .sorted(Comparator.comparingInt(NamedEntityAnnotation::getBegin))
+        .forEach(ann -> links.add(prefix + ann.getBegin() + " " + ann.getRefId() + " " + ann.getRefName()));
+      doc.clearAnnotations(Annotation.Source.PRED, NamedEntityAnnotation.class);
+    }
+    return links;
+  }
+
+  private List<String> disambiguateBatched(ArticleIndex index) {
+    new NamedEntityAnnotator(null, index).disambiguateMentions(docs, Annotation.Source.GOLD);
+    return collectLinks();
+  }
+
+  private List<String> disambiguateEach(ArticleIndex index) {
+    for(Document doc : docs) disambiguateEach(index, doc, Annotation.Source.GOLD);
+    return collectLinks();
+  }
+
+  private NamedEntityAnnotation getEntity(Document doc, int mention) {
+    return doc.streamAnnotations(Annotation.Source.PRED, NamedEntityAnnotation.class)
+      .sorted(Comparator.comparingInt(NamedEntityAnnotation::getBegin))
+      .collect(Collectors.toList())
+      .get(mention);
+  }
+
+  @Test
+  public void testVectorIndexEqualsPerMention() {
+    VectorArticleIndex index = createVectorIndex();
+    List<String> expected = disambiguateEach(index);
+    List<String> actual = disambiguateBatched(index);
+    assertEquals(6, actual.size());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testContextsOfSurfaceForm() {
+    new NamedEntityAnnotator(null, createVectorIndex()).disambiguateMentions(docs, Annotation.Source.GOLD);
+    // the same surface form is linked by its context
+    assertEquals("Q90", getEntity(docs.get(0), 0).getRefId());
+    assertEquals("Q830149", getEntity(docs.get(1), 0).getRefId());
+    assertEquals("Paris (Texas)", getEntity(docs.get(1), 0).getRefName());
+    // repeated across Documents and within a Document
+    assertEquals("Q90", getEntity(docs.get(2), 0).getRefId());
+    assertEquals("Paris (France)", getEntity(docs.get(2), 0).getRefName());
+    assertEquals("Q830149", getEntity(docs.get(2), 1).getRefId());
+    assertEquals("Q64", getEntity(docs.get(0), 1).getRefId());
+  }
+
+  @Test
+  public void testMentionWithoutCandidates() {
+    new NamedEntityAnnotator(null, createVectorIndex()).disambiguateMentions(docs, Annotation.Source.GOLD);
+    NamedEntityAnnotation entity = getEntity(docs.get(1), 1);
+    assertEquals("Xyzzy", entity.getText());
+    assertNull(entity.getRefId());
+    assertNull(entity.getRefName());
+    assertEquals(Annotation.Source.PRED, entity.getSource());
+  }
+
+  @Test
+  public void testLuceneIndexEqualsPerMention() {
+    LuceneArticleIndex index = createLuceneIndex();
+    List<String> expected = disambiguateEach(index);
+    List<String> actual = disambiguateBatched(index);
+    assertEquals(6, actual.size());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testSingleDocumentEqualsBatch() {
+    VectorArticleIndex index = createVectorIndex();
+    List<String> batched = disambiguateBatched(index);
+    NamedEntityAnnotator annotator = new NamedEntityAnnotator(null, index);
+    for(Document doc : docs) annotator.disambiguateMentions(doc, Annotation.Source.GOLD);
+    assertEquals(batched, collectLinks());
+  }
+
+}
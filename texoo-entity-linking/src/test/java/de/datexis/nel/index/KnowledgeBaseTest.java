@@ -1,14 +1,18 @@
 package de.datexis.nel.index;
 
 import com.google.common.collect.Lists;
+import de.datexis.common.Resource;
 import de.datexis.encoder.impl.TrigramEncoder;
 import de.datexis.nel.model.NamedEntity;
 import de.datexis.preprocess.DocumentFactory;
 import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -64,6 +68,10 @@ public class KnowledgeBaseTest {
     assertThat(candidates.get(0).similarity, greaterThan(0.99));
     assertThat(result, not(containsInRelativeOrder(e1)));
   
+    // cached candidates are not modified through the returned copies
+    candidates.get(0).similarity = -1;
+    assertThat(kb.findNearestEntities("Aspirin", 10).get(0).similarity, greaterThan(0.99));
+    
     candidates = kb.findNearestEntities("Paracetamol", 10);
     System.out.println(candidates);
     assertThat(candidates.size(), greaterThan(0));
@@ -82,4 +90,99 @@ public class KnowledgeBaseTest {
     
   }
   
+  @Test
+  public void testBuildShards() throws IOException {
+    
+    TrigramEncoder tri = new TrigramEncoder();
+    tri.trainModel(Lists.newArrayList(DocumentFactory.fromText("Paracetamol, also known as acetaminophen and APAP, is a medication used to treat pain and fever. Aspirin (ASA) is used to treat pyrexia, it is a medicine or drug called Acetamol.")));
+    
+    List<NamedEntity> entities = Lists.newArrayList();
+    String[][] names = {
+      {"Q57055", "acetaminophen", "Paracetamol", "Acetamol"},
+      {"Q18216", "aspirin", "Aspirin", "ASA"},
+      {"Q1", "fever", "pyrexia"},
+      {"Q2", "pain"},
+      {"Q3", "medication", "medicine", "drug"}
+    };
+    for(String[] n : names) {
+      NamedEntity e = new NamedEntity();
+      e.setId(n[0]);
+      e.setName(n[1]);
+      e.addLink("wikidata", n[0]);
+      e.setAliases(Lists.newArrayList(n).subList(1, n.length));
+      entities.add(e);
+    }
+    
+    KnowledgeBase expected = new KnowledgeBase(tri, tri);
+    entities.forEach(expected::addEntity);
+    expected.buildIndex();
+    
+    // two entities per batch and three aliases per shard
+    Resource dir = Resource.createTempDirectory();
+    KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder(tri);
+    builder.setBatchSize(2);
+    builder.setShardSize(3);
+    builder.setThreads(2);
+    builder.build(entities.iterator(), dir);
+    KnowledgeBase kb = new KnowledgeBase(tri, tri);
+    kb.loadIndex(dir);
+    
+    assertThat(kb.countEntities(), is(5));
+    assertThat(kb.countMentions(), is(expected.countMentions()));
+    assertThat(kb.getEntity("Q57055").getAliases(), contains("acetaminophen", "Paracetamol", "Acetamol"));
+    assertThat(kb.getEntity("Q57055").getLinks("wikidata"), contains("Q57055"));
+    for(String mention : Lists.newArrayList("Aspirin", "Paracetamol", "ace", "medicine")) {
+      List<KnowledgeBase.EntityCandidate> result = kb.findNearestEntities(mention, 3);
+      List<KnowledgeBase.EntityCandidate> target = expected.findNearestEntities(mention, 3);
+      assertThat(result.size(), is(target.size()));
+      for(int i = 0; i < result.size(); i++) {
+        assertThat(result.get(i).entity.getId(), is(target.get(i).entity.getId()));
+        assertThat(result.get(i).similarity, closeTo(target.get(i).similarity, 1e-5));
+      }
+    }
+    
+  }
+  
+  @Test
+  public void testBuildWithNonThreadSafeEncoder() throws IOException {
+    
+    AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+    TrigramEncoder tri = new TrigramEncoder() {
+      @Override
+      public boolean isThreadSafe() {
+        return false;
+      }
+      @Override
+      public INDArray encode(String phrase) {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(1);
+          return super.encode(phrase);
+        } catch(InterruptedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          active.decrementAndGet();
+        }
+      }
+    };
+    tri.trainModel(Lists.newArrayList(DocumentFactory.fromText("Paracetamol, also known as acetaminophen and APAP, is a medication used to treat pain and fever.")));
+    
+    List<NamedEntity> entities = Lists.newArrayList();
+    for(int i = 0; i < 20; i++) {
+      NamedEntity e = new NamedEntity();
+      e.setId("Q" + i);
+      e.setName("medication " + i);
+      e.setAliases(Lists.newArrayList("medication " + i, "paracetamol " + i));
+      entities.add(e);
+    }
+    
+    KnowledgeBaseBuilder builder = new KnowledgeBaseBuilder(tri);
+    builder.setBatchSize(1);
+    builder.setThreads(4);
+    assertThat(builder.getThreads(), is(1));
+    builder.build(entities.iterator(), Resource.createTempDirectory());
+    assertThat(maxActive.get(), is(1));
+    
+  }
+  
 }
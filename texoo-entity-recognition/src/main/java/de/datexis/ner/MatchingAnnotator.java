@@ -1,6 +1,7 @@
 package de.datexis.ner;
 
 import de.datexis.annotator.Annotator;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.common.WordHelpers;
 import de.datexis.model.Annotation;
@@ -198,7 +199,10 @@ public class MatchingAnnotator extends Annotator {
    * @param source - the type of annotations to create, e.g. SILVER
    */
   public void annotate(Iterable<Document> docs, Annotation.Source source) {
+    long t = Metrics.start();
+    long n = 0;
     for(Document doc : docs) {
+      n++;
       // see http://stringsearchalgorithms.amygdalum.net/
       String text = doc.getText();
       if(matchingStrategy.equals(MatchingStrategy.LOWERCASE)) text = convertToLowercase(doc.getText());
@@ -227,6 +231,7 @@ public class MatchingAnnotator extends Annotator {
         }
       }
     }
+    Metrics.record(getClass(), "annotate", t, n);
   }
 
   /**
@@ -2,6 +2,7 @@ package de.datexis.ner;
 
 import com.google.common.collect.Lists;
 import de.datexis.annotator.Annotator;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.common.Timer;
 import de.datexis.common.WordHelpers;
@@ -57,10 +58,12 @@ public class MentionAnnotator extends Annotator {
     // 1. Encode Tokens using an Iterator with Encoders and Tagset
     //Document2MentionIterator it = new Document2MentionIterator(docs, "", tagger.getEncoders(), tagger.getTagset(), -1, 10, false);
     // 2. Tag Documents using a Tagger
+    long t = Metrics.start();
     getTagger().tag(docs);
     
     // 3. Annotate documents using an Annotator
     createAnnotations(docs, Annotation.Source.PRED);
+    Metrics.record(getClass(), "annotate", t, docs.size());
     //timer.stop();
     //log.debug("Annotated " + data.countSentences() + " sentences, " + data.countAnnotations(Annotation.Source.PRED) + " mentions [" + timer.get() + " total]");
   }
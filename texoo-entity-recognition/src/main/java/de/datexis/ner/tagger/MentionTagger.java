@@ -1,6 +1,7 @@
 package de.datexis.ner.tagger;
 
 import com.google.common.collect.Lists;
+import de.datexis.common.Metrics;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncoderSet;
 import de.datexis.encoder.EncodingHelpers;
@@ -54,7 +55,6 @@ public class MentionTagger extends Tagger {
 
   protected static final Logger log = LoggerFactory.getLogger(MentionTagger.class);
   
-  protected int workers = 1;
   
   protected Class<? extends Tag> tagset = BIOESTag.class;
   protected String type = Tag.GENERIC;
@@ -202,17 +202,7 @@ public class MentionTagger extends Tagger {
     appendTrainLog("Training " + getName() + " with " + it.numExamples() + " examples in " + batches + " batches for " + numEpochs + " epochs.");
     
     // ParallelWrapper will take care of load balancing between GPUs.
-    ParallelWrapper wrapper = null;
-    if(workers > 1) {
-      wrapper = new ParallelWrapper.Builder(net)
-        .prefetchBuffer(workers * 4)  // DataSets prefetching options. Set this value with respect to number of actual devices
-        .workers(workers)          // set number of workers equal or higher then number of available devices. x1-x2 are good values to start with
-        //.averagingFrequency(1) // rare averaging improves performance, but might reduce model accuracy
-        //.reportScoreAfterAveraging(false) // if set to TRUE, on every averaging model score will be reported
-        .trainingMode(ParallelWrapper.TrainingMode.AVERAGING)
-        .workspaceMode(WorkspaceMode.ENABLED)
-        .build();
-    }
+    ParallelWrapper wrapper = createParallelWrapper();
     timer.start();
 		for(int i = 1; i <= numEpochs; i++) {
       timer.setSplit("epoch");
@@ -226,6 +216,7 @@ public class MentionTagger extends Tagger {
 			appendTrainLog("Completed epoch " + i + " of " + numEpochs + "\t" + n, timer.getLong("epoch"));
       it.reset();
 		}
+    if(wrapper != null) wrapper.shutdown();
     timer.stop();
 		appendTrainLog("Training complete", timer.getLong());
     setModelAvailable(true);
@@ -240,6 +231,7 @@ public class MentionTagger extends Tagger {
   @Override
   public void tag(Collection<Document> documents) {
     log.debug("Labeling Documents...");
+    long start = Metrics.start();
     MentionTaggerIterator it = new MentionTaggerIterator(documents, "train", getEncoderSet(), tagset, -1, batchSize, false);
     it.reset();
 		while(it.hasNext()) {
@@ -265,6 +257,7 @@ public class MentionTagger extends Tagger {
       doc.setTagAvailable(Annotation.Source.PRED, it.getTagset(), true);
       if(!tagset.equals(BIO2Tag.class)) doc.setTagAvailable(Annotation.Source.PRED, BIO2Tag.class, true);
     }
+    Metrics.record(getClass(), "tag", start, documents.size());
   }
   
   public void tagSentences(Collection<Sentence> sentences) {
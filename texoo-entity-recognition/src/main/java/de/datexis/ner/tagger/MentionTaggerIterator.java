@@ -83,8 +83,7 @@ public class MentionTaggerIterator extends CachedSentenceIterator {
         //log.trace(example.get(t).toString());
         featuresMask.put(batchNum, t, 1); // mark this word as used
         labelsMask.put(batchNum, t, 1); // mark this word as labeled
-        INDArray inputEncoding = example.getToken(t).getVector(encoders);
-        EncodingHelpers.putTimeStep(result.getFeatures(), batchNum, t, inputEncoding);
+        example.getToken(t).getVector(encoders, EncodingHelpers.getTimeStepView(result.getFeatures(), batchNum, t));
         Tag goldLabel = example.getToken(t).getTag(source, tagset);
         EncodingHelpers.putTimeStep(result.getLabels(), batchNum, t, goldLabel.getVector());
         //System.out.println(batchNum + ": " + example.getToken(t).getText() + "\t" + inputEncoding.sumNumber().toString() + "\t" + goldLabel.getVector().toString());
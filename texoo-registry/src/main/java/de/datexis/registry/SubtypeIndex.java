@@ -0,0 +1,80 @@
+package de.datexis.registry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the subtype index that was generated by SubtypeProcessor at build time. Every JAR or
+ * class folder on the classpath contributes its own index file, so lookup cost only depends on
+ * the number of registered classes and not on the size of the classpath.
+ */
+public class SubtypeIndex {
+
+  /** location of the index files, followed by the binary name of the base type */
+  public static final String INDEX_PATH = "META-INF/texoo/subtypes/";
+
+  private static final Map<Class<?>,Set<? extends Class<?>>> cache = new ConcurrentHashMap<>();
+
+  private SubtypeIndex() {}
+
+  /**
+   * @return all indexed subtypes of the given base type (not including the base type itself).
+   * Classes that are listed in the index but can't be loaded are skipped.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Set<Class<? extends T>> getSubTypesOf(Class<T> base) {
+    return (Set<Class<? extends T>>) cache.computeIfAbsent(base, b -> load(base, classLoader()));
+  }
+
+  /**
+   * @return true if there is at least one index for the given base type on the classpath
+   */
+  public static boolean isAvailable(Class<?> base) {
+    try {
+      return classLoader().getResources(INDEX_PATH + base.getName()).hasMoreElements();
+    } catch(IOException ex) {
+      return false;
+    }
+  }
+
+  private static ClassLoader classLoader() {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    return loader != null ? loader : SubtypeIndex.class.getClassLoader();
+  }
+
+  private static <T> Set<Class<? extends T>> load(Class<T> base, ClassLoader loader) {
+    Set<Class<? extends T>> result = new LinkedHashSet<>();
+    try {
+      Enumeration<URL> indexes = loader.getResources(INDEX_PATH + base.getName());
+      while(indexes.hasMoreElements()) {
+        URL url = indexes.nextElement();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+          String line;
+          while((line = reader.readLine()) != null) {
+            String name = line.trim();
+            if(name.isEmpty() || name.startsWith("#")) continue;
+            try {
+              Class<?> c = Class.forName(name, false, loader);
+              if(base.isAssignableFrom(c) && !base.equals(c)) result.add(c.asSubclass(base));
+            } catch(ClassNotFoundException | LinkageError ex) {
+              // stale entry from a removed class
+            }
+          }
+        }
+      }
+    } catch(IOException ex) {
+      throw new IllegalStateException("Could not read subtype index for " + base.getName(), ex);
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+}
@@ -0,0 +1,132 @@
+package de.datexis.registry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that records all compiled subtypes of the TeXoo extension points
+ * (Span, Annotator, AnnotatorComponent) in META-INF/texoo/subtypes/. The index is read by
+ * SubtypeIndex at runtime, so that no classpath scan is required on startup.
+ * The processor is discovered automatically by javac for every module depending on texoo-registry.
+ */
+@SupportedAnnotationTypes("*")
+public class SubtypeProcessor extends AbstractProcessor {
+
+  /** base types that are indexed */
+  public static final String[] BASE_TYPES = {
+    "de.datexis.model.Span",
+    "de.datexis.annotator.Annotator",
+    "de.datexis.annotator.AnnotatorComponent"
+  };
+
+  private final Map<String,Set<String>> subtypes = new TreeMap<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if(roundEnv.processingOver()) {
+      writeIndex();
+    } else {
+      Elements elements = processingEnv.getElementUtils();
+      Types types = processingEnv.getTypeUtils();
+      for(String base : BASE_TYPES) {
+        TypeElement baseElement = elements.getTypeElement(base);
+        if(baseElement == null) continue; // base type is not on the classpath of this module
+        TypeMirror baseType = types.erasure(baseElement.asType());
+        for(Element root : roundEnv.getRootElements()) {
+          collectSubtypes(root, base, baseType, elements, types);
+        }
+      }
+    }
+    // we don't claim any annotations
+    return false;
+  }
+
+  private void collectSubtypes(Element element, String base, TypeMirror baseType, Elements elements, Types types) {
+    if(!(element.getKind().isClass() || element.getKind().isInterface())) return;
+    TypeElement type = (TypeElement) element;
+    String name = elements.getBinaryName(type).toString();
+    if(!name.equals(base) && types.isAssignable(types.erasure(type.asType()), baseType)) {
+      subtypes.computeIfAbsent(base, k -> new TreeSet<>()).add(name);
+    }
+    for(Element enclosed : type.getEnclosedElements()) {
+      if(enclosed.getKind().isClass() || enclosed.getKind().isInterface() || enclosed.getKind() == ElementKind.ENUM) {
+        collectSubtypes(enclosed, base, baseType, elements, types);
+      }
+    }
+  }
+
+  private void writeIndex() {
+    Filer filer = processingEnv.getFiler();
+    Elements elements = processingEnv.getElementUtils();
+    Types types = processingEnv.getTypeUtils();
+    for(String base : BASE_TYPES) {
+      TypeElement baseElement = elements.getTypeElement(base);
+      if(baseElement == null) continue;
+      TypeMirror baseType = types.erasure(baseElement.asType());
+      String path = SubtypeIndex.INDEX_PATH + base;
+      Set<String> names = new TreeSet<>(subtypes.getOrDefault(base, Collections.emptySet()));
+      boolean exists = false;
+      // merge with an existing index from previous (incremental) compilation, but drop classes that were
+      // removed or are no longer subtypes of the base type
+      try {
+        FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", path);
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+          exists = true;
+          String line;
+          while((line = reader.readLine()) != null) {
+            String name = line.trim();
+            if(!name.isEmpty() && isSubtype(name, baseType, elements, types)) names.add(name);
+          }
+        }
+      } catch(IOException ex) {
+        // no index exists yet
+      }
+      if(names.isEmpty() && !exists) continue;
+      try {
+        FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", path);
+        try(Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+          for(String name : names) writer.write(name + "\n");
+        }
+      } catch(IOException ex) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write subtype index " + path + ": " + ex.toString());
+      }
+    }
+  }
+
+  /**
+   * @return true if the class with given binary name still exists and is a subtype of the base type
+   */
+  private static boolean isSubtype(String name, TypeMirror baseType, Elements elements, Types types) {
+    TypeElement type = elements.getTypeElement(name.replace('$', '.'));
+    return type != null && types.isAssignable(types.erasure(type.asType()), baseType);
+  }
+
+}
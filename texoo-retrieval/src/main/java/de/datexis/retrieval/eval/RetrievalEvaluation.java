@@ -7,10 +7,10 @@ import org.nd4j.common.util.MathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * @author Sebastian Arnold <sarnold@beuth-hochschule.de>
@@ -26,110 +26,166 @@ public class RetrievalEvaluation extends AnnotatorEvaluation {
   protected double[] idcgKsum = new double[] {0., 0., 0., 0., 0., 0., 0., 0., 0., 0., 0.};
   protected double[] ndcgKsum = new double[] {0., 0., 0., 0., 0., 0., 0., 0., 0., 0., 0.};
   
+  /** whether to evaluate queries in parallel */
+  protected boolean enableParallel = true;
+  
   public RetrievalEvaluation(String experimentName) {
     super(experimentName,Annotation.Source.GOLD, Annotation.Source.PRED);
   }
   
+  /**
+   * Enable/disable evaluation of Queries in parallel. Scores are identical in both cases.
+   */
+  public RetrievalEvaluation withParallelEnabled(boolean enabled) {
+    this.enableParallel = enabled;
+    return this;
+  }
+  
   public void evaluateQueries(Dataset corpus) {
     evaluateQueries(corpus.getQueries());
   }
   
   public void evaluateQueries(Collection<Query> queries) {
-    for(Query q : queries) {
-      
-      // expected results (might be relevant or non-relevant) in relevance order
-      Collection<Result> expected = q.getResults(Annotation.Source.GOLD, Result.class);
-      // predicted results in score order
-      List<ScoredResult> predicted = q.getResults(Annotation.Source.PRED, ScoredResult.class);
-      double[] idcg = new double[] {0., 0., 0., 0., 0., 0., 0., 0., 0., 0., 0.};
+    // queries are scored in parallel and summed up in order, so that results do not depend on parallelism
+    List<Query> list = new ArrayList<>(queries);
+    QueryScores[] scores = new QueryScores[list.size()];
+    IntStream range = IntStream.range(0, list.size());
+    if(enableParallel) range = range.parallel();
+    range.forEach(i -> scores[i] = evaluateQuery(list.get(i)));
+    for(QueryScores score : scores) add(score);
   
-      // assign ranks to predictions and initialize them as not relevant
-      AtomicInteger rank = new AtomicInteger(0);
-      predicted.stream().forEach(pred -> {
-        pred.setRank(rank.incrementAndGet());
-        pred.setRelevance(0);
-      });
-      
-      // match all expected results to assign IDCG, relevance and scores
-      int p = 0;
-      double idcgSum = 0;
-      for(Result exp : expected) {
-        p++; // ideal position
-        if(p <= 10) {
-          // IDCG
-          idcgSum += getDCGlog(exp.getRelevance(), p);
-          idcg[p] = idcgSum;
-          idcgKsum[p] += idcgSum;
-        }
-        predicted.stream().forEach(pred -> {
-          if(pred.matches(exp)) {
-            pred.setRelevant(exp.isRelevant());
-            pred.setRelevance(exp.getRelevance());
-          }
-        });
-      }
-      // fill values when retrieved < p
-      while(p < 10) {
-        p++;
+    log.info("{} queries, {} examples MRR={} P@1={} P@3={} P@5={} R@1={} R@3={} MAP={}",
+      queries.size(), countExamples,
+      getMRR(), getPrecisionK(1), getPrecisionK(3), getPrecisionK(5),
+      getRecallK(1), getRecallK(3), getMAP()
+    );
+  
+  }
+  
+  /**
+   * Assign rank and relevance to all predicted results of a Query and calculate its scores.
+   */
+  protected QueryScores evaluateQuery(Query q) {
+    
+    QueryScores scores = new QueryScores();
+    
+    // expected results (might be relevant or non-relevant) in relevance order
+    Collection<Result> expected = q.getResults(Annotation.Source.GOLD, Result.class);
+    // predicted results in score order
+    List<ScoredResult> predicted = q.getResults(Annotation.Source.PRED, ScoredResult.class);
+    double[] idcg = scores.idcgK;
+    
+    // assign ranks to predictions and initialize them as not relevant
+    int rank = 0;
+    for(ScoredResult pred : predicted) {
+      pred.setRank(++rank);
+      pred.setRelevance(0);
+    }
+    
+    // match all expected results to assign IDCG, relevance and scores
+    int p = 0;
+    double idcgSum = 0;
+    long relevantExp = 0;
+    for(Result exp : expected) {
+      p++; // ideal position
+      if(p <= 10) {
+        // IDCG
+        idcgSum += getDCGlog(exp.getRelevance(), p);
         idcg[p] = idcgSum;
-        idcgKsum[p] += idcgSum;
       }
-      
-      // MRR
-      Optional<? extends Result> first = predicted.stream()
-        .filter(pred -> pred.isRelevant())
-        .findFirst();
-      if(first.isPresent()) mrrsum += (1. / first.get().getRank());
-      
-      int relevantPred = 0; // number of relevant documents among the retrieved ones
-      double averagePrec = 0;
-      double dcgSum = 0;
-      long relevantExp = expected.stream()
-        .filter(exp -> exp.isRelevant())
-        .count();
-      int k = 0;
-      for(Result pred : predicted) {
-        k++;
-        assert k == pred.getRank(); // assumes that rs are sorted
-        if(pred.isRelevant()) relevantPred++;
-        if(k <= 10) {
-          // P@k / R@k
-          precisionKsum[k] += div(relevantPred, k);
-          recallKsum[k]  += div(relevantPred, relevantExp);
-          // DCG
-          dcgSum += getDCGlog(pred.getRelevance(), k);
-          dcgKsum[k] += dcgSum;
-          // nDCG
-          ndcgKsum[k] += dcgSum / idcg[k];
+      if(exp.isRelevant()) relevantExp++;
+      for(ScoredResult pred : predicted) {
+        if(pred.matches(exp)) {
+          pred.setRelevant(exp.isRelevant());
+          pred.setRelevance(exp.getRelevance());
         }
-        if(pred.isRelevant()) averagePrec += div(relevantPred, k);
-        if(relevantPred >= relevantExp) break; // we found all so we can stop
       }
-      // fill values when retrieved < k
-      while(k < 10) {
-        k++;
-        precisionKsum[k] += div(relevantPred, k);
-        recallKsum[k]  += div(relevantPred, relevantExp);
-        dcgKsum[k] += dcgSum; // unchanged when no more relevant documents appear
-        ndcgKsum[k] += dcgSum / idcg[k];
+    }
+    // fill values when retrieved < p
+    while(p < 10) {
+      p++;
+      idcg[p] = idcgSum;
+    }
+    
+    // MRR
+    for(ScoredResult pred : predicted) {
+      if(pred.isRelevant()) {
+        scores.mrr = 1. / pred.getRank();
+        break;
+      }
+    }
+    
+    int relevantPred = 0; // number of relevant documents among the retrieved ones
+    double averagePrec = 0;
+    double dcgSum = 0;
+    int k = 0;
+    for(Result pred : predicted) {
+      k++;
+      assert k == pred.getRank(); // assumes that rs are sorted
+      if(pred.isRelevant()) relevantPred++;
+      if(k <= 10) {
+        // P@k / R@k
+        scores.precisionK[k] = div(relevantPred, k);
+        scores.recallK[k] = div(relevantPred, relevantExp);
+        // DCG
+        dcgSum += getDCGlog(pred.getRelevance(), k);
+        scores.dcgK[k] = dcgSum;
+        // nDCG
+        scores.ndcgK[k] = dcgSum / idcg[k];
       }
-      // calculate recall@N as recall over all candidates
-      recallNsum  += div(relevantPred, relevantExp);
-      
-      // MAP
-      averagePrec = div(averagePrec, relevantExp);
-      mapsum += averagePrec;
-      
-      countExamples++;
-      
+      if(pred.isRelevant()) averagePrec += div(relevantPred, k);
+      if(relevantPred >= relevantExp) break; // we found all so we can stop
+    }
+    // fill values when retrieved < k
+    while(k < 10) {
+      k++;
+      scores.precisionK[k] = div(relevantPred, k);
+      scores.recallK[k] = div(relevantPred, relevantExp);
+      scores.dcgK[k] = dcgSum; // unchanged when no more relevant documents appear
+      scores.ndcgK[k] = dcgSum / idcg[k];
     }
+    // calculate recall@N as recall over all candidates
+    scores.recallN = div(relevantPred, relevantExp);
+    
+    // MAP
+    scores.averagePrec = div(averagePrec, relevantExp);
+    
+    return scores;
+    
+  }
   
-    log.info("{} queries, {} examples MRR={} P@1={} P@3={} P@5={} R@1={} R@3={} MAP={}",
-      queries.size(), countExamples,
-      getMRR(), getPrecisionK(1), getPrecisionK(3), getPrecisionK(5),
-      getRecallK(1), getRecallK(3), getMAP()
-    );
+  /**
+   * Add the scores of a single Query.
+   */
+  protected void add(QueryScores scores) {
+    if(scores.mrr != null) mrrsum += scores.mrr;
+    for(int k = 1; k <= 10; k++) {
+      idcgKsum[k] += scores.idcgK[k];
+      precisionKsum[k] += scores.precisionK[k];
+      recallKsum[k] += scores.recallK[k];
+      dcgKsum[k] += scores.dcgK[k];
+      ndcgKsum[k] += scores.ndcgK[k];
+    }
+    recallNsum += scores.recallN;
+    mapsum += scores.averagePrec;
+    countExamples++;
+  }
   
+  /**
+   * Add the scores of another evaluation, e.g. of a different shard of Queries.
+   */
+  public void merge(RetrievalEvaluation other) {
+    mrrsum += other.mrrsum;
+    mapsum += other.mapsum;
+    recallNsum += other.recallNsum;
+    for(int k = 0; k < precisionKsum.length; k++) {
+      precisionKsum[k] += other.precisionKsum[k];
+      recallKsum[k] += other.recallKsum[k];
+      dcgKsum[k] += other.dcgKsum[k];
+      idcgKsum[k] += other.idcgKsum[k];
+      ndcgKsum[k] += other.ndcgKsum[k];
+    }
+    countExamples += other.countExamples;
   }
   
   protected double getDCGlog(int relevance, int p) {
@@ -257,4 +313,19 @@ public class RetrievalEvaluation extends AnnotatorEvaluation {
     return line.toString();
     
   }
+  
+  /**
+   * Scores of a single Query, which are summed up in Query order.
+   */
+  protected static class QueryScores {
+    /** reciprocal rank, or null if no relevant result was retrieved */
+    Double mrr = null;
+    double averagePrec = 0., recallN = 0.;
+    final double[] precisionK = new double[11];
+    final double[] recallK = new double[11];
+    final double[] dcgK = new double[11];
+    final double[] idcgK = new double[11];
+    final double[] ndcgK = new double[11];
+  }
+  
 }
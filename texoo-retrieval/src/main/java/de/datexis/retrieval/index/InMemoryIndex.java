@@ -2,6 +2,7 @@ package de.datexis.retrieval.index;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncodingHelpers;
@@ -504,6 +505,7 @@ public class InMemoryIndex extends Encoder implements IEncoder, IVocabulary, IVe
   
   @Override
   public List<IndexEntry> find(INDArray vec, int k) {
+    long start = Metrics.start();
     INDArray sim = similarity(vec);
     List<Double> highToLowSimList = getTopN(sim, k);
     List<IndexEntry> result = new ArrayList<>(k);
@@ -514,6 +516,7 @@ public class InMemoryIndex extends Encoder implements IEncoder, IVocabulary, IVe
       entry.similarity = sim.getDouble(entry.index);
       if(entry.similarity != 0.00) result.add(entry); // skip entries with exactly 0 similarity (e.g. NaN)
     }
+    Metrics.record(getClass(), "find", start, 1);
     return result;
   }
   
@@ -13,9 +13,11 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -299,4 +301,44 @@ public class RetrievalEvaluationTest {
       (7./1. + 7./1.585 + 7./2. +  3./2.322 + 3./2.585 + 3./2.807 + 1./3. + 0.), eval.getNDCG(10), 0.001);
   }
   
+  @Test
+  public void testParallelAndMerge() {
+    List<Document> docs = new ArrayList<>();
+    for(int d = 0; d < 30; d++) docs.add(DocumentFactory.fromText("document " + d));
+    Random random = new Random(42);
+    List<Query> queries = new ArrayList<>();
+    for(int i = 0; i < 200; i++) {
+      Query query = Query.create("query " + i);
+      for(Document doc : docs) {
+        if(random.nextInt(4) == 0) query.addResult(new RelevanceResult(Annotation.Source.GOLD, doc, random.nextInt(4)));
+        if(random.nextInt(2) == 0) query.addResult(new ScoredResult(Annotation.Source.PRED, doc, random.nextDouble()));
+      }
+      queries.add(query);
+    }
+    RetrievalEvaluation sequential = new RetrievalEvaluation("sequential").withParallelEnabled(false);
+    sequential.evaluateQueries(queries);
+    RetrievalEvaluation parallel = new RetrievalEvaluation("parallel");
+    parallel.evaluateQueries(queries);
+    RetrievalEvaluation merged = new RetrievalEvaluation("shard 1");
+    merged.evaluateQueries(queries.subList(0, 100));
+    RetrievalEvaluation shard = new RetrievalEvaluation("shard 2");
+    shard.evaluateQueries(queries.subList(100, 200));
+    merged.merge(shard);
+    assertEquals(sequential.countExamples(), parallel.countExamples(), 0.);
+    assertEquals(sequential.countExamples(), merged.countExamples(), 0.);
+    // parallel evaluation is identical, merged shards are summed up in different order
+    assertEquals(sequential.getMRR(), parallel.getMRR(), 0.);
+    assertEquals(sequential.getMAP(), parallel.getMAP(), 0.);
+    assertEquals(sequential.getRecallN(), parallel.getRecallN(), 0.);
+    assertEquals(sequential.getMRR(), merged.getMRR(), 1e-12);
+    assertEquals(sequential.getMAP(), merged.getMAP(), 1e-12);
+    for(int k = 1; k <= 10; k++) {
+      assertEquals(sequential.getPrecisionK(k), parallel.getPrecisionK(k), 0.);
+      assertEquals(sequential.getRecallK(k), parallel.getRecallK(k), 0.);
+      assertEquals(sequential.getNDCG(k), parallel.getNDCG(k), 0.);
+      assertEquals(sequential.getPrecisionK(k), merged.getPrecisionK(k), 1e-12);
+      assertEquals(sequential.getNDCG(k), merged.getNDCG(k), 1e-12);
+    }
+  }
+  
 }
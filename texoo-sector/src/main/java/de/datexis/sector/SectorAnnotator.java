@@ -2,6 +2,7 @@ package de.datexis.sector;
 
 import de.datexis.annotator.Annotator;
 import de.datexis.annotator.AnnotatorComponent;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.common.WordHelpers;
 import de.datexis.encoder.Encoder;
@@ -112,9 +113,11 @@ public class SectorAnnotator extends Annotator {
    */
   public void annotate(Collection<Document> docs, SegmentationMethod segmentation) {
     // use tagger to generate and attach PRED vectors to Sentences
+    long t = Metrics.start();
     log.info("Running SECTOR neural net encoding...");
     getTagger().attachVectors(docs, DocumentSentenceIterator.Stage.ENCODE, getTargetEncoder().getClass());
     if(!segmentation.equals(SegmentationMethod.NONE)) segment(docs, segmentation, true);
+    Metrics.record(getClass(), "annotate", t, docs.size());
   }
 
   /**
@@ -124,7 +127,9 @@ public class SectorAnnotator extends Annotator {
   public void segment(Collection<Document> docs, SegmentationMethod segmentation, boolean mergeSections) {
     // create Annotations and attach vectors
     log.info("Predicting segmentation {}...", segmentation.toString());
+    long t = Metrics.start();
     detectSections(docs, segmentation);
+    Metrics.record(getClass(), "detectSections", t, docs.size());
     if(mergeSections) {
       // TODO: merge sections
     }
@@ -250,6 +255,17 @@ public class SectorAnnotator extends Annotator {
     getTagger().trainModelPresaved(presavedDatasetDirectory, epochs);
   }
 
+  /**
+   * Train a SECTOR model from presaved batches and save a checkpoint after every epoch.
+   * @param epochs last epoch to train
+   * @param startEpoch first epoch to train, use > 1 to continue from the checkpoint of epoch startEpoch - 1
+   * @param checkpointPath directory for checkpoints
+   * @throws IOException if the checkpoint to continue from could not be loaded
+   */
+  public void trainModelPresaved(int epochs, int startEpoch, Resource checkpointPath) throws IOException {
+    getTagger().trainModelPresaved(presavedDatasetDirectory, epochs, startEpoch, checkpointPath);
+  }
+
   /**
    * Train a SECTOR model with configured number of epochs.
    */
@@ -722,6 +738,9 @@ public class SectorAnnotator extends Annotator {
     private int iterations = 1;
     private int batchSize = 16; // number of Examples until Sample/Test
     private int numEpochs = 1;
+    private int workers = 1;
+    private int averagingFrequency = 1;
+    private boolean sharedGradients = false;
     
     private boolean enabletrainingUI = false;
     
@@ -781,6 +800,18 @@ public class SectorAnnotator extends Annotator {
       return this;
     }
         
+    /**
+     * Enable data-parallel training with the given number of worker replicas.
+     * @param averagingFrequency number of iterations between parameter averaging
+     * @param sharedGradients use gradient sharing instead of parameter averaging
+     */
+    public Builder withWorkspaceParams(int workers, int averagingFrequency, boolean sharedGradients) {
+      this.workers = workers;
+      this.averagingFrequency = averagingFrequency;
+      this.sharedGradients = sharedGradients;
+      return this;
+    }
+        
     public Builder withInputEncoders(String desc, Encoder bagEncoder, Encoder embEncoder, Encoder flagEncoder) {
       tagger.setInputEncoders(bagEncoder, embEncoder, flagEncoder);
       ann.getProvenance().setFeatures(desc);
@@ -814,6 +845,7 @@ public class SectorAnnotator extends Annotator {
       if(enabletrainingUI) tagger.enableTrainingUI();
       tagger.setRequireSubsampling(requireSubsampling);
       tagger.setTrainingParams(examplesPerEpoch, maxTimeSeriesLength, batchSize, numEpochs, true);
+      tagger.setParallelTrainingParams(workers, averagingFrequency, sharedGradients);
       ann.getProvenance().setTask(tagger.getId());
       tagger.setName(ann.getProvenance().toString());
       tagger.appendTrainLog(printParams());
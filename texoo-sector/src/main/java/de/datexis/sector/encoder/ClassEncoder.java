@@ -1,6 +1,7 @@
 package de.datexis.sector.encoder;
 
 import de.datexis.encoder.LookupCacheEncoder;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.model.Document;
 import de.datexis.model.Span;
 import de.datexis.preprocess.LowercasePreprocessor;
@@ -8,7 +9,6 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map.Entry;
-import org.deeplearning4j.models.word2vec.wordstore.VocabularyWord;
 import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -45,7 +45,7 @@ public class ClassEncoder extends LookupCacheEncoder {
 
   @Override
   public long getEmbeddingVectorSize() {
-    return vocab.numWords();
+    return vocab.size();
   }
 
   /*@Override
@@ -74,7 +74,7 @@ public class ClassEncoder extends LookupCacheEncoder {
   
   public boolean isUnknown(String classLabel) {
     String w = preprocessor.preProcess(classLabel);
-    return !vocab.containsWord(w);
+    return !vocab.contains(w);
   }
     
   @Override
@@ -85,18 +85,15 @@ public class ClassEncoder extends LookupCacheEncoder {
   public void trainModelUsingHead(Iterable<String> classes) {
     trainModel(classes, 0);
     // stop after head of distribution (mean value reached)
-    double val = 0;
-    for(VocabularyWord word : vocab.words()) {
-      val += word.getCount();
-    }
-    vocab.truncateVocabulary((int)(val / vocab.numWords()));
-    vocab.updateHuffmanCodes();
-    appendTrainLog("truncated to " + vocab.numWords() + " classes");
+    double val = vocab.getTotalFrequency();
+    vocab.truncate((int)(val / vocab.size()));
+    appendTrainLog("truncated to " + vocab.size() + " classes");
   }
   
   public void trainModel(Iterable<String> classes, int minClassFrequency) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     timer.start();
     String w;
     totalWords = 0;
@@ -104,17 +101,13 @@ public class ClassEncoder extends LookupCacheEncoder {
       w = preprocessor.preProcess(s);
       totalWords++;
       if(w.isEmpty()) continue;
-      if(!vocab.containsWord(w)) {
-        vocab.addWord(w);
-      } else {
-        vocab.incrementWordCounter(w);
-      }
+      vocab.add(w);
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minClassFrequency);
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minClassFrequency);
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " classes (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " classes (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
 
@@ -1,6 +1,7 @@
 package de.datexis.sector.encoder;
 
 import de.datexis.common.WordHelpers;
+import de.datexis.encoder.Vocabulary;
 import de.datexis.encoder.impl.BagOfWordsEncoder;
 import de.datexis.model.Span;
 import java.util.ArrayList;
@@ -29,6 +30,7 @@ public class HeadingEncoder extends BagOfWordsEncoder {
   public void trainModel(List<String> headlines, int minWordFrequency, int minWordLength, WordHelpers.Language language) {
     appendTrainLog("Training " + getName() + " model...");
     setModel(null);
+    vocab = new Vocabulary();
     totalWords = 0;
     timer.start();
     setLanguage(language);
@@ -38,18 +40,17 @@ public class HeadingEncoder extends BagOfWordsEncoder {
         if(!w.isEmpty()) {
           totalWords++;
           if(!wordHelpers.isStopWord(w) && w.length() >= minWordLength) {
-            if(!vocab.containsWord(w)) vocab.addWord(w);
-            else vocab.incrementWordCounter(w);
+            vocab.add(w);
           }
         }
       }
     }
-    int total = vocab.numWords();
-    vocab.truncateVocabulary(minWordFrequency);
-    vocab.addWord(preprocessor.preProcess(OTHER_CLASS));
-    vocab.updateHuffmanCodes();
+    int total = vocab.size();
+    vocab.truncate(minWordFrequency);
+    vocab.add(preprocessor.preProcess(OTHER_CLASS));
+    vocab.sortByFrequency();
     timer.stop();
-    appendTrainLog("trained " + vocab.numWords() + " words (" +  total + " total)", timer.getLong());
+    appendTrainLog("trained " + vocab.size() + " words (" +  total + " total)", timer.getLong());
     setModelAvailable(true);
   }
   
@@ -13,6 +13,7 @@ import org.nd4j.evaluation.EvaluationUtils;
 import org.nd4j.evaluation.IEvaluation;
 import org.nd4j.evaluation.IMetric;
 import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.LoggerFactory;
@@ -20,6 +21,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Evaluates Precision/Recall/F1 for Sentence-based class labeling (e.g. Sentence Classification).
@@ -27,6 +29,12 @@ import java.util.stream.Collectors;
  */
 public class ClassificationEvaluation extends AnnotatorEvaluation implements IEvaluation<ClassificationEvaluation> {
 
+  /** number of examples that are scored by one accumulator in batch evaluation */
+  protected final static int CHUNK_SIZE = 1024;
+
+  /** number of examples that are collected from Documents before a batch is evaluated */
+  protected final static int BATCH_SIZE = 16 * CHUNK_SIZE;
+
   protected LookupCacheEncoder encoder;
   protected int numClasses;
   protected int K;
@@ -35,6 +43,12 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
   /** average precision */
   protected double mrrsum = 0., mapsum = 0., p1sum = 0., r1sum = 0., pksum = 0., rksum = 0.;
   
+  /** number of examples with the relevant label in the top K predictions */
+  protected int topKCorrect = 0;
+
+  /** whether to score chunks of a batch in parallel */
+  protected boolean enableParallel = true;
+  
   public ClassificationEvaluation(String experimentName, LookupCacheEncoder encoder) {
     this(experimentName, Annotation.Source.GOLD, Annotation.Source.PRED, encoder, 3);
   }
@@ -48,10 +62,19 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
     clear();
   }
 
+  /**
+   * Enable/disable scoring of batches in parallel. Scores are identical in both cases.
+   */
+  public ClassificationEvaluation withParallelEnabled(boolean enabled) {
+    this.enableParallel = enabled;
+    return this;
+  }
+  
   protected void clear() {
-    eval = new Evaluation(encoder.getWords(), K);
+    eval = new Evaluation(encoder.getWords(), 1); // top K is counted separately
     countDocs = 0;
     countExamples = 0;
+    topKCorrect = 0;
     mrrsum = 0.;
     mapsum = 0.;
     p1sum = 0.;
@@ -85,6 +108,8 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
    */
   public void calculateScoresFromAnnotations(Collection<Document> documents, Class<? extends Annotation> annotationClass, boolean matchAllPredicted) {
     Map<Annotation, Boolean> matched = new IdentityHashMap<>();
+    List<INDArray> expectedVectors = new ArrayList<>();
+    List<INDArray> predictedVectors = new ArrayList<>();
     countDocs += documents.size();
     for(Document doc : documents) {
       // match relevant annotations to predicted annotations
@@ -92,9 +117,8 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
         Optional<? extends Annotation> predicted = AnnotationHelpers.getAnnotationMaxOverlap(doc, predictedSource, annotationClass, expected);
         if(predicted.isPresent()) {
           matched.put(predicted.get(), true);
-          INDArray r = expected.getVector(encoder.getClass()).transpose();
-          INDArray p = predicted.get().getVector(encoder.getClass()).transpose();
-          evalExample(r, p);
+          expectedVectors.add(expected.getVector(encoder.getClass()));
+          predictedVectors.add(predicted.get().getVector(encoder.getClass()));
         } else {
           log.warn("Could not match predicted Annotation for expected Annotation {}-{}", expected.getBegin(), expected.getEnd());
         }
@@ -105,13 +129,14 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
         if(!matched.containsKey(predicted)) {
           Optional<? extends Annotation> expected = AnnotationHelpers.getAnnotationMaxOverlap(doc, expectedSource, annotationClass, predicted);
           if(expected.isPresent()) {
-            INDArray r = expected.get().getVector(encoder.getClass()).transpose();
-            INDArray p = predicted.getVector(encoder.getClass()).transpose();
-            evalExample(r, p);
+            expectedVectors.add(expected.get().getVector(encoder.getClass()));
+            predictedVectors.add(predicted.getVector(encoder.getClass()));
           } 
         }
       }
+      if(expectedVectors.size() >= BATCH_SIZE) evalVectors(expectedVectors, predictedVectors);
     }
+    evalVectors(expectedVectors, predictedVectors);
   }
   
   /**
@@ -120,6 +145,8 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
    * - <b>requires class distribution Vectors</b> attached to the Tags
    */
   public <T extends Tag> void calculateScoresFromTags(Collection<Document> documents, Class<? extends Span> spanClass, Class<T> tagClass) {
+    List<INDArray> expectedVectors = new ArrayList<>();
+    List<INDArray> predictedVectors = new ArrayList<>();
     countDocs += documents.size();
     for(Document doc : documents) {
       for(Span s : doc.getStream(spanClass).collect(Collectors.toList())) {
@@ -127,15 +154,81 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
         Tag rt = s.getTag(expectedSource, tagClass);
         Tag pt = s.getTag(predictedSource, tagClass);
         if(rt != null && pt != null) {
-          INDArray r = rt.getVector().transpose();
-          INDArray p = pt.getVector().transpose();
-          evalExample(r, p);
+          expectedVectors.add(rt.getVector());
+          predictedVectors.add(pt.getVector());
         } else {
           log.warn("Skipped sentence without label: docId={} {}-{}", doc.getId(), s.getBegin(), s.getEnd());
         }
         
       }
+      if(expectedVectors.size() >= BATCH_SIZE) evalVectors(expectedVectors, predictedVectors);
+    }
+    evalVectors(expectedVectors, predictedVectors);
+  }
+  
+  /**
+   * Evaluate all collected class distribution vectors as one batch and clear the lists.
+   */
+  private void evalVectors(List<INDArray> expected, List<INDArray> predicted) {
+    if(expected.isEmpty()) return;
+    int n = expected.size();
+    int d = (int) expected.get(0).length();
+    double[] Y = new double[n * d];
+    double[] Z = new double[n * d];
+    for(int i = 0; i < n; i++) {
+      System.arraycopy(expected.get(i).toDoubleVector(), 0, Y, i * d, d);
+      System.arraycopy(predicted.get(i).toDoubleVector(), 0, Z, i * d, d);
     }
+    long[] shape = new long[] {n, d};
+    evalBatch(Nd4j.create(Y, shape, 'c'), Nd4j.create(Z, shape, 'c'), Y, Z, n, d);
+    expected.clear();
+    predicted.clear();
+  }
+  
+  /**
+   * Update scores from a batch of Example predictions. Instead of sorting every prediction, the ranks of the relevant
+   * labels are counted in a single pass over the copied matrix. Chunks of examples are scored in parallel and their
+   * accumulators are merged in example order, so that scores do not depend on parallelism.
+   * @param Y - correct labels e {0,1}^(n x d)
+   * @param Z - predicted labels e R^(n x d)
+   */
+  public void evalBatch(INDArray Y, INDArray Z) {
+    if(Y.rank() == 1) {
+      Y = Y.reshape(1, Y.length());
+      Z = Z.reshape(1, Z.length());
+    }
+    evalBatch(Y, Z, toDoubleArray(Y), toDoubleArray(Z), Y.rows(), Y.columns());
+  }
+  
+  /**
+   * @return a copy of the matrix values in row-major order
+   */
+  private static double[] toDoubleArray(INDArray arr) {
+    return arr.castTo(DataType.DOUBLE).dup('c').data().asDouble();
+  }
+  
+  private void evalBatch(INDArray labels, INDArray predictions, double[] Y, double[] Z, int n, int d) {
+    if(n == 0) return;
+    eval.eval(labels, predictions);
+    int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    IntStream range = IntStream.range(0, chunks);
+    Accumulator[] results = (enableParallel ? range.parallel() : range).mapToObj(c -> {
+      Accumulator acc = new Accumulator(K);
+      for(int i = c * CHUNK_SIZE; i < Math.min(n, (c + 1) * CHUNK_SIZE); i++) acc.add(Y, Z, i * d, d);
+      return acc;
+    }).toArray(Accumulator[]::new);
+    for(Accumulator acc : results) add(acc);
+  }
+  
+  private void add(Accumulator acc) {
+    mapsum += acc.mapsum;
+    mrrsum += acc.mrrsum;
+    p1sum += acc.p1sum;
+    r1sum += acc.r1sum;
+    pksum += acc.pksum;
+    rksum += acc.rksum;
+    topKCorrect += acc.topKCorrect;
+    countExamples += acc.count;
   }
   
   /**
@@ -156,9 +249,25 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
     r1sum += Rec(Y, Z, Zi, 1);
     pksum += Prec(Y, Z, Zi, K);
     rksum += Rec(Y, Z, Zi, K);
+    if(isTopK(Y, Z)) topKCorrect++;
     countExamples++;
   }
   
+  /**
+   * @return true if less than K predictions score higher than the relevant label
+   */
+  private boolean isTopK(INDArray Y, INDArray Z) {
+    int ri = maxIndex(Y);
+    if(ri < 0) return false;
+    INDArray z = Nd4j.toFlattened(Z);
+    double score = z.getDouble(ri);
+    int greater = 0;
+    for(int i = 0; i < z.length(); i++) {
+      if(z.getDouble(i) > score) greater++;
+    }
+    return greater < K;
+  }
+  
   /** safe division, where n/0 = 0 */
   protected double div(double n, double d) {
     if(d == 0.0) return 0.0;
@@ -271,7 +380,7 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
   }
   
   public double getAccuracyK() {
-    return eval.topNAccuracy();
+    return div(topKCorrect, countExamples);
   }
   
   /**
@@ -396,9 +505,7 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
   
   @Override
   public void eval(INDArray labels, INDArray networkPredictions) {
-    for(int i = 0; i < labels.rows(); i++) {
-      evalExample(labels.getRow(i), networkPredictions.getRow(i));
-    }
+    evalBatch(labels, networkPredictions);
   }
 
   @Override
@@ -449,9 +556,21 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
     eval(labels2d, predicted2d);
   }
 
+  /**
+   * Add the scores of another evaluation with the same classes, e.g. of a different shard of examples.
+   */
   @Override
   public void merge(ClassificationEvaluation other) {
-    throw new UnsupportedOperationException("Not implemented yet.");
+    eval.merge(other.eval);
+    countDocs += other.countDocs;
+    countExamples += other.countExamples;
+    mapsum += other.mapsum;
+    mrrsum += other.mrrsum;
+    p1sum += other.p1sum;
+    r1sum += other.r1sum;
+    pksum += other.pksum;
+    rksum += other.rksum;
+    topKCorrect += other.topKCorrect;
   }
 
   @Override
@@ -486,6 +605,91 @@ public class ClassificationEvaluation extends AnnotatorEvaluation implements IEv
     return new ClassificationEvaluation(null, null);
   }
   
+  /**
+   * Sums of ranking scores over a chunk of examples, which are calculated on primitive arrays.
+   */
+  protected static class Accumulator {
+    
+    protected final int K;
+    protected double mrrsum = 0., mapsum = 0., p1sum = 0., r1sum = 0., pksum = 0., rksum = 0.;
+    protected int topKCorrect = 0;
+    protected int count = 0;
+    
+    protected Accumulator(int K) {
+      this.K = K;
+    }
+    
+    /**
+     * Add a single example with the same scores as evalExample().
+     * @param y - correct labels e {0,1}^d of all examples
+     * @param z - predicted labels e R^d of all examples
+     * @param offset - position of the example in y and z
+     * @param d - number of classes
+     */
+    protected void add(double[] y, double[] z, int offset, int d) {
+      // ranks of all relevant labels, equal predictions are ranked by index
+      int relevant = 0;
+      double ysum = 0.;
+      int[] ranks = new int[d];
+      int ri = -1; // relevant index as in maxIndex()
+      double max = Double.MIN_VALUE;
+      for(int i = 0; i < d; i++) {
+        double yi = y[offset + i];
+        ysum += yi;
+        if(yi > max) {
+          max = yi;
+          ri = i;
+        }
+        if(yi > 0.) ranks[relevant++] = rank(i, z, offset, d);
+      }
+      Arrays.sort(ranks, 0, relevant);
+      // AP: precision at the rank of every relevant label
+      double ap = 0.;
+      int hits1 = 0, hitsK = 0;
+      for(int j = 0; j < relevant; j++) {
+        ap += (double) (j + 1) / (double) ranks[j];
+        if(ranks[j] <= 1) hits1++;
+        if(ranks[j] <= K) hitsK++;
+      }
+      mapsum += relevant > 0 ? ap / (double) relevant : 0.;
+      if(ri >= 0) {
+        mrrsum += 1. / (double) rank(ri, z, offset, d);
+        if(greater(ri, z, offset, d) < K) topKCorrect++;
+      }
+      p1sum += (double) hits1;
+      pksum += (double) hitsK / (double) K;
+      r1sum += ysum == 0. ? 0. : (double) hits1 / ysum;
+      rksum += ysum == 0. ? 0. : (double) hitsK / ysum;
+      count++;
+    }
+    
+    /**
+     * @return position of index idx in the ranked predictions, between 1 and d
+     */
+    protected static int rank(int idx, double[] z, int offset, int d) {
+      double score = z[offset + idx];
+      int rank = 1;
+      for(int i = 0; i < d; i++) {
+        double zi = z[offset + i];
+        if(zi > score || (zi == score && i < idx)) rank++;
+      }
+      return rank;
+    }
+    
+    /**
+     * @return number of predictions that score higher than index idx
+     */
+    protected static int greater(int idx, double[] z, int offset, int d) {
+      double score = z[offset + idx];
+      int count = 0;
+      for(int i = 0; i < d; i++) {
+        if(z[offset + i] > score) count++;
+      }
+      return count;
+    }
+    
+  }
+  
   /**
    * Print micro-averaged scores for evaluation @K
    * @return 
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class SegmentationEvaluation extends AnnotatorEvaluation {
 
@@ -23,6 +24,9 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
   /** whether to merge adjacent sections with same label into one (in both GOLD and PRED) */
   protected boolean enableMergeSections = true;
   
+  /** whether to evaluate documents in parallel */
+  protected boolean enableParallel = true;
+  
   public SegmentationEvaluation(String experimentName) {
     this(experimentName, Annotation.Source.GOLD, Annotation.Source.PRED);
   }
@@ -50,6 +54,14 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
     return this;
   }
   
+  /**
+   * Enable/disable evaluation of documents in parallel. Scores are identical in both cases.
+   */
+  public SegmentationEvaluation withParallelEnabled(boolean enabled) {
+    this.enableParallel = enabled;
+    return this;
+  }
+  
   protected void clear() {
     countDocs = 0;
     countExamples = 0;
@@ -71,16 +83,52 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
   
   public void calculateScoresFromAnnotations(Collection<Document> docs, Class<? extends Annotation> annotationClass) {
     countDocs += docs.size();
-    int k = calculateK(docs); // global K
-    for(Document doc : docs) {
-      if(enableKPerDocument) k = calculateK(doc); // update k per individual example
-      wdsum += calculateWD(doc, k);
-      pksum += calculatePk(doc, k);
-      countExp += getMassesArray(doc, expectedSource).length;
-      countPred += getMassesArray(doc, predictedSource).length;
+    List<Document> list = new ArrayList<>(docs);
+    // positions and masses are computed once per document
+    int[][] reference = new int[list.size()][];
+    int[][] hypothesis = new int[list.size()][];
+    int[][] masses = new int[list.size()][];
+    range(list.size()).forEach(i -> {
+      reference[i] = getPositionsArray(list.get(i), expectedSource);
+      hypothesis[i] = getPositionsArray(list.get(i), predictedSource);
+      masses[i] = getMassesArray(reference[i]);
+    });
+    int k = calculateK(masses); // global K
+    double[] wd = new double[list.size()];
+    double[] pk = new double[list.size()];
+    int[] predicted = new int[list.size()];
+    range(list.size()).forEach(i -> {
+      int kDoc = enableKPerDocument ? calculateK(masses[i]) : k; // update k per individual example
+      wd[i] = calculateWD(reference[i], hypothesis[i], kDoc);
+      pk[i] = calculatePk(reference[i], hypothesis[i], kDoc);
+      predicted[i] = getMassesArray(hypothesis[i]).length;
+    });
+    // sum up in document order, so that results do not depend on parallelism
+    for(int i = 0; i < list.size(); i++) {
+      wdsum += wd[i];
+      pksum += pk[i];
+      countExp += masses[i].length;
+      countPred += predicted[i];
     }
   }
   
+  private IntStream range(int size) {
+    IntStream range = IntStream.range(0, size);
+    return enableParallel ? range.parallel() : range;
+  }
+  
+  /**
+   * Add the scores of another evaluation, e.g. of a different shard of documents. Every evaluation uses its own K.
+   */
+  public void merge(SegmentationEvaluation other) {
+    countDocs += other.countDocs;
+    countExamples += other.countExamples;
+    wdsum += other.wdsum;
+    pksum += other.pksum;
+    countExp += other.countExp;
+    countPred += other.countPred;
+  }
+  
   public double getWD() {
     return wdsum / countDocs;
   }
@@ -102,8 +150,10 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
    * Adapted from https://github.com/cfournie/segmentation.evaluation
    */
   public double calculatePk(Document doc, int k) {
-    int[] reference = getPositionsArray(doc, expectedSource);
-    int[] hypothesis = getPositionsArray(doc, predictedSource);
+    return calculatePk(getPositionsArray(doc, expectedSource), getPositionsArray(doc, predictedSource), k);
+  }
+  
+  protected double calculatePk(int[] reference, int[] hypothesis, int k) {
     double sum = 0;
     double count = 0;
     for(int t = 0; t < reference.length - k; t++) {
@@ -131,25 +181,33 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
    * Adapted from https://github.com/cfournie/segmentation.evaluation
    */
   public double calculateWD(Document doc, int k) {
-    int[] reference = getPositionsArray(doc, expectedSource);
-    int[] hypothesis = getPositionsArray(doc, predictedSource);
+    return calculateWD(getPositionsArray(doc, expectedSource), getPositionsArray(doc, predictedSource), k);
+  }
+  
+  /**
+   * Calculate WD metric with prefix sums over agreements of adjacent sentences, so that every window is O(1).
+   */
+  protected double calculateWD(int[] reference, int[] hypothesis, int k) {
+    int windows = reference.length - k;
+    k = Math.max(k, 0); // empty windows never disagree
+    // agreements of sentences [0, i) in the first i-1 pairs
+    int[] prefixRef = new int[reference.length];
+    int[] prefixHyp = new int[reference.length];
+    for(int i = 0; i + 1 < reference.length; i++) {
+      if(windows > 0 && k > 0 && reference[i] == 0) {
+        log.warn("document is not correctly annotated");
+        return 1.;
+      }
+      prefixRef[i + 1] = prefixRef[i] + (reference[i] == reference[i + 1] ? 1 : 0);
+      prefixHyp[i + 1] = prefixHyp[i] + (hypothesis[i] == hypothesis[i + 1] ? 1 : 0);
+    }
     double sum = 0;
     double count = 0;
     // calculate disagreement in length - k windows
-    for(int t = 0; t < reference.length - k; t++) {
-      int sumRef = 0;
-      int sumHyp = 0;
-      // check all pairs in window if they contain a boundary
-      for(int j = 0; j < k; j++) {
-        if(reference[t + j] == 0) {
-          log.warn("document is not correctly annotated");
-          return 1.;
-        }
-        boolean agreeRef = reference[t + j] == reference[t + j + 1];
-        boolean agreeHyp = hypothesis[t + j] == hypothesis[t + j + 1];
-        if(agreeRef) sumRef++;
-        if(agreeHyp) sumHyp++;
-      }
+    for(int t = 0; t < windows; t++) {
+      // count pairs in window that do not contain a boundary
+      int sumRef = prefixRef[t + k] - prefixRef[t];
+      int sumHyp = prefixHyp[t + k] - prefixHyp[t];
       // disagree if number of boundaries in window differs
       if(sumRef != sumHyp) sum++;
       count++;
@@ -171,26 +229,36 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
    * @return preferred window size as half the mean segment length
    */
   public int calculateK(Collection<Document> docs) {
-    int k = Math.max((int) Math.round(getMeanSegmentLength(docs) / 2.), 2);
+    return calculateK(docs.stream().map(doc -> getMassesArray(doc, expectedSource)).toArray(int[][]::new));
+  }
+  
+  protected int calculateK(int[][] masses) {
+    int k = Math.max((int) Math.round(getMeanSegmentLength(masses) / 2.), 2);
     log.trace("setting k to {}", k);
     return k;
   }
   
   public int calculateK(Document doc) {
+    return calculateK(getMassesArray(doc, expectedSource));
+  }
+  
+  protected int calculateK(int[] masses) {
     double sum = 0;
-    int[] masses = getMassesArray(doc, expectedSource);
     for(int c : masses) sum += c;
     int k = Math.max((int) Math.round((sum / (double) masses.length) / 2.), 2);
     return k;
   }
     
   public double getMeanSegmentLength(Collection<Document> docs) {
+    return getMeanSegmentLength(docs.stream().map(doc -> getMassesArray(doc, expectedSource)).toArray(int[][]::new));
+  }
+  
+  protected double getMeanSegmentLength(int[][] masses) {
     double sum = 0;
     double count = 0;
-    for(Document doc : docs) {
-      int[] masses = getMassesArray(doc, expectedSource);
-      for(int c : masses) sum += c;
-      count += masses.length;
+    for(int[] m : masses) {
+      for(int c : m) sum += c;
+      count += m.length;
     }
     return sum / count;
   }
@@ -199,8 +267,14 @@ public class SegmentationEvaluation extends AnnotatorEvaluation {
    * @return a masses array from SectionAnnotations, e.g. [1,1,1,2,2,2,2,2,2,3,3,3,3,4,4,5,5,5,5] -> [3,6,3,2,4]
    */
   public int[] getMassesArray(Document doc, Annotation.Source source) {
+    return getMassesArray(getPositionsArray(doc, source));
+  }
+  
+  /**
+   * @return a masses array from a positions array
+   */
+  protected int[] getMassesArray(int[] positions) {
     ArrayList<Integer> result = new ArrayList<>();
-    int[] positions = getPositionsArray(doc, source);
     int last = 0;
     int count = 0;
     for(int curr : positions) {
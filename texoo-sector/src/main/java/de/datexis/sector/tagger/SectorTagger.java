@@ -1,6 +1,7 @@
 package de.datexis.sector.tagger;
 
 import com.google.common.collect.Lists;
+import de.datexis.common.Metrics;
 import de.datexis.common.Resource;
 import de.datexis.encoder.Encoder;
 import de.datexis.encoder.EncodingHelpers;
@@ -19,6 +20,7 @@ import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
 import org.deeplearning4j.earlystopping.EarlyStoppingResult;
 import org.deeplearning4j.earlystopping.listener.EarlyStoppingListener;
 import org.deeplearning4j.earlystopping.trainer.EarlyStoppingGraphTrainer;
+import org.deeplearning4j.earlystopping.trainer.IEarlyStoppingTrainer;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.*;
 import org.deeplearning4j.nn.conf.graph.MergeVertex;
@@ -35,6 +37,8 @@ import org.deeplearning4j.nn.weights.WeightInit;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.optimize.listeners.PerformanceListener;
+import org.deeplearning4j.parallelism.EarlyStoppingParallelTrainer;
+import org.deeplearning4j.parallelism.ParallelWrapper;
 import org.deeplearning4j.ui.api.UIServer;
 import org.deeplearning4j.ui.model.stats.StatsListener;
 import org.deeplearning4j.ui.model.storage.InMemoryStatsStorage;
@@ -80,8 +84,6 @@ public class SectorTagger extends Tagger {
   // a single target encoder
   protected Encoder targetEncoder = null;
   
-  protected int workers = 4;
-  
   protected boolean requireSubsampling;
 
   protected ModelEvaluation eval = new ModelEvaluation("null");
@@ -129,6 +131,11 @@ public class SectorTagger extends Tagger {
     return this;
   }
 
+  public SectorTagger setWorkspaceParams(int workers, int averagingFrequency, boolean sharedGradients) {
+    setParallelTrainingParams(workers, averagingFrequency, sharedGradients);
+    return this;
+  }
+
   @Override
   @JsonIgnore
   public List<Encoder> getEncoders() {
@@ -249,14 +256,42 @@ public class SectorTagger extends Tagger {
   }
 
   public void trainModelPresaved(String path, int epochs) {
+    trainPresaved(path, epochs, 1, null);
+  }
+
+  /**
+   * Train the model from batches that were exported using SectorAnnotator.exportBatchesToFiles().
+   * @param path directory that contains the presaved batches
+   * @param epochs last epoch to train
+   * @param startEpoch first epoch to train, use > 1 to continue from the checkpoint of epoch startEpoch - 1
+   * @param checkpointPath directory to save a checkpoint after every epoch, or null to disable checkpoints
+   * @throws IOException if the checkpoint to continue from could not be loaded
+   */
+  public void trainModelPresaved(String path, int epochs, int startEpoch, Resource checkpointPath) throws IOException {
+    if(startEpoch > 1) {
+      if(checkpointPath == null) throw new IllegalArgumentException("checkpointPath is required to continue training from epoch " + startEpoch);
+      loadCheckpoint(checkpointPath.resolve("checkpoint_epoch" + (startEpoch - 1) + ".zip"));
+    }
+    trainPresaved(path, epochs, startEpoch, checkpointPath);
+  }
+
+  private void trainPresaved(String path, int epochs, int startEpoch, Resource checkpointPath) {
     FileMultiDataSetIterator it = new FileMultiDataSetIterator(new File(path), batchSize);
+    ParallelWrapper wrapper = createParallelWrapper();
     timer.start();
-    for (int i = 0; i < epochs; ++i) {
-      getNN().fit(it, epochs);
+    Nd4j.getMemoryManager().togglePeriodicGc(false);
+    for(int i = startEpoch; i <= epochs; i++) {
+      triggerEpochListeners(true, i - 1);
+      if(wrapper != null) wrapper.fit(it);
+      else getNN().fit(it);
+      timer.setSplit("epoch");
+      appendTrainLog("Completed epoch " + i + " of " + epochs, timer.getLong("epoch"));
+      triggerEpochListeners(false, i - 1);
+      if(checkpointPath != null) saveCheckpoint(checkpointPath, "checkpoint_epoch" + i);
       it.reset();
-      appendTrainLog("Completed epoch " + i + " of " + numEpochs, timer.getLong("epoch"));
       Nd4j.getMemoryManager().invokeGc();
     }
+    if(wrapper != null) wrapper.shutdown();
     timer.stop();
     appendTrainLog("Training complete", timer.getLong());
     Nd4j.getMemoryManager().togglePeriodicGc(true);
@@ -274,26 +309,22 @@ public class SectorTagger extends Tagger {
     timer.start();
     appendTrainLog("Training " + getName() + " with " + numExamples + " examples in " + batches + " batches for " + numEpochs + " epochs.");
     // ParallelWrapper will take care of load balancing between GPUs.
-    /*ParallelWrapper wrapper = new ParallelWrapper.Builder(net)
-        .prefetchBuffer(24)  // DataSets prefetching options. Set this value with respect to number of actual devices
-        .workers(4)          // set number of workers equal or higher then number of available devices. x1-x2 are good values to start with
-        .averagingFrequency(1) // rare averaging improves performance, but might reduce model accuracy
-        .reportScoreAfterAveraging(true) // if set to TRUE, on every averaging model score will be reported
-        .build();*/
+    ParallelWrapper wrapper = createParallelWrapper();
     int n = 0;
     Nd4j.getMemoryManager().togglePeriodicGc(false);
     for(int i = 1; i <= numEpochs; i++) {
       appendTrainLog("Starting epoch " + i + " of " + numEpochs);
       triggerEpochListeners(true, i - 1);
-      getNN().fit(it);
-      //wrapper.fit(it);
+      if(wrapper != null) wrapper.fit(it);
+      else getNN().fit(it);
       n += numExamples;
       timer.setSplit("epoch");
-      appendTrainLog("Completed epoch " + i + " of " + numEpochs, timer.getLong("epoch"));
+      appendTrainLog("Completed epoch " + i + " of " + numEpochs + " using " + workers + " workers (" + (numExamples * 1000L / Math.max(1, timer.getLong("epoch"))) + " examples/s)", timer.getLong("epoch"));
       triggerEpochListeners(false, i - 1);
       if(i < numEpochs) it.reset(); // shuffling may take some time
       Nd4j.getMemoryManager().invokeGc();
     }
+    if(wrapper != null) wrapper.shutdown();
     timer.stop();
     appendTrainLog("Training complete", timer.getLong());
     Nd4j.getMemoryManager().togglePeriodicGc(true);
@@ -320,8 +351,9 @@ public class SectorTagger extends Tagger {
       }
     };
 
-    //EarlyStoppingParallelTrainer trainer = new EarlyStoppingParallelTrainer(conf, getNN(), null, trainIt, listener, 4, 4, 1, false, false);
-    EarlyStoppingGraphTrainer trainer = new EarlyStoppingGraphTrainer(conf, getNN(), trainIt, listener);
+    IEarlyStoppingTrainer<ComputationGraph> trainer = isParallelEarlyStopping() ?
+      new EarlyStoppingParallelTrainer<>(conf, getNN(), null, trainIt, listener, workers, workers * 4, averagingFrequency) :
+      new EarlyStoppingGraphTrainer(conf, getNN(), trainIt, listener);
     Nd4j.getMemoryManager().togglePeriodicGc(false);
     EarlyStoppingResult<ComputationGraph> result = trainer.fit();
     Nd4j.getMemoryManager().togglePeriodicGc(true);
@@ -422,6 +454,7 @@ public class SectorTagger extends Tagger {
   
   protected void attachVectors(DocumentSentenceIterator.DocumentBatch batch, Class<? extends Encoder> targetClass) {
     
+      long start = Metrics.start();
       Map<String,INDArray> weights = encodeMatrix(batch);
       
       INDArray target = weights.get("target"); // attach target class vectors
@@ -453,6 +486,7 @@ public class SectorTagger extends Tagger {
         }
         batchIndex++;
       }
+      Metrics.record(getClass(), "attachVectors", start, batch.docs.size());
   }
   
   /**
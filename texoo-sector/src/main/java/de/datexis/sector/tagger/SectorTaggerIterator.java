@@ -11,9 +11,11 @@ import de.datexis.sector.model.SectionAnnotation;
 import de.datexis.tagger.DocumentSentenceIterator;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -29,6 +31,9 @@ public class SectorTaggerIterator extends DocumentSentenceIterator {
   protected EncoderSet inputEncoders, targetEncoders;
   protected SectorTagger tagger;
   protected boolean requireSubsampling;
+
+  /** random stream of this iterator for subsampling */
+  protected Random random;
   
   public SectorTaggerIterator(Stage stage, Dataset dataset, SectorTagger tagger, int batchSize, boolean randomize, boolean useMultiClassLabels) {
     this(stage, dataset.getDocuments(), tagger, batchSize, randomize, useMultiClassLabels);
@@ -48,6 +53,7 @@ public class SectorTaggerIterator extends DocumentSentenceIterator {
     this.inputEncoders = new EncoderSet(tagger.bagEncoder, tagger.embEncoder, tagger.flagEncoder);
     this.targetEncoders = new EncoderSet(tagger.targetEncoder);
     this.requireSubsampling = requireSubsampling;
+    if(tagger.targetEncoder instanceof HeadingEncoder) this.random = ((HeadingEncoder) tagger.targetEncoder).createRandom(0);
     reset();
   }
   
@@ -104,6 +110,10 @@ public class SectorTaggerIterator extends DocumentSentenceIterator {
     
     INDArray encoding = Nd4j.zeros(input.size(), tagger.targetEncoder.getEmbeddingVectorSize(), maxTimeSteps);
     Document example;
+    
+    // collect the section of every time step, so that all sections of the batch are encoded at once
+    List<SectionAnnotation> sections = new ArrayList<>();
+    int[][] timeStepSections = new int[input.size()][];
 
     for(int batchIndex = 0; batchIndex < input.size(); batchIndex++) {
       example = input.get(batchIndex);
@@ -118,23 +128,49 @@ public class SectorTaggerIterator extends DocumentSentenceIterator {
         .collect(Collectors.toList());
 
       Iterator<SectionAnnotation> it = anns.iterator();
-      if(!it.hasNext()) return encoding; // no annotations
+      if(!it.hasNext()) break; // no annotations
       SectionAnnotation ann = it.next();
-      INDArray vec = encodeAnnotation(tagger.targetEncoder, ann);
+      sections.add(ann);
 
+      timeStepSections[batchIndex] = new int[Math.min(spansToEncode.size(), maxTimeSteps)];
       for(int t = 0; t < spansToEncode.size() && t < maxTimeSteps; t++) {
         Span s = spansToEncode.get(t);
         if(s.getBegin() >= ann.getEnd() && it.hasNext()) {
           // encode the next section
           ann = it.next();
-          vec = encodeAnnotation(tagger.targetEncoder, ann);
+          sections.add(ann);
         }
-        EncodingHelpers.putTimeStep(encoding, batchIndex, t, vec.dup());
+        timeStepSections[batchIndex][t] = sections.size() - 1;
       }
       
     }
+    if(sections.isEmpty()) return encoding;
+    
+    INDArray vectors = encodeAnnotations(tagger.targetEncoder, sections);
+    for(int batchIndex = 0; batchIndex < input.size(); batchIndex++) {
+      if(timeStepSections[batchIndex] == null) continue;
+      for(int t = 0; t < timeStepSections[batchIndex].length; t++) {
+        EncodingHelpers.putTimeStep(encoding, batchIndex, t, vectors.getRow(timeStepSections[batchIndex][t]));
+      }
+    }
     return encoding;
   }
+  
+  /**
+   * @return matrix [ sections X target vector size ]
+   */
+  protected INDArray encodeAnnotations(Encoder enc, List<SectionAnnotation> anns) {
+    if(enc instanceof HeadingEncoder && requireSubsampling) {
+      // subsample all headings of the batch at once
+      List<String> headings = anns.stream().map(SectionAnnotation::getSectionHeading).collect(Collectors.toList());
+      return ((HeadingEncoder) enc).encodeSubsampled(headings, random);
+    }
+    INDArray result = Nd4j.zeros(anns.size(), enc.getEmbeddingVectorSize());
+    for(int i = 0; i < anns.size(); i++) {
+      result.getRow(i).assign(encodeAnnotation(enc, anns.get(i)));
+    }
+    return result;
+  }
 
   protected INDArray encodeAnnotation(Encoder enc, SectionAnnotation ann) {
     if(enc instanceof HeadingEncoder) {
@@ -1,8 +1,10 @@
 package de.datexis.sector.eval;
 
+import de.datexis.sector.encoder.ClassEncoder;
 import org.deeplearning4j.eval.EvaluationUtils;
 import org.junit.Test;
 import org.nd4j.common.primitives.Pair;
+import org.nd4j.evaluation.classification.Evaluation;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -11,10 +13,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
 import static org.nd4j.linalg.indexing.NDArrayIndex.point;
 
 /**
@@ -117,4 +123,53 @@ public class SectorEvaluationTest {
     
   }
 
+  @Test
+  public void batchEvaluationShouldEqualExampleEvaluation() {
+    int numClasses = 20;
+    int n = 2500; // more than one chunk
+    List<String> classes = new ArrayList<>();
+    for(int c = 0; c < numClasses; c++) classes.add("class" + c);
+    ClassEncoder encoder = new ClassEncoder();
+    encoder.trainModel(classes, 1);
+    Random random = new Random(42);
+    double[][] y = new double[n][numClasses];
+    double[][] z = new double[n][numClasses];
+    for(int i = 0; i < n; i++) {
+      y[i][random.nextInt(numClasses)] = 1.;
+      for(int c = 0; c < numClasses; c++) z[i][c] = random.nextDouble();
+    }
+    INDArray labels = Nd4j.create(y);
+    INDArray predictions = Nd4j.create(z);
+    
+    ClassificationEvaluation expected = new ClassificationEvaluation("example", encoder);
+    for(int i = 0; i < n; i++) expected.evalExample(labels.getRow(i, true), predictions.getRow(i, true));
+    ClassificationEvaluation sequential = new ClassificationEvaluation("sequential", encoder).withParallelEnabled(false);
+    sequential.evalBatch(labels, predictions);
+    ClassificationEvaluation parallel = new ClassificationEvaluation("parallel", encoder).withParallelEnabled(true);
+    parallel.evalBatch(labels, predictions);
+    ClassificationEvaluation merged = new ClassificationEvaluation("merged", encoder);
+    merged.eval(labels.getRows(0, 1, 2), predictions.getRows(0, 1, 2));
+    ClassificationEvaluation other = new ClassificationEvaluation("other", encoder);
+    other.eval(labels.get(interval(3, n), all()), predictions.get(interval(3, n), all()));
+    merged.merge(other);
+    
+    for(ClassificationEvaluation eval : new ClassificationEvaluation[] {sequential, parallel, merged}) {
+      assertEquals(n, eval.countExamples(), 0.);
+      assertEquals(expected.getMAP(), eval.getMAP(), 1e-12);
+      assertEquals(expected.getMRR(), eval.getMRR(), 1e-12);
+      assertEquals(expected.getPrecision1(), eval.getPrecision1(), 1e-12);
+      assertEquals(expected.getPrecisionK(), eval.getPrecisionK(), 1e-12);
+      assertEquals(expected.getRecall1(), eval.getRecall1(), 1e-12);
+      assertEquals(expected.getRecallK(), eval.getRecallK(), 1e-12);
+      assertEquals(expected.getAccuracy(), eval.getAccuracy(), 1e-12);
+      assertEquals(expected.getAccuracyK(), eval.getAccuracyK(), 1e-12);
+      assertEquals(expected.getMacroF1(), eval.getMacroF1(), 1e-12);
+    }
+    Evaluation topK = new Evaluation(classes, 3);
+    topK.eval(labels, predictions);
+    assertEquals(topK.topNAccuracy(), parallel.getAccuracyK(), 1e-12);
+    assertEquals(sequential.getMAP(), parallel.getMAP(), 0.);
+    assertEquals(sequential.getRecallK(), parallel.getRecallK(), 0.);
+  }
+
 }
@@ -9,6 +9,7 @@ import de.datexis.model.Annotation;
 import de.datexis.model.Document;
 import de.datexis.model.Sentence;
 import de.datexis.model.Span;
+import de.datexis.preprocess.DocumentFactory;
 import de.datexis.sector.model.SectionAnnotation;
 
 import org.jetbrains.annotations.NotNull;
@@ -419,6 +420,82 @@ public class WindowDiffEvaluationTest {
     return predictedAnnotations;
   }
 
+  @Test
+  public void prefixSumWindowDiffShouldEqualWindowedLoop() {
+    Random random = new Random(42);
+    for(int run = 0; run < 1000; run++) {
+      int length = 1 + random.nextInt(60);
+      int[] reference = randomPositions(length, random);
+      int[] hypothesis = randomPositions(length, random);
+      int k = 2 + random.nextInt(10); // K is at least 2
+      assertEquals(windowDiffWithLoop(reference, hypothesis, k), windowDiffEvaluation.calculateWD(reference, hypothesis, k), 0.);
+    }
+  }
+
+  @Test
+  public void parallelEvaluationShouldEqualSequentialEvaluation() {
+    List<Document> docs = new ArrayList<>();
+    Random random = new Random(42);
+    for(int d = 0; d < 50; d++) {
+      StringBuilder text = new StringBuilder();
+      int sentences = 5 + random.nextInt(30);
+      for(int s = 0; s < sentences; s++) text.append("This is sentence number ").append(s).append(". ");
+      Document document = DocumentFactory.fromText(text.toString().trim());
+      for(Annotation.Source source : Arrays.asList(Annotation.Source.GOLD, Annotation.Source.PRED)) {
+        int begin = 0;
+        for(int s = 1; s <= document.countSentences(); s++) {
+          if(s == document.countSentences() || random.nextInt(5) == 0) {
+            int end = document.getSentence(s - 1).getEnd();
+            document.addAnnotation(createSectionAnnotation(document.getSentence(begin).getBegin(), end, source));
+            begin = s;
+          }
+        }
+      }
+      docs.add(document);
+    }
+    for(boolean recalculateK : Arrays.asList(false, true)) {
+      SegmentationEvaluation parallel = new SegmentationEvaluation("parallel").withRecalculateK(recalculateK);
+      SegmentationEvaluation sequential = new SegmentationEvaluation("sequential").withRecalculateK(recalculateK).withParallelEnabled(false);
+      parallel.calculateScores(docs);
+      sequential.calculateScores(docs);
+      assertEquals(sequential.getWD(), parallel.getWD(), 0.);
+      assertEquals(sequential.getPk(), parallel.getPk(), 0.);
+      assertEquals(sequential.getCountExpected(), parallel.getCountExpected(), 0.);
+      assertEquals(sequential.getCountPredicted(), parallel.getCountPredicted(), 0.);
+    }
+  }
+
+  private int[] randomPositions(int length, Random random) {
+    int[] positions = new int[length];
+    int section = 1;
+    for(int t = 0; t < length; t++) {
+      if(t > 0 && random.nextInt(4) == 0) section++;
+      positions[t] = section;
+    }
+    return positions;
+  }
+
+  /**
+   * WD with a loop over every window
+   */
+  private double windowDiffWithLoop(int[] reference, int[] hypothesis, int k) {
+    double sum = 0;
+    double count = 0;
+    for(int t = 0; t < reference.length - k; t++) {
+      int sumRef = 0;
+      int sumHyp = 0;
+      for(int j = 0; j < k; j++) {
+        if(reference[t + j] == reference[t + j + 1]) sumRef++;
+        if(hypothesis[t + j] == hypothesis[t + j + 1]) sumHyp++;
+      }
+      if(sumRef != sumHyp) sum++;
+      count++;
+    }
+    if(reference.length == 2) return (reference[0] == reference[1]) == (hypothesis[0] == hypothesis[1]) ? 0. : 1.;
+    if(reference.length == 1) return 0.;
+    return count > 0 ? sum / count : 0.;
+  }
+
   private Document createDocumentWithNSentences(int n) {
     Document document = new Document();
     for(int i = 0; i < n; i++) {